@@ -0,0 +1,73 @@
+package name.pomelo.protobuf_trial.test.benchmark;
+
+import name.pomelo.protobuf_trial.test.common.ChallengeGenerator;
+import name.pomelo.protobuf_trial.test.common.UtilsForLoginChallenge;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.SplittableRandom;
+import java.util.concurrent.TimeUnit;
+
+// ---
+// Issuing and checking "Login challenges": taking a product from the ChallengeGenerator pool
+// (what the I/O threads do), generating one on the spot (what the pool saves them), and checking a solution.
+// Run with: mvn -Pjmh test-compile exec:exec -Djmh.args="BenchChallenge"
+// ---
+
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class BenchChallenge {
+
+    @Param({"10", "20", "31"})
+    public int primeBits;
+
+    private ChallengeGenerator generator;
+    private SplittableRandom rng;
+    private long a;
+    private long b;
+    private long product;
+
+    @Setup
+    public void setup() {
+        generator = new ChallengeGenerator(primeBits, ChallengeGenerator.DEFAULT_POOL_CAPACITY).start();
+        rng = new SplittableRandom();
+        a = UtilsForLoginChallenge.randomPrime(primeBits, rng);
+        b = UtilsForLoginChallenge.randomPrime(primeBits, rng);
+        product = a * b;
+    }
+
+    @TearDown
+    public void tearDown() {
+        System.out.println("Pool misses: " + generator.getPoolMissCount() + " of " + (generator.getGeneratedCount() + generator.getPoolMissCount()));
+        generator.close();
+    }
+
+    @Benchmark
+    public long take() {
+        return generator.take();
+    }
+
+    @Benchmark
+    public long generateInline() {
+        return UtilsForLoginChallenge.randomPrime(primeBits, rng) * UtilsForLoginChallenge.randomPrime(primeBits, rng);
+    }
+
+    @Benchmark
+    public boolean isSolution() {
+        return UtilsForLoginChallenge.isSolution(a, b, product);
+    }
+}
@@ -0,0 +1,89 @@
+package name.pomelo.protobuf_trial.test.benchmark;
+
+import com.google.protobuf.InvalidProtocolBufferException;
+import name.pomelo.protobuf_trial.protos.ClientToServer;
+import name.pomelo.protobuf_trial.test.common.CommonData;
+import name.pomelo.protobuf_trial.test.common.UtilsForProtobufClientToServerMsgs;
+import name.pomelo.protobuf_trial.test.common.UuidEncoding;
+import org.jetbrains.annotations.NotNull;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+import static name.pomelo.protobuf_trial.test.common.UtilsForProtobufClientToServerMsgs.*;
+
+// ---
+// Build, serialize, deserialize and verify a ClientToServer message, for each payload type
+// and each encoding of the exchange UUIDs (the serialized size is printed at setup).
+// Run with: mvn -Pjmh test-compile exec:exec -Djmh.args="BenchClientToServer"
+// ---
+
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class BenchClientToServer {
+
+    @Param({"LOGIN_REQUEST", "LOGIN_CHALLENGE_SOLVED", "LOGIN_FOLLOWUP", "LOGIN_CLOSE"})
+    public String payloadType;
+
+    // How the exchange UUIDs of CommonStuff are encoded, UuidSimple (varint) or UuidFixed (fixed64)
+    @Param({"SIMPLE", "FIXED"})
+    public String uuidEncoding;
+
+    private CommonData commonData;
+    private ClientToServer msg;
+    private byte[] bytes;
+
+    @Setup
+    public void setup() {
+        commonData = CommonData.generateRandomCommonData().withUuidEncoding(UuidEncoding.valueOf(uuidEncoding));
+        msg = build(ClientToServer.PayloadType.valueOf(payloadType), commonData);
+        bytes = msg.toByteArray();
+        // The bytes on the wire, which JMH does not measure
+        System.out.println(payloadType + " with " + uuidEncoding + " UUIDs: " + bytes.length + " bytes");
+    }
+
+    private static @NotNull ClientToServer build(@NotNull ClientToServer.PayloadType type, @NotNull CommonData cd) {
+        return switch (type) {
+            case LOGIN_REQUEST -> buildLoginRequest(cd);
+            case LOGIN_CHALLENGE_SOLVED -> buildLoginChallengeSolved(383, 997, cd);
+            case LOGIN_FOLLOWUP -> buildLoginFollowup("john doe", cd);
+            case LOGIN_CLOSE -> buildLoginFinish(cd);
+            default -> throw new IllegalArgumentException("No builder for payload type " + type);
+        };
+    }
+
+    @Benchmark
+    public ClientToServer build() {
+        return build(msg.getPayloadType(), commonData);
+    }
+
+    @Benchmark
+    public byte[] serialize() {
+        return msg.toByteArray();
+    }
+
+    @Benchmark
+    public ClientToServer deserialize() throws InvalidProtocolBufferException {
+        return ClientToServer.parseFrom(bytes);
+    }
+
+    @Benchmark
+    public ClientToServer verify() {
+        UtilsForProtobufClientToServerMsgs.verifyClientToServerMessage(msg);
+        return msg;
+    }
+}
@@ -0,0 +1,49 @@
+package name.pomelo.protobuf_trial.test.benchmark;
+
+import name.pomelo.protobuf_trial.protos.CommonStuff;
+import name.pomelo.protobuf_trial.test.common.CommonData;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+// ---
+// Conversion between CommonData and the CommonStuff sub-message, done once per message sent or answered.
+// Run with: mvn -Pjmh test-compile exec:exec -Djmh.args="BenchCommonData"
+// ---
+
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class BenchCommonData {
+
+    private CommonData commonData;
+    private CommonStuff commonStuff;
+
+    @Setup
+    public void setup() {
+        commonData = CommonData.generateRandomCommonData();
+        commonStuff = commonData.toProtobufCommonStuff();
+    }
+
+    @Benchmark
+    public CommonStuff toProtobufCommonStuff() {
+        return commonData.toProtobufCommonStuff();
+    }
+
+    @Benchmark
+    public CommonData fromProtobufCommonStuff() {
+        return CommonData.fromProtobufCommonStuff(commonStuff);
+    }
+}
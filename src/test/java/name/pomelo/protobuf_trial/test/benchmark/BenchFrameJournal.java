@@ -0,0 +1,97 @@
+package name.pomelo.protobuf_trial.test.benchmark;
+
+import name.pomelo.protobuf_trial.protos.ClientToServer;
+import name.pomelo.protobuf_trial.test.common.CommonData;
+import name.pomelo.protobuf_trial.test.common.FrameJournal;
+import name.pomelo.protobuf_trial.test.common.FrameJournalReader;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+import static name.pomelo.protobuf_trial.test.common.UtilsForProtobufClientToServerMsgs.buildLoginFollowup;
+
+// ---
+// Appending a typical ClientToServer frame to the FrameJournal, from one thread and from four
+// (contending on the tail of the segment), and reading back a segment of such frames.
+// The journal goes to a temporary directory, which is deleted afterwards.
+// Run with: mvn -Pjmh test-compile exec:exec -Djmh.args="BenchFrameJournal"
+// ---
+
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class BenchFrameJournal {
+
+    private Path dir;
+    private FrameJournal journal;
+    private ByteBuffer msg;
+    private Path segment;
+
+    @Setup
+    public void setup() throws IOException {
+        dir = Files.createTempDirectory("bench-journal");
+        journal = new FrameJournal(dir);
+        final ClientToServer c2s = buildLoginFollowup("John Doe", CommonData.generateRandomCommonData());
+        msg = ByteBuffer.allocateDirect(c2s.getSerializedSize());
+        msg.put(c2s.toByteArray()).flip();
+        // A segment of such frames to read
+        final Path readDir = dir.resolve("read");
+        try (FrameJournal toRead = new FrameJournal(readDir, 1024 * 1024)) {
+            for (int i = 0; i < 10_000; i++) {
+                toRead.append(FrameJournal.CLIENT_TO_SERVER, msg, 0, msg.remaining());
+            }
+        }
+        segment = FrameJournalReader.segments(readDir).getFirst();
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        journal.close();
+        try (Stream<Path> files = Files.walk(dir)) {
+            files.sorted(Comparator.reverseOrder()).forEach(p -> p.toFile().delete());
+        }
+    }
+
+    @Benchmark
+    public void append() {
+        journal.append(FrameJournal.CLIENT_TO_SERVER, msg, 0, msg.remaining());
+    }
+
+    @Benchmark
+    @Threads(4)
+    public void appendContended() {
+        journal.append(FrameJournal.CLIENT_TO_SERVER, msg, 0, msg.remaining());
+    }
+
+    // Per operation: 10_000 frames scanned and parsed
+
+    @Benchmark
+    public long readSegment() throws IOException {
+        final FrameJournalReader reader = FrameJournalReader.open(segment);
+        long sum = 0;
+        while (reader.next()) {
+            sum += reader.parseClientToServer().getCommonStuff().getSeqNum();
+        }
+        return sum;
+    }
+}
@@ -0,0 +1,59 @@
+package name.pomelo.protobuf_trial.test.benchmark;
+
+import com.google.protobuf.InvalidProtocolBufferException;
+import com.google.protobuf.util.JsonFormat;
+import name.pomelo.protobuf_trial.protos.ClientToServer;
+import name.pomelo.protobuf_trial.protos.ServerToClient;
+import name.pomelo.protobuf_trial.test.common.CommonData;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+import static name.pomelo.protobuf_trial.test.common.UtilsForProtobufClientToServerMsgs.buildLoginFollowup;
+import static name.pomelo.protobuf_trial.test.common.UtilsForProtobufServerToClientMsgs.buildLoginGenericFailure;
+
+// ---
+// Printing messages as JSON, as done by printAsJson() (minus the actual printing to stdout).
+// Run with: mvn -Pjmh test-compile exec:exec -Djmh.args="BenchJsonFormat"
+// ---
+
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class BenchJsonFormat {
+
+    private final JsonFormat.Printer printer = JsonFormat.printer();
+
+    private ClientToServer c2s;
+    private ServerToClient s2c;
+
+    @Setup
+    public void setup() {
+        final CommonData cd = CommonData.generateRandomCommonData();
+        c2s = buildLoginFollowup("john doe", cd);
+        // The largest message there is: a failure carrying its cause
+        s2c = buildLoginGenericFailure("LOGIN_FOLLOWUP is not allowed in state CHALLENGE_ISSUED", c2s, cd);
+    }
+
+    @Benchmark
+    public String printClientToServer() throws InvalidProtocolBufferException {
+        return printer.print(c2s);
+    }
+
+    @Benchmark
+    public String printServerToClient() throws InvalidProtocolBufferException {
+        return printer.print(s2c);
+    }
+}
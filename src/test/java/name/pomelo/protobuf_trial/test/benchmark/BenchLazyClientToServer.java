@@ -0,0 +1,66 @@
+package name.pomelo.protobuf_trial.test.benchmark;
+
+import com.google.protobuf.InvalidProtocolBufferException;
+import name.pomelo.protobuf_trial.protos.ClientToServer;
+import name.pomelo.protobuf_trial.test.common.CommonData;
+import name.pomelo.protobuf_trial.test.common.LazyClientToServer;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.TimeUnit;
+
+import static name.pomelo.protobuf_trial.test.common.UtilsForProtobufClientToServerMsgs.buildLoginFollowup;
+
+// ---
+// A LOGIN_FOLLOWUP in a direct buffer, parsed with ClientToServer.parseFrom() against
+// LazyClientToServer, which leaves the username in the buffer until it is read.
+// Run with: mvn -Pjmh test-compile exec:exec -Djmh.args="BenchLazyClientToServer"
+// ---
+
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class BenchLazyClientToServer {
+
+    private ByteBuffer msg;
+
+    @Setup
+    public void setup() {
+        final byte[] bytes = buildLoginFollowup("john doe", CommonData.generateRandomCommonData()).toByteArray();
+        msg = ByteBuffer.allocateDirect(bytes.length);
+        msg.put(bytes).flip();
+    }
+
+    @Benchmark
+    public String usernameFull() throws InvalidProtocolBufferException {
+        return ClientToServer.parseFrom(msg.duplicate()).getLoginFollowup().getUsername();
+    }
+
+    @Benchmark
+    public String usernameLazy() throws InvalidProtocolBufferException {
+        try (LazyClientToServer lazy = LazyClientToServer.parse(msg)) {
+            return lazy.getUsername();
+        }
+    }
+
+    // The username is never read, e.g. a message routed on its header
+
+    @Benchmark
+    public int seqNumLazy() throws InvalidProtocolBufferException {
+        try (LazyClientToServer lazy = LazyClientToServer.parse(msg)) {
+            return lazy.getCommonStuff().getSeqNum();
+        }
+    }
+}
@@ -0,0 +1,69 @@
+package name.pomelo.protobuf_trial.test.benchmark;
+
+import com.google.protobuf.InvalidProtocolBufferException;
+import name.pomelo.protobuf_trial.protos.ServerToClient;
+import name.pomelo.protobuf_trial.test.common.CommonData;
+import name.pomelo.protobuf_trial.test.common.LazyServerToClient;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.TimeUnit;
+
+import static name.pomelo.protobuf_trial.test.common.UtilsForProtobufClientToServerMsgs.buildLoginFollowup;
+import static name.pomelo.protobuf_trial.test.common.UtilsForProtobufServerToClientMsgs.buildLoginGenericFailure;
+
+// ---
+// Getting at the "msg" of a LOGIN_GENERIC_FAILURE (whose "cause" is a whole ClientToServer) from a
+// direct buffer: parsing everything, against LazyServerToClient, which leaves the cause as a slice
+// of the buffer; and getting at the payload type only, parsing everything or the header only.
+// Run with: mvn -Pjmh test-compile exec:exec -Djmh.args="BenchLazyFailure"
+// ---
+
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class BenchLazyFailure {
+
+    private ByteBuffer msg;
+
+    @Setup
+    public void setup() {
+        final CommonData cd = CommonData.generateRandomCommonData();
+        final byte[] bytes = buildLoginGenericFailure("LOGIN_FOLLOWUP is not allowed in state CHALLENGE_ISSUED",
+                buildLoginFollowup("john doe", cd), cd).toByteArray();
+        msg = ByteBuffer.allocateDirect(bytes.length);
+        msg.put(bytes).flip();
+    }
+
+    @Benchmark
+    public String failureMsgFull() throws InvalidProtocolBufferException {
+        return ServerToClient.parseFrom(msg.duplicate()).getLoginGenericFailure().getMsg();
+    }
+
+    @Benchmark
+    public String failureMsgLazy() throws InvalidProtocolBufferException {
+        return LazyServerToClient.parse(msg).getFailureMsg();
+    }
+
+    @Benchmark
+    public ServerToClient.PayloadType payloadTypeFull() throws InvalidProtocolBufferException {
+        return ServerToClient.parseFrom(msg.duplicate()).getPayloadType();
+    }
+
+    @Benchmark
+    public ServerToClient.PayloadType payloadTypeHeaderOnly() throws InvalidProtocolBufferException {
+        return LazyServerToClient.parseHeader(msg).getPayloadType();
+    }
+}
@@ -0,0 +1,84 @@
+package name.pomelo.protobuf_trial.test.benchmark;
+
+import name.pomelo.protobuf_trial.protos.ServerToClient;
+import name.pomelo.protobuf_trial.test.common.CommonData;
+import name.pomelo.protobuf_trial.test.common.LoginMetrics;
+import name.pomelo.protobuf_trial.test.common.MessageScanner;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.TimeUnit;
+
+import static name.pomelo.protobuf_trial.test.common.UtilsForProtobufClientToServerMsgs.buildLoginFollowup;
+
+// ---
+// What the metrics add per packet: verifying a typical ClientToServer frame with a bare
+// MessageScanner, against doing so through a LoginMetrics.Recorder that also counts the frame,
+// times one frame in 16 and counts a response, from one thread and from four.
+// Run with: mvn -Pjmh test-compile exec:exec -Djmh.args="BenchLoginMetrics"
+// ---
+
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class BenchLoginMetrics {
+
+    @State(Scope.Benchmark)
+    public static class Shared {
+
+        private final LoginMetrics metrics = new LoginMetrics();
+        private ByteBuffer msg;
+
+        @Setup
+        public void setup() {
+            final byte[] bytes = buildLoginFollowup("John Doe", CommonData.generateRandomCommonData()).toByteArray();
+            msg = ByteBuffer.allocateDirect(bytes.length);
+            msg.put(bytes).flip();
+        }
+    }
+
+    // Like an I/O thread: a scanner and a recorder of its own
+
+    @State(Scope.Thread)
+    public static class PerThread {
+
+        private final MessageScanner scanner = new MessageScanner();
+        private LoginMetrics.Recorder recorder;
+
+        @Setup
+        public void setup(Shared shared) {
+            recorder = shared.metrics.recording(scanner);
+        }
+    }
+
+    @Benchmark
+    public int verify(Shared shared, PerThread thread) {
+        return thread.scanner.validate(shared.msg, 0, shared.msg.limit());
+    }
+
+    @Benchmark
+    public int verifyWithMetrics(Shared shared, PerThread thread) {
+        final int result = thread.recorder.validate(shared.msg, 0, shared.msg.limit());
+        thread.recorder.parsed();
+        thread.recorder.sent(ServerToClient.PayloadType.LOGIN_FOLLOWUP_ANSWER_OK_VALUE, 40);
+        return result;
+    }
+
+    @Benchmark
+    @Threads(4)
+    public int verifyWithMetricsContended(Shared shared, PerThread thread) {
+        return verifyWithMetrics(shared, thread);
+    }
+}
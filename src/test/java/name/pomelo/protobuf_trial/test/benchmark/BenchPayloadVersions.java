@@ -0,0 +1,114 @@
+package name.pomelo.protobuf_trial.test.benchmark;
+
+import com.google.protobuf.InvalidProtocolBufferException;
+import name.pomelo.protobuf_trial.protos.ClientToServer;
+import name.pomelo.protobuf_trial.protos.ClientToServerV2;
+import name.pomelo.protobuf_trial.test.common.CommonData;
+import name.pomelo.protobuf_trial.test.common.DualVersionParser;
+import name.pomelo.protobuf_trial.test.common.UtilsForProtobufClientToServerMsgs;
+import name.pomelo.protobuf_trial.test.common.UtilsForProtobufV2;
+import name.pomelo.protobuf_trial.test.common.UuidEncoding;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.TimeUnit;
+
+import static name.pomelo.protobuf_trial.test.common.UtilsForProtobufClientToServerMsgs.*;
+
+// ---
+// Version 1 (payload_type enum and payload sub-messages side by side) against version 2 (oneof)
+// of ClientToServer: serializing, and parsing plus verifying from a direct buffer as a server
+// does, each version with its own parser, then both through the DualVersionParser of the rollout.
+// The serialized sizes are printed at setup.
+// Run with: mvn -Pjmh test-compile exec:exec -Djmh.args="BenchPayloadVersions"
+// ---
+
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class BenchPayloadVersions {
+
+    @Param({"LOGIN_REQUEST", "LOGIN_CHALLENGE_SOLVED", "LOGIN_FOLLOWUP"})
+    public String payloadType;
+
+    private final DualVersionParser<ClientToServer, ClientToServerV2> dualParser = DualVersionParser.forClientToServer();
+
+    private ClientToServer v1;
+    private ClientToServerV2 v2;
+    private ByteBuffer v1Bytes;
+    private ByteBuffer v2Bytes;
+
+    @Setup
+    public void setup() {
+        final CommonData cd = CommonData.generateRandomCommonData().withUuidEncoding(UuidEncoding.FIXED);
+        v1 = switch (ClientToServer.PayloadType.valueOf(payloadType)) {
+            case LOGIN_REQUEST -> buildLoginRequest(cd);
+            case LOGIN_CHALLENGE_SOLVED -> buildLoginChallengeSolved(383, 997, cd);
+            case LOGIN_FOLLOWUP -> buildLoginFollowup("john doe", cd);
+            default -> throw new IllegalArgumentException("No builder for payload type " + payloadType);
+        };
+        v2 = UtilsForProtobufV2.toV2(v1);
+        v1Bytes = direct(v1.toByteArray());
+        v2Bytes = direct(v2.toByteArray());
+        System.out.println(payloadType + ": " + v1Bytes.limit() + " bytes in version 1, " + v2Bytes.limit() + " in version 2");
+    }
+
+    private static ByteBuffer direct(byte[] bytes) {
+        final ByteBuffer buf = ByteBuffer.allocateDirect(bytes.length);
+        buf.put(bytes).flip();
+        return buf;
+    }
+
+    @Benchmark
+    public byte[] serializeV1() {
+        return v1.toByteArray();
+    }
+
+    @Benchmark
+    public byte[] serializeV2() {
+        return v2.toByteArray();
+    }
+
+    @Benchmark
+    public ClientToServer parseAndVerifyV1() throws InvalidProtocolBufferException {
+        final ClientToServer msg = ClientToServer.parseFrom(v1Bytes.duplicate());
+        UtilsForProtobufClientToServerMsgs.verifyClientToServerMessage(msg);
+        return msg;
+    }
+
+    @Benchmark
+    public ClientToServerV2 parseAndVerifyV2() throws InvalidProtocolBufferException {
+        final ClientToServerV2 msg = ClientToServerV2.parseFrom(v2Bytes.duplicate());
+        UtilsForProtobufV2.verifyClientToServerMessage(msg);
+        return msg;
+    }
+
+    // During the rollout: a version 1 message is parsed and converted
+
+    @Benchmark
+    public ClientToServerV2 dualParseAndVerifyV1() throws InvalidProtocolBufferException {
+        final ClientToServerV2 msg = dualParser.parseFrom(v1Bytes.duplicate());
+        UtilsForProtobufV2.verifyClientToServerMessage(msg);
+        return msg;
+    }
+
+    @Benchmark
+    public ClientToServerV2 dualParseAndVerifyV2() throws InvalidProtocolBufferException {
+        final ClientToServerV2 msg = dualParser.parseFrom(v2Bytes.duplicate());
+        UtilsForProtobufV2.verifyClientToServerMessage(msg);
+        return msg;
+    }
+}
@@ -0,0 +1,79 @@
+package name.pomelo.protobuf_trial.test.benchmark;
+
+import name.pomelo.protobuf_trial.test.common.FilePlayerStore;
+import name.pomelo.protobuf_trial.test.common.PlayerDirectory;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+// ---
+// Looking up the player of a LOGIN_FOLLOWUP among 100_000, with a skewed popularity (half of the
+// logins by 1% of the players): straight from the FilePlayerStore, against through a PlayerDirectory
+// caching 10_000 of them.
+// Run with: mvn -Pjmh test-compile exec:exec -Djmh.args="BenchPlayerDirectory"
+// ---
+
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class BenchPlayerDirectory {
+
+    private final static int PLAYERS = 100_000;
+
+    private Path dir;
+    private FilePlayerStore store;
+    private PlayerDirectory players;
+    private final String[] usernames = new String[4096];
+    private int next;
+
+    @Setup
+    public void setup() throws IOException {
+        dir = Files.createTempDirectory("bench-players");
+        store = new FilePlayerStore(dir.resolve("players"));
+        for (int i = 0; i < PLAYERS; i++) {
+            store.register("player " + i, i + 1, i + 1);
+        }
+        players = new PlayerDirectory(store, PLAYERS / 10);
+        final Random random = new Random(42);
+        for (int i = 0; i < usernames.length; i++) {
+            usernames[i] = "player " + (random.nextBoolean() ? random.nextInt(PLAYERS / 100) : random.nextInt(PLAYERS));
+        }
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        players.close();
+        try (Stream<Path> files = Files.walk(dir)) {
+            files.sorted(Comparator.reverseOrder()).forEach(p -> p.toFile().delete());
+        }
+    }
+
+    @Benchmark
+    public PlayerDirectory.Player fromStore() throws IOException {
+        return store.find(usernames[next++ & (usernames.length - 1)]);
+    }
+
+    @Benchmark
+    public PlayerDirectory.Player fromDirectory() {
+        return players.resolve(usernames[next++ & (usernames.length - 1)]);
+    }
+}
@@ -0,0 +1,73 @@
+package name.pomelo.protobuf_trial.test.benchmark;
+
+import name.pomelo.protobuf_trial.protos.ServerToClient;
+import name.pomelo.protobuf_trial.test.common.CommonData;
+import name.pomelo.protobuf_trial.test.common.ServerToClientTemplate;
+import name.pomelo.protobuf_trial.test.common.UtilsForProtobufFraming;
+import name.pomelo.protobuf_trial.test.common.UuidEncoding;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.TimeUnit;
+
+import static name.pomelo.protobuf_trial.test.common.UtilsForProtobufServerToClientMsgs.buildLoginChallengeSolvedAnswerOk;
+
+// ---
+// A LOGIN_CHALLENGE_SOLVED_ANSWER_OK (which is all CommonStuff) made by the builder, as a byte array
+// or as a frame in a direct buffer, against the same out of its ServerToClientTemplate.
+// Run with: mvn -Pjmh test-compile exec:exec -Djmh.args="BenchResponseTemplates"
+// ---
+
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class BenchResponseTemplates {
+
+    @Param({"SIMPLE", "FIXED"})
+    public UuidEncoding uuidEncoding;
+
+    private final ServerToClientTemplate template = ServerToClientTemplate.of(ServerToClient.PayloadType.LOGIN_CHALLENGE_SOLVED_ANSWER_OK);
+    private final ByteBuffer dst = ByteBuffer.allocateDirect(256);
+    private CommonData cd;
+
+    @Setup
+    public void setup() {
+        cd = CommonData.generateRandomCommonData().withUuidEncoding(uuidEncoding);
+    }
+
+    @Benchmark
+    public byte[] builderToByteArray() {
+        return buildLoginChallengeSolvedAnswerOk(cd).toByteArray();
+    }
+
+    @Benchmark
+    public byte[] templateToByteArray() {
+        return template.toByteArray(cd);
+    }
+
+    @Benchmark
+    public int builderWriteFrame() {
+        dst.clear();
+        UtilsForProtobufFraming.writeFrameUnchecked(buildLoginChallengeSolvedAnswerOk(cd), dst);
+        return dst.position();
+    }
+
+    @Benchmark
+    public int templateWriteFrame() {
+        dst.clear();
+        return template.writeFrame(dst, cd);
+    }
+}
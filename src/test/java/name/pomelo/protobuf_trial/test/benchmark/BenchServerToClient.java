@@ -0,0 +1,140 @@
+package name.pomelo.protobuf_trial.test.benchmark;
+
+import com.google.protobuf.InvalidProtocolBufferException;
+import name.pomelo.protobuf_trial.protos.ClientToServer;
+import name.pomelo.protobuf_trial.protos.ServerToClient;
+import name.pomelo.protobuf_trial.test.common.CommonData;
+import name.pomelo.protobuf_trial.test.common.ServerToClientWriter;
+import name.pomelo.protobuf_trial.test.common.UtilsForProtobufClientToServerMsgs;
+import name.pomelo.protobuf_trial.test.common.UtilsForProtobufFraming;
+import name.pomelo.protobuf_trial.test.common.UtilsForProtobufServerToClientMsgs;
+import name.pomelo.protobuf_trial.test.common.UuidEncoding;
+import org.jetbrains.annotations.NotNull;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.nio.ByteBuffer;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+import static name.pomelo.protobuf_trial.test.common.UtilsForProtobufServerToClientMsgs.*;
+
+// ---
+// Build, serialize, deserialize and verify a ServerToClient message, and write it as a frame
+// with and without ServerToClientWriter, for each payload type
+// and each encoding of the exchange UUIDs (the serialized size is printed at setup).
+// Run with: mvn -Pjmh test-compile exec:exec -Djmh.args="BenchServerToClient"
+// ---
+
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class BenchServerToClient {
+
+    @Param({"GENERIC_FAILURE", "LOGIN_GENERIC_FAILURE", "LOGIN_CHALLENGE", "LOGIN_REQUEST_ANSWER_OK",
+            "LOGIN_REQUEST_ANSWER_FAILURE", "LOGIN_FOLLOWUP_ANSWER_OK", "LOGIN_FOLLOWUP_ANSWER_FAILURE",
+            "LOGIN_CHALLENGE_SOLVED_ANSWER_OK", "LOGIN_CHALLENGE_SOLVED_ANSWER_FAILURE"})
+    public String payloadType;
+
+    // How the exchange UUIDs of CommonStuff are encoded, UuidSimple (varint) or UuidFixed (fixed64)
+    @Param({"SIMPLE", "FIXED"})
+    public String uuidEncoding;
+
+    private CommonData commonData;
+    private ClientToServer cause;
+    private UUID playerUuid;
+    private ServerToClient msg;
+    private byte[] bytes;
+    private ServerToClientWriter writer;
+    private ByteBuffer frameBuf;
+
+    @Setup
+    public void setup() {
+        commonData = CommonData.generateRandomCommonData().withUuidEncoding(UuidEncoding.valueOf(uuidEncoding));
+        cause = UtilsForProtobufClientToServerMsgs.buildLoginFollowup("john doe", commonData);
+        playerUuid = UUID.randomUUID();
+        msg = build(ServerToClient.PayloadType.valueOf(payloadType));
+        bytes = msg.toByteArray();
+        writer = new ServerToClientWriter();
+        writer.setCommon(commonData);
+        frameBuf = ByteBuffer.allocateDirect(4096);
+        // The bytes on the wire, which JMH does not measure
+        System.out.println(payloadType + " with " + uuidEncoding + " UUIDs: " + bytes.length + " bytes");
+    }
+
+    private @NotNull ServerToClient build(@NotNull ServerToClient.PayloadType type) {
+        return switch (type) {
+            case GENERIC_FAILURE -> buildGenericFailure("Something went wrong", cause, commonData);
+            case LOGIN_GENERIC_FAILURE -> buildLoginGenericFailure("LOGIN_FOLLOWUP is not allowed in state CHALLENGE_ISSUED", cause, commonData);
+            case LOGIN_CHALLENGE -> buildLoginChallenge(383 * 997, commonData);
+            case LOGIN_REQUEST_ANSWER_OK -> buildLoginRequestAnswerOk(commonData);
+            case LOGIN_REQUEST_ANSWER_FAILURE -> buildLoginRequestAnswerFailure("Server is full", commonData);
+            case LOGIN_FOLLOWUP_ANSWER_OK -> buildLoginFollowupAnswerOk(playerUuid, "john doe", commonData);
+            case LOGIN_FOLLOWUP_ANSWER_FAILURE -> buildLoginFollowupAnswerFailure(commonData);
+            case LOGIN_CHALLENGE_SOLVED_ANSWER_OK -> buildLoginChallengeSolvedAnswerOk(commonData);
+            case LOGIN_CHALLENGE_SOLVED_ANSWER_FAILURE -> buildLoginChallengeSolvedAnswerFailure(commonData);
+            default -> throw new IllegalArgumentException("No builder for payload type " + type);
+        };
+    }
+
+    @Benchmark
+    public ServerToClient build() {
+        return build(msg.getPayloadType());
+    }
+
+    @Benchmark
+    public byte[] serialize() {
+        return msg.toByteArray();
+    }
+
+    // The response path of the login servers before and after ServerToClientWriter:
+    // build the message and write its frame, or write the frame field by field
+
+    @Benchmark
+    public ByteBuffer buildAndWriteFrame() {
+        frameBuf.clear();
+        UtilsForProtobufFraming.writeFrameUnchecked(build(msg.getPayloadType()), frameBuf);
+        return frameBuf;
+    }
+
+    @Benchmark
+    public ByteBuffer writerWriteFrame() {
+        frameBuf.clear();
+        switch (msg.getPayloadType()) {
+            case GENERIC_FAILURE -> writer.writeGenericFailure(frameBuf, "Something went wrong", cause);
+            case LOGIN_GENERIC_FAILURE -> writer.writeLoginGenericFailure(frameBuf, "LOGIN_FOLLOWUP is not allowed in state CHALLENGE_ISSUED", cause);
+            case LOGIN_CHALLENGE -> writer.writeLoginChallenge(frameBuf, 383 * 997);
+            case LOGIN_REQUEST_ANSWER_OK -> writer.writeLoginRequestAnswerOk(frameBuf);
+            case LOGIN_REQUEST_ANSWER_FAILURE -> writer.writeLoginRequestAnswerFailure(frameBuf, "Server is full");
+            case LOGIN_FOLLOWUP_ANSWER_OK -> writer.writeLoginFollowupAnswerOk(frameBuf, playerUuid.getMostSignificantBits(), playerUuid.getLeastSignificantBits(), "john doe");
+            case LOGIN_FOLLOWUP_ANSWER_FAILURE -> writer.writeLoginFollowupAnswerFailure(frameBuf);
+            case LOGIN_CHALLENGE_SOLVED_ANSWER_OK -> writer.writeLoginChallengeSolvedAnswerOk(frameBuf);
+            case LOGIN_CHALLENGE_SOLVED_ANSWER_FAILURE -> writer.writeLoginChallengeSolvedAnswerFailure(frameBuf);
+            default -> throw new IllegalArgumentException("No writer for payload type " + msg.getPayloadType());
+        }
+        return frameBuf;
+    }
+
+    @Benchmark
+    public ServerToClient deserialize() throws InvalidProtocolBufferException {
+        return ServerToClient.parseFrom(bytes);
+    }
+
+    @Benchmark
+    public ServerToClient verify() {
+        UtilsForProtobufServerToClientMsgs.verifyServerToClientMessage(msg);
+        return msg;
+    }
+}
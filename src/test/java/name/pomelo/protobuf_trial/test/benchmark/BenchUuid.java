@@ -0,0 +1,102 @@
+package name.pomelo.protobuf_trial.test.benchmark;
+
+import com.google.protobuf.InvalidProtocolBufferException;
+import name.pomelo.protobuf_trial.protos.Uuid;
+import name.pomelo.protobuf_trial.protos.UuidSimple;
+import name.pomelo.protobuf_trial.test.common.UtilsForProtobufUuid;
+import name.pomelo.protobuf_trial.test.common.UuidCodec;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+// ---
+// The two representations of a UUID in packets.proto: "Uuid" (16 bytes) versus "UuidSimple" (two uint64),
+// converted from and to java.util.UUID, serialized and deserialized.
+// Run with: mvn -Pjmh test-compile exec:exec -Djmh.args="BenchUuid"
+// ---
+
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class BenchUuid {
+
+    private UUID javaUuid;
+    private Uuid uuid;
+    private UuidSimple uuidSimple;
+    private byte[] uuidBytes;
+    private byte[] uuidSimpleBytes;
+
+    @Setup
+    public void setup() {
+        javaUuid = UUID.randomUUID();
+        uuid = UtilsForProtobufUuid.javaUuidToProtobufUuid(javaUuid);
+        uuidSimple = UtilsForProtobufUuid.javaUuidToProtobufUuidSimple(javaUuid);
+        uuidBytes = uuid.toByteArray();
+        uuidSimpleBytes = uuidSimple.toByteArray();
+    }
+
+    @Benchmark
+    public Uuid uuidFromJava() {
+        return UtilsForProtobufUuid.javaUuidToProtobufUuid(javaUuid);
+    }
+
+    @Benchmark
+    public UuidSimple uuidSimpleFromJava() {
+        return UtilsForProtobufUuid.javaUuidToProtobufUuidSimple(javaUuid);
+    }
+
+    @Benchmark
+    public UUID uuidToJava() {
+        return UtilsForProtobufUuid.protobufUuidToJavaUuid(uuid);
+    }
+
+    @Benchmark
+    public UUID uuidSimpleToJava() {
+        return UtilsForProtobufUuid.protobufUuidSimpleToJavaUuid(uuidSimple);
+    }
+
+    @Benchmark
+    public byte[] uuidSerialize() {
+        return uuid.toByteArray();
+    }
+
+    @Benchmark
+    public byte[] uuidSimpleSerialize() {
+        return uuidSimple.toByteArray();
+    }
+
+    @Benchmark
+    public Uuid uuidDeserialize() throws InvalidProtocolBufferException {
+        return Uuid.parseFrom(uuidBytes);
+    }
+
+    @Benchmark
+    public UuidSimple uuidSimpleDeserialize() throws InvalidProtocolBufferException {
+        return UuidSimple.parseFrom(uuidSimpleBytes);
+    }
+
+    // Decoding straight to the two longs, without a java.util.UUID
+
+    @Benchmark
+    public long uuidToLongs() {
+        return UuidCodec.highOf(uuid) ^ UuidCodec.lowOf(uuid);
+    }
+
+    @Benchmark
+    public long uuidSimpleToLongs() {
+        return UuidCodec.highOf(uuidSimple) ^ UuidCodec.lowOf(uuidSimple);
+    }
+}
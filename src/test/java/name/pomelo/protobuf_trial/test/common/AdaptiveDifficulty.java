@@ -0,0 +1,102 @@
+package name.pomelo.protobuf_trial.test.common;
+
+import org.jetbrains.annotations.NotNull;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.Closeable;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.IntSupplier;
+
+// ---
+// Makes the LOGIN_CHALLENGE a real cost under load: issues challenges whose difficulty follows
+// the load measured by a LoginLoadMonitor, as decided by a DifficultyPolicy.
+//
+// - issue() (on the I/O threads) records the request and takes a product from the ChallengeGenerator,
+//   at the hard level if the source of the request is flooding. Nothing else: no blocking.
+// - update() (on a thread of its own, every "tick") recomputes the difficulty from the request rate,
+//   the exchanges in flight and the solve times, and passes it to the generator, which takes a few
+//   milliseconds to prepare a new difficulty.
+// ---
+
+public class AdaptiveDifficulty implements ChallengeIssuer, Closeable {
+
+    private final static Logger log = LoggerFactory.getLogger(AdaptiveDifficulty.class);
+
+    public final static long DEFAULT_WINDOW_NANOS = TimeUnit.SECONDS.toNanos(10);
+    public final static int DEFAULT_PREFIX_BITS = 10;
+
+    private final @NotNull ChallengeGenerator generator;
+    private final @NotNull DifficultyPolicy policy;
+    private final @NotNull LoginLoadMonitor monitor;
+    private final @NotNull IntSupplier inFlight;
+    private ScheduledExecutorService updater;
+
+    public AdaptiveDifficulty(@NotNull ChallengeGenerator generator, @NotNull DifficultyPolicy policy, @NotNull LoginLoadMonitor monitor, @NotNull IntSupplier inFlight) {
+        this.generator = generator;
+        this.policy = policy;
+        this.monitor = monitor;
+        this.inFlight = inFlight;
+        generator.setPrimeBits(policy.getMinPrimeBits(), policy.hardPrimeBitsFor(policy.getMinPrimeBits()));
+    }
+
+    // With the default monitor, for the exchanges of "sessions"
+
+    public AdaptiveDifficulty(@NotNull ChallengeGenerator generator, @NotNull DifficultyPolicy policy, @NotNull ExchangeSessionTable<?> sessions) {
+        this(generator, policy, new LoginLoadMonitor(DEFAULT_PREFIX_BITS, DEFAULT_WINDOW_NANOS), sessions::size);
+    }
+
+    public @NotNull LoginLoadMonitor getMonitor() {
+        return monitor;
+    }
+
+    public @NotNull AdaptiveDifficulty start(long tick, @NotNull TimeUnit unit) {
+        updater = Executors.newSingleThreadScheduledExecutor(r -> {
+            final Thread thread = new Thread(r, "login-difficulty-updater");
+            thread.setDaemon(true);
+            return thread;
+        });
+        updater.scheduleWithFixedDelay(() -> update(System.nanoTime()), tick, tick, unit);
+        return this;
+    }
+
+    @Override
+    public void close() {
+        if (updater != null) {
+            updater.shutdownNow();
+        }
+    }
+
+    // ---
+    // Recompute the difficulty and hand it to the generator. Returns the (normal) prime bits.
+    // ---
+
+    public int update(long nowNanos) {
+        final int bits = policy.primeBitsFor(monitor.getRequestRate(nowNanos), inFlight.getAsInt(), monitor.getAverageSolveNanos(nowNanos));
+        final int hardBits = policy.hardPrimeBitsFor(bits);
+        if (bits != generator.getPrimeBits() || hardBits != generator.getHardPrimeBits()) {
+            log.info("Challenge difficulty goes from {} to {} bits ({} for flooding sources)", generator.getPrimeBits(), bits, hardBits);
+            generator.setPrimeBits(bits, hardBits);
+        }
+        return bits;
+    }
+
+    public boolean isFlooding(long clientExchangeHigh, long nowNanos) {
+        return policy.isFlooding(
+                monitor.getSourceRequests(clientExchangeHigh, nowNanos), monitor.getRequests(nowNanos),
+                monitor.getSourceAverageSolveNanos(clientExchangeHigh, nowNanos), monitor.getAverageSolveNanos(nowNanos));
+    }
+
+    @Override
+    public long issue(long clientExchangeHigh, long nowNanos) {
+        monitor.onLoginRequest(clientExchangeHigh, nowNanos);
+        return isFlooding(clientExchangeHigh, nowNanos) ? generator.takeHard() : generator.take();
+    }
+
+    @Override
+    public void onSolved(long clientExchangeHigh, long solveNanos, long nowNanos) {
+        monitor.onChallengeSolved(clientExchangeHigh, solveNanos, nowNanos);
+    }
+}
@@ -0,0 +1,73 @@
+package name.pomelo.protobuf_trial.test.common;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+
+// ---
+// A pool of direct buffers of the same size, so that a connection only holds buffers while it has
+// output queued, and allocating a direct buffer (slow, and freed only by the GC) is rare.
+//
+// A buffer asked for beyond "bufferSize" is allocated for the occasion and not taken back.
+// At most "maxRetained" buffers are kept; buffers released beyond that are left to the GC.
+//
+// Not thread-safe: one pool per NIO worker.
+// ---
+
+public class BufferPool {
+
+    private final int bufferSize;
+    private final int maxRetained;
+    private final @NotNull ArrayDeque<ByteBuffer> free = new ArrayDeque<>();
+    private long allocated;
+
+    public BufferPool(int bufferSize, int maxRetained) {
+        if (bufferSize <= 0) {
+            throw new IllegalArgumentException("bufferSize must be greater than 0 but is " + bufferSize);
+        }
+        if (maxRetained < 0) {
+            throw new IllegalArgumentException("maxRetained must be at least 0 but is " + maxRetained);
+        }
+        this.bufferSize = bufferSize;
+        this.maxRetained = maxRetained;
+    }
+
+    public int getBufferSize() {
+        return bufferSize;
+    }
+
+    // Buffers held by the pool right now
+
+    public int getRetainedCount() {
+        return free.size();
+    }
+
+    // Buffers allocated by the pool since it was created, a pool working well stops allocating
+
+    public long getAllocatedCount() {
+        return allocated;
+    }
+
+    // A cleared buffer with at least "minSize" bytes remaining
+
+    public @NotNull ByteBuffer acquire(int minSize) {
+        if (minSize > bufferSize) {
+            allocated++;
+            return ByteBuffer.allocateDirect(minSize);
+        }
+        final ByteBuffer buf = free.pollLast(); // the most recently used one, likely still in cache
+        if (buf != null) {
+            return buf;
+        }
+        allocated++;
+        return ByteBuffer.allocateDirect(bufferSize);
+    }
+
+    public void release(@NotNull ByteBuffer buf) {
+        if (buf.capacity() == bufferSize && buf.isDirect() && free.size() < maxRetained) {
+            buf.clear();
+            free.addLast(buf);
+        }
+    }
+}
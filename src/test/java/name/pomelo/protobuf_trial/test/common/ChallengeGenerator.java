@@ -0,0 +1,341 @@
+package name.pomelo.protobuf_trial.test.common;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.io.Closeable;
+import java.util.LinkedHashSet;
+import java.util.Set;
+import java.util.SplittableRandom;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+
+// ---
+// Supplies the products of two primes sent in LOGIN_CHALLENGE.
+//
+// A background thread generates the products into bounded lock-free pools (LongRingQueue),
+// which the threads issuing challenges take from with take(): a CAS, no lock, no allocation.
+// Should a pool run dry, take() makes a new product of two primes from a table of primes made
+// when the difficulty was set, so that issuing a challenge never waits for prime generation,
+// whatever the load. A pool runs dry under a flood, which is when a product issued again would
+// let a client solve its challenges from a cache: the pairs of primes are walked in an order that
+// only comes back to one after all of them (see Fallback), and the producer replaces the table
+// long before that.
+//
+// The difficulty is the size of the primes in bits ("primeBits", from 2 to 31), which can be
+// changed while running. Solving by trial division takes some 2^primeBits / primeBits steps.
+// There are two levels: the normal one, and a "hard" one for the clients that AdaptiveDifficulty
+// finds flooding the server (takeHard()). The hard pool is only filled if the levels differ.
+//
+// As a ChallengeIssuer, it issues normal challenges at a fixed difficulty.
+//
+// A product is tied to the exchange it is issued for by the ExchangeSession holding it (see
+// LoginExchangeHandler); each product taken from a pool or made from a table is issued once.
+// ---
+
+public class ChallengeGenerator implements ChallengeIssuer, Closeable {
+
+    public final static int DEFAULT_PRIME_BITS = 10;
+    public final static int DEFAULT_POOL_CAPACITY = 4096;
+    public final static String PRIME_BITS_PROPERTY = "loginServer.challengeBits";
+
+    // Primes per fallback table: some 2^19 products, of which a quarter are issued before it is replaced
+
+    private final static int FALLBACK_PRIMES = 1024;
+
+    // Products of stale difficulty a take() throws away before falling back to the table
+
+    private final static int MAX_DISCARDS = 16;
+
+    // ---
+    // The products to issue when the pool of a level is empty: those of the pairs of "n" distinct
+    // primes (n a power of two). Each take draws the next pair index q of [0, n^2), as k * stride +
+    // offset modulo n^2 for the k-th take: with an odd stride that is a permutation of [0, n^2), so
+    // no pair comes back before n^2 takes, and consecutive takes share no prime. Pair (i, j) =
+    // (q / n, q % n) is used if i < j, half of them.
+    // ---
+
+    private static final class Fallback {
+
+        private final int primeBits;
+        private final long @NotNull [] primes;
+        private final int shift;
+        private final long mask;
+        private final long stride;
+        private final long offset;
+        private final @NotNull AtomicLong taken = new AtomicLong();
+
+        private Fallback(int primeBits) {
+            final SplittableRandom rng = new SplittableRandom();
+            final Set<Long> distinct = new LinkedHashSet<>();
+            // There are fewer primes than that of a few bits
+            for (int attempt = 0; attempt < 16 * FALLBACK_PRIMES && distinct.size() < FALLBACK_PRIMES; attempt++) {
+                distinct.add(UtilsForLoginChallenge.randomPrime(primeBits, rng));
+            }
+            final int n = Integer.highestOneBit(distinct.size()); // at least 2: there are 2 primes of any size from 2 bits
+            this.primeBits = primeBits;
+            this.primes = distinct.stream().limit(n).mapToLong(Long::longValue).toArray();
+            this.shift = Integer.numberOfTrailingZeros(n);
+            this.mask = (long) n * n - 1;
+            this.stride = rng.nextLong() | 1;
+            this.offset = rng.nextLong();
+        }
+
+        private long next() {
+            while (true) {
+                final long q = (taken.getAndIncrement() * stride + offset) & mask;
+                final int i = (int) (q >>> shift);
+                final int j = (int) (q & (primes.length - 1));
+                if (i < j) {
+                    return primes[i] * primes[j];
+                }
+            }
+        }
+
+        // Time for the producer to replace it: a quarter of the pair indexes have been drawn
+
+        private boolean isWornOut() {
+            return taken.get() > (mask >>> 2);
+        }
+    }
+
+    // ---
+    // The pool and fallback table of one difficulty level
+    // ---
+
+    private static final class Level {
+
+        private final @NotNull LongRingQueue pool;
+        private final int lowWater;
+        private volatile int primeBits;
+        private volatile @NotNull Fallback fallback;
+
+        private Level(int primeBits, int poolCapacity) {
+            this.pool = new LongRingQueue(poolCapacity);
+            this.lowWater = poolCapacity / 2;
+            this.primeBits = primeBits;
+            this.fallback = new Fallback(primeBits);
+        }
+
+        // The fallback table is made before the new difficulty is published, so that take() always finds one
+
+        private void setPrimeBits(int primeBits) {
+            if (primeBits != this.primeBits) {
+                this.fallback = new Fallback(primeBits);
+                this.primeBits = primeBits;
+                while (pool.poll() != 0) {
+                    // drain
+                }
+            }
+        }
+
+        // Called by the producer only; a setPrimeBits() meanwhile wins
+
+        private void renewFallback() {
+            final Fallback worn = fallback;
+            if (worn.isWornOut()) {
+                final Fallback renewed = new Fallback(worn.primeBits);
+                if (fallback == worn && worn.primeBits == primeBits) {
+                    fallback = renewed;
+                }
+            }
+        }
+    }
+
+    private final @NotNull Level normal;
+    private final @NotNull Level hard;
+    private final @NotNull Thread producer;
+    private final @NotNull LongAdder generated = new LongAdder();
+    private final @NotNull LongAdder poolMisses = new LongAdder();
+
+    private volatile boolean producerParked;
+    private volatile boolean running;
+
+    public ChallengeGenerator(int primeBits, int poolCapacity) {
+        checkPrimeBits(primeBits);
+        this.normal = new Level(primeBits, poolCapacity);
+        this.hard = new Level(primeBits, Math.max(2, poolCapacity / 4));
+        this.producer = new Thread(this::produce, "login-challenge-generator");
+        this.producer.setDaemon(true);
+    }
+
+    // ---
+    // The generator used by default by LoginExchangeHandler, started at first use and running
+    // until the JVM exits. Its difficulty is read from the system property "loginServer.challengeBits".
+    // ---
+
+    private static class Shared {
+        private final static ChallengeGenerator INSTANCE = new ChallengeGenerator(primeBitsFromSystemProperty(), DEFAULT_POOL_CAPACITY).start();
+    }
+
+    public static @NotNull ChallengeGenerator shared() {
+        return Shared.INSTANCE;
+    }
+
+    public static int primeBitsFromSystemProperty() {
+        final String value = System.getProperty(PRIME_BITS_PROPERTY);
+        if (value == null || value.isBlank()) {
+            return DEFAULT_PRIME_BITS;
+        }
+        try {
+            return checkPrimeBits(Integer.parseInt(value.trim()));
+        } catch (IllegalArgumentException e) {
+            throw new IllegalArgumentException("System property " + PRIME_BITS_PROPERTY + " has value '" + value + "', which is not a number in ["
+                    + UtilsForLoginChallenge.MIN_PRIME_BITS + "," + UtilsForLoginChallenge.MAX_PRIME_BITS + "]");
+        }
+    }
+
+    public @NotNull ChallengeGenerator start() {
+        running = true;
+        producer.start();
+        return this;
+    }
+
+    @Override
+    public void close() {
+        running = false;
+        LockSupport.unpark(producer);
+    }
+
+    public int getPrimeBits() {
+        return normal.primeBits;
+    }
+
+    public int getHardPrimeBits() {
+        return hard.primeBits;
+    }
+
+    // ---
+    // Change the difficulty of both levels. Products of the former difficulty still in the pools are
+    // thrown away. Takes some 10 milliseconds at high difficulty, for the fallback tables: not to be
+    // called on an I/O thread.
+    // ---
+
+    public void setPrimeBits(int primeBits) {
+        setPrimeBits(primeBits, primeBits);
+    }
+
+    public void setPrimeBits(int primeBits, int hardPrimeBits) {
+        checkPrimeBits(primeBits);
+        checkPrimeBits(hardPrimeBits);
+        normal.setPrimeBits(primeBits);
+        hard.setPrimeBits(hardPrimeBits);
+        wakeProducer();
+    }
+
+    // Products generated by the background thread so far
+
+    public long getGeneratedCount() {
+        return generated.sum();
+    }
+
+    // Products which had to be made from a fallback table because the pool was empty
+
+    public long getPoolMissCount() {
+        return poolMisses.sum();
+    }
+
+    public int getPoolSize() {
+        return normal.pool.size();
+    }
+
+    // ---
+    // A product for a new challenge. Never blocks.
+    // ---
+
+    public long take() {
+        return take(normal);
+    }
+
+    // ---
+    // A product for a new challenge at the hard level. Never blocks.
+    // ---
+
+    public long takeHard() {
+        return take(hard.primeBits == normal.primeBits ? normal : hard);
+    }
+
+    @Override
+    public long issue(long clientExchangeHigh, long nowNanos) {
+        return take();
+    }
+
+    private long take(@NotNull Level level) {
+        final int bits = level.primeBits;
+        long product;
+        int discards = 0;
+        do {
+            product = level.pool.poll();
+        } while (product != 0 && !hasPrimeBits(product, bits) && ++discards < MAX_DISCARDS); // made before a change of difficulty
+        if (level.pool.size() <= level.lowWater) {
+            wakeProducer();
+        }
+        if (product != 0 && hasPrimeBits(product, bits)) {
+            return product;
+        }
+        poolMisses.increment();
+        final Fallback fallback = level.fallback;
+        if (fallback.isWornOut()) {
+            wakeProducer();
+        }
+        return fallback.next();
+    }
+
+    // The product of two primes of "bits" bits has 2 * bits - 1 or 2 * bits bits
+
+    private static boolean hasPrimeBits(long product, int bits) {
+        final int productBits = 64 - Long.numberOfLeadingZeros(product);
+        return productBits == 2 * bits || productBits == 2 * bits - 1;
+    }
+
+    private void wakeProducer() {
+        if (producerParked) {
+            LockSupport.unpark(producer);
+        }
+    }
+
+    // Fill the normal pool first; the hard one only if it is in use
+
+    private void produce() {
+        final SplittableRandom rng = new SplittableRandom();
+        while (running) {
+            normal.renewFallback();
+            hard.renewFallback();
+            if (fill(normal, rng)) {
+                continue;
+            }
+            if (hard.primeBits != normal.primeBits && fill(hard, rng)) {
+                continue;
+            }
+            // The pools are full: sleep until one is half empty (re-checking after announcing it, so that
+            // a take() in between is not missed), with a timeout in case of a lost wakeup
+            producerParked = true;
+            if (normal.pool.size() > normal.lowWater && (hard.primeBits == normal.primeBits || hard.pool.size() > hard.lowWater) && running) {
+                LockSupport.parkNanos(this, 100_000_000L);
+            }
+            producerParked = false;
+        }
+    }
+
+    // Add one product to the pool of "level"; false if the pool is full
+
+    private boolean fill(@NotNull Level level, @NotNull SplittableRandom rng) {
+        if (level.pool.size() >= level.pool.capacity()) {
+            return false;
+        }
+        final int bits = level.primeBits;
+        final long product = UtilsForLoginChallenge.randomPrime(bits, rng) * UtilsForLoginChallenge.randomPrime(bits, rng);
+        generated.increment();
+        if (bits != level.primeBits) {
+            return true; // the difficulty changed meanwhile, try again
+        }
+        return level.pool.offer(product);
+    }
+
+    private static int checkPrimeBits(int primeBits) {
+        if (primeBits < UtilsForLoginChallenge.MIN_PRIME_BITS || primeBits > UtilsForLoginChallenge.MAX_PRIME_BITS) {
+            throw new IllegalArgumentException("primeBits must be in [" + UtilsForLoginChallenge.MIN_PRIME_BITS + "," + UtilsForLoginChallenge.MAX_PRIME_BITS + "] but is " + primeBits);
+        }
+        return primeBits;
+    }
+}
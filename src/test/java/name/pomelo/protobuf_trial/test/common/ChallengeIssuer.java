@@ -0,0 +1,19 @@
+package name.pomelo.protobuf_trial.test.common;
+
+// ---
+// Where LoginExchangeHandler gets the product of a LOGIN_CHALLENGE from, and tells how long its
+// solving took: a ChallengeGenerator at a fixed difficulty, or AdaptiveDifficulty.
+// Times are System.nanoTime() values. Called on the I/O threads: must not block.
+// ---
+
+public interface ChallengeIssuer {
+
+    // A product for the exchange whose client exchange UUID has "clientExchangeHigh" as upper half
+
+    long issue(long clientExchangeHigh, long nowNanos);
+
+    // The challenge was solved correctly "solveNanos" after it was issued
+
+    default void onSolved(long clientExchangeHigh, long solveNanos, long nowNanos) {
+    }
+}
@@ -0,0 +1,92 @@
+package name.pomelo.protobuf_trial.test.common;
+
+import name.pomelo.protobuf_trial.protos.ClientToServer;
+import name.pomelo.protobuf_trial.protos.LoginChallengeSolved;
+import name.pomelo.protobuf_trial.protos.LoginFollowup;
+import org.jetbrains.annotations.NotNull;
+
+import java.util.Arrays;
+
+// ---
+// Hands a ClientToServer message to the handler registered for its payload type, with the
+// sub-message of that payload type already extracted, instead of a switch on getPayloadType()
+// in every place that consumes messages.
+//
+// The handlers are held in a table indexed by payload type ordinal (like the transitions of
+// LoginStateMachine), so that dispatching is one array load and one interface call. Every slot
+// starts out with the rejection handler, which gets UNKNOWN and UNRECOGNIZED messages (see
+// getPayloadTypeValue() for the value received) and those of a payload type without handler.
+// Rejecting goes through the same path as handling and allocates nothing; whether to throw,
+// answer or count is up to the rejection handler.
+//
+// The handlers are registered once each, before the dispatcher is shared between threads.
+// Dispatching does not verify the message (see verifyClientToServerMessage()): the sub-message
+// of a message which lacks it is the default instance.
+//
+// "C" is whatever the handlers need besides the message, e.g. the LoginResponder to answer to.
+// ---
+
+public class ClientToServerDispatcher<C> {
+
+    @FunctionalInterface
+    public interface Handler<C> {
+        boolean handle(@NotNull ClientToServer c2s, C context);
+    }
+
+    @FunctionalInterface
+    public interface PayloadHandler<P, C> {
+        boolean handle(@NotNull ClientToServer c2s, @NotNull P payload, C context);
+    }
+
+    private final Handler<C> @NotNull [] handlers;
+    private final boolean @NotNull [] registered;
+
+    @SuppressWarnings("unchecked")
+    public ClientToServerDispatcher(@NotNull Handler<C> rejection) {
+        final int count = ClientToServer.PayloadType.values().length;
+        this.handlers = (Handler<C>[]) new Handler[count];
+        this.registered = new boolean[count];
+        Arrays.fill(handlers, rejection);
+    }
+
+    // ---
+    // Registration, once per payload type
+    // ---
+
+    public @NotNull ClientToServerDispatcher<C> onLoginRequest(@NotNull Handler<C> handler) {
+        return register(ClientToServer.PayloadType.LOGIN_REQUEST, handler);
+    }
+
+    public @NotNull ClientToServerDispatcher<C> onLoginChallengeSolved(@NotNull PayloadHandler<LoginChallengeSolved, C> handler) {
+        return register(ClientToServer.PayloadType.LOGIN_CHALLENGE_SOLVED, (c2s, context) -> handler.handle(c2s, c2s.getLoginChallengeSolved(), context));
+    }
+
+    public @NotNull ClientToServerDispatcher<C> onLoginFollowup(@NotNull PayloadHandler<LoginFollowup, C> handler) {
+        return register(ClientToServer.PayloadType.LOGIN_FOLLOWUP, (c2s, context) -> handler.handle(c2s, c2s.getLoginFollowup(), context));
+    }
+
+    public @NotNull ClientToServerDispatcher<C> onLoginClose(@NotNull Handler<C> handler) {
+        return register(ClientToServer.PayloadType.LOGIN_CLOSE, handler);
+    }
+
+    private @NotNull ClientToServerDispatcher<C> register(ClientToServer.@NotNull PayloadType type, @NotNull Handler<C> handler) {
+        if (registered[type.ordinal()]) {
+            throw new IllegalStateException("A handler is already registered for " + type);
+        }
+        registered[type.ordinal()] = true;
+        handlers[type.ordinal()] = handler;
+        return this;
+    }
+
+    public boolean isRegistered(ClientToServer.@NotNull PayloadType type) {
+        return registered[type.ordinal()];
+    }
+
+    // ---
+    // Returns what the handler (or the rejection handler) returns
+    // ---
+
+    public boolean dispatch(@NotNull ClientToServer c2s, C context) {
+        return handlers[c2s.getPayloadType().ordinal()].handle(c2s, context);
+    }
+}
@@ -19,8 +19,13 @@ public class CommonData {
     private final int seqNum;
     private final @Nullable UUID clientExchangeUUID;
     private final @Nullable UUID serverExchangeUUID;
+    private final @NotNull UuidEncoding uuidEncoding;
 
     public CommonData(int seqNum, @Nullable UUID clientExchangeUUID, @Nullable UUID serverExchangeUUID) {
+        this(seqNum, clientExchangeUUID, serverExchangeUUID, UuidEncoding.SIMPLE);
+    }
+
+    public CommonData(int seqNum, @Nullable UUID clientExchangeUUID, @Nullable UUID serverExchangeUUID, @NotNull UuidEncoding uuidEncoding) {
         if (seqNum <= 0) {
             throw new IllegalArgumentException("seqNum must be greater than 0 but is " + seqNum);
         }
@@ -33,6 +38,7 @@ public class CommonData {
         this.clientExchangeUUID = clientExchangeUUID;
         this.serverExchangeUUID = serverExchangeUUID;
         this.seqNum = seqNum;
+        this.uuidEncoding = uuidEncoding;
     }
 
     public @NotNull CommonStuff toProtobufCommonStuff() {
@@ -41,16 +47,52 @@ public class CommonData {
         // i.e. we can always use builder "n" instead of having to use builder
         // "n", "n+1", "n+2" etc...
         if (clientExchangeUUID != null) {
-            final var pbUuid = UtilsForProtobufUuid.javaUuidToProtobufUuidSimple(clientExchangeUUID);
-            builder.setClientExchangeUuid(pbUuid);
+            if (uuidEncoding.hasSimple()) {
+                builder.setClientExchangeUuid(UtilsForProtobufUuid.javaUuidToProtobufUuidSimple(clientExchangeUUID));
+            }
+            if (uuidEncoding.hasFixed()) {
+                builder.setClientExchangeUuidFixed(UtilsForProtobufUuid.javaUuidToProtobufUuidFixed(clientExchangeUUID));
+            }
         }
         if (serverExchangeUUID != null) {
-            final var pbUuid = UtilsForProtobufUuid.javaUuidToProtobufUuidSimple(serverExchangeUUID);
-            builder.setServerExchangeUuid(pbUuid);
+            if (uuidEncoding.hasSimple()) {
+                builder.setServerExchangeUuid(UtilsForProtobufUuid.javaUuidToProtobufUuidSimple(serverExchangeUUID));
+            }
+            if (uuidEncoding.hasFixed()) {
+                builder.setServerExchangeUuidFixed(UtilsForProtobufUuid.javaUuidToProtobufUuidFixed(serverExchangeUUID));
+            }
         }
         return builder.build();
     }
 
+    // ---
+    // The reverse of toProtobufCommonStuff(), used to echo a received CommonStuff in a response,
+    // hence in the UUID encoding to answer with (see UtilsForProtobufUuid.answerEncodingOf()).
+    // Throws IllegalArgumentException if seqNum or UUIDs are invalid (see constructor).
+    // ---
+
+    public static @NotNull CommonData fromProtobufCommonStuff(@NotNull CommonStuff commonStuff) {
+        final UUID clientExchangeUUID = (commonStuff.hasClientExchangeUuid() || commonStuff.hasClientExchangeUuidFixed())
+                ? new UUID(UtilsForProtobufUuid.clientExchangeHighOf(commonStuff), UtilsForProtobufUuid.clientExchangeLowOf(commonStuff))
+                : null;
+        final UUID serverExchangeUUID = (commonStuff.hasServerExchangeUuid() || commonStuff.hasServerExchangeUuidFixed())
+                ? new UUID(UtilsForProtobufUuid.serverExchangeHighOf(commonStuff), UtilsForProtobufUuid.serverExchangeLowOf(commonStuff))
+                : null;
+        return new CommonData(commonStuff.getSeqNum(), clientExchangeUUID, serverExchangeUUID, UtilsForProtobufUuid.answerEncodingOf(commonStuff));
+    }
+
+    // Same UUIDs, another seqNum: the next message of the same exchange
+
+    public @NotNull CommonData withSeqNum(int seqNum) {
+        return new CommonData(seqNum, clientExchangeUUID, serverExchangeUUID, uuidEncoding);
+    }
+
+    // Same UUIDs and seqNum, another encoding of the UUIDs on the wire
+
+    public @NotNull CommonData withUuidEncoding(@NotNull UuidEncoding uuidEncoding) {
+        return new CommonData(seqNum, clientExchangeUUID, serverExchangeUUID, uuidEncoding);
+    }
+
     // ---
     // Generate random "CommonData" instance, with random UUIDs and
     // a random seqNum from [1,999].
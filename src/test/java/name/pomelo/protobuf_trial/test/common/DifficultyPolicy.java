@@ -0,0 +1,94 @@
+package name.pomelo.protobuf_trial.test.common;
+
+import lombok.Getter;
+import org.jetbrains.annotations.NotNull;
+
+import java.util.concurrent.TimeUnit;
+
+// ---
+// How AdaptiveDifficulty turns load into the size of the challenge primes. Pure functions, no state.
+//
+// - The pressure is the larger of the LOGIN_REQUEST rate and the number of exchanges in flight,
+//   each relative to what the server is meant to handle ("requestRateCapacity", "inFlightCapacity").
+// - Below a pressure of IDLE_PRESSURE the challenges are as easy as they get ("minPrimeBits"); above,
+//   they get harder linearly, up to "maxPrimeBits" at full pressure.
+// - If solving already takes honest clients far longer than "targetSolveNanos" and the server is
+//   not overloaded, the difficulty is lowered by one bit: the challenge is a brake, not a wall.
+// - A source (see LoginLoadMonitor) making at least "floodMinRequests" requests and a share of at
+//   least "floodShare" of all requests in the window is flooding and gets "floodBoostBits" more.
+//   A source solving four times faster than average has solving power to spare, and is deemed
+//   flooding at half that share.
+// ---
+
+@Getter
+public class DifficultyPolicy {
+
+    public final static double IDLE_PRESSURE = 0.25;
+
+    private final int minPrimeBits;
+    private final int maxPrimeBits;
+    private final double requestRateCapacity;
+    private final int inFlightCapacity;
+    private final long targetSolveNanos;
+    private final double floodShare;
+    private final long floodMinRequests;
+    private final int floodBoostBits;
+
+    public DifficultyPolicy(int minPrimeBits, int maxPrimeBits, double requestRateCapacity, int inFlightCapacity,
+                            long targetSolveNanos, double floodShare, long floodMinRequests, int floodBoostBits) {
+        if (minPrimeBits < UtilsForLoginChallenge.MIN_PRIME_BITS || maxPrimeBits > UtilsForLoginChallenge.MAX_PRIME_BITS || minPrimeBits > maxPrimeBits) {
+            throw new IllegalArgumentException("Bad prime bits range [" + minPrimeBits + "," + maxPrimeBits + "]");
+        }
+        if (requestRateCapacity <= 0 || inFlightCapacity <= 0 || targetSolveNanos <= 0) {
+            throw new IllegalArgumentException("Capacities and target solve time must be greater than 0");
+        }
+        if (floodShare <= 0 || floodShare > 1 || floodBoostBits < 0) {
+            throw new IllegalArgumentException("Bad flood share " + floodShare + " or boost " + floodBoostBits);
+        }
+        this.minPrimeBits = minPrimeBits;
+        this.maxPrimeBits = maxPrimeBits;
+        this.requestRateCapacity = requestRateCapacity;
+        this.inFlightCapacity = inFlightCapacity;
+        this.targetSolveNanos = targetSolveNanos;
+        this.floodShare = floodShare;
+        this.floodMinRequests = floodMinRequests;
+        this.floodBoostBits = floodBoostBits;
+    }
+
+    // Idle challenges as easy as the former fixed ones, up to primes of 24 bits (some 10 ms of trial division)
+
+    public static @NotNull DifficultyPolicy defaults() {
+        return new DifficultyPolicy(ChallengeGenerator.DEFAULT_PRIME_BITS, 24, 5000, 10_000,
+                TimeUnit.MILLISECONDS.toNanos(50), 0.2, 100, 4);
+    }
+
+    public double pressure(double requestRate, int inFlight) {
+        return Math.max(requestRate / requestRateCapacity, (double) inFlight / inFlightCapacity);
+    }
+
+    public int primeBitsFor(double requestRate, int inFlight, long averageSolveNanos) {
+        final double pressure = pressure(requestRate, inFlight);
+        if (pressure < IDLE_PRESSURE) {
+            return minPrimeBits;
+        }
+        final double scale = Math.min(1.0, (pressure - IDLE_PRESSURE) / (1.0 - IDLE_PRESSURE));
+        int bits = minPrimeBits + (int) Math.ceil(scale * (maxPrimeBits - minPrimeBits));
+        if (pressure < 1.0 && averageSolveNanos > 4 * targetSolveNanos) {
+            bits--;
+        }
+        return Math.max(minPrimeBits, Math.min(maxPrimeBits, bits));
+    }
+
+    public int hardPrimeBitsFor(int primeBits) {
+        return Math.min(UtilsForLoginChallenge.MAX_PRIME_BITS, primeBits + floodBoostBits);
+    }
+
+    public boolean isFlooding(long sourceRequests, long requests, long sourceAverageSolveNanos, long averageSolveNanos) {
+        if (sourceRequests < floodMinRequests) {
+            return false;
+        }
+        final boolean fastSolver = sourceAverageSolveNanos > 0 && 4 * sourceAverageSolveNanos < averageSolveNanos;
+        final double share = fastSolver ? floodShare / 2 : floodShare;
+        return sourceRequests >= share * requests;
+    }
+}
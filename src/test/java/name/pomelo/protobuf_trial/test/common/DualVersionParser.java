@@ -0,0 +1,179 @@
+package name.pomelo.protobuf_trial.test.common;
+
+import com.google.protobuf.AbstractParser;
+import com.google.protobuf.CodedInputStream;
+import com.google.protobuf.ExtensionRegistryLite;
+import com.google.protobuf.InvalidProtocolBufferException;
+import com.google.protobuf.Message;
+import com.google.protobuf.Parser;
+import name.pomelo.protobuf_trial.protos.ClientToServer;
+import name.pomelo.protobuf_trial.protos.ClientToServerV2;
+import name.pomelo.protobuf_trial.protos.ServerToClient;
+import name.pomelo.protobuf_trial.protos.ServerToClientV2;
+import org.jetbrains.annotations.NotNull;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Function;
+
+// ---
+// A Parser of version 2 messages (packets_v2.proto) which also accepts version 1 messages
+// (packets.proto), for the time both are on the wire. It can be given to a FrameDecoder or to
+// UtilsForProtobufFraming.readFrame() instead of the parser of either version.
+//
+// A version 1 message always carries field 1 ("payload_type", never 0 for a valid message),
+// which version 2 reserves. Before parsing, the top level of the message is walked (tags and
+// lengths only, the sub-messages are skipped) until field 1 turns up; it comes first in the
+// messages written by protobuf and by ServerToClientWriter, so a version 1 message is usually
+// told by its first byte. A version 1 message is parsed as such and converted (UtilsForProtobufV2),
+// a version 2 message is parsed directly. A malformed message is left to the version 2 parser,
+// which rejects it.
+//
+// Parsing from a CodedInputStream cannot look ahead: the message is parsed as version 2, where
+// the fields of a version 1 message land in the unknown fields, and re-parsed as version 1 if
+// field 1 is among them.
+//
+// The number of messages of either version seen is kept, to follow the rollout.
+// ---
+
+public class DualVersionParser<V1 extends Message, V2 extends Message> extends AbstractParser<V2> {
+
+    public final static int VERSION_1 = 1;
+    public final static int VERSION_2 = 2;
+
+    private final static int PAYLOAD_TYPE_FIELD = 1;
+
+    private final static int WIRETYPE_VARINT = 0;
+    private final static int WIRETYPE_FIXED64 = 1;
+    private final static int WIRETYPE_LENGTH_DELIMITED = 2;
+    private final static int WIRETYPE_FIXED32 = 5;
+
+    private final @NotNull Parser<V1> v1Parser;
+    private final @NotNull Parser<V2> v2Parser;
+    private final @NotNull Function<V1, V2> upgrade;
+
+    private final LongAdder version1Messages = new LongAdder();
+    private final LongAdder version2Messages = new LongAdder();
+
+    public DualVersionParser(@NotNull Parser<V1> v1Parser, @NotNull Parser<V2> v2Parser, @NotNull Function<V1, V2> upgrade) {
+        this.v1Parser = v1Parser;
+        this.v2Parser = v2Parser;
+        this.upgrade = upgrade;
+    }
+
+    public static @NotNull DualVersionParser<ClientToServer, ClientToServerV2> forClientToServer() {
+        return new DualVersionParser<>(ClientToServer.parser(), ClientToServerV2.parser(), UtilsForProtobufV2::toV2);
+    }
+
+    public static @NotNull DualVersionParser<ServerToClient, ServerToClientV2> forServerToClient() {
+        return new DualVersionParser<>(ServerToClient.parser(), ServerToClientV2.parser(), UtilsForProtobufV2::toV2);
+    }
+
+    public long getVersion1Messages() {
+        return version1Messages.sum();
+    }
+
+    public long getVersion2Messages() {
+        return version2Messages.sum();
+    }
+
+    // ---
+    // Parser
+    // ---
+
+    @Override
+    public V2 parseFrom(@NotNull ByteBuffer data, ExtensionRegistryLite extensionRegistry) throws InvalidProtocolBufferException {
+        if (versionOf(data, data.position(), data.remaining()) == VERSION_1) {
+            version1Messages.increment();
+            return upgrade.apply(v1Parser.parseFrom(data, extensionRegistry));
+        }
+        version2Messages.increment();
+        return v2Parser.parseFrom(data, extensionRegistry);
+    }
+
+    @Override
+    public V2 parsePartialFrom(byte @NotNull [] data, int off, int len, ExtensionRegistryLite extensionRegistry) throws InvalidProtocolBufferException {
+        if (versionOf(ByteBuffer.wrap(data), off, len) == VERSION_1) {
+            version1Messages.increment();
+            return upgrade.apply(v1Parser.parsePartialFrom(data, off, len, extensionRegistry));
+        }
+        version2Messages.increment();
+        return v2Parser.parsePartialFrom(data, off, len, extensionRegistry);
+    }
+
+    @Override
+    public V2 parsePartialFrom(@NotNull CodedInputStream input, ExtensionRegistryLite extensionRegistry) throws InvalidProtocolBufferException {
+        final V2 msg = v2Parser.parsePartialFrom(input, extensionRegistry);
+        if (!msg.getUnknownFields().hasField(PAYLOAD_TYPE_FIELD)) {
+            version2Messages.increment();
+            return msg;
+        }
+        // Serialized again, the unknown fields give back the version 1 message
+        version1Messages.increment();
+        return upgrade.apply(v1Parser.parsePartialFrom(msg.toByteString(), extensionRegistry));
+    }
+
+    // ---
+    // The version of the message in buf[offset, offset + length), read with absolute gets.
+    // VERSION_2 if the message is malformed before field 1 is found.
+    // ---
+
+    public static int versionOf(@NotNull ByteBuffer buf, int offset, int length) {
+        final int end = offset + length;
+        int pos = offset;
+        while (pos < end) {
+            // Like CodedInputStream, keep the low 32 bits of an over-long tag varint
+            int tag = 0;
+            int shift = 0;
+            byte b;
+            do {
+                if (pos >= end || shift > 63) {
+                    return VERSION_2;
+                }
+                b = buf.get(pos++);
+                if (shift < 32) {
+                    tag |= (b & 0x7F) << shift;
+                }
+                shift += 7;
+            } while (b < 0);
+            if ((tag >>> 3) == PAYLOAD_TYPE_FIELD) {
+                return VERSION_1;
+            }
+            switch (tag & 7) {
+                case WIRETYPE_VARINT:
+                    do {
+                        if (pos >= end) {
+                            return VERSION_2;
+                        }
+                    } while (buf.get(pos++) < 0);
+                    break;
+                case WIRETYPE_FIXED64:
+                    pos += 8;
+                    break;
+                case WIRETYPE_LENGTH_DELIMITED:
+                    long fieldLength = 0;
+                    shift = 0;
+                    do {
+                        if (pos >= end || shift > 63) {
+                            return VERSION_2;
+                        }
+                        b = buf.get(pos++);
+                        fieldLength |= (long) (b & 0x7F) << shift;
+                        shift += 7;
+                    } while (b < 0);
+                    if (fieldLength < 0 || fieldLength > end - pos) {
+                        return VERSION_2;
+                    }
+                    pos += (int) fieldLength;
+                    break;
+                case WIRETYPE_FIXED32:
+                    pos += 4;
+                    break;
+                default:
+                    // groups, which none of the messages have, or wire types which do not exist
+                    return VERSION_2;
+            }
+        }
+        return VERSION_2;
+    }
+}
@@ -0,0 +1,100 @@
+package name.pomelo.protobuf_trial.test.common;
+
+import lombok.Getter;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+
+// ---
+// Server-side state of one "Login exchange", stored in the ExchangeSessionTable
+// under the client exchange UUID.
+//
+// The state only changes through compareAndSetState(), so that two messages of the same
+// exchange arriving on different threads cannot both make the same transition.
+// The seqNums of the messages received for the exchange go through a ReplayWindow.
+// The timeout of the current state, if timeouts are on, is on a TimingWheel.
+// The LoginConnection which opened the exchange, if known, is told when it ends.
+// ---
+
+@Getter
+public class ExchangeSession {
+
+    private final static VarHandle STATE;
+    private final static VarHandle TIMEOUT;
+
+    static {
+        try {
+            STATE = MethodHandles.lookup().findVarHandle(ExchangeSession.class, "state", LoginState.class);
+            TIMEOUT = MethodHandles.lookup().findVarHandle(ExchangeSession.class, "timeout", TimingWheel.Timeout.class);
+        } catch (ReflectiveOperationException e) {
+            throw new ExceptionInInitializerError(e);
+        }
+    }
+
+    private final long clientExchangeHigh;
+    private final long clientExchangeLow;
+    private final long serverExchangeHigh;
+    private final long serverExchangeLow;
+
+    // The product sent in LOGIN_CHALLENGE, and when (System.nanoTime()); 0 until issueChallenge(),
+    // which no LOGIN_CHALLENGE_SOLVED can match (see UtilsForLoginChallenge.isSolution())
+    private volatile long product;
+    private volatile long issuedAtNanos;
+
+    private volatile @NotNull LoginState state = LoginState.CHALLENGE_ISSUED;
+
+    private final @NotNull ReplayWindow replayWindow = new ReplayWindow();
+
+    private volatile @Nullable TimingWheel.Timeout<ExchangeSession> timeout;
+
+    private final @Nullable LoginConnection connection;
+
+    public ExchangeSession(long clientExchangeHigh, long clientExchangeLow, long serverExchangeHigh, long serverExchangeLow, long product, long issuedAtNanos) {
+        this(clientExchangeHigh, clientExchangeLow, serverExchangeHigh, serverExchangeLow, null);
+        issueChallenge(product, issuedAtNanos);
+    }
+
+    // The challenge is to be issued with issueChallenge(), once the session is known to go ahead
+
+    public ExchangeSession(long clientExchangeHigh, long clientExchangeLow, long serverExchangeHigh, long serverExchangeLow, @Nullable LoginConnection connection) {
+        this.connection = connection;
+        this.clientExchangeHigh = clientExchangeHigh;
+        this.clientExchangeLow = clientExchangeLow;
+        this.serverExchangeHigh = serverExchangeHigh;
+        this.serverExchangeLow = serverExchangeLow;
+    }
+
+    public void issueChallenge(long product, long issuedAtNanos) {
+        this.issuedAtNanos = issuedAtNanos;
+        this.product = product;
+    }
+
+    public boolean compareAndSetState(@NotNull LoginState expected, @NotNull LoginState next) {
+        return STATE.compareAndSet(this, expected, next);
+    }
+
+    // False if a message with this seqNum has already been received for the exchange (or one too old to tell)
+
+    public boolean acceptSeqNum(int seqNum) {
+        return replayWindow.accept(seqNum);
+    }
+
+    // The highest seqNum received for the exchange
+
+    public long getHighestSeqNum() {
+        return replayWindow.getHighest();
+    }
+
+    // Returns the timeout replaced, which the caller cancels
+
+    @SuppressWarnings("unchecked")
+    public @Nullable TimingWheel.Timeout<ExchangeSession> swapTimeout(@Nullable TimingWheel.Timeout<ExchangeSession> next) {
+        return (TimingWheel.Timeout<ExchangeSession>) TIMEOUT.getAndSet(this, next);
+    }
+
+    public boolean hasServerExchangeUuid(long high, long low) {
+        return serverExchangeHigh == high && serverExchangeLow == low;
+    }
+}
@@ -0,0 +1,299 @@
+package name.pomelo.protobuf_trial.test.common;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.concurrent.locks.StampedLock;
+import java.util.function.BiConsumer;
+
+// ---
+// A concurrent map from an exchange UUID, given as its two longs ("high" and "low", as in
+// UuidSimple), to a session object. Keys are stored as primitive longs: no java.util.UUID
+// is ever created, neither to insert nor to look up.
+//
+// The table is split into independent "stripes", each one an open-addressing hash table
+// (linear probing, backward-shift deletion, so no tombstones) guarded by its own StampedLock.
+// Lookups are optimistic: they only take the read lock if a writer interfered. With enough
+// stripes, writers on different cores rarely meet.
+//
+// The nil UUID (0, 0) marks an empty slot and cannot be used as a key, which is fine as the
+// nil UUID is not a valid exchange UUID.
+// ---
+
+public class ExchangeSessionTable<V> {
+
+    private final static float LOAD_FACTOR = 0.5f;
+
+    private final @NotNull Stripe @NotNull [] stripes;
+    private final int stripeMask;
+
+    public ExchangeSessionTable() {
+        this(4 * Runtime.getRuntime().availableProcessors(), 64);
+    }
+
+    public ExchangeSessionTable(int minStripeCount, int initialCapacityPerStripe) {
+        if (minStripeCount <= 0) {
+            throw new IllegalArgumentException("minStripeCount must be greater than 0 but is " + minStripeCount);
+        }
+        if (initialCapacityPerStripe <= 0) {
+            throw new IllegalArgumentException("initialCapacityPerStripe must be greater than 0 but is " + initialCapacityPerStripe);
+        }
+        final int stripeCount = ceilingPowerOfTwo(minStripeCount);
+        final int stripeCapacity = ceilingPowerOfTwo(Math.max(4, (int) (initialCapacityPerStripe / LOAD_FACTOR)));
+        this.stripes = new Stripe[stripeCount];
+        for (int i = 0; i < stripeCount; i++) {
+            stripes[i] = new Stripe(stripeCapacity);
+        }
+        this.stripeMask = stripeCount - 1;
+    }
+
+    private static int ceilingPowerOfTwo(int n) {
+        return (n <= 1) ? 1 : Integer.highestOneBit(n - 1) << 1;
+    }
+
+    // Random UUIDs are already well mixed, but time-based or hand-made ones are not
+
+    private static long hash(long high, long low) {
+        long h = high * 0x9E3779B97F4A7C15L + low;
+        h = (h ^ (h >>> 32)) * 0xD6E8FEB86659FD93L;
+        return h ^ (h >>> 32);
+    }
+
+    private static void checkKey(long high, long low) {
+        if (high == 0L && low == 0L) {
+            throw new IllegalArgumentException("The nil UUID cannot be used as a key");
+        }
+    }
+
+    private @NotNull Stripe stripeFor(long hash) {
+        // high bits select the stripe, low bits select the slot within the stripe
+        return stripes[(int) (hash >>> 40) & stripeMask];
+    }
+
+    public @Nullable V get(long high, long low) {
+        final long h = hash(high, low);
+        @SuppressWarnings("unchecked") final V res = (V) stripeFor(h).get(high, low, (int) h);
+        return res;
+    }
+
+    // Returns the value already present (and leaves it), or null if "value" has been inserted
+
+    public @Nullable V putIfAbsent(long high, long low, @NotNull V value) {
+        checkKey(high, low);
+        final long h = hash(high, low);
+        @SuppressWarnings("unchecked") final V res = (V) stripeFor(h).putIfAbsent(high, low, (int) h, value);
+        return res;
+    }
+
+    // Returns the value removed, or null if there was none
+
+    public @Nullable V remove(long high, long low) {
+        final long h = hash(high, low);
+        @SuppressWarnings("unchecked") final V res = (V) stripeFor(h).remove(high, low, (int) h, null);
+        return res;
+    }
+
+    // Remove only if the key is still mapped to "value" (compared by identity)
+
+    public boolean remove(long high, long low, @NotNull V value) {
+        final long h = hash(high, low);
+        return stripeFor(h).remove(high, low, (int) h, value) != null;
+    }
+
+    public int size() {
+        int res = 0;
+        for (Stripe stripe : stripes) {
+            res += stripe.size();
+        }
+        return res;
+    }
+
+    // ---
+    // Visit all entries. Each stripe is visited under its read lock, so the callback
+    // must not modify the table. Entries added or removed meanwhile may or may not be seen.
+    // ---
+
+    public void forEach(@NotNull BiConsumer<long[], ? super V> consumer) {
+        final long[] key = new long[2];
+        for (Stripe stripe : stripes) {
+            stripe.forEach(key, consumer);
+        }
+    }
+
+    // ---
+    // One open-addressing hash table. Slot "i" holds the key in keys[2*i] (high) and keys[2*i+1] (low)
+    // and the value in values[i]; a null value marks an empty slot.
+    // ---
+
+    private final static class Stripe {
+
+        private final @NotNull StampedLock lock = new StampedLock();
+        private long @NotNull [] keys;
+        private @Nullable Object @NotNull [] values;
+        private int size;
+
+        private Stripe(int capacity) {
+            this.keys = new long[2 * capacity];
+            this.values = new Object[capacity];
+        }
+
+        private @Nullable Object get(long high, long low, int hash) {
+            final long stamp = lock.tryOptimisticRead();
+            if (stamp != 0L) {
+                final Object res = find(high, low, hash);
+                if (lock.validate(stamp)) {
+                    return res;
+                }
+            }
+            final long readStamp = lock.readLock();
+            try {
+                return find(high, low, hash);
+            } finally {
+                lock.unlockRead(readStamp);
+            }
+        }
+
+        // Also called optimistically without a lock: must not fail on a torn read, the result is then discarded
+
+        private @Nullable Object find(long high, long low, int hash) {
+            final long[] ks = keys;
+            final Object[] vs = values;
+            final int capacity = vs.length;
+            if (ks.length != 2 * capacity) {
+                return null; // torn read during a resize
+            }
+            final int mask = capacity - 1;
+            int i = hash & mask;
+            for (int probes = 0; probes < capacity; probes++) {
+                final Object v = vs[i];
+                if (v == null) {
+                    return null;
+                }
+                if (ks[2 * i] == high && ks[2 * i + 1] == low) {
+                    return v;
+                }
+                i = (i + 1) & mask;
+            }
+            return null;
+        }
+
+        private @Nullable Object putIfAbsent(long high, long low, int hash, @NotNull Object value) {
+            final long stamp = lock.writeLock();
+            try {
+                final int mask = values.length - 1;
+                int i = hash & mask;
+                while (values[i] != null) {
+                    if (keys[2 * i] == high && keys[2 * i + 1] == low) {
+                        return values[i];
+                    }
+                    i = (i + 1) & mask;
+                }
+                keys[2 * i] = high;
+                keys[2 * i + 1] = low;
+                values[i] = value;
+                size++;
+                if (size > values.length * LOAD_FACTOR) {
+                    resize();
+                }
+                return null;
+            } finally {
+                lock.unlockWrite(stamp);
+            }
+        }
+
+        private @Nullable Object remove(long high, long low, int hash, @Nullable Object expected) {
+            final long stamp = lock.writeLock();
+            try {
+                final int mask = values.length - 1;
+                int i = hash & mask;
+                while (values[i] != null) {
+                    if (keys[2 * i] == high && keys[2 * i + 1] == low) {
+                        final Object res = values[i];
+                        if (expected != null && res != expected) {
+                            return null;
+                        }
+                        deleteSlot(i);
+                        size--;
+                        return res;
+                    }
+                    i = (i + 1) & mask;
+                }
+                return null;
+            } finally {
+                lock.unlockWrite(stamp);
+            }
+        }
+
+        // Backward-shift deletion: move later entries of the probe sequence into the hole
+
+        private void deleteSlot(int hole) {
+            final int mask = values.length - 1;
+            int i = hole;
+            int j = (i + 1) & mask;
+            while (values[j] != null) {
+                final int home = (int) hash(keys[2 * j], keys[2 * j + 1]) & mask;
+                // Can the entry at "j" move to "i"? Only if its home slot is not in the cyclic range (i, j]
+                final boolean homeInRange = (i <= j) ? (i < home && home <= j) : (i < home || home <= j);
+                if (!homeInRange) {
+                    keys[2 * i] = keys[2 * j];
+                    keys[2 * i + 1] = keys[2 * j + 1];
+                    values[i] = values[j];
+                    i = j;
+                }
+                j = (j + 1) & mask;
+            }
+            keys[2 * i] = 0L;
+            keys[2 * i + 1] = 0L;
+            values[i] = null;
+        }
+
+        private void resize() {
+            final long[] oldKeys = keys;
+            final Object[] oldValues = values;
+            final int capacity = 2 * oldValues.length;
+            final int mask = capacity - 1;
+            final long[] newKeys = new long[2 * capacity];
+            final Object[] newValues = new Object[capacity];
+            for (int k = 0; k < oldValues.length; k++) {
+                if (oldValues[k] != null) {
+                    final long high = oldKeys[2 * k];
+                    final long low = oldKeys[2 * k + 1];
+                    int i = (int) hash(high, low) & mask;
+                    while (newValues[i] != null) {
+                        i = (i + 1) & mask;
+                    }
+                    newKeys[2 * i] = high;
+                    newKeys[2 * i + 1] = low;
+                    newValues[i] = oldValues[k];
+                }
+            }
+            keys = newKeys;
+            values = newValues;
+        }
+
+        private int size() {
+            final long stamp = lock.readLock();
+            try {
+                return size;
+            } finally {
+                lock.unlockRead(stamp);
+            }
+        }
+
+        @SuppressWarnings("unchecked")
+        private <V> void forEach(long @NotNull [] key, @NotNull BiConsumer<long[], ? super V> consumer) {
+            final long stamp = lock.readLock();
+            try {
+                for (int i = 0; i < values.length; i++) {
+                    if (values[i] != null) {
+                        key[0] = keys[2 * i];
+                        key[1] = keys[2 * i + 1];
+                        consumer.accept(key, (V) values[i]);
+                    }
+                }
+            } finally {
+                lock.unlockRead(stamp);
+            }
+        }
+    }
+}
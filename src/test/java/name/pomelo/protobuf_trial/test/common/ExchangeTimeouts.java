@@ -0,0 +1,81 @@
+package name.pomelo.protobuf_trial.test.common;
+
+import lombok.Getter;
+import org.jetbrains.annotations.NotNull;
+
+import java.util.concurrent.TimeUnit;
+
+// ---
+// How long a "Login exchange" may wait in each state for the client's next message before the
+// server gives it up and frees its session (see LoginExchangeHandler):
+//
+// - CHALLENGE_ISSUED, for LOGIN_CHALLENGE_SOLVED: "challengeNanos"
+// - CHALLENGE_SOLVED, for LOGIN_FOLLOWUP:         "followupNanos"
+// - LOGGED_IN,        for LOGIN_CLOSE:            "closeNanos"
+//
+// The timeouts run on a TimingWheel of "tickNanos" ticks, so they are late by up to a tick.
+//
+// Selected at startup with the system properties "loginServer.challengeTimeoutMillis",
+// "loginServer.followupTimeoutMillis" and "loginServer.closeTimeoutMillis".
+// ---
+
+@Getter
+public class ExchangeTimeouts {
+
+    public final static String CHALLENGE_TIMEOUT_PROPERTY = "loginServer.challengeTimeoutMillis";
+    public final static String FOLLOWUP_TIMEOUT_PROPERTY = "loginServer.followupTimeoutMillis";
+    public final static String CLOSE_TIMEOUT_PROPERTY = "loginServer.closeTimeoutMillis";
+
+    public final static long DEFAULT_CHALLENGE_MILLIS = 30_000;
+    public final static long DEFAULT_FOLLOWUP_MILLIS = 30_000;
+    public final static long DEFAULT_CLOSE_MILLIS = 10_000;
+    public final static long DEFAULT_TICK_NANOS = TimeUnit.MILLISECONDS.toNanos(10);
+
+    private final long challengeNanos;
+    private final long followupNanos;
+    private final long closeNanos;
+    private final long tickNanos;
+
+    public ExchangeTimeouts(long challengeNanos, long followupNanos, long closeNanos, long tickNanos) {
+        if (challengeNanos <= 0 || followupNanos <= 0 || closeNanos <= 0) {
+            throw new IllegalArgumentException("Timeouts must be greater than 0 but are " + challengeNanos + ", " + followupNanos + ", " + closeNanos);
+        }
+        if (tickNanos <= 0) {
+            throw new IllegalArgumentException("tickNanos must be greater than 0 but is " + tickNanos);
+        }
+        this.challengeNanos = challengeNanos;
+        this.followupNanos = followupNanos;
+        this.closeNanos = closeNanos;
+        this.tickNanos = tickNanos;
+    }
+
+    public static @NotNull ExchangeTimeouts defaults() {
+        return new ExchangeTimeouts(TimeUnit.MILLISECONDS.toNanos(DEFAULT_CHALLENGE_MILLIS), TimeUnit.MILLISECONDS.toNanos(DEFAULT_FOLLOWUP_MILLIS),
+                TimeUnit.MILLISECONDS.toNanos(DEFAULT_CLOSE_MILLIS), DEFAULT_TICK_NANOS);
+    }
+
+    public static @NotNull ExchangeTimeouts fromSystemProperties() {
+        return new ExchangeTimeouts(
+                TimeUnit.MILLISECONDS.toNanos(Long.getLong(CHALLENGE_TIMEOUT_PROPERTY, DEFAULT_CHALLENGE_MILLIS)),
+                TimeUnit.MILLISECONDS.toNanos(Long.getLong(FOLLOWUP_TIMEOUT_PROPERTY, DEFAULT_FOLLOWUP_MILLIS)),
+                TimeUnit.MILLISECONDS.toNanos(Long.getLong(CLOSE_TIMEOUT_PROPERTY, DEFAULT_CLOSE_MILLIS)),
+                DEFAULT_TICK_NANOS);
+    }
+
+    // How long an exchange may stay in "state"; 0 for a state it does not wait in
+
+    public long timeoutFor(@NotNull LoginState state) {
+        return switch (state) {
+            case CHALLENGE_ISSUED -> challengeNanos;
+            case CHALLENGE_SOLVED -> followupNanos;
+            case LOGGED_IN -> closeNanos;
+            case NONE, CLOSED -> 0;
+        };
+    }
+
+    @Override
+    public String toString() {
+        return "ExchangeTimeouts(challengeMillis=" + TimeUnit.NANOSECONDS.toMillis(challengeNanos) + ", followupMillis=" + TimeUnit.NANOSECONDS.toMillis(followupNanos)
+                + ", closeMillis=" + TimeUnit.NANOSECONDS.toMillis(closeNanos) + ")";
+    }
+}
@@ -0,0 +1,142 @@
+package name.pomelo.protobuf_trial.test.common;
+
+import com.google.protobuf.InvalidProtocolBufferException;
+import lombok.Getter;
+import name.pomelo.protobuf_trial.protos.ClientToServer;
+import name.pomelo.protobuf_trial.protos.ServerToClient;
+import org.jetbrains.annotations.NotNull;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+// ---
+// How many ClientToServer messages of each payload type a server received per minute, and how
+// many of them it answered with a failure, from its FrameJournal (see JournalQuery.aggregate()).
+//
+// A failure response is put down to the message it answers: LOGIN_REQUEST_ANSWER_FAILURE to
+// LOGIN_REQUEST, LOGIN_CHALLENGE_SOLVED_ANSWER_FAILURE to LOGIN_CHALLENGE_SOLVED and so on, and
+// GENERIC_FAILURE / LOGIN_GENERIC_FAILURE to the payload type of their "cause", which is the
+// only case where a message gets parsed. Both are counted in the minute of their own timestamp.
+//
+// One instance per segment while scanning, then merged. Not thread-safe.
+// ---
+
+public class FailureRates {
+
+    private final static long MINUTE_NANOS = 60_000_000_000L;
+
+    // The slots of the per-minute arrays: one per ClientToServer.PayloadType (by ordinal), then one for unrecognized values
+
+    private final static int TYPES = ClientToServer.PayloadType.values().length - 1; // without UNRECOGNIZED
+    private final static int OTHER = TYPES;
+
+    // minute since the epoch -> [received per type..., failed per type...]
+
+    private final @NotNull Map<Long, long[]> perMinute = new HashMap<>();
+
+    @Getter
+    public static class Row {
+
+        private final long minuteEpochNanos;
+        private final @NotNull String payloadType;
+        private final long received;
+        private final long failed;
+
+        private Row(long minuteEpochNanos, @NotNull String payloadType, long received, long failed) {
+            this.minuteEpochNanos = minuteEpochNanos;
+            this.payloadType = payloadType;
+            this.received = received;
+            this.failed = failed;
+        }
+
+        public double getFailureRate() {
+            return (received == 0) ? 0.0 : (double) failed / received;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("%s %-24s received %8d failed %8d (%5.1f%%)",
+                    java.time.Instant.ofEpochSecond(minuteEpochNanos / 1_000_000_000L), payloadType, received, failed, 100 * getFailureRate());
+        }
+    }
+
+    public static @NotNull FailureRates compute(@NotNull JournalQuery query) throws IOException {
+        return query.aggregate(JournalFilter.all(), FailureRates::new, FailureRates::visit, FailureRates::merge);
+    }
+
+    private void visit(long segmentIndex, @NotNull FrameJournalReader record, int headerResult, @NotNull MessageScanner header) {
+        final long[] counts = perMinute.computeIfAbsent(Math.floorDiv(record.getTimestampNanos(), MINUTE_NANOS), m -> new long[2 * (TYPES + 1)]);
+        if (record.getKind() == FrameJournal.CLIENT_TO_SERVER) {
+            counts[slot(header.getPayloadTypeValue())]++;
+            return;
+        }
+        final int answered = answeredTypeOfFailure(record, header.getPayloadTypeValue());
+        if (answered >= 0) {
+            counts[TYPES + 1 + slot(answered)]++;
+        }
+    }
+
+    private static int slot(int clientToServerPayloadType) {
+        final ClientToServer.PayloadType type = ClientToServer.PayloadType.forNumber(clientToServerPayloadType);
+        return (type == null) ? OTHER : type.ordinal();
+    }
+
+    // The ClientToServer payload type answered by a failure, -1 if the response is not a failure
+
+    private static int answeredTypeOfFailure(@NotNull FrameJournalReader record, int serverToClientPayloadType) {
+        final ServerToClient.PayloadType type = ServerToClient.PayloadType.forNumber(serverToClientPayloadType);
+        if (type == null) {
+            return -1;
+        }
+        return switch (type) {
+            case LOGIN_REQUEST_ANSWER_FAILURE -> ClientToServer.PayloadType.LOGIN_REQUEST_VALUE;
+            case LOGIN_CHALLENGE_SOLVED_ANSWER_FAILURE -> ClientToServer.PayloadType.LOGIN_CHALLENGE_SOLVED_VALUE;
+            case LOGIN_FOLLOWUP_ANSWER_FAILURE -> ClientToServer.PayloadType.LOGIN_FOLLOWUP_VALUE;
+            case GENERIC_FAILURE, LOGIN_GENERIC_FAILURE -> {
+                try {
+                    final ServerToClient s2c = record.parseServerToClient();
+                    final ClientToServer cause = (type == ServerToClient.PayloadType.GENERIC_FAILURE)
+                            ? s2c.getGenericFailure().getCause()
+                            : s2c.getLoginGenericFailure().getCause();
+                    yield cause.getPayloadTypeValue();
+                } catch (InvalidProtocolBufferException e) {
+                    yield ClientToServer.PayloadType.UNKNOWN_VALUE;
+                }
+            }
+            default -> -1;
+        };
+    }
+
+    private @NotNull FailureRates merge(@NotNull FailureRates other) {
+        other.perMinute.forEach((minute, counts) -> {
+            final long[] mine = perMinute.putIfAbsent(minute, counts);
+            if (mine != null) {
+                for (int i = 0; i < mine.length; i++) {
+                    mine[i] += counts[i];
+                }
+            }
+        });
+        return this;
+    }
+
+    // One row per minute and payload type received, by minute then by payload type
+
+    public @NotNull List<Row> getRows() {
+        final List<Row> rows = new ArrayList<>();
+        new TreeMap<>(perMinute).forEach((minute, counts) -> {
+            for (int slot = 0; slot <= TYPES; slot++) {
+                final long received = counts[slot];
+                final long failed = counts[TYPES + 1 + slot];
+                if (received > 0 || failed > 0) {
+                    final String name = (slot == OTHER) ? "(unrecognized)" : ClientToServer.PayloadType.values()[slot].name();
+                    rows.add(new Row(minute * MINUTE_NANOS, name, received, failed));
+                }
+            }
+        });
+        return rows;
+    }
+}
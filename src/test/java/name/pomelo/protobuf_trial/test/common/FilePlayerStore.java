@@ -0,0 +1,175 @@
+package name.pomelo.protobuf_trial.test.common;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.ConcurrentHashMap;
+
+// ---
+// A PlayerStore in a local file, to which players are only ever appended. A record is:
+//
+// [int record length][int username length][long previous][long uuid high][long uuid low][username, UTF-8]
+//
+// in little-endian, where "previous" is the offset of the previous record whose username has the
+// same 64-bit hash, or -1. Only the offset of the last record of every hash is kept in memory, so
+// finding a player is a positional read of its record (and of those before it in its chain, on
+// a hash collision); the usernames and UUIDs stay in the file. The reads and writes block the
+// calling thread, which is why the PlayerDirectory caches the players, and does the lookups of
+// its misses on loader threads for callers which must not block (resolveAsync()).
+//
+// When the file is opened, it is scanned to rebuild the index. A record cut short by a crash is
+// dropped, and appending continues from there. A player is in the page cache once register()
+// returns, and on the disk once the store is closed.
+//
+// Thread-safe: lookups run in parallel, registrations one at a time.
+// ---
+
+public class FilePlayerStore implements PlayerStore {
+
+    private final static Logger log = LoggerFactory.getLogger(FilePlayerStore.class);
+
+    public final static int HEADER_SIZE = 32;
+
+    // Read at once with the header, which covers most usernames
+
+    private final static int READ_AHEAD = 64;
+
+    private final @NotNull Path file;
+    private final @NotNull FileChannel channel;
+    private final @NotNull ConcurrentHashMap<Long, Long> lastOffsetByHash = new ConcurrentHashMap<>();
+    private volatile long end;
+    private volatile int size;
+
+    public FilePlayerStore(@NotNull Path file) throws IOException {
+        this.file = file;
+        this.channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        this.end = recover();
+    }
+
+    public @NotNull Path getFile() {
+        return file;
+    }
+
+    @Override
+    public int size() {
+        return size;
+    }
+
+    @Override
+    public @Nullable PlayerDirectory.Player find(@NotNull String username) throws IOException {
+        final byte[] name = username.getBytes(StandardCharsets.UTF_8);
+        final Long last = lastOffsetByHash.get(hash(name));
+        long offset = (last == null) ? -1 : last;
+        while (offset >= 0) {
+            final ByteBuffer record = read(offset, HEADER_SIZE + READ_AHEAD, end);
+            final int recordLength = record.getInt(0);
+            final int nameLength = record.getInt(4);
+            if (nameLength == name.length) {
+                final ByteBuffer full = (recordLength <= record.limit()) ? record : read(offset, recordLength, end);
+                if (full.slice(HEADER_SIZE, nameLength).equals(ByteBuffer.wrap(name))) {
+                    return new PlayerDirectory.Player(username, full.getLong(16), full.getLong(24));
+                }
+            }
+            offset = record.getLong(8);
+        }
+        return null;
+    }
+
+    @Override
+    public synchronized @NotNull PlayerDirectory.Player register(@NotNull String username, long uuidHigh, long uuidLow) throws IOException {
+        final PlayerDirectory.Player existing = find(username);
+        if (existing != null) {
+            return existing;
+        }
+        final byte[] name = username.getBytes(StandardCharsets.UTF_8);
+        final long h = hash(name);
+        final Long previous = lastOffsetByHash.get(h);
+        final ByteBuffer record = ByteBuffer.allocate(HEADER_SIZE + name.length).order(ByteOrder.LITTLE_ENDIAN);
+        record.putInt(HEADER_SIZE + name.length).putInt(name.length).putLong((previous == null) ? -1 : previous)
+                .putLong(uuidHigh).putLong(uuidLow).put(name).flip();
+        final long at = end;
+        while (record.hasRemaining()) {
+            channel.write(record, at + record.position());
+        }
+        // the record is complete before it can be found
+        end = at + record.limit();
+        lastOffsetByHash.put(h, at);
+        size++;
+        return new PlayerDirectory.Player(username, uuidHigh, uuidLow);
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        if (channel.isOpen()) {
+            channel.force(false);
+            channel.close();
+        }
+    }
+
+    // ---
+    // Scan the file, indexing every complete record, and cut it after the last one
+    // ---
+
+    private long recover() throws IOException {
+        final long fileSize = channel.size();
+        long offset = 0;
+        int count = 0;
+        while (offset + HEADER_SIZE <= fileSize) {
+            final ByteBuffer header = read(offset, HEADER_SIZE, fileSize);
+            final int recordLength = header.getInt(0);
+            final int nameLength = header.getInt(4);
+            if (nameLength <= 0 || recordLength != HEADER_SIZE + nameLength || offset + recordLength > fileSize) {
+                break;
+            }
+            final ByteBuffer record = read(offset, recordLength, fileSize);
+            final byte[] name = new byte[nameLength];
+            record.get(HEADER_SIZE, name);
+            lastOffsetByHash.put(hash(name), offset);
+            offset += recordLength;
+            count++;
+        }
+        if (offset < fileSize) {
+            log.warn("Dropping {} bytes after the last complete record of {}", fileSize - offset, file);
+            channel.truncate(offset);
+        }
+        size = count;
+        return offset;
+    }
+
+    // Read "length" bytes at "offset", fewer if the records end at "limit" before that
+
+    private @NotNull ByteBuffer read(long offset, int length, long limit) throws IOException {
+        final ByteBuffer buf = ByteBuffer.allocate((int) Math.min(length, limit - offset)).order(ByteOrder.LITTLE_ENDIAN);
+        while (buf.hasRemaining()) {
+            if (channel.read(buf, offset + buf.position()) < 0) {
+                throw new EOFException("Unexpected end of " + file + " at " + (offset + buf.position()));
+            }
+        }
+        return buf.flip();
+    }
+
+    // FNV-1a, 64 bits
+
+    private static long hash(byte @NotNull [] name) {
+        long h = 0xcbf29ce484222325L;
+        for (byte b : name) {
+            h = (h ^ (b & 0xFF)) * 0x100000001b3L;
+        }
+        return h;
+    }
+
+    @Override
+    public String toString() {
+        return "FilePlayerStore(" + file + ", " + size + " players, " + end + " bytes)";
+    }
+}
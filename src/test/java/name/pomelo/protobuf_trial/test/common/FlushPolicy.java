@@ -0,0 +1,73 @@
+package name.pomelo.protobuf_trial.test.common;
+
+import lombok.Getter;
+import org.jetbrains.annotations.NotNull;
+
+import java.util.concurrent.TimeUnit;
+
+// ---
+// When the NIO login server writes the responses queued for a connection (see OutboundBatcher):
+//
+// - as soon as "flushBytes" bytes are queued, or
+// - "flushDelayNanos" after the first response was queued, waiting for more to write them all
+//   with one gathering write.
+//
+// With a delay of 0 (the default), the responses to everything read from the connection in one go
+// are written at once, trading nothing for latency. A delay of some 100 microseconds fits a server
+// answering thousands of logins per second over many connections, where every write is a syscall.
+//
+// Selected at startup with the system properties "loginServer.flushBytes" and
+// "loginServer.flushDelayMicros" (e.g. -DloginServer.flushDelayMicros=200).
+// ---
+
+@Getter
+public class FlushPolicy {
+
+    public final static String FLUSH_BYTES_PROPERTY = "loginServer.flushBytes";
+    public final static String FLUSH_DELAY_PROPERTY = "loginServer.flushDelayMicros";
+
+    public final static int DEFAULT_FLUSH_BYTES = 32 * 1024;
+
+    public final static FlushPolicy IMMEDIATE = new FlushPolicy(DEFAULT_FLUSH_BYTES, 0);
+
+    private final int flushBytes;
+    private final long flushDelayNanos;
+
+    public FlushPolicy(int flushBytes, long flushDelayNanos) {
+        if (flushBytes <= 0) {
+            throw new IllegalArgumentException("flushBytes must be greater than 0 but is " + flushBytes);
+        }
+        if (flushDelayNanos < 0) {
+            throw new IllegalArgumentException("flushDelayNanos must be at least 0 but is " + flushDelayNanos);
+        }
+        this.flushBytes = flushBytes;
+        this.flushDelayNanos = flushDelayNanos;
+    }
+
+    public boolean isImmediate() {
+        return flushDelayNanos == 0;
+    }
+
+    public static @NotNull FlushPolicy fromSystemProperties() {
+        final int flushBytes = (int) longProperty(FLUSH_BYTES_PROPERTY, DEFAULT_FLUSH_BYTES);
+        final long flushDelayMicros = longProperty(FLUSH_DELAY_PROPERTY, 0);
+        return new FlushPolicy(flushBytes, TimeUnit.MICROSECONDS.toNanos(flushDelayMicros));
+    }
+
+    private static long longProperty(@NotNull String name, long defaultValue) {
+        final String value = System.getProperty(name);
+        if (value == null || value.isBlank()) {
+            return defaultValue;
+        }
+        try {
+            return Long.parseLong(value.trim());
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("System property " + name + " has value '" + value + "', which is not a number");
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "FlushPolicy(flushBytes=" + flushBytes + ", flushDelayMicros=" + TimeUnit.NANOSECONDS.toMicros(flushDelayNanos) + ")";
+    }
+}
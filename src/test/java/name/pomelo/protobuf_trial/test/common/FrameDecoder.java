@@ -0,0 +1,173 @@
+package name.pomelo.protobuf_trial.test.common;
+
+import com.google.protobuf.InvalidProtocolBufferException;
+import com.google.protobuf.Parser;
+import name.pomelo.protobuf_trial.protos.ClientToServer;
+import name.pomelo.protobuf_trial.protos.ServerToClient;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.nio.ByteBuffer;
+import java.util.function.Consumer;
+
+// ---
+// Incremental decoder for varint-length-prefixed frames (see UtilsForProtobufFraming).
+//
+// Feed it whatever a read from a channel returned; it hands every complete message to
+// a sink and keeps the bytes of an incomplete trailing frame until the next call.
+//
+// Complete frames are parsed straight out of the caller's buffer (which may be a direct
+// buffer) without copying them to a byte array first. Only a frame that straddles two
+// reads is copied into a small internal buffer, which is allocated lazily.
+//
+// One decoder per stream, not thread-safe.
+// ---
+
+public class FrameDecoder<T> {
+
+    private final @NotNull Parser<T> parser;
+    private final int maxFrameSize;
+    private final @Nullable FrameValidator validator;
+
+    // Bytes of a frame which straddles two buffers, in "write mode" (position = number of bytes held)
+
+    private @Nullable ByteBuffer pending;
+
+    public FrameDecoder(@NotNull Parser<T> parser, int maxFrameSize) {
+        this(parser, maxFrameSize, null);
+    }
+
+    // ---
+    // With a "validator", every frame is checked on its raw bytes before being parsed,
+    // and decode() throws FrameRejectedException for a frame which does not pass.
+    // ---
+
+    public FrameDecoder(@NotNull Parser<T> parser, int maxFrameSize, @Nullable FrameValidator validator) {
+        if (maxFrameSize <= 0) {
+            throw new IllegalArgumentException("maxFrameSize must be greater than 0 but is " + maxFrameSize);
+        }
+        this.parser = parser;
+        this.maxFrameSize = maxFrameSize;
+        this.validator = validator;
+    }
+
+    public static @NotNull FrameDecoder<ClientToServer> forClientToServer(int maxFrameSize) {
+        return new FrameDecoder<>(ClientToServer.parser(), maxFrameSize);
+    }
+
+    public static @NotNull FrameDecoder<ClientToServer> forClientToServer(int maxFrameSize, @NotNull FrameValidator validator) {
+        return new FrameDecoder<>(ClientToServer.parser(), maxFrameSize, validator);
+    }
+
+    public static @NotNull FrameDecoder<ServerToClient> forServerToClient(int maxFrameSize) {
+        return new FrameDecoder<>(ServerToClient.parser(), maxFrameSize);
+    }
+
+    // True if bytes of an incomplete frame are being held, i.e. EOF now would mean a truncated frame
+
+    public boolean hasPartialFrame() {
+        return pending != null && pending.position() > 0;
+    }
+
+    // ---
+    // Decode all complete frames in "src" (between position and limit) and pass them to "sink".
+    // On return, "src" has been entirely consumed (position == limit).
+    // Returns the number of messages passed to "sink".
+    // Throws if a frame is too large, is rejected by the validator or cannot be parsed;
+    // the stream should then be abandoned.
+    // ---
+
+    public int decode(@NotNull ByteBuffer src, @NotNull Consumer<? super T> sink) throws InvalidProtocolBufferException {
+        int count = 0;
+        if (hasPartialFrame()) {
+            final T msg = completePendingFrame(src);
+            if (msg == null) {
+                assert !src.hasRemaining();
+                return 0;
+            }
+            sink.accept(msg);
+            count++;
+        }
+        while (src.hasRemaining()) {
+            final int pos = src.position();
+            final long header = UtilsForProtobufFraming.peekFrameHeader(src, pos, maxFrameSize);
+            if (header < 0) {
+                stash(src, UtilsForProtobufFraming.MAX_HEADER_SIZE);
+                break;
+            }
+            final int headerSize = (int) (header >>> 32);
+            final int size = (int) header;
+            if (src.remaining() < headerSize + size) {
+                stash(src, headerSize + size);
+                break;
+            }
+            final T msg = parseFrame(src, pos + headerSize, size);
+            src.position(pos + headerSize + size);
+            sink.accept(msg);
+            count++;
+        }
+        return count;
+    }
+
+    // Move the remaining bytes of "src" into "pending", making sure "pending" can eventually hold "frameSize" bytes
+
+    private void stash(@NotNull ByteBuffer src, int frameSize) {
+        ensurePendingCapacity(frameSize);
+        assert pending != null;
+        pending.put(src);
+    }
+
+    private void ensurePendingCapacity(int capacity) {
+        if (pending == null) {
+            pending = ByteBuffer.allocate(Math.max(capacity, 256));
+        } else if (pending.capacity() < capacity) {
+            final ByteBuffer larger = ByteBuffer.allocate(Math.max(capacity, pending.capacity() * 2));
+            pending.flip();
+            larger.put(pending);
+            pending = larger;
+        }
+    }
+
+    // Top up "pending" from "src". Returns the message if the frame could be completed, null otherwise.
+
+    private @Nullable T completePendingFrame(@NotNull ByteBuffer src) throws InvalidProtocolBufferException {
+        assert pending != null;
+        long header = peekPendingHeader();
+        while (header < 0) {
+            if (!src.hasRemaining()) {
+                return null;
+            }
+            pending.put(src.get());
+            header = peekPendingHeader();
+        }
+        final int headerSize = (int) (header >>> 32);
+        final int size = (int) header;
+        ensurePendingCapacity(headerSize + size);
+        final int missing = headerSize + size - pending.position();
+        final int transfer = Math.min(missing, src.remaining());
+        pending.put(pending.position(), src, src.position(), transfer);
+        pending.position(pending.position() + transfer);
+        src.position(src.position() + transfer);
+        if (transfer < missing) {
+            return null;
+        }
+        final T msg = parseFrame(pending, headerSize, size);
+        pending.clear();
+        return msg;
+    }
+
+    private @NotNull T parseFrame(@NotNull ByteBuffer buf, int offset, int size) throws InvalidProtocolBufferException {
+        if (validator != null) {
+            final int result = validator.validate(buf, offset, size);
+            if (result != ScanResult.OK) {
+                throw new FrameRejectedException(result);
+            }
+        }
+        return parser.parseFrom(buf.slice(offset, size));
+    }
+
+    private long peekPendingHeader() throws InvalidProtocolBufferException {
+        assert pending != null;
+        return UtilsForProtobufFraming.peekFrameHeader(pending.slice(0, pending.position()), 0, maxFrameSize);
+    }
+}
@@ -0,0 +1,314 @@
+package name.pomelo.protobuf_trial.test.common;
+
+import com.google.protobuf.CodedOutputStream;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.CRC32C;
+
+// ---
+// An append-only journal of the frames received and sent by a login server, for forensics.
+//
+// The journal is a directory of "segment" files of fixed size, each one mapped into memory
+// (MappedByteBuffer): appending a frame is a copy into the page cache, no system call, and
+// the OS writes the pages out in its own time. Segments are named by their index so that
+// they sort in the order written; when one is full, the next one is created.
+//
+// A segment is a sequence of records, each starting at a multiple of 8:
+//
+// [int kind << 24 | frame length][int CRC32C of the rest][long timestamp][frame, "length" bytes][padding to 8]
+//
+// in little-endian, where the frame is the length-delimited message (varint length, then the
+// message, see UtilsForProtobufFraming) and the timestamp is in nanoseconds since the epoch.
+// A record whose first word is 0 has not been written (yet), and a PADDING record fills the end
+// of a segment when the next record did not fit.
+//
+// Appending is lock-free for any number of threads: a record's room is reserved by moving the
+// tail of the segment forward atomically, then the record is written, and the first word goes
+// last, with release semantics, so that a reader seeing it sees the whole record. Only the
+// thread whose record overflows a segment creates the next one, under a lock. The records of
+// one thread are in the order appended; with several threads appending, a record may carry
+// a slightly earlier timestamp than the one before it.
+//
+// When the journal is opened on an existing directory, the last segment is scanned with a
+// FrameJournalReader. Whatever follows the last complete record (a record cut short by a crash,
+// whose CRC does not match, or records written after such a hole) is wiped, and appending
+// continues from there.
+//
+// A frame is in the page cache once append() returns: it survives the process crashing, but not
+// the machine crashing, unless force() has been called.
+//
+// Thread-safe.
+// ---
+
+public class FrameJournal implements Closeable {
+
+    private final static Logger log = LoggerFactory.getLogger(FrameJournal.class);
+
+    // The kinds of records
+
+    public final static int CLIENT_TO_SERVER = 1;
+    public final static int SERVER_TO_CLIENT = 2;
+    public final static int PADDING = 0x7F;
+
+    public final static int HEADER_SIZE = 16;
+
+    // A frame length must fit into the 24 bits below the kind
+
+    public final static int MAX_FRAME_LENGTH = (1 << 24) - 1;
+
+    public final static int DEFAULT_SEGMENT_SIZE = 64 * 1024 * 1024;
+
+    public final static String SEGMENT_SUFFIX = ".journal";
+
+    // The first word of a record is written and read with release/acquire semantics
+
+    final static VarHandle INT_VIEW = MethodHandles.byteBufferViewVarHandle(int[].class, ByteOrder.LITTLE_ENDIAN);
+
+    // The checksum state of each appending thread (see Checksum)
+
+    private final static ThreadLocal<Checksum> CHECKSUMS = ThreadLocal.withInitial(Checksum::new);
+
+    private final @NotNull Path dir;
+    private final int segmentSize;
+
+    // Epoch nanoseconds from System.nanoTime(): as precise as nanoTime(), and never going backwards
+
+    private final long epochNanosBase = System.currentTimeMillis() * 1_000_000L;
+    private final long nanoTimeBase = System.nanoTime();
+
+    private volatile @NotNull Segment current;
+    private volatile boolean closed;
+
+    // ---
+    // A CRC32C and a view of the segment being written that one thread reuses for every record, so
+    // that appending allocates nothing (the view is only made again when the segment changes). The
+    // view is a duplicate() of the segment buffer, whose position and limit are the thread's own.
+    // ---
+
+    private static final class Checksum {
+
+        private final @NotNull CRC32C crc = new CRC32C();
+        private @Nullable ByteBuffer segment;
+        private @Nullable ByteBuffer view;
+
+        private int of(@NotNull ByteBuffer buf, int from, int to) {
+            ByteBuffer v = view;
+            if (segment != buf || v == null) {
+                segment = buf;
+                view = v = buf.duplicate();
+            }
+            v.limit(to).position(from);
+            crc.reset();
+            crc.update(v);
+            return (int) crc.getValue();
+        }
+    }
+
+    private static final class Segment {
+
+        private final long index;
+        private final @NotNull MappedByteBuffer buf;
+        private final int capacity;
+        private final @NotNull AtomicLong tail;
+
+        private Segment(long index, @NotNull MappedByteBuffer buf, int tail) {
+            this.index = index;
+            this.buf = buf;
+            this.capacity = buf.capacity();
+            this.tail = new AtomicLong(tail);
+        }
+    }
+
+    public FrameJournal(@NotNull Path dir) throws IOException {
+        this(dir, DEFAULT_SEGMENT_SIZE);
+    }
+
+    public FrameJournal(@NotNull Path dir, int segmentSize) throws IOException {
+        if (segmentSize < 4096 || segmentSize % 8 != 0) {
+            throw new IllegalArgumentException("segmentSize must be a multiple of 8 of at least 4096 but is " + segmentSize);
+        }
+        this.dir = dir;
+        this.segmentSize = segmentSize;
+        Files.createDirectories(dir);
+        final List<Path> existing = FrameJournalReader.segments(dir);
+        if (existing.isEmpty()) {
+            this.current = createSegment(0);
+        } else {
+            this.current = recover(existing.getLast());
+        }
+    }
+
+    public @NotNull Path getDir() {
+        return dir;
+    }
+
+    public int getSegmentSize() {
+        return segmentSize;
+    }
+
+    public static @NotNull String segmentName(long index) {
+        return String.format("%016d", index) + SEGMENT_SUFFIX;
+    }
+
+    public static long segmentIndexOf(@NotNull Path segment) {
+        final String name = segment.getFileName().toString();
+        return Long.parseLong(name.substring(0, name.length() - SEGMENT_SUFFIX.length()));
+    }
+
+    public static int recordSize(int frameLength) {
+        return (HEADER_SIZE + frameLength + 7) & ~7;
+    }
+
+    // The timestamp that append() gives a record appended now
+
+    public long nowEpochNanos() {
+        return epochNanosBase + (System.nanoTime() - nanoTimeBase);
+    }
+
+    // ---
+    // Append the message held by "src" between "offset" and "offset + messageSize", as a frame
+    // (i.e. preceded by its varint length). Neither the content nor the position of "src" change.
+    // ---
+
+    public void append(int kind, @NotNull ByteBuffer src, int offset, int messageSize) {
+        append(kind, nowEpochNanos(), src, offset, messageSize);
+    }
+
+    public void append(int kind, long timestampNanos, @NotNull ByteBuffer src, int offset, int messageSize) {
+        if (kind <= 0 || kind >= PADDING) {
+            throw new IllegalArgumentException("Bad record kind " + kind);
+        }
+        final int varintSize = CodedOutputStream.computeUInt32SizeNoTag(messageSize);
+        final int frameLength = varintSize + messageSize;
+        if (messageSize < 0 || frameLength > MAX_FRAME_LENGTH || recordSize(frameLength) > segmentSize) {
+            throw new IllegalArgumentException("A message of " + messageSize + " bytes does not fit into a journal segment");
+        }
+        final int size = recordSize(frameLength);
+        Segment seg = current;
+        while (true) {
+            if (closed) {
+                throw new IllegalStateException("The journal has been closed");
+            }
+            final long at = seg.tail.getAndAdd(size);
+            if (at + size <= seg.capacity) {
+                write(seg.buf, (int) at, kind, timestampNanos, src, offset, messageSize, varintSize);
+                return;
+            }
+            if (at < seg.capacity && at + HEADER_SIZE <= seg.capacity) {
+                // this record is the one that overflows: mark the rest of the segment as unused
+                INT_VIEW.setRelease(seg.buf, (int) at, PADDING << 24);
+            }
+            seg = nextSegment(seg);
+        }
+    }
+
+    // ---
+    // A FrameValidator which appends every frame it is given to this journal, then has it checked
+    // by "validator": put in the place of "validator", it records the frames a server receives
+    // (including those which are then rejected) without the frame decoding having to know.
+    // ---
+
+    public @NotNull FrameValidator recording(int kind, @NotNull FrameValidator validator) {
+        return (buf, offset, length) -> {
+            append(kind, buf, offset, length);
+            return validator.validate(buf, offset, length);
+        };
+    }
+
+    private static void write(@NotNull ByteBuffer buf, int at, int kind, long timestampNanos, @NotNull ByteBuffer src, int offset, int messageSize, int varintSize) {
+        // absolute puts only: threads writing different records do not share any buffer state
+        buf.putLong(at + 8, timestampNanos);
+        int pos = at + HEADER_SIZE;
+        int value = messageSize;
+        while ((value & ~0x7F) != 0) {
+            buf.put(pos++, (byte) ((value & 0x7F) | 0x80));
+            value >>>= 7;
+        }
+        buf.put(pos++, (byte) value);
+        buf.put(pos, src, offset, messageSize);
+        final int frameLength = varintSize + messageSize;
+        buf.putInt(at + 4, CHECKSUMS.get().of(buf, at + 8, at + HEADER_SIZE + frameLength));
+        INT_VIEW.setRelease(buf, at, (kind << 24) | frameLength);
+    }
+
+    private synchronized @NotNull Segment nextSegment(@NotNull Segment full) {
+        if (current != full) {
+            return current; // another thread got there first
+        }
+        try {
+            current = createSegment(full.index + 1);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return current;
+    }
+
+    private @NotNull Segment createSegment(long index) throws IOException {
+        final Path path = dir.resolve(segmentName(index));
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.CREATE_NEW, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            // the file grows to the size of the mapping, as a sparse file full of zeros
+            final MappedByteBuffer buf = channel.map(FileChannel.MapMode.READ_WRITE, 0, segmentSize);
+            buf.order(ByteOrder.LITTLE_ENDIAN);
+            return new Segment(index, buf, 0);
+        }
+    }
+
+    private @NotNull Segment recover(@NotNull Path path) throws IOException {
+        final long index = segmentIndexOf(path);
+        final MappedByteBuffer buf;
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            buf = channel.map(FileChannel.MapMode.READ_WRITE, 0, channel.size());
+        }
+        buf.order(ByteOrder.LITTLE_ENDIAN);
+        final FrameJournalReader reader = new FrameJournalReader(buf);
+        long records = 0;
+        while (reader.next()) {
+            records++;
+        }
+        final int end = reader.getPosition();
+        if (reader.isTruncated()) {
+            log.warn("Journal segment {}: discarding a partial record at offset {}, after {} records", path, end, records);
+        }
+        if (reader.isFull()) {
+            return createSegment(index + 1);
+        }
+        // Wipe what follows the last complete record, so that it cannot be taken for records later on
+        for (int i = end & ~7; i + 8 <= buf.capacity(); i += 8) {
+            if (buf.getLong(i) != 0) {
+                buf.putLong(i, 0);
+            }
+        }
+        return new Segment(index, buf, end);
+    }
+
+    // Write the current segment out to the storage device
+
+    public void force() {
+        current.buf.force();
+    }
+
+    // Appending after close() fails. The segments stay mapped until the GC collects them.
+
+    @Override
+    public void close() {
+        closed = true;
+        current.buf.force();
+    }
+}
@@ -0,0 +1,171 @@
+package name.pomelo.protobuf_trial.test.common;
+
+import com.google.protobuf.CodedInputStream;
+import com.google.protobuf.InvalidProtocolBufferException;
+import name.pomelo.protobuf_trial.protos.ClientToServer;
+import name.pomelo.protobuf_trial.protos.ServerToClient;
+import org.jetbrains.annotations.NotNull;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+import java.util.stream.Stream;
+import java.util.zip.CRC32C;
+
+// ---
+// Reads the records of one FrameJournal segment in order, straight out of the mapped file.
+//
+// A cursor: next() moves to the next record, whose kind, timestamp and message can then be had
+// through the getters. The message is a view on the segment (no copy), which is handed to
+// CodedInputStream.newInstance(ByteBuffer) to be parsed; that view is reused from one record to
+// the next, so it must not be kept.
+//
+// Reading stops at the end of the data: a record not written (yet), the PADDING record or the
+// end of the segment, and a record cut short or damaged by a crash (see isTruncated()).
+// A segment still being appended to can be read; records appended after next() has returned
+// false at the end of the data are seen by calling next() again.
+//
+// Not thread-safe; any number of readers can read the same segment.
+// ---
+
+public class FrameJournalReader {
+
+    private final @NotNull ByteBuffer segment;
+    private final @NotNull ByteBuffer message;
+    private final @NotNull CRC32C crc = new CRC32C();
+
+    private int position;   // start of the next record
+    private int recordOffset;
+    private int kind;
+    private long timestampNanos;
+    private boolean truncated;
+    private boolean full;
+
+    public FrameJournalReader(@NotNull ByteBuffer segment) {
+        this.segment = segment.duplicate().order(ByteOrder.LITTLE_ENDIAN);
+        this.message = segment.duplicate();
+    }
+
+    public static @NotNull FrameJournalReader open(@NotNull Path segmentFile) throws IOException {
+        try (FileChannel channel = FileChannel.open(segmentFile, StandardOpenOption.READ)) {
+            return new FrameJournalReader(channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()));
+        }
+    }
+
+    // The segment files of a journal directory, in the order written
+
+    public static @NotNull List<Path> segments(@NotNull Path dir) throws IOException {
+        try (Stream<Path> files = Files.list(dir)) {
+            return files.filter(p -> p.getFileName().toString().endsWith(FrameJournal.SEGMENT_SUFFIX)).sorted().toList();
+        }
+    }
+
+    public boolean next() {
+        if (position + FrameJournal.HEADER_SIZE > segment.capacity()) {
+            full = true;
+            return false;
+        }
+        final int first = (int) FrameJournal.INT_VIEW.getAcquire(segment, position);
+        if (first == 0) {
+            return false;
+        }
+        final int recordKind = first >>> 24;
+        if (recordKind == FrameJournal.PADDING) {
+            full = true;
+            return false;
+        }
+        final int frameLength = first & FrameJournal.MAX_FRAME_LENGTH;
+        if (recordKind != FrameJournal.CLIENT_TO_SERVER && recordKind != FrameJournal.SERVER_TO_CLIENT
+                || position + FrameJournal.HEADER_SIZE + frameLength > segment.capacity()
+                || !hasValidChecksum(frameLength)) {
+            truncated = true;
+            return false;
+        }
+        // The frame is the varint length, then the message
+        final int frameStart = position + FrameJournal.HEADER_SIZE;
+        int messageSize = 0;
+        int varintSize = 0;
+        byte b;
+        do {
+            if (varintSize == UtilsForProtobufFraming.MAX_HEADER_SIZE || varintSize == frameLength) {
+                truncated = true;
+                return false;
+            }
+            b = segment.get(frameStart + varintSize);
+            messageSize |= (b & 0x7F) << (7 * varintSize);
+            varintSize++;
+        } while (b < 0);
+        if (varintSize + messageSize != frameLength) {
+            truncated = true;
+            return false;
+        }
+        kind = recordKind;
+        recordOffset = position;
+        timestampNanos = segment.getLong(position + 8);
+        message.limit(frameStart + frameLength).position(frameStart + varintSize);
+        position += FrameJournal.recordSize(frameLength);
+        return true;
+    }
+
+    private boolean hasValidChecksum(int frameLength) {
+        crc.reset();
+        message.limit(position + FrameJournal.HEADER_SIZE + frameLength).position(position + 8);
+        crc.update(message);
+        return (int) crc.getValue() == segment.getInt(position + 4);
+    }
+
+    // The offset of the record after the current one, i.e. the end of the data once next() returned false
+
+    public int getPosition() {
+        return position;
+    }
+
+    // The offset of the current record in the segment
+
+    public int getRecordOffset() {
+        return recordOffset;
+    }
+
+    // True if reading stopped at a record which is not complete or does not match its checksum
+
+    public boolean isTruncated() {
+        return truncated;
+    }
+
+    // True if reading stopped at the end of the segment; the records continue in the next segment
+
+    public boolean isFull() {
+        return full;
+    }
+
+    public int getKind() {
+        return kind;
+    }
+
+    public long getTimestampNanos() {
+        return timestampNanos;
+    }
+
+    // The message of the current record, between position and limit; valid until the next call to next()
+
+    public @NotNull ByteBuffer getMessage() {
+        return message;
+    }
+
+    public @NotNull CodedInputStream newCodedInputStream() {
+        return CodedInputStream.newInstance(message);
+    }
+
+    public @NotNull ClientToServer parseClientToServer() throws InvalidProtocolBufferException {
+        return ClientToServer.parser().parseFrom(newCodedInputStream());
+    }
+
+    public @NotNull ServerToClient parseServerToClient() throws InvalidProtocolBufferException {
+        return ServerToClient.parser().parseFrom(newCodedInputStream());
+    }
+}
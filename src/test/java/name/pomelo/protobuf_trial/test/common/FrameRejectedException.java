@@ -0,0 +1,20 @@
+package name.pomelo.protobuf_trial.test.common;
+
+import com.google.protobuf.InvalidProtocolBufferException;
+import lombok.Getter;
+
+// ---
+// Thrown by the frame readers when a FrameValidator rejects a frame before it is parsed.
+// "result" is the ScanResult code.
+// ---
+
+@Getter
+public class FrameRejectedException extends InvalidProtocolBufferException {
+
+    private final int result;
+
+    public FrameRejectedException(int result) {
+        super("Frame rejected: " + ScanResult.describe(result));
+        this.result = result;
+    }
+}
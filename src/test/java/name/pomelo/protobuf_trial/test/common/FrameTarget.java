@@ -0,0 +1,19 @@
+package name.pomelo.protobuf_trial.test.common;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.nio.ByteBuffer;
+
+// ---
+// Where ServerToClientWriter puts the frames it writes when used as a LoginResponder:
+// a login server hands out its output buffer, making room first if needed.
+// ---
+
+@FunctionalInterface
+public interface FrameTarget {
+
+    // A buffer in "write mode" with at least "frameSize" bytes remaining.
+    // May throw UncheckedIOException if making room meant writing to a socket, and that failed.
+
+    @NotNull ByteBuffer bufferFor(int frameSize);
+}
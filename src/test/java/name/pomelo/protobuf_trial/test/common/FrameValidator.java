@@ -0,0 +1,17 @@
+package name.pomelo.protobuf_trial.test.common;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.nio.ByteBuffer;
+
+// ---
+// Checks the raw bytes of a frame before it is parsed, see MessageScanner.
+// Returns ScanResult.OK or another ScanResult code. Must not modify the buffer or its position.
+// ---
+
+@FunctionalInterface
+public interface FrameValidator {
+
+    int validate(@NotNull ByteBuffer buf, int offset, int length);
+
+}
@@ -0,0 +1,87 @@
+package name.pomelo.protobuf_trial.test.common;
+
+import com.google.protobuf.InvalidProtocolBufferException;
+import lombok.Getter;
+import name.pomelo.protobuf_trial.protos.ClientToServer;
+import name.pomelo.protobuf_trial.protos.ServerToClient;
+import org.jetbrains.annotations.NotNull;
+
+import java.util.UUID;
+
+// ---
+// A record found by a JournalQuery: where it is in the journal, its kind and timestamp, the
+// header fields peeked by the MessageScanner, and a copy of the message (the journal mapping
+// cannot be held on to).
+//
+// "headerResult" is ScanResult.OK, or ScanResult.MALFORMED if the header could not be read,
+// in which case the header fields are those found before the problem.
+// ---
+
+@Getter
+public class JournalEntry {
+
+    private final long segmentIndex;
+    private final int offset;
+    private final int kind;
+    private final long timestampNanos;
+    private final int headerResult;
+    private final int payloadTypeValue;
+    private final int seqNum;
+    private final long clientExchangeHigh;
+    private final long clientExchangeLow;
+    private final long serverExchangeHigh;
+    private final long serverExchangeLow;
+    private final byte @NotNull [] message;
+
+    public JournalEntry(long segmentIndex, int offset, int kind, long timestampNanos, int headerResult, @NotNull MessageScanner header, byte @NotNull [] message) {
+        this.segmentIndex = segmentIndex;
+        this.offset = offset;
+        this.kind = kind;
+        this.timestampNanos = timestampNanos;
+        this.headerResult = headerResult;
+        this.payloadTypeValue = header.getPayloadTypeValue();
+        this.seqNum = header.getSeqNum();
+        this.clientExchangeHigh = header.getClientExchangeHigh();
+        this.clientExchangeLow = header.getClientExchangeLow();
+        this.serverExchangeHigh = header.getServerExchangeHigh();
+        this.serverExchangeLow = header.getServerExchangeLow();
+        this.message = message;
+    }
+
+    public boolean isClientToServer() {
+        return kind == FrameJournal.CLIENT_TO_SERVER;
+    }
+
+    public @NotNull UUID getClientExchangeUuid() {
+        return new UUID(clientExchangeHigh, clientExchangeLow);
+    }
+
+    // In journal order: by segment, then by offset within the segment
+
+    public int compareJournalOrder(@NotNull JournalEntry other) {
+        final int bySegment = Long.compare(segmentIndex, other.segmentIndex);
+        return (bySegment != 0) ? bySegment : Integer.compare(offset, other.offset);
+    }
+
+    public @NotNull ClientToServer parseClientToServer() throws InvalidProtocolBufferException {
+        return ClientToServer.parseFrom(message);
+    }
+
+    public @NotNull ServerToClient parseServerToClient() throws InvalidProtocolBufferException {
+        return ServerToClient.parseFrom(message);
+    }
+
+    @Override
+    public String toString() {
+        final String type = isClientToServer()
+                ? String.valueOf(ClientToServer.PayloadType.forNumber(payloadTypeValue))
+                : String.valueOf(ServerToClient.PayloadType.forNumber(payloadTypeValue));
+        return "JournalEntry[" + segmentIndex + ":" + offset
+                + ", " + (isClientToServer() ? "C->S " : "S->C ") + type
+                + ", seqNum=" + seqNum
+                + ", exchange=" + getClientExchangeUuid()
+                + ", t=" + timestampNanos
+                + (headerResult == ScanResult.OK ? "" : ", " + ScanResult.describe(headerResult))
+                + "]";
+    }
+}
@@ -0,0 +1,77 @@
+package name.pomelo.protobuf_trial.test.common;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.util.UUID;
+
+// ---
+// Which journal records a JournalQuery is after, on the record's kind and timestamp and on the
+// header fields (payload_type and CommonStuff) peeked by a MessageScanner. Immutable: each
+// withXxx() gives a copy with one more criterion; all() matches every record.
+//
+// matches() only compares primitives, as it runs for every record of the journal.
+// ---
+
+public class JournalFilter {
+
+    private final static int ANY = -1;
+
+    private final int kind;
+    private final int payloadTypeValue;
+    private final boolean byClientExchange;
+    private final long clientExchangeHigh;
+    private final long clientExchangeLow;
+    private final long fromNanos;
+    private final long toNanos;
+
+    private final static JournalFilter ALL = new JournalFilter(ANY, ANY, false, 0L, 0L, Long.MIN_VALUE, Long.MAX_VALUE);
+
+    private JournalFilter(int kind, int payloadTypeValue, boolean byClientExchange, long clientExchangeHigh, long clientExchangeLow, long fromNanos, long toNanos) {
+        this.kind = kind;
+        this.payloadTypeValue = payloadTypeValue;
+        this.byClientExchange = byClientExchange;
+        this.clientExchangeHigh = clientExchangeHigh;
+        this.clientExchangeLow = clientExchangeLow;
+        this.fromNanos = fromNanos;
+        this.toNanos = toNanos;
+    }
+
+    public static @NotNull JournalFilter all() {
+        return ALL;
+    }
+
+    // FrameJournal.CLIENT_TO_SERVER or FrameJournal.SERVER_TO_CLIENT
+
+    public @NotNull JournalFilter withKind(int kind) {
+        return new JournalFilter(kind, payloadTypeValue, byClientExchange, clientExchangeHigh, clientExchangeLow, fromNanos, toNanos);
+    }
+
+    // The number of a ClientToServer.PayloadType or ServerToClient.PayloadType; best combined with withKind()
+
+    public @NotNull JournalFilter withPayloadType(int payloadTypeValue) {
+        return new JournalFilter(kind, payloadTypeValue, byClientExchange, clientExchangeHigh, clientExchangeLow, fromNanos, toNanos);
+    }
+
+    // The messages of one exchange, both ways (the responses echo the client exchange UUID)
+
+    public @NotNull JournalFilter withClientExchange(@NotNull UUID uuid) {
+        return new JournalFilter(kind, payloadTypeValue, true, uuid.getMostSignificantBits(), uuid.getLeastSignificantBits(), fromNanos, toNanos);
+    }
+
+    // Records with fromNanos <= timestamp < toNanos (nanoseconds since the epoch)
+
+    public @NotNull JournalFilter withTimeRange(long fromNanos, long toNanos) {
+        return new JournalFilter(kind, payloadTypeValue, byClientExchange, clientExchangeHigh, clientExchangeLow, fromNanos, toNanos);
+    }
+
+    // Whether the record can match before its header has been peeked at
+
+    public boolean matchesRecord(int recordKind, long timestampNanos) {
+        return (kind == ANY || kind == recordKind) && timestampNanos >= fromNanos && timestampNanos < toNanos;
+    }
+
+    public boolean matchesHeader(@NotNull MessageScanner header) {
+        return (payloadTypeValue == ANY || payloadTypeValue == header.getPayloadTypeValue())
+                && (!byClientExchange || (clientExchangeHigh == header.getClientExchangeHigh() && clientExchangeLow == header.getClientExchangeLow()));
+    }
+}
@@ -0,0 +1,185 @@
+package name.pomelo.protobuf_trial.test.common;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+import java.util.function.BinaryOperator;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
+
+// ---
+// Offline queries over the segments of a FrameJournal directory.
+//
+// The segments are scanned in parallel, one fork/join task per segment. Each task walks its
+// segment with a FrameJournalReader and a MessageScanner of its own: a record is first matched
+// on its kind and timestamp, then on its header (payload_type and CommonStuff), which the
+// scanner peeks at on the mapped bytes without parsing the message. Only the records that match
+// go further.
+//
+// - scan() streams the matching records to a sink as they are found (from several threads,
+//   in no particular order); find() collects them in journal order.
+// - aggregate() folds the matching records into one accumulator per segment, and combines
+//   the accumulators at the end, e.g. FailureRates.
+//
+// Segments still being appended to can be queried; records appended meanwhile may be missed.
+// ---
+
+public class JournalQuery {
+
+    private final @NotNull Path dir;
+    private final @NotNull ForkJoinPool pool;
+
+    // What to do with a matching record. "record" is positioned on it and "header" holds its
+    // header; neither may be kept beyond the call.
+
+    @FunctionalInterface
+    public interface RecordVisitor<A> {
+        void visit(@NotNull A acc, long segmentIndex, @NotNull FrameJournalReader record, int headerResult, @NotNull MessageScanner header);
+    }
+
+    public JournalQuery(@NotNull Path dir) {
+        this(dir, ForkJoinPool.commonPool());
+    }
+
+    public JournalQuery(@NotNull Path dir, @NotNull ForkJoinPool pool) {
+        this.dir = dir;
+        this.pool = pool;
+    }
+
+    // ---
+    // Hand each matching record to "sink" as a JournalEntry. "sink" is called from the worker
+    // threads, concurrently and in no particular order. Returns the number of matching records.
+    // ---
+
+    public long scan(@NotNull JournalFilter filter, @NotNull Consumer<? super JournalEntry> sink) throws IOException {
+        final long[] count = aggregate(filter, () -> new long[1], (acc, segmentIndex, record, headerResult, header) -> {
+            sink.accept(toEntry(segmentIndex, record, headerResult, header));
+            acc[0]++;
+        }, (a, b) -> {
+            a[0] += b[0];
+            return a;
+        });
+        return count[0];
+    }
+
+    // The matching records, in journal order
+
+    public @NotNull List<JournalEntry> find(@NotNull JournalFilter filter) throws IOException {
+        final List<JournalEntry> found = aggregate(filter, ArrayList::new,
+                (acc, segmentIndex, record, headerResult, header) -> acc.add(toEntry(segmentIndex, record, headerResult, header)),
+                (a, b) -> {
+                    a.addAll(b);
+                    return a;
+                });
+        found.sort(JournalEntry::compareJournalOrder);
+        return found;
+    }
+
+    // ---
+    // Fold the matching records of each segment into an accumulator from "supplier" through
+    // "visitor", and combine the accumulators of all segments with "combiner".
+    // ---
+
+    public <A> @NotNull A aggregate(@NotNull JournalFilter filter, @NotNull Supplier<A> supplier, @NotNull RecordVisitor<? super A> visitor, @NotNull BinaryOperator<A> combiner) throws IOException {
+        final List<Path> segments = FrameJournalReader.segments(dir);
+        if (segments.isEmpty()) {
+            return supplier.get();
+        }
+        try {
+            return pool.invoke(new AllSegments<>(segments, filter, supplier, visitor, combiner));
+        } catch (UncheckedIOException e) {
+            // fork/join may have wrapped the exception of the worker into another one of the same type
+            Throwable cause = e;
+            while (cause instanceof UncheckedIOException) {
+                cause = cause.getCause();
+            }
+            if (cause instanceof IOException io) {
+                throw io;
+            }
+            throw e;
+        }
+    }
+
+    private static @NotNull JournalEntry toEntry(long segmentIndex, @NotNull FrameJournalReader record, int headerResult, @NotNull MessageScanner header) {
+        final ByteBuffer msg = record.getMessage();
+        final byte[] bytes = new byte[msg.remaining()];
+        msg.get(msg.position(), bytes);
+        return new JournalEntry(segmentIndex, record.getRecordOffset(), record.getKind(), record.getTimestampNanos(), headerResult, header, bytes);
+    }
+
+    private static final class AllSegments<A> extends RecursiveTask<A> {
+
+        private final @NotNull List<Path> segments;
+        private final @NotNull JournalFilter filter;
+        private final @NotNull Supplier<A> supplier;
+        private final @NotNull RecordVisitor<? super A> visitor;
+        private final @NotNull BinaryOperator<A> combiner;
+
+        private AllSegments(@NotNull List<Path> segments, @NotNull JournalFilter filter, @NotNull Supplier<A> supplier, @NotNull RecordVisitor<? super A> visitor, @NotNull BinaryOperator<A> combiner) {
+            this.segments = segments;
+            this.filter = filter;
+            this.supplier = supplier;
+            this.visitor = visitor;
+            this.combiner = combiner;
+        }
+
+        @Override
+        protected A compute() {
+            final List<OneSegment<A>> tasks = new ArrayList<>(segments.size());
+            for (Path segment : segments) {
+                tasks.add(new OneSegment<>(segment, filter, supplier.get(), visitor));
+            }
+            invokeAll(tasks);
+            A result = tasks.getFirst().join();
+            for (int i = 1; i < tasks.size(); i++) {
+                result = combiner.apply(result, tasks.get(i).join());
+            }
+            return result;
+        }
+    }
+
+    private static final class OneSegment<A> extends RecursiveTask<A> {
+
+        private final @NotNull Path segment;
+        private final @NotNull JournalFilter filter;
+        private final @NotNull A acc;
+        private final @NotNull RecordVisitor<? super A> visitor;
+
+        private OneSegment(@NotNull Path segment, @NotNull JournalFilter filter, @NotNull A acc, @NotNull RecordVisitor<? super A> visitor) {
+            this.segment = segment;
+            this.filter = filter;
+            this.acc = acc;
+            this.visitor = visitor;
+        }
+
+        @Override
+        protected A compute() {
+            final long segmentIndex = FrameJournal.segmentIndexOf(segment);
+            final FrameJournalReader reader;
+            try {
+                reader = FrameJournalReader.open(segment);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+            final MessageScanner header = new MessageScanner();
+            while (reader.next()) {
+                if (!filter.matchesRecord(reader.getKind(), reader.getTimestampNanos())) {
+                    continue;
+                }
+                final ByteBuffer msg = reader.getMessage();
+                final int headerResult = header.peekHeader(msg, msg.position(), msg.remaining());
+                if (filter.matchesHeader(header)) {
+                    visitor.visit(acc, segmentIndex, reader, headerResult, header);
+                }
+            }
+            return acc;
+        }
+    }
+}
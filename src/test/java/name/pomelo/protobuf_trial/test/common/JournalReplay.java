@@ -0,0 +1,146 @@
+package name.pomelo.protobuf_trial.test.common;
+
+import com.google.protobuf.CodedOutputStream;
+import lombok.Getter;
+import name.pomelo.protobuf_trial.protos.ClientToServer;
+import name.pomelo.protobuf_trial.protos.ServerToClient;
+import org.jetbrains.annotations.NotNull;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+// ---
+// Send journaled ClientToServer frames (as found by a JournalQuery) to a login server again,
+// over one connection, byte for byte as they were received.
+//
+// "speed" is how fast the recording is played: 1.0 keeps the original spacing between the
+// frames, 2.0 plays twice as fast, and 0 sends them back to back as fast as the socket takes them.
+// The responses are read on a virtual thread and counted by payload type; replay() returns once
+// every message but LOGIN_CLOSE has been answered, or once no response has come for "quietNanos".
+//
+// The server does not know the replayed exchanges, so it answers them as new ones: its
+// challenges differ from the recorded ones, so the recorded solutions fail, and so do the
+// messages after them. That is what a replay is for here: putting a recorded traffic shape on a
+// server, including its share of invalid and replayed messages.
+// ---
+
+public class JournalReplay {
+
+    public final static long DEFAULT_QUIET_NANOS = 2_000_000_000L;
+
+    @Getter
+    public static class Result {
+
+        private final long sent;
+        private final long expected;
+        private final long received;
+        private final @NotNull Map<ServerToClient.PayloadType, Long> receivedByType;
+        private final long elapsedNanos;
+        private final long recordedSpanNanos;
+
+        private Result(long sent, long expected, long received, @NotNull Map<ServerToClient.PayloadType, Long> receivedByType, long elapsedNanos, long recordedSpanNanos) {
+            this.sent = sent;
+            this.expected = expected;
+            this.received = received;
+            this.receivedByType = receivedByType;
+            this.elapsedNanos = elapsedNanos;
+            this.recordedSpanNanos = recordedSpanNanos;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("sent %d frames (recorded over %.3f s) in %.3f s, %d of %d responses received: %s",
+                    sent, recordedSpanNanos / 1e9, elapsedNanos / 1e9, received, expected, receivedByType);
+        }
+    }
+
+    private JournalReplay() {
+        // no instances
+    }
+
+    public static @NotNull Result replay(@NotNull List<JournalEntry> entries, @NotNull InetSocketAddress target, double speed) throws IOException, InterruptedException {
+        return replay(entries, target, speed, DEFAULT_QUIET_NANOS);
+    }
+
+    public static @NotNull Result replay(@NotNull List<JournalEntry> entries, @NotNull InetSocketAddress target, double speed, long quietNanos) throws IOException, InterruptedException {
+        if (!(speed >= 0) || Double.isInfinite(speed)) {
+            throw new IllegalArgumentException("Speed must be 0 (as fast as possible) or positive, not " + speed);
+        }
+        final List<JournalEntry> frames = new ArrayList<>();
+        long expected = 0;
+        for (JournalEntry entry : entries) {
+            if (entry.isClientToServer()) {
+                frames.add(entry);
+                if (entry.getPayloadTypeValue() != ClientToServer.PayloadType.LOGIN_CLOSE_VALUE) {
+                    expected++;
+                }
+            }
+        }
+        frames.sort(Comparator.comparingLong(JournalEntry::getTimestampNanos));
+        final long recordedSpan = frames.isEmpty() ? 0 : frames.getLast().getTimestampNanos() - frames.getFirst().getTimestampNanos();
+        try (Socket socket = new Socket()) {
+            socket.setTcpNoDelay(true);
+            socket.connect(target);
+            final long[] counts = new long[ServerToClient.PayloadType.values().length];
+            final AtomicLong received = new AtomicLong();
+            final AtomicLong lastReceived = new AtomicLong(System.nanoTime());
+            final Thread reader = Thread.ofVirtual().name("journal-replay-reader").start(() -> readResponses(socket, counts, received, lastReceived));
+            final long start = System.nanoTime();
+            final CodedOutputStream out = CodedOutputStream.newInstance(socket.getOutputStream(), 64 * 1024);
+            for (JournalEntry frame : frames) {
+                if (speed > 0) {
+                    final long due = start + (long) ((frame.getTimestampNanos() - frames.getFirst().getTimestampNanos()) / speed);
+                    for (long wait = due - System.nanoTime(); wait > 0; wait = due - System.nanoTime()) {
+                        LockSupport.parkNanos(wait);
+                    }
+                }
+                out.writeUInt32NoTag(frame.getMessage().length);
+                out.writeRawBytes(frame.getMessage());
+                if (speed > 0) {
+                    out.flush();
+                }
+            }
+            out.flush();
+            final long sentAt = System.nanoTime();
+            lastReceived.accumulateAndGet(sentAt, Math::max);
+            while (received.get() < expected && reader.isAlive() && System.nanoTime() - lastReceived.get() < quietNanos) {
+                Thread.sleep(1);
+            }
+            final long elapsed = System.nanoTime() - start;
+            socket.close(); // ends the reader
+            reader.join();
+            final Map<ServerToClient.PayloadType, Long> byType = new EnumMap<>(ServerToClient.PayloadType.class);
+            for (ServerToClient.PayloadType type : ServerToClient.PayloadType.values()) {
+                if (counts[type.ordinal()] > 0) {
+                    byType.put(type, counts[type.ordinal()]);
+                }
+            }
+            return new Result(frames.size(), expected, received.get(), byType, elapsed, recordedSpan);
+        }
+    }
+
+    // Until the server or replay() closes the connection; counts are published through "received"
+
+    private static void readResponses(@NotNull Socket socket, long @NotNull [] counts, @NotNull AtomicLong received, @NotNull AtomicLong lastReceived) {
+        try {
+            final InputStream in = socket.getInputStream();
+            ServerToClient s2c;
+            while ((s2c = UtilsForProtobufFraming.readFrame(in, ServerToClient.parser(), UtilsForProtobufFraming.DEFAULT_MAX_FRAME_SIZE)) != null) {
+                counts[s2c.getPayloadType().ordinal()]++;
+                lastReceived.set(System.nanoTime());
+                received.incrementAndGet();
+            }
+        } catch (IOException e) {
+            // closed by replay(), or by the server
+        }
+    }
+}
@@ -0,0 +1,64 @@
+package name.pomelo.protobuf_trial.test.common;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.UUID;
+
+// ---
+// Look into the FrameJournal directory of a login server, offline (see JournalQuery).
+//
+// exchange DIR UUID                      every frame of the exchange with that client exchange UUID
+// failures DIR                           per minute and message type: received, answered with a failure
+// replay   DIR HOST:PORT [SPEED] [UUID]  send the journaled client frames (of one exchange) again,
+//                                        SPEED 1.0 = original pace (default), 0 = as fast as possible
+// ---
+
+public class JournalTool {
+
+    public static void main(String[] args) throws IOException, InterruptedException {
+        if (args.length < 2) {
+            usage();
+            return;
+        }
+        final JournalQuery query = new JournalQuery(Path.of(args[1]));
+        switch (args[0]) {
+            case "exchange" -> {
+                if (args.length < 3) {
+                    usage();
+                    return;
+                }
+                for (JournalEntry entry : query.find(JournalFilter.all().withClientExchange(UUID.fromString(args[2])))) {
+                    System.out.println(entry);
+                    System.out.println(entry.isClientToServer() ? entry.parseClientToServer() : entry.parseServerToClient());
+                }
+            }
+            case "failures" -> {
+                for (FailureRates.Row row : FailureRates.compute(query).getRows()) {
+                    System.out.println(row);
+                }
+            }
+            case "replay" -> {
+                if (args.length < 3) {
+                    usage();
+                    return;
+                }
+                final int colon = args[2].lastIndexOf(':');
+                final InetSocketAddress target = new InetSocketAddress(args[2].substring(0, colon), Integer.parseInt(args[2].substring(colon + 1)));
+                final double speed = (args.length > 3) ? Double.parseDouble(args[3]) : 1.0;
+                JournalFilter filter = JournalFilter.all().withKind(FrameJournal.CLIENT_TO_SERVER);
+                if (args.length > 4) {
+                    filter = filter.withClientExchange(UUID.fromString(args[4]));
+                }
+                final List<JournalEntry> entries = query.find(filter);
+                System.out.println(JournalReplay.replay(entries, target, speed));
+            }
+            default -> usage();
+        }
+    }
+
+    private static void usage() {
+        System.err.println("Usage: JournalTool exchange DIR UUID | failures DIR | replay DIR HOST:PORT [SPEED] [UUID]");
+    }
+}
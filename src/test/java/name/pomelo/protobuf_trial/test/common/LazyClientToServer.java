@@ -0,0 +1,236 @@
+package name.pomelo.protobuf_trial.test.common;
+
+import com.google.protobuf.ByteString;
+import com.google.protobuf.CodedInputStream;
+import com.google.protobuf.ExtensionRegistryLite;
+import com.google.protobuf.InvalidProtocolBufferException;
+import com.google.protobuf.UnsafeByteOperations;
+import com.google.protobuf.WireFormat;
+import name.pomelo.protobuf_trial.protos.ClientToServer;
+import name.pomelo.protobuf_trial.protos.CommonStuff;
+import name.pomelo.protobuf_trial.protos.LoginChallengeSolved;
+import name.pomelo.protobuf_trial.protos.LoginFollowup;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+// ---
+// A ClientToServer message parsed in place out of a direct, pooled or mapped buffer, through a
+// CodedInputStream with aliasing enabled: nothing is copied out of the buffer at parse time. The
+// header (payload type, CommonStuff) and the numbers of LOGIN_CHALLENGE_SOLVED are read at once;
+// the username of LOGIN_FOLLOWUP stays a ByteString aliasing the buffer and is only decoded (and
+// checked to be UTF-8) by getUsername().
+//
+// ClientToServer.parseFrom() also reads a direct buffer in place, but decodes every string into a
+// String and builds every sub-message, whether they are looked at or not.
+//
+// Aliasing ties the message to the buffer: parsed from a RefCountedBuffer, the message holds a
+// reference to it until close(), and every getter checks that the buffer is still live, so that a
+// message is never read once its buffer has gone back to the pool. The ByteStrings handed out
+// alias the buffer as well: copy them (ByteString.copyFrom()) to keep them past close().
+// Parsed from a plain ByteBuffer, keeping the buffer untouched is up to the caller.
+//
+// Not thread-safe, like the RefCountedBuffer.
+// ---
+
+public class LazyClientToServer implements AutoCloseable {
+
+    private final @Nullable RefCountedBuffer owner;
+    private boolean closed;
+
+    private int payloadTypeValue;
+    private @NotNull CommonStuff commonStuff = CommonStuff.getDefaultInstance();
+    private boolean hasLoginChallengeSolved;
+    private long a;
+    private long b;
+    private boolean hasLoginFollowup;
+    private @NotNull ByteString usernameBytes = ByteString.EMPTY;
+    private @Nullable String username;
+
+    private LazyClientToServer(@Nullable RefCountedBuffer owner) {
+        this.owner = owner;
+    }
+
+    // ---
+    // Parse the message in buffer[offset, offset + length) of "owner", taking a reference to it
+    // ---
+
+    public static @NotNull LazyClientToServer parse(@NotNull RefCountedBuffer owner, int offset, int length) throws InvalidProtocolBufferException {
+        final LazyClientToServer res = new LazyClientToServer(owner);
+        res.decode(owner.buffer().slice(offset, length));
+        owner.retain();
+        return res;
+    }
+
+    // ---
+    // Parse the message from the position to the limit of "buf", which is left as it is
+    // ---
+
+    public static @NotNull LazyClientToServer parse(@NotNull ByteBuffer buf) throws InvalidProtocolBufferException {
+        final LazyClientToServer res = new LazyClientToServer(null);
+        res.decode(buf.slice());
+        return res;
+    }
+
+    private void decode(@NotNull ByteBuffer buf) throws InvalidProtocolBufferException {
+        // Wrapped as a ByteString, a heap buffer is read in place too, and is known to alias
+        final CodedInputStream in = UnsafeByteOperations.unsafeWrap(buf).newCodedInput();
+        in.enableAliasing(true);
+        try {
+            int tag;
+            while ((tag = in.readTag()) != 0) {
+                switch (tag) {
+                    case (ClientToServer.PAYLOAD_TYPE_FIELD_NUMBER << 3) | WireFormat.WIRETYPE_VARINT ->
+                            payloadTypeValue = in.readEnum();
+                    case (ClientToServer.COMMON_STUFF_FIELD_NUMBER << 3) | WireFormat.WIRETYPE_LENGTH_DELIMITED ->
+                            commonStuff = in.readMessage(CommonStuff.parser(), ExtensionRegistryLite.getEmptyRegistry());
+                    case (ClientToServer.LOGIN_CHALLENGE_SOLVED_FIELD_NUMBER << 3) | WireFormat.WIRETYPE_LENGTH_DELIMITED ->
+                            decodeLoginChallengeSolved(in);
+                    case (ClientToServer.LOGIN_FOLLOWUP_FIELD_NUMBER << 3) | WireFormat.WIRETYPE_LENGTH_DELIMITED ->
+                            decodeLoginFollowup(in);
+                    default -> in.skipField(tag);
+                }
+            }
+        } catch (InvalidProtocolBufferException e) {
+            throw e;
+        } catch (IOException e) {
+            // reading a ByteString fails with InvalidProtocolBufferException only
+            throw new InvalidProtocolBufferException(e);
+        }
+    }
+
+    private void decodeLoginChallengeSolved(@NotNull CodedInputStream in) throws IOException {
+        final int oldLimit = in.pushLimit(in.readRawVarint32());
+        hasLoginChallengeSolved = true;
+        int tag;
+        while ((tag = in.readTag()) != 0) {
+            switch (tag) {
+                case (LoginChallengeSolved.A_FIELD_NUMBER << 3) | WireFormat.WIRETYPE_VARINT -> a = in.readUInt64();
+                case (LoginChallengeSolved.B_FIELD_NUMBER << 3) | WireFormat.WIRETYPE_VARINT -> b = in.readUInt64();
+                default -> in.skipField(tag);
+            }
+        }
+        in.checkLastTagWas(0);
+        in.popLimit(oldLimit);
+    }
+
+    private void decodeLoginFollowup(@NotNull CodedInputStream in) throws IOException {
+        final int oldLimit = in.pushLimit(in.readRawVarint32());
+        hasLoginFollowup = true;
+        int tag;
+        while ((tag = in.readTag()) != 0) {
+            if (tag == ((LoginFollowup.USERNAME_FIELD_NUMBER << 3) | WireFormat.WIRETYPE_LENGTH_DELIMITED)) {
+                usernameBytes = in.readBytes(); // aliased
+                username = null;
+            } else {
+                in.skipField(tag);
+            }
+        }
+        in.checkLastTagWas(0);
+        in.popLimit(oldLimit);
+    }
+
+    // ---
+    // Getters, which throw IllegalStateException once the message is closed or its buffer released
+    // ---
+
+    private void checkLive() {
+        if (closed) {
+            throw new IllegalStateException("The message has been closed");
+        }
+        if (owner != null) {
+            owner.checkLive();
+        }
+    }
+
+    public int getPayloadTypeValue() {
+        checkLive();
+        return payloadTypeValue;
+    }
+
+    public ClientToServer.@NotNull PayloadType getPayloadType() {
+        checkLive();
+        final ClientToServer.PayloadType type = ClientToServer.PayloadType.forNumber(payloadTypeValue);
+        return (type == null) ? ClientToServer.PayloadType.UNRECOGNIZED : type;
+    }
+
+    public @NotNull CommonStuff getCommonStuff() {
+        checkLive();
+        return commonStuff;
+    }
+
+    public boolean hasLoginChallengeSolved() {
+        checkLive();
+        return hasLoginChallengeSolved;
+    }
+
+    public long getA() {
+        checkLive();
+        return a;
+    }
+
+    public long getB() {
+        checkLive();
+        return b;
+    }
+
+    public boolean hasLoginFollowup() {
+        checkLive();
+        return hasLoginFollowup;
+    }
+
+    // Aliases the buffer
+
+    public @NotNull ByteString getUsernameBytes() {
+        checkLive();
+        return usernameBytes;
+    }
+
+    // Decoded on first call; throws IllegalArgumentException if the username is not UTF-8,
+    // as parseFrom() would have thrown an InvalidProtocolBufferException
+
+    public @NotNull String getUsername() {
+        checkLive();
+        if (username == null) {
+            if (!usernameBytes.isValidUtf8()) {
+                throw new IllegalArgumentException("The username is not valid UTF-8");
+            }
+            username = usernameBytes.toStringUtf8();
+        }
+        return username;
+    }
+
+    // ---
+    // The message as a ClientToServer, which copies everything out of the buffer
+    // ---
+
+    public @NotNull ClientToServer toClientToServer() {
+        checkLive();
+        final ClientToServer.Builder builder = ClientToServer.newBuilder()
+                .setPayloadTypeValue(payloadTypeValue)
+                .setCommonStuff(commonStuff);
+        if (hasLoginChallengeSolved) {
+            builder.setLoginChallengeSolved(LoginChallengeSolved.newBuilder().setA(a).setB(b));
+        }
+        if (hasLoginFollowup) {
+            builder.setLoginFollowup(LoginFollowup.newBuilder().setUsername(getUsername()));
+        }
+        return builder.build();
+    }
+
+    // ---
+    // Gives back the reference to the buffer, if any; idempotent
+    // ---
+
+    @Override
+    public void close() {
+        if (!closed) {
+            closed = true;
+            if (owner != null) {
+                owner.release();
+            }
+        }
+    }
+}
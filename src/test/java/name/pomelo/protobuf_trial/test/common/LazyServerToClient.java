@@ -0,0 +1,279 @@
+package name.pomelo.protobuf_trial.test.common;
+
+import com.google.protobuf.ByteString;
+import com.google.protobuf.CodedInputStream;
+import com.google.protobuf.ExtensionRegistryLite;
+import com.google.protobuf.InvalidProtocolBufferException;
+import com.google.protobuf.UnsafeByteOperations;
+import com.google.protobuf.WireFormat;
+import name.pomelo.protobuf_trial.protos.ClientToServer;
+import name.pomelo.protobuf_trial.protos.CommonStuff;
+import name.pomelo.protobuf_trial.protos.ServerToClient;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+// ---
+// A ServerToClient message decoded only as far as it is looked at.
+//
+// parse() reads "payload_type" and "common_stuff" and keeps the payload sub-message as a
+// ByteString aliasing the input, without parsing it. For GENERIC_FAILURE and LOGIN_GENERIC_FAILURE,
+// getFailureMsg() decodes the "msg" of the sub-message and leaves its "cause", a whole
+// ClientToServer, as another aliased slice (getCauseBytes()), which getCause() parses on first call.
+// toServerToClient() parses the whole message, as ServerToClient.parseFrom() would.
+//
+// parseHeader() stops as soon as "payload_type" and "common_stuff" have been read (they come
+// first in the messages written by protobuf and by ServerToClientWriter), so that a router can
+// look at the header and forward getBytes() without the payload ever being touched. The payload
+// is then only located if asked for.
+//
+// Aliasing means that the input must not be changed (e.g. a pooled buffer reused) while the
+// message is in use. Not thread-safe, because of what is decoded lazily.
+//
+// If a payload field appears more than once, the last one is kept, where protobuf would merge
+// them; neither protobuf nor ServerToClientWriter write that.
+// ---
+
+public class LazyServerToClient {
+
+    private final static int PAYLOAD_TYPE_FIELD = ServerToClient.PAYLOAD_TYPE_FIELD_NUMBER;
+    private final static int COMMON_STUFF_FIELD = ServerToClient.COMMON_STUFF_FIELD_NUMBER;
+
+    // Fields of GenericFailure and LoginGenericFailure, which are the same
+    private final static int FAILURE_MSG_FIELD = 1;
+    private final static int FAILURE_CAUSE_FIELD = 2;
+
+    private final @NotNull ByteString bytes;
+    private int payloadTypeValue;
+    private @NotNull CommonStuff commonStuff = CommonStuff.getDefaultInstance();
+
+    // The payload sub-message, once located: its field number (0 if there is none) and bytes
+
+    private boolean payloadLocated;
+    private int payloadField;
+    private @NotNull ByteString payload = ByteString.EMPTY;
+
+    // The failure, once decoded
+
+    private boolean failureDecoded;
+    private @NotNull String failureMsg = "";
+    private @NotNull ByteString causeBytes = ByteString.EMPTY;
+    private @Nullable ClientToServer cause;
+
+    private LazyServerToClient(@NotNull ByteString bytes) {
+        this.bytes = bytes;
+    }
+
+    // ---
+    // Decoding, from the position to the limit of "buf" (which is left as it is) or from "bytes"
+    // ---
+
+    public static @NotNull LazyServerToClient parse(@NotNull ByteBuffer buf) throws InvalidProtocolBufferException {
+        return parse(UnsafeByteOperations.unsafeWrap(buf.slice()));
+    }
+
+    public static @NotNull LazyServerToClient parse(@NotNull ByteString bytes) throws InvalidProtocolBufferException {
+        final LazyServerToClient res = new LazyServerToClient(bytes);
+        try {
+            res.decodeTopLevel(false);
+        } catch (IOException e) {
+            throw invalid(e);
+        }
+        return res;
+    }
+
+    public static @NotNull LazyServerToClient parseHeader(@NotNull ByteBuffer buf) throws InvalidProtocolBufferException {
+        return parseHeader(UnsafeByteOperations.unsafeWrap(buf.slice()));
+    }
+
+    public static @NotNull LazyServerToClient parseHeader(@NotNull ByteString bytes) throws InvalidProtocolBufferException {
+        final LazyServerToClient res = new LazyServerToClient(bytes);
+        try {
+            res.decodeTopLevel(true);
+        } catch (IOException e) {
+            throw invalid(e);
+        }
+        return res;
+    }
+
+    private void decodeTopLevel(boolean headerOnly) throws IOException {
+        final CodedInputStream in = aliasing(bytes);
+        boolean payloadTypeSeen = false;
+        boolean commonStuffSeen = false;
+        int tag;
+        while ((tag = in.readTag()) != 0) {
+            final int field = WireFormat.getTagFieldNumber(tag);
+            final int wireType = WireFormat.getTagWireType(tag);
+            final boolean lengthDelimited = wireType == WireFormat.WIRETYPE_LENGTH_DELIMITED;
+            if (field == PAYLOAD_TYPE_FIELD && wireType == WireFormat.WIRETYPE_VARINT) {
+                payloadTypeValue = in.readEnum();
+                payloadTypeSeen = true;
+            } else if (field == COMMON_STUFF_FIELD && lengthDelimited) {
+                commonStuff = in.readMessage(CommonStuff.parser(), ExtensionRegistryLite.getEmptyRegistry());
+                commonStuffSeen = true;
+            } else if (isPayloadField(field) && lengthDelimited && !headerOnly) {
+                payloadField = field;
+                payload = in.readBytes();
+            } else {
+                in.skipField(tag);
+            }
+            if (headerOnly && payloadTypeSeen && commonStuffSeen) {
+                return;
+            }
+        }
+        payloadLocated = !headerOnly;
+    }
+
+    // The rest of a message decoded with parseHeader() is only checked here
+
+    private void locatePayload() throws IOException {
+        if (payloadLocated) {
+            return;
+        }
+        final CodedInputStream in = aliasing(bytes);
+        int tag;
+        while ((tag = in.readTag()) != 0) {
+            final int field = WireFormat.getTagFieldNumber(tag);
+            if (isPayloadField(field) && WireFormat.getTagWireType(tag) == WireFormat.WIRETYPE_LENGTH_DELIMITED) {
+                payloadField = field;
+                payload = in.readBytes();
+            } else {
+                in.skipField(tag);
+            }
+        }
+        payloadLocated = true;
+    }
+
+    private void decodeFailure() throws IOException {
+        if (failureDecoded) {
+            return;
+        }
+        if (!isFailure()) {
+            throw new IllegalStateException("Payload type is " + getPayloadType() + ", which is not a failure");
+        }
+        locatePayload();
+        // Without its sub-message, the failure has the default values, as after parseFrom()
+        final CodedInputStream in = aliasing((payloadField == expectedPayloadField()) ? payload : ByteString.EMPTY);
+        int tag;
+        while ((tag = in.readTag()) != 0) {
+            switch (WireFormat.getTagFieldNumber(tag)) {
+                case FAILURE_MSG_FIELD -> failureMsg = in.readStringRequireUtf8();
+                case FAILURE_CAUSE_FIELD -> causeBytes = in.readBytes();
+                default -> in.skipField(tag);
+            }
+        }
+        failureDecoded = true;
+    }
+
+    // Reading a ByteString only ever fails with an InvalidProtocolBufferException
+
+    private static @NotNull InvalidProtocolBufferException invalid(@NotNull IOException e) {
+        return (e instanceof InvalidProtocolBufferException ipbe) ? ipbe : new InvalidProtocolBufferException(e);
+    }
+
+    private static @NotNull CodedInputStream aliasing(@NotNull ByteString bytes) {
+        final CodedInputStream in = bytes.newCodedInput();
+        in.enableAliasing(true);
+        return in;
+    }
+
+    private void locatePayloadChecked() throws InvalidProtocolBufferException {
+        try {
+            locatePayload();
+        } catch (IOException e) {
+            throw invalid(e);
+        }
+    }
+
+    private void decodeFailureChecked() throws InvalidProtocolBufferException {
+        try {
+            decodeFailure();
+        } catch (IOException e) {
+            throw invalid(e);
+        }
+    }
+
+    private static boolean isPayloadField(int field) {
+        return field >= ServerToClient.GENERIC_FAILURE_FIELD_NUMBER && field <= ServerToClient.LOGIN_FOLLOWUP_ANSWER_OK_FIELD_NUMBER;
+    }
+
+    private int expectedPayloadField() {
+        return switch (payloadTypeValue) {
+            case ServerToClient.PayloadType.GENERIC_FAILURE_VALUE -> ServerToClient.GENERIC_FAILURE_FIELD_NUMBER;
+            case ServerToClient.PayloadType.LOGIN_GENERIC_FAILURE_VALUE -> ServerToClient.LOGIN_GENERIC_FAILURE_FIELD_NUMBER;
+            default -> -1;
+        };
+    }
+
+    // ---
+    // The header
+    // ---
+
+    public int getPayloadTypeValue() {
+        return payloadTypeValue;
+    }
+
+    public ServerToClient.@NotNull PayloadType getPayloadType() {
+        final ServerToClient.PayloadType type = ServerToClient.PayloadType.forNumber(payloadTypeValue);
+        return (type == null) ? ServerToClient.PayloadType.UNRECOGNIZED : type;
+    }
+
+    public @NotNull CommonStuff getCommonStuff() {
+        return commonStuff;
+    }
+
+    // The whole message as received, e.g. to forward it
+
+    public @NotNull ByteString getBytes() {
+        return bytes;
+    }
+
+    // ---
+    // The payload
+    // ---
+
+    public boolean isFailure() {
+        return expectedPayloadField() > 0;
+    }
+
+    // The field number of the payload sub-message, 0 if there is none
+
+    public int getPayloadField() throws InvalidProtocolBufferException {
+        locatePayloadChecked();
+        return payloadField;
+    }
+
+    public @NotNull ByteString getPayloadBytes() throws InvalidProtocolBufferException {
+        locatePayloadChecked();
+        return payload;
+    }
+
+    // ---
+    // The failure, for GENERIC_FAILURE and LOGIN_GENERIC_FAILURE only (IllegalStateException otherwise).
+    // The getters of the payload throw if it turns out to be malformed.
+    // ---
+
+    public @NotNull String getFailureMsg() throws InvalidProtocolBufferException {
+        decodeFailureChecked();
+        return failureMsg;
+    }
+
+    public @NotNull ByteString getCauseBytes() throws InvalidProtocolBufferException {
+        decodeFailureChecked();
+        return causeBytes;
+    }
+
+    public @NotNull ClientToServer getCause() throws InvalidProtocolBufferException {
+        decodeFailureChecked();
+        if (cause == null) {
+            cause = ClientToServer.parseFrom(causeBytes);
+        }
+        return cause;
+    }
+
+    public @NotNull ServerToClient toServerToClient() throws InvalidProtocolBufferException {
+        return ServerToClient.parseFrom(bytes);
+    }
+}
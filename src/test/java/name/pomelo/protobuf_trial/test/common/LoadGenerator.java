@@ -0,0 +1,344 @@
+package name.pomelo.protobuf_trial.test.common;
+
+import lombok.Getter;
+import name.pomelo.protobuf_trial.protos.ClientToServer;
+import name.pomelo.protobuf_trial.protos.ServerToClient;
+import org.jetbrains.annotations.NotNull;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+// ---
+// Drive simulated clients through complete "Login exchanges" against a login server, each client
+// a virtual thread running a LoginClientExchange over a blocking connection of its own, and
+// measure throughput and the latency of every step (LOGIN_REQUEST, LOGIN_CHALLENGE_SOLVED,
+// LOGIN_FOLLOWUP, each until its answer) and of the whole exchange.
+//
+// OPEN_LOOP:   exchanges start at a fixed rate, whether earlier ones are done or not (as users
+//              arrive), with at most "clients" of them in flight; the others wait for their turn.
+// CLOSED_LOOP: "clients" clients each run one exchange after the other, paced at their share of
+//              the rate, or back to back with a rate of 0 (as fast as the server answers them).
+//
+// Every exchange has an intended start on a schedule fixed in advance, and its latency (and that
+// of its first step, which includes connecting) is measured from there rather than from when it
+// actually started. An exchange held up by a slow server (or by the limit on the exchanges in
+// flight, or by an overloaded load generator) thus counts the time it waited, like a user would,
+// instead of the stall showing up as one slow exchange followed by fast ones: the "coordinated
+// omission" of a generator which only sends once the previous answer is in. Only back-to-back
+// closed loops have no schedule to be late on; what they measure is the server at saturation.
+//
+// A later step is measured from when its message has gone out, so that it does not include the
+// client's own work on the previous answer (e.g. factoring the product of LOGIN_CHALLENGE, which
+// grows with the difficulty). A failed exchange is timed too, from its intended start until its
+// failure: under overload, the exchanges which time out are the worst of the tail.
+//
+// Exchanges scheduled during the warmup are run but not measured; those scheduled during the
+// measurement are all run to the end (or to their failure), however late that is.
+// ---
+
+public class LoadGenerator {
+
+    public final static int DEFAULT_TIMEOUT_MILLIS = 10_000;
+
+    // What the client sends at each step, in order; LOGIN_CLOSE gets no answer
+
+    private final static ClientToServer.PayloadType[] STEPS = {
+            ClientToServer.PayloadType.LOGIN_REQUEST,
+            ClientToServer.PayloadType.LOGIN_CHALLENGE_SOLVED,
+            ClientToServer.PayloadType.LOGIN_FOLLOWUP
+    };
+
+    public enum Mode {
+        OPEN_LOOP,
+        CLOSED_LOOP
+    }
+
+    // ---
+    // What to run: the mode, the number of clients (at most that many exchanges in flight in
+    // OPEN_LOOP), the rate in exchanges per second (0 = back to back, CLOSED_LOOP only), and
+    // for how long (warmup, then measurement). Connecting and every read time out after
+    // "timeoutMillis", failing the exchange.
+    // ---
+
+    @Getter
+    public static class Settings {
+
+        private final @NotNull Mode mode;
+        private final int clients;
+        private final double ratePerSecond;
+        private final long warmupNanos;
+        private final long durationNanos;
+        private final int timeoutMillis;
+
+        public Settings(@NotNull Mode mode, int clients, double ratePerSecond, long warmupNanos, long durationNanos, int timeoutMillis) {
+            if (clients <= 0) {
+                throw new IllegalArgumentException("clients must be greater than 0 but is " + clients);
+            }
+            if (!(ratePerSecond >= 0) || Double.isInfinite(ratePerSecond)) {
+                throw new IllegalArgumentException("ratePerSecond must be at least 0 but is " + ratePerSecond);
+            }
+            if (ratePerSecond == 0 && mode == Mode.OPEN_LOOP) {
+                throw new IllegalArgumentException("An open loop needs a rate");
+            }
+            if (warmupNanos < 0) {
+                throw new IllegalArgumentException("warmupNanos must be at least 0 but is " + warmupNanos);
+            }
+            if (durationNanos <= 0) {
+                throw new IllegalArgumentException("durationNanos must be greater than 0 but is " + durationNanos);
+            }
+            if (timeoutMillis <= 0) {
+                throw new IllegalArgumentException("timeoutMillis must be greater than 0 but is " + timeoutMillis);
+            }
+            this.mode = mode;
+            this.clients = clients;
+            this.ratePerSecond = ratePerSecond;
+            this.warmupNanos = warmupNanos;
+            this.durationNanos = durationNanos;
+            this.timeoutMillis = timeoutMillis;
+        }
+
+        public static @NotNull Settings openLoop(double ratePerSecond, int maxInFlight, long duration, @NotNull TimeUnit unit) {
+            return new Settings(Mode.OPEN_LOOP, maxInFlight, ratePerSecond, 0, unit.toNanos(duration), DEFAULT_TIMEOUT_MILLIS);
+        }
+
+        public static @NotNull Settings closedLoop(int clients, double ratePerSecond, long duration, @NotNull TimeUnit unit) {
+            return new Settings(Mode.CLOSED_LOOP, clients, ratePerSecond, 0, unit.toNanos(duration), DEFAULT_TIMEOUT_MILLIS);
+        }
+
+        public @NotNull Settings withWarmup(long warmup, @NotNull TimeUnit unit) {
+            return new Settings(mode, clients, ratePerSecond, unit.toNanos(warmup), durationNanos, timeoutMillis);
+        }
+
+        public @NotNull Settings withTimeoutMillis(int timeoutMillis) {
+            return new Settings(mode, clients, ratePerSecond, warmupNanos, durationNanos, timeoutMillis);
+        }
+
+        @Override
+        public String toString() {
+            return String.format("%s clients=%d rate=%.1f/s warmup=%.1f s duration=%.1f s", mode, clients, ratePerSecond, warmupNanos / 1e9, durationNanos / 1e9);
+        }
+    }
+
+    // ---
+    // Exchanges scheduled during the measurement, and of those, completed and failed.
+    // Latencies are in nanoseconds: those of the steps and exchanges of completed exchanges, and
+    // from intended start to failure for failed ones.
+    // ---
+
+    @Getter
+    public static class Result {
+
+        private final @NotNull Settings settings;
+        private final long scheduled;
+        private final long completed;
+        private final long failed;
+        private final long elapsedNanos;
+        private final @NotNull Map<ClientToServer.PayloadType, StripedHistogram.Snapshot> stepLatencies;
+        private final @NotNull StripedHistogram.Snapshot exchangeLatency;
+        private final @NotNull StripedHistogram.Snapshot failureLatency;
+
+        private Result(@NotNull Settings settings, long scheduled, long completed, long failed, long elapsedNanos,
+                       @NotNull Map<ClientToServer.PayloadType, StripedHistogram.Snapshot> stepLatencies, @NotNull StripedHistogram.Snapshot exchangeLatency,
+                       @NotNull StripedHistogram.Snapshot failureLatency) {
+            this.settings = settings;
+            this.scheduled = scheduled;
+            this.completed = completed;
+            this.failed = failed;
+            this.elapsedNanos = elapsedNanos;
+            this.stepLatencies = stepLatencies;
+            this.exchangeLatency = exchangeLatency;
+            this.failureLatency = failureLatency;
+        }
+
+        // Completed exchanges per second of measurement
+
+        public double getThroughput() {
+            return completed / (settings.getDurationNanos() / 1e9);
+        }
+
+        @Override
+        public String toString() {
+            final StringBuilder buf = new StringBuilder();
+            buf.append(String.format("%s: %d exchanges scheduled, %d completed, %d failed, %.1f exchanges/s (all done after %.3f s)%n",
+                    settings, scheduled, completed, failed, getThroughput(), elapsedNanos / 1e9));
+            for (Map.Entry<ClientToServer.PayloadType, StripedHistogram.Snapshot> entry : stepLatencies.entrySet()) {
+                buf.append(String.format("  %-22s %s%n", entry.getKey(), format(entry.getValue())));
+            }
+            buf.append(String.format("  %-22s %s", "EXCHANGE", format(exchangeLatency)));
+            if (failed > 0) {
+                buf.append(String.format("%n  %-22s %s", "FAILED", format(failureLatency)));
+            }
+            return buf.toString();
+        }
+
+        private static @NotNull String format(@NotNull StripedHistogram.Snapshot s) {
+            return String.format("p50=%.3f ms p99=%.3f ms p99.9=%.3f ms max=%.3f ms", s.getP50() / 1e6, s.getP99() / 1e6, s.getP999() / 1e6, s.getMax() / 1e6);
+        }
+    }
+
+    private final @NotNull InetSocketAddress target;
+    private final @NotNull Settings settings;
+
+    private final @NotNull StripedHistogram @NotNull [] stepHistograms = new StripedHistogram[STEPS.length];
+    private final @NotNull StripedHistogram exchangeHistogram = new StripedHistogram();
+    private final @NotNull StripedHistogram failureHistogram = new StripedHistogram();
+    private final @NotNull AtomicLong scheduled = new AtomicLong();
+    private final @NotNull AtomicLong completed = new AtomicLong();
+    private final @NotNull AtomicLong failed = new AtomicLong();
+    private final @NotNull AtomicLong exchangeIds = new AtomicLong();
+
+    private long measureFrom;
+    private long measureUntil;
+
+    public LoadGenerator(@NotNull InetSocketAddress target, @NotNull Settings settings) {
+        this.target = target;
+        this.settings = settings;
+        for (int i = 0; i < STEPS.length; i++) {
+            stepHistograms[i] = new StripedHistogram();
+        }
+    }
+
+    // ---
+    // Run the load and wait for every exchange to be done; one run per instance
+    // ---
+
+    public @NotNull Result run() throws InterruptedException {
+        if (exchangeIds.get() != 0) {
+            throw new IllegalStateException("Already run");
+        }
+        final long start = System.nanoTime();
+        measureFrom = start + settings.getWarmupNanos();
+        measureUntil = measureFrom + settings.getDurationNanos();
+        try (ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor()) {
+            if (settings.getMode() == Mode.OPEN_LOOP) {
+                runOpenLoop(executor, start);
+            } else {
+                for (int i = 0; i < settings.getClients(); i++) {
+                    final int client = i;
+                    executor.execute(() -> runClosedLoopClient(start, client));
+                }
+            }
+        } // waits for the exchanges
+        final Map<ClientToServer.PayloadType, StripedHistogram.Snapshot> steps = new EnumMap<>(ClientToServer.PayloadType.class);
+        for (int i = 0; i < STEPS.length; i++) {
+            steps.put(STEPS[i], stepHistograms[i].snapshot());
+        }
+        return new Result(settings, scheduled.get(), completed.get(), failed.get(), System.nanoTime() - measureFrom,
+                Collections.unmodifiableMap(steps), exchangeHistogram.snapshot(), failureHistogram.snapshot());
+    }
+
+    // The schedule is kept on this thread; waiting for one of the "clients" slots is up to each exchange
+
+    private void runOpenLoop(@NotNull ExecutorService executor, long start) {
+        final Semaphore inFlight = new Semaphore(settings.getClients());
+        final double intervalNanos = 1e9 / settings.getRatePerSecond();
+        for (long i = 0; ; i++) {
+            final long intended = start + (long) (i * intervalNanos);
+            if (intended - measureUntil >= 0) {
+                return;
+            }
+            parkUntil(intended);
+            executor.execute(() -> {
+                try {
+                    inFlight.acquire();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    return;
+                }
+                try {
+                    runExchange(intended);
+                } finally {
+                    inFlight.release();
+                }
+            });
+        }
+    }
+
+    // Each client keeps to its own schedule, shifted so that the clients do not all start at once
+
+    private void runClosedLoopClient(long start, int client) {
+        final double rate = settings.getRatePerSecond();
+        final double intervalNanos = (rate == 0) ? 0 : settings.getClients() * 1e9 / rate;
+        final long offset = (long) (client * intervalNanos / settings.getClients());
+        for (long k = 0; ; k++) {
+            final long intended = (rate == 0) ? System.nanoTime() : start + offset + (long) (k * intervalNanos);
+            if (intended - measureUntil >= 0) {
+                return;
+            }
+            parkUntil(intended);
+            runExchange(intended);
+        }
+    }
+
+    private static void parkUntil(long due) {
+        for (long wait = due - System.nanoTime(); wait > 0; wait = due - System.nanoTime()) {
+            LockSupport.parkNanos(wait);
+        }
+    }
+
+    private void runExchange(long intended) {
+        final boolean measured = intended - measureFrom >= 0;
+        if (measured) {
+            scheduled.incrementAndGet();
+        }
+        final LoginClientExchange exchange = new LoginClientExchange("player " + exchangeIds.incrementAndGet());
+        final long[] stepNanos = new long[STEPS.length];
+        long answeredAt = intended;
+        try (Socket socket = new Socket()) {
+            socket.setTcpNoDelay(true);
+            socket.setSoTimeout(settings.getTimeoutMillis());
+            socket.connect(target, settings.getTimeoutMillis());
+            final OutputStream out = new BufferedOutputStream(socket.getOutputStream(), 1024);
+            final InputStream in = new BufferedInputStream(socket.getInputStream(), 1024);
+            ClientToServer c2s = exchange.start();
+            // The first step counts from the intended start, the others from when their message has gone out
+            long sentAt = intended;
+            for (int step = 0; ; step++) {
+                UtilsForProtobufFraming.writeFrame(c2s, out);
+                out.flush();
+                if (exchange.isDone()) {
+                    break; // that was LOGIN_CLOSE
+                }
+                if (step > 0) {
+                    sentAt = System.nanoTime();
+                }
+                final ServerToClient s2c = UtilsForProtobufFraming.readFrame(in, ServerToClient.parser(), UtilsForProtobufFraming.DEFAULT_MAX_FRAME_SIZE);
+                if (s2c == null) {
+                    throw new EOFException("The server closed the connection");
+                }
+                answeredAt = System.nanoTime();
+                stepNanos[step] = answeredAt - sentAt;
+                c2s = exchange.onResponse(s2c);
+            }
+        } catch (IOException | RuntimeException e) {
+            // refused, timed out, or answered with a failure
+            if (measured) {
+                failureHistogram.record(System.nanoTime() - intended);
+                failed.incrementAndGet();
+            }
+            return;
+        }
+        if (measured) {
+            for (int i = 0; i < STEPS.length; i++) {
+                stepHistograms[i].record(stepNanos[i]);
+            }
+            exchangeHistogram.record(answeredAt - intended);
+            completed.incrementAndGet();
+        }
+    }
+}
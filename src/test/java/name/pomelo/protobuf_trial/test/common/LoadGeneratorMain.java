@@ -0,0 +1,50 @@
+package name.pomelo.protobuf_trial.test.common;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.util.concurrent.TimeUnit;
+
+// ---
+// Run a LoadGenerator against a login server and print what it measured.
+//
+// Arguments: TARGET open|closed CLIENTS RATE SECONDS [WARMUP_SECONDS]
+//
+// TARGET is HOST:PORT, or "loopback" for a login server started in this JVM on the loopback
+// interface (-DloginServer.engine=nio|virtual_threads, see LoginServerEngine). CLIENTS is the
+// number of exchanges in flight at most (open) or of clients (closed); RATE is in exchanges per
+// second, 0 = back to back (closed only).
+// ---
+
+public class LoadGeneratorMain {
+
+    public static void main(String[] args) throws IOException, InterruptedException {
+        if (args.length < 5) {
+            System.out.println("Usage: TARGET open|closed CLIENTS RATE SECONDS [WARMUP_SECONDS], TARGET = HOST:PORT or loopback");
+            return;
+        }
+        final LoadGenerator.Mode mode = switch (args[1]) {
+            case "open" -> LoadGenerator.Mode.OPEN_LOOP;
+            case "closed" -> LoadGenerator.Mode.CLOSED_LOOP;
+            default -> throw new IllegalArgumentException("Mode must be 'open' or 'closed', not '" + args[1] + "'");
+        };
+        final int clients = Integer.parseInt(args[2]);
+        final double rate = Double.parseDouble(args[3]);
+        final long seconds = Long.parseLong(args[4]);
+        final long warmupSeconds = (args.length > 5) ? Long.parseLong(args[5]) : 0;
+        final LoadGenerator.Settings settings = new LoadGenerator.Settings(mode, clients, rate,
+                TimeUnit.SECONDS.toNanos(warmupSeconds), TimeUnit.SECONDS.toNanos(seconds), LoadGenerator.DEFAULT_TIMEOUT_MILLIS);
+        if (args[0].equals("loopback")) {
+            final LoginServerEngine engine = LoginServerEngine.fromSystemProperty();
+            try (LoginServer server = engine.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), new LoginExchangeHandler())) {
+                server.start();
+                System.out.println("Login server (" + engine + ") listening on " + server.getLocalAddress());
+                System.out.println(new LoadGenerator(server.getLocalAddress(), settings).run());
+            }
+        } else {
+            final int colon = args[0].lastIndexOf(':');
+            final InetSocketAddress target = new InetSocketAddress(args[0].substring(0, colon), Integer.parseInt(args[0].substring(colon + 1)));
+            System.out.println(new LoadGenerator(target, settings).run());
+        }
+    }
+}
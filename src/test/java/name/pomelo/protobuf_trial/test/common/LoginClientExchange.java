@@ -0,0 +1,126 @@
+package name.pomelo.protobuf_trial.test.common;
+
+import name.pomelo.protobuf_trial.protos.ClientToServer;
+import name.pomelo.protobuf_trial.protos.ServerToClient;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.UUID;
+
+import static name.pomelo.protobuf_trial.test.common.UtilsForProtobufClientToServerMsgs.*;
+
+// ---
+// The client side of a single "Login exchange", independent of any transport:
+// start() gives the first message to send, and onResponse() gives the next message
+// to send for each response received, until the exchange is done.
+//
+// The exchange UUIDs are sent as UuidSimple, unless UuidFixed is preferred, in which case
+// the LOGIN_REQUEST offers both and the rest of the exchange uses the encoding the server
+// answered with (see CommonStuff in packets.proto).
+//
+// Not thread-safe; one instance per exchange.
+// ---
+
+public class LoginClientExchange {
+
+    public enum Step {
+        AWAIT_CHALLENGE,
+        AWAIT_CHALLENGE_SOLVED_ANSWER,
+        AWAIT_FOLLOWUP_ANSWER,
+        DONE
+    }
+
+    private final @NotNull String username;
+    private @NotNull CommonData commonData;
+    private int seqNum = 0;
+    private @Nullable Step step;
+    private @Nullable LoginResult result;
+
+    public LoginClientExchange(@NotNull String username) {
+        this(username, UUID.randomUUID(), UUID.randomUUID());
+    }
+
+    public LoginClientExchange(@NotNull String username, @NotNull UuidEncoding preferredUuidEncoding) {
+        this(username, UUID.randomUUID(), UUID.randomUUID(), preferredUuidEncoding);
+    }
+
+    public LoginClientExchange(@NotNull String username, @NotNull UUID clientExchangeUUID, @NotNull UUID serverExchangeUUID) {
+        this(username, clientExchangeUUID, serverExchangeUUID, UuidEncoding.SIMPLE);
+    }
+
+    public LoginClientExchange(@NotNull String username, @NotNull UUID clientExchangeUUID, @NotNull UUID serverExchangeUUID, @NotNull UuidEncoding preferredUuidEncoding) {
+        this.username = username;
+        final UuidEncoding initial = (preferredUuidEncoding == UuidEncoding.SIMPLE) ? UuidEncoding.SIMPLE : UuidEncoding.SIMPLE_AND_FIXED;
+        this.commonData = new CommonData(1, clientExchangeUUID, serverExchangeUUID, initial);
+    }
+
+    public @NotNull UUID getClientExchangeUUID() {
+        final UUID uuid = commonData.getClientExchangeUUID();
+        assert uuid != null;
+        return uuid;
+    }
+
+    // The encoding of the exchange UUIDs in the messages sent; the negotiated one once a response has been received
+
+    public @NotNull UuidEncoding getUuidEncoding() {
+        return commonData.getUuidEncoding();
+    }
+
+    public @Nullable Step getStep() {
+        return step;
+    }
+
+    public boolean isDone() {
+        return step == Step.DONE;
+    }
+
+    public @NotNull LoginResult getResult() {
+        if (result == null) {
+            throw new IllegalStateException("Exchange is not done, step is " + step);
+        }
+        return result;
+    }
+
+    private @NotNull CommonData nextCommonData() {
+        seqNum++;
+        return commonData.withSeqNum(seqNum);
+    }
+
+    public @NotNull ClientToServer start() {
+        if (step != null) {
+            throw new IllegalStateException("Exchange has already been started");
+        }
+        step = Step.AWAIT_CHALLENGE;
+        return buildLoginRequest(nextCommonData());
+    }
+
+    // ---
+    // Process a response from the server and return the next message to send.
+    // Once the exchange is done, the returned message is the final LOGIN_CLOSE.
+    // Throws IllegalStateException if the server refused the login or answered out of turn.
+    // ---
+
+    public @NotNull ClientToServer onResponse(@NotNull ServerToClient s2c) {
+        UtilsForProtobufServerToClientMsgs.verifyServerToClientMessage(s2c);
+        // Continue in the encoding the server answered with
+        commonData = commonData.withUuidEncoding(UtilsForProtobufUuid.answerEncodingOf(s2c.getCommonStuff()));
+        final ServerToClient.PayloadType type = s2c.getPayloadType();
+        if (step == Step.AWAIT_CHALLENGE && type == ServerToClient.PayloadType.LOGIN_CHALLENGE) {
+            final long product = s2c.getLoginChallenge().getProduct();
+            final long a = UtilsForLoginChallenge.smallestFactor(product);
+            step = Step.AWAIT_CHALLENGE_SOLVED_ANSWER;
+            return buildLoginChallengeSolved(a, product / a, nextCommonData());
+        }
+        if (step == Step.AWAIT_CHALLENGE_SOLVED_ANSWER && type == ServerToClient.PayloadType.LOGIN_CHALLENGE_SOLVED_ANSWER_OK) {
+            step = Step.AWAIT_FOLLOWUP_ANSWER;
+            return buildLoginFollowup(username, nextCommonData());
+        }
+        if (step == Step.AWAIT_FOLLOWUP_ANSWER && type == ServerToClient.PayloadType.LOGIN_FOLLOWUP_ANSWER_OK) {
+            final var ok = s2c.getLoginFollowupAnswerOk();
+            result = new LoginResult(getClientExchangeUUID(), UtilsForProtobufUuid.protobufUuidSimpleToJavaUuid(ok.getPlayerUuid()), ok.getPlayerName());
+            step = Step.DONE;
+            return buildLoginFinish(nextCommonData());
+        }
+        throw new IllegalStateException("Login of '" + username + "' failed: got " + type + " while in step " + step);
+    }
+}
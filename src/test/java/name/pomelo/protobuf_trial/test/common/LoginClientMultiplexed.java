@@ -0,0 +1,264 @@
+package name.pomelo.protobuf_trial.test.common;
+
+import name.pomelo.protobuf_trial.protos.ClientToServer;
+import name.pomelo.protobuf_trial.protos.CommonStuff;
+import name.pomelo.protobuf_trial.protos.ServerToClient;
+import org.jetbrains.annotations.NotNull;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+// ---
+// A client which runs many concurrent "Login exchanges" over a single connection, as a gateway
+// logging in players on their behalf would, instead of one connection per exchange (LoginClientNio).
+//
+// The messages of the exchanges are interleaved on the connection, and the server answers them in
+// whatever order they come in; each response goes to its exchange by the client exchange UUID it
+// echoes, and the exchange's next message goes out. A virtual thread reads the responses; the
+// messages it sends in answer are flushed once it has handled all the responses at hand.
+//
+// At most "maxInFlight" exchanges run at a time, which is to be no more than the server allows on
+// a connection (LoginConnection); further logins wait their turn, in order. A login the server
+// refuses anyway (LOGIN_REQUEST_ANSWER_FAILURE) fails, as does any other login not going through.
+//
+// Each login() returns a future completing with the LoginResult, or exceptionally if the login failed.
+// Thread-safe.
+// ---
+
+public class LoginClientMultiplexed implements Closeable {
+
+    private final static Logger log = LoggerFactory.getLogger(LoginClientMultiplexed.class);
+
+    private final static int STREAM_BUFFER_SIZE = 64 * 1024;
+
+    public final static int DEFAULT_MAX_IN_FLIGHT = 256;
+
+    private final @NotNull Socket socket;
+    private final @NotNull InputStream in;
+    private final @NotNull OutputStream out; // written under its lock
+    private final int maxInFlight;
+    private final @NotNull ExchangeSessionTable<InFlight> inFlight = new ExchangeSessionTable<>();
+    private final @NotNull AtomicInteger inFlightCount = new AtomicInteger();
+    private final @NotNull Queue<InFlight> waiting = new ConcurrentLinkedQueue<>();
+    private final @NotNull LongAdder refusedCount = new LongAdder();
+    private final @NotNull Thread reader;
+    private volatile boolean running = true;
+
+    private final static class InFlight {
+
+        private final @NotNull LoginClientExchange exchange;
+        private final @NotNull CompletableFuture<LoginResult> future = new CompletableFuture<>();
+        private final long clientExchangeHigh;
+        private final long clientExchangeLow;
+
+        private InFlight(@NotNull LoginClientExchange exchange) {
+            this.exchange = exchange;
+            final UUID uuid = exchange.getClientExchangeUUID();
+            this.clientExchangeHigh = uuid.getMostSignificantBits();
+            this.clientExchangeLow = uuid.getLeastSignificantBits();
+        }
+    }
+
+    public LoginClientMultiplexed(@NotNull InetSocketAddress serverAddress) throws IOException {
+        this(serverAddress, DEFAULT_MAX_IN_FLIGHT);
+    }
+
+    public LoginClientMultiplexed(@NotNull InetSocketAddress serverAddress, int maxInFlight) throws IOException {
+        if (maxInFlight <= 0) {
+            throw new IllegalArgumentException("maxInFlight must be greater than 0 but is " + maxInFlight);
+        }
+        this.maxInFlight = maxInFlight;
+        this.socket = new Socket();
+        this.socket.setTcpNoDelay(true);
+        this.socket.connect(serverAddress);
+        this.in = new BufferedInputStream(socket.getInputStream(), STREAM_BUFFER_SIZE);
+        this.out = new BufferedOutputStream(socket.getOutputStream(), STREAM_BUFFER_SIZE);
+        this.reader = Thread.ofVirtual().name("login-mux-client-reader").start(this::readLoop);
+    }
+
+    public int getMaxInFlight() {
+        return maxInFlight;
+    }
+
+    public int getInFlightCount() {
+        return inFlightCount.get();
+    }
+
+    public int getWaitingCount() {
+        return waiting.size();
+    }
+
+    // Logins refused by the server with LOGIN_REQUEST_ANSWER_FAILURE
+
+    public long getRefusedCount() {
+        return refusedCount.sum();
+    }
+
+    public @NotNull CompletableFuture<LoginResult> login(@NotNull String username) {
+        return login(new LoginClientExchange(username));
+    }
+
+    public @NotNull CompletableFuture<LoginResult> login(@NotNull LoginClientExchange exchange) {
+        final InFlight login = new InFlight(exchange);
+        if (!running) {
+            login.future.completeExceptionally(new IllegalStateException("Client is closed"));
+            return login.future;
+        }
+        waiting.add(login);
+        if (running) {
+            startWaiting();
+        } else if (waiting.remove(login)) {
+            login.future.completeExceptionally(new IllegalStateException("Client is closed")); // closed meanwhile
+        }
+        return login.future;
+    }
+
+    @Override
+    public void close() throws IOException {
+        running = false;
+        socket.close(); // unblocks the reader
+        try {
+            reader.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        failAll(new IllegalStateException("Client is closed"));
+    }
+
+    // ---
+    // Starts waiting logins for as long as there is room. Called after a login is queued and after
+    // one has finished: whichever comes second sees both, so no login is left waiting with room free.
+    // ---
+
+    private void startWaiting() {
+        while (running && !waiting.isEmpty()) {
+            final int count = inFlightCount.get();
+            if (count >= maxInFlight) {
+                return;
+            }
+            if (!inFlightCount.compareAndSet(count, count + 1)) {
+                continue;
+            }
+            final InFlight login = waiting.poll();
+            if (login == null) {
+                inFlightCount.decrementAndGet(); // taken by another thread meanwhile
+                continue;
+            }
+            if (inFlight.putIfAbsent(login.clientExchangeHigh, login.clientExchangeLow, login) != null) {
+                inFlightCount.decrementAndGet();
+                login.future.completeExceptionally(new IllegalStateException("An exchange " + login.exchange.getClientExchangeUUID() + " is already running"));
+                continue;
+            }
+            try {
+                send(login.exchange.start(), true);
+            } catch (IOException e) {
+                failAll(e);
+                return;
+            }
+        }
+    }
+
+    private void send(@NotNull ClientToServer c2s, boolean flush) throws IOException {
+        synchronized (out) {
+            UtilsForProtobufFraming.writeFrame(c2s, out);
+            if (flush) {
+                out.flush();
+            }
+        }
+    }
+
+    private void readLoop() {
+        try {
+            while (running) {
+                final ServerToClient s2c = UtilsForProtobufFraming.readFrame(in, ServerToClient.parser(), UtilsForProtobufFraming.DEFAULT_MAX_FRAME_SIZE);
+                if (s2c == null) {
+                    throw new IOException("Server closed the connection");
+                }
+                onResponse(s2c);
+                // Only flush once the responses at hand have all been answered
+                if (in.available() == 0) {
+                    synchronized (out) {
+                        out.flush();
+                    }
+                }
+            }
+        } catch (IOException | RuntimeException e) {
+            if (running) {
+                log.debug("Connection {} failed", socket, e);
+            }
+            failAll(e);
+        }
+    }
+
+    private void onResponse(@NotNull ServerToClient s2c) throws IOException {
+        final CommonStuff cs = s2c.getCommonStuff();
+        final InFlight login = inFlight.get(UtilsForProtobufUuid.clientExchangeHighOf(cs), UtilsForProtobufUuid.clientExchangeLowOf(cs));
+        if (login == null) {
+            log.debug("Dropping {} for an exchange which is not running", s2c.getPayloadType());
+            return;
+        }
+        final ClientToServer next;
+        try {
+            next = login.exchange.onResponse(s2c);
+        } catch (IllegalStateException | IllegalArgumentException e) {
+            if (s2c.getPayloadType() == ServerToClient.PayloadType.LOGIN_REQUEST_ANSWER_FAILURE) {
+                refusedCount.increment();
+            }
+            finished(login);
+            login.future.completeExceptionally(e);
+            return;
+        }
+        send(next, false);
+        if (login.exchange.isDone()) {
+            // LOGIN_CLOSE is on its way
+            finished(login);
+            login.future.complete(login.exchange.getResult());
+        }
+    }
+
+    private void finished(@NotNull InFlight login) {
+        if (inFlight.remove(login.clientExchangeHigh, login.clientExchangeLow, login)) {
+            inFlightCount.decrementAndGet();
+            startWaiting();
+        }
+    }
+
+    // The connection is gone: every login running or waiting fails
+
+    private void failAll(@NotNull Exception e) {
+        running = false;
+        final List<InFlight> started = new ArrayList<>();
+        inFlight.forEach((uuid, login) -> started.add(login));
+        for (InFlight login : started) {
+            if (inFlight.remove(login.clientExchangeHigh, login.clientExchangeLow, login)) {
+                inFlightCount.decrementAndGet();
+                login.future.completeExceptionally(e);
+            }
+        }
+        InFlight login;
+        while ((login = waiting.poll()) != null) {
+            login.future.completeExceptionally(e);
+        }
+        try {
+            socket.close();
+        } catch (IOException ex) {
+            // nothing to be done
+        }
+    }
+}
@@ -0,0 +1,217 @@
+package name.pomelo.protobuf_trial.test.common;
+
+import name.pomelo.protobuf_trial.protos.ClientToServer;
+import name.pomelo.protobuf_trial.protos.ServerToClient;
+import org.jetbrains.annotations.NotNull;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.util.Iterator;
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+// ---
+// A non-blocking client which runs any number of concurrent "Login exchanges" against
+// a login server, one connection per exchange, all on a single Selector thread.
+//
+// Each login() opens a connection, runs a LoginClientExchange over it and closes it.
+// The returned future completes with the LoginResult, or exceptionally if the login failed.
+// ---
+
+public class LoginClientNio implements Closeable {
+
+    private final static Logger log = LoggerFactory.getLogger(LoginClientNio.class);
+
+    private final static int READ_BUFFER_SIZE = 64 * 1024;
+
+    // Our client messages are small; a LOGIN_FOLLOWUP with a long username is the largest
+
+    private final static int WRITE_BUFFER_SIZE = 1024;
+
+    private final @NotNull InetSocketAddress serverAddress;
+    private final @NotNull Selector selector;
+    private final @NotNull Thread thread;
+    private final @NotNull Queue<ClientConnection> newConnections = new ConcurrentLinkedQueue<>();
+    private final @NotNull ByteBuffer readBuf = ByteBuffer.allocateDirect(READ_BUFFER_SIZE);
+    private volatile boolean running = true;
+
+    public LoginClientNio(@NotNull InetSocketAddress serverAddress) throws IOException {
+        this.serverAddress = serverAddress;
+        this.selector = Selector.open();
+        this.thread = new Thread(this::selectLoop, "login-nio-client");
+        this.thread.start();
+    }
+
+    public @NotNull CompletableFuture<LoginResult> login(@NotNull String username) {
+        return login(new LoginClientExchange(username));
+    }
+
+    public @NotNull CompletableFuture<LoginResult> login(@NotNull LoginClientExchange exchange) {
+        final ClientConnection conn = new ClientConnection(exchange);
+        if (!running) {
+            conn.future.completeExceptionally(new IllegalStateException("Client is closed"));
+            return conn.future;
+        }
+        newConnections.add(conn);
+        selector.wakeup();
+        return conn.future;
+    }
+
+    @Override
+    public void close() {
+        running = false;
+        selector.wakeup();
+        try {
+            thread.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private final static class ClientConnection {
+
+        private final @NotNull LoginClientExchange exchange;
+        private final @NotNull FrameDecoder<ServerToClient> decoder = FrameDecoder.forServerToClient(UtilsForProtobufFraming.DEFAULT_MAX_FRAME_SIZE);
+        private final @NotNull CompletableFuture<LoginResult> future = new CompletableFuture<>();
+        private final @NotNull ByteBuffer out = ByteBuffer.allocateDirect(WRITE_BUFFER_SIZE);
+        private SocketChannel channel;
+
+        private ClientConnection(@NotNull LoginClientExchange exchange) {
+            this.exchange = exchange;
+        }
+    }
+
+    private void selectLoop() {
+        try {
+            while (running) {
+                selector.select();
+                openNewConnections();
+                final Iterator<SelectionKey> iter = selector.selectedKeys().iterator();
+                while (iter.hasNext()) {
+                    final SelectionKey key = iter.next();
+                    iter.remove();
+                    final ClientConnection conn = (ClientConnection) key.attachment();
+                    try {
+                        if (key.isValid() && key.isConnectable()) {
+                            handleConnect(key, conn);
+                        }
+                        if (key.isValid() && key.isWritable()) {
+                            handleWrite(key, conn);
+                        }
+                        if (key.isValid() && key.isReadable()) {
+                            handleRead(key, conn);
+                        }
+                    } catch (IOException | RuntimeException e) {
+                        fail(key, conn, e);
+                    }
+                }
+            }
+        } catch (IOException e) {
+            log.error("Client loop failed", e);
+        } finally {
+            for (SelectionKey key : selector.keys()) {
+                fail(key, (ClientConnection) key.attachment(), new IllegalStateException("Client is closed"));
+            }
+            ClientConnection conn;
+            while ((conn = newConnections.poll()) != null) {
+                conn.future.completeExceptionally(new IllegalStateException("Client is closed"));
+            }
+            try {
+                selector.close();
+            } catch (IOException e) {
+                // nothing to be done
+            }
+        }
+    }
+
+    private void openNewConnections() {
+        ClientConnection conn;
+        while ((conn = newConnections.poll()) != null) {
+            try {
+                final SocketChannel channel = SocketChannel.open();
+                conn.channel = channel;
+                channel.configureBlocking(false);
+                channel.setOption(StandardSocketOptions.TCP_NODELAY, true);
+                final SelectionKey key = channel.register(selector, 0, conn);
+                if (channel.connect(serverAddress)) {
+                    handleConnect(key, conn);
+                } else {
+                    key.interestOps(SelectionKey.OP_CONNECT);
+                }
+            } catch (IOException | RuntimeException e) {
+                conn.future.completeExceptionally(e);
+                if (conn.channel != null) {
+                    closeQuietly(conn.channel);
+                }
+            }
+        }
+    }
+
+    private void handleConnect(@NotNull SelectionKey key, @NotNull ClientConnection conn) throws IOException {
+        if (conn.channel.isConnectionPending()) {
+            conn.channel.finishConnect();
+        }
+        send(key, conn, conn.exchange.start());
+    }
+
+    private void send(@NotNull SelectionKey key, @NotNull ClientConnection conn, @NotNull ClientToServer c2s) throws IOException {
+        UtilsForProtobufFraming.writeFrame(c2s, conn.out);
+        handleWrite(key, conn);
+    }
+
+    private void handleWrite(@NotNull SelectionKey key, @NotNull ClientConnection conn) throws IOException {
+        conn.out.flip();
+        conn.channel.write(conn.out);
+        final boolean allWritten = !conn.out.hasRemaining();
+        conn.out.compact();
+        if (!allWritten) {
+            key.interestOps(SelectionKey.OP_WRITE);
+        } else if (conn.exchange.isDone()) {
+            // LOGIN_CLOSE has gone out, we are done with this connection
+            key.cancel();
+            conn.channel.close();
+            conn.future.complete(conn.exchange.getResult());
+        } else {
+            key.interestOps(SelectionKey.OP_READ);
+        }
+    }
+
+    private void handleRead(@NotNull SelectionKey key, @NotNull ClientConnection conn) throws IOException {
+        readBuf.clear();
+        final int count = conn.channel.read(readBuf);
+        if (count < 0) {
+            throw new IOException("Server closed the connection in step " + conn.exchange.getStep());
+        }
+        readBuf.flip();
+        conn.decoder.decode(readBuf, s2c -> {
+            if (conn.exchange.isDone()) {
+                throw new IllegalStateException("Unexpected " + s2c.getPayloadType() + " after the exchange is done");
+            }
+            UtilsForProtobufFraming.writeFrameUnchecked(conn.exchange.onResponse(s2c), conn.out);
+        });
+        handleWrite(key, conn);
+    }
+
+    private static void fail(@NotNull SelectionKey key, @NotNull ClientConnection conn, @NotNull Exception e) {
+        key.cancel();
+        closeQuietly(conn.channel);
+        conn.future.completeExceptionally(e);
+    }
+
+    private static void closeQuietly(@NotNull SocketChannel channel) {
+        try {
+            channel.close();
+        } catch (IOException e) {
+            // nothing to be done
+        }
+    }
+}
@@ -0,0 +1,151 @@
+package name.pomelo.protobuf_trial.test.common;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+// ---
+// One client connection as seen by the LoginExchangeHandler (see openConnection()): where its
+// responses go, and the exchanges it has open. A connection may carry any number of exchanges
+// at the same time (e.g. a gateway logging in many players), their messages interleaved in any
+// order; each message goes to its exchange by the client exchange UUID, as always.
+//
+// At most "maxExchanges" exchanges may be open on the connection at a time; a LOGIN_REQUEST
+// beyond that is answered with LOGIN_REQUEST_ANSWER_FAILURE, without costing a challenge, and the
+// client is to retry once one of its exchanges has closed. This keeps a single connection from
+// filling the ExchangeSessionTable. When the connection goes away, the handler closes the
+// exchanges it still has open (closeConnection()).
+//
+// Selected at startup with the system property "loginServer.maxExchangesPerConnection".
+//
+// A connection served by an I/O thread which must not block (a Selector loop) comes with an
+// "ioThread" executor running a task on that thread, with the responder ready to write to the
+// connection: the handler then answers a LOGIN_FOLLOWUP whose player is not cached once the
+// PlayerDirectory has looked it up, through that executor. Without one, the lookup blocks the
+// thread handling the message.
+//
+// Thread-safe: the exchanges of a connection may also be closed by their timeout.
+// ---
+
+public class LoginConnection {
+
+    public final static String MAX_EXCHANGES_PROPERTY = "loginServer.maxExchangesPerConnection";
+    public final static int DEFAULT_MAX_EXCHANGES = 4096;
+
+    private final @NotNull LoginResponder responder;
+    private final int maxExchanges;
+    private final boolean tracked;
+    private final @Nullable Executor ioThread;
+    private final @NotNull Set<ExchangeSession> open = ConcurrentHashMap.newKeySet();
+    private final @NotNull AtomicInteger openCount = new AtomicInteger();
+    private final @NotNull LongAdder refusedCount = new LongAdder();
+    private volatile boolean closed;
+
+    public LoginConnection(@NotNull LoginResponder responder, int maxExchanges) {
+        this(responder, maxExchanges, null);
+    }
+
+    public LoginConnection(@NotNull LoginResponder responder, int maxExchanges, @Nullable Executor ioThread) {
+        this(responder, maxExchanges, ioThread, true);
+    }
+
+    private LoginConnection(@NotNull LoginResponder responder, int maxExchanges, @Nullable Executor ioThread, boolean tracked) {
+        if (maxExchanges <= 0) {
+            throw new IllegalArgumentException("maxExchanges must be greater than 0 but is " + maxExchanges);
+        }
+        this.responder = responder;
+        this.maxExchanges = maxExchanges;
+        this.tracked = tracked;
+        this.ioThread = ioThread;
+    }
+
+    // ---
+    // A connection which does not keep track of its exchanges and has no limit, for a caller that
+    // just wants the responses (LoginExchangeHandler.handle(c2s, responder))
+    // ---
+
+    static @NotNull LoginConnection untracked(@NotNull LoginResponder responder) {
+        return new LoginConnection(responder, Integer.MAX_VALUE, null, false);
+    }
+
+    public static int maxExchangesFromSystemProperties() {
+        return Integer.getInteger(MAX_EXCHANGES_PROPERTY, DEFAULT_MAX_EXCHANGES);
+    }
+
+    public @NotNull LoginResponder getResponder() {
+        return responder;
+    }
+
+    // Null if the thread handling the messages of the connection may block
+
+    public @Nullable Executor getIoThread() {
+        return ioThread;
+    }
+
+    public int getMaxExchanges() {
+        return maxExchanges;
+    }
+
+    public int getOpenExchangeCount() {
+        return openCount.get();
+    }
+
+    // LOGIN_REQUESTs answered with LOGIN_REQUEST_ANSWER_FAILURE because of the limit
+
+    public long getRefusedCount() {
+        return refusedCount.sum();
+    }
+
+    public boolean isClosed() {
+        return closed;
+    }
+
+    // ---
+    // Takes one of the "maxExchanges" places for "session", which is about to be opened. False if
+    // there is none left (or the connection has been closed), in which case the LOGIN_REQUEST is refused.
+    // ---
+
+    boolean tryOpen(@NotNull ExchangeSession session) {
+        if (!tracked) {
+            return true;
+        }
+        while (true) {
+            final int count = openCount.get();
+            if (count >= maxExchanges || closed) {
+                refusedCount.increment();
+                return false;
+            }
+            if (openCount.compareAndSet(count, count + 1)) {
+                open.add(session);
+                return true;
+            }
+        }
+    }
+
+    // Gives back the place of "session"; idempotent
+
+    void ended(@NotNull ExchangeSession session) {
+        if (tracked && open.remove(session)) {
+            openCount.decrementAndGet();
+        }
+    }
+
+    // Marks the connection closed and returns the exchanges it still had open, for the handler to close
+
+    @NotNull List<ExchangeSession> close() {
+        closed = true;
+        return new ArrayList<>(open);
+    }
+
+    @Override
+    public String toString() {
+        return "LoginConnection(open " + getOpenExchangeCount() + "/" + maxExchanges + ", refused " + getRefusedCount() + ")";
+    }
+}
@@ -0,0 +1,563 @@
+package name.pomelo.protobuf_trial.test.common;
+
+import name.pomelo.protobuf_trial.protos.ClientToServer;
+import name.pomelo.protobuf_trial.protos.CommonStuff;
+import name.pomelo.protobuf_trial.protos.LoginChallengeSolved;
+import name.pomelo.protobuf_trial.protos.LoginFollowup;
+import name.pomelo.protobuf_trial.protos.ServerToClient;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.UncheckedIOException;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.LongAdder;
+
+import static name.pomelo.protobuf_trial.test.common.UtilsForProtobufServerToClientMsgs.*;
+
+// ---
+// The server side of the "Login exchange", independent of any transport.
+//
+// Client                               Server
+//   LOGIN_REQUEST           ------>
+//                           <------    LOGIN_CHALLENGE
+//   LOGIN_CHALLENGE_SOLVED  ------>
+//                           <------    LOGIN_CHALLENGE_SOLVED_ANSWER_OK (or ..._FAILURE)
+//   LOGIN_FOLLOWUP          ------>
+//                           <------    LOGIN_FOLLOWUP_ANSWER_OK
+//   LOGIN_CLOSE             ------>
+//
+// The product of LOGIN_CHALLENGE comes from a ChallengeIssuer (a ChallengeGenerator, or
+// AdaptiveDifficulty, which is told how long the solving took) and is kept with the exchange.
+// An exchange is identified by the client exchange UUID, under which its ExchangeSession
+// is kept in an ExchangeSessionTable. Every message is checked against the LoginStateMachine:
+// a message which is not allowed in the current state of its exchange (or which names an
+// exchange that does not exist) is answered with LOGIN_GENERIC_FAILURE carrying the message
+// as "cause". So is a message whose seqNum has already been received for its exchange, as told
+// by the ReplayWindow of the session, before anything else is done for it. Every response
+// echoes the CommonStuff (UUIDs and seqNum) of the message it answers, with the UUIDs as
+// UuidFixed if that message carried UuidFixed, which is how a client offering UuidFixed in
+// its LOGIN_REQUEST learns that this server understands it.
+//
+// A ClientToServerDispatcher hands each message to the method for its payload type.
+//
+// With ExchangeTimeouts, an exchange may only wait so long in each state for the client's next
+// message: every transition re-arms the timeout of the session on a TimingWheel (cancelling the
+// one of the previous state), and an exchange whose timeout expires is closed and its session
+// removed, as if the client had sent LOGIN_CLOSE. An ExpiryListener is then given the
+// LOGIN_GENERIC_FAILURE telling so, to send on if it knows where the client is.
+//
+// The player UUID of LOGIN_FOLLOWUP_ANSWER_OK comes from a PlayerDirectory, if there is one; if
+// there is none, it is derived from the username. A LOGIN_FOLLOWUP whose player cannot be looked
+// up (the store failing) is answered with LOGIN_GENERIC_FAILURE and leaves the exchange as it was.
+// A player who is not cached is looked up in the store, which blocks: on a connection with an
+// "ioThread" executor (see LoginConnection) that is done on the loader threads of the directory and
+// the answer comes later, written on the I/O thread of the connection; on any other connection, the
+// thread handling the LOGIN_FOLLOWUP waits for it.
+//
+// A transport hands the messages of a connection to handle(c2s, connection), with a LoginConnection
+// obtained from openConnection(). Any number of exchanges may be interleaved on a connection, and
+// their responses go out in the order their messages come in, whatever the exchange; but only so
+// many may be open on a connection at a time (setMaxExchangesPerConnection()), a LOGIN_REQUEST
+// beyond that being answered with LOGIN_REQUEST_ANSWER_FAILURE. closeConnection() closes the
+// exchanges a connection leaves open when it goes away, instead of letting them time out.
+//
+// Thread-safe: the same handler serves all connections of a server.
+// ---
+
+public class LoginExchangeHandler {
+
+    private final @NotNull ExchangeSessionTable<ExchangeSession> sessions;
+    private final @NotNull ChallengeIssuer challenges;
+    private final @NotNull ClientToServerDispatcher<LoginConnection> dispatcher = buildDispatcher();
+    private final @Nullable ExchangeTimeouts timeouts;
+    private final @Nullable TimingWheel<ExchangeSession> wheel;
+    private final @Nullable ExpiryListener expiryListener;
+    private final @Nullable PlayerDirectory players;
+    private final @NotNull LongAdder expiredCount = new LongAdder();
+    private final @NotNull LongAdder abandonedCount = new LongAdder();
+    private volatile int maxExchangesPerConnection = LoginConnection.DEFAULT_MAX_EXCHANGES;
+
+    // ---
+    // Told of every exchange closed by its timeout, on the thread of the TimingWheel, once its
+    // session has been removed. "state" is the state the exchange was stuck in, "failure" the
+    // LOGIN_GENERIC_FAILURE for the client, echoing the highest seqNum received for the exchange.
+    // ---
+
+    @FunctionalInterface
+    public interface ExpiryListener {
+
+        void expired(@NotNull ExchangeSession session, @NotNull LoginState state, @NotNull ServerToClient failure);
+    }
+
+    public LoginExchangeHandler() {
+        this(new ExchangeSessionTable<>());
+    }
+
+    public LoginExchangeHandler(@NotNull ExchangeSessionTable<ExchangeSession> sessions) {
+        this(sessions, ChallengeGenerator.shared());
+    }
+
+    public LoginExchangeHandler(@NotNull ExchangeSessionTable<ExchangeSession> sessions, @NotNull ChallengeIssuer challenges) {
+        this(sessions, challenges, null, null);
+    }
+
+    // Without "timeouts", exchanges never time out; with, the TimingWheel is to be started (startTimeouts()) or advanced by hand
+
+    public LoginExchangeHandler(@NotNull ExchangeSessionTable<ExchangeSession> sessions, @NotNull ChallengeIssuer challenges,
+                                @Nullable ExchangeTimeouts timeouts, @Nullable ExpiryListener expiryListener) {
+        this(sessions, challenges, timeouts, expiryListener, null);
+    }
+
+    // Without "players", the player UUIDs are derived from the usernames (see playerUuidFor())
+
+    public LoginExchangeHandler(@NotNull ExchangeSessionTable<ExchangeSession> sessions, @NotNull ChallengeIssuer challenges,
+                                @Nullable ExchangeTimeouts timeouts, @Nullable ExpiryListener expiryListener, @Nullable PlayerDirectory players) {
+        this.sessions = sessions;
+        this.challenges = challenges;
+        this.timeouts = timeouts;
+        this.wheel = (timeouts == null) ? null : new TimingWheel<>(timeouts.getTickNanos(), this::expire);
+        this.expiryListener = expiryListener;
+        this.players = players;
+    }
+
+    public @NotNull LoginExchangeHandler startTimeouts() {
+        if (wheel != null) {
+            wheel.start();
+        }
+        return this;
+    }
+
+    public @Nullable TimingWheel<ExchangeSession> getTimingWheel() {
+        return wheel;
+    }
+
+    public @Nullable PlayerDirectory getPlayers() {
+        return players;
+    }
+
+    // Applies to the connections opened from now on
+
+    public @NotNull LoginExchangeHandler setMaxExchangesPerConnection(int maxExchanges) {
+        if (maxExchanges <= 0) {
+            throw new IllegalArgumentException("maxExchanges must be greater than 0 but is " + maxExchanges);
+        }
+        this.maxExchangesPerConnection = maxExchanges;
+        return this;
+    }
+
+    public int getMaxExchangesPerConnection() {
+        return maxExchangesPerConnection;
+    }
+
+    // Exchanges closed by closeConnection() because their connection went away
+
+    public long getAbandonedExchangeCount() {
+        return abandonedCount.sum();
+    }
+
+    public long getExpiredExchangeCount() {
+        return expiredCount.sum();
+    }
+
+    public int getOpenExchangeCount() {
+        return sessions.size();
+    }
+
+    public @NotNull ExchangeSessionTable<ExchangeSession> getSessions() {
+        return sessions;
+    }
+
+    // ---
+    // Handle a message received from a client and return the response to send back,
+    // or null if there is no response (LOGIN_CLOSE).
+    // Throws IllegalArgumentException if the message is invalid in itself, in which case the
+    // caller should drop the connection.
+    // ---
+
+    public @Nullable ServerToClient handle(@NotNull ClientToServer c2s) {
+        final MessageResponder responder = new MessageResponder();
+        handle(c2s, responder);
+        return responder.response;
+    }
+
+    // ---
+    // Same as above, but the response goes to "responder" (e.g. a ServerToClientWriter encoding it
+    // straight into the output buffer of a connection). Returns false if there is no response (LOGIN_CLOSE).
+    // The exchanges are not counted against any connection.
+    // ---
+
+    public boolean handle(@NotNull ClientToServer c2s, @NotNull LoginResponder responder) {
+        return handle(c2s, LoginConnection.untracked(responder));
+    }
+
+    // ---
+    // Same as above, for a message received on "connection" (see openConnection()), the response
+    // going to the responder of the connection. Returns false if there is no response, or none yet:
+    // a LOGIN_FOLLOWUP waiting for its player is answered later, through the ioThread of the connection.
+    // ---
+
+    public boolean handle(@NotNull ClientToServer c2s, @NotNull LoginConnection connection) {
+        UtilsForProtobufClientToServerMsgs.verifyClientToServerMessage(c2s);
+        return dispatcher.dispatch(c2s, connection);
+    }
+
+    // A new client connection whose responses go to "responder", on a thread which may block
+
+    public @NotNull LoginConnection openConnection(@NotNull LoginResponder responder) {
+        return openConnection(responder, null);
+    }
+
+    // Same as above, for a connection whose thread must not block: "ioThread" runs a task on it (see LoginConnection)
+
+    public @NotNull LoginConnection openConnection(@NotNull LoginResponder responder, @Nullable Executor ioThread) {
+        return new LoginConnection(responder, maxExchangesPerConnection, ioThread);
+    }
+
+    // ---
+    // The client connection has gone away: closes the exchanges it still has open, as if the client
+    // had sent LOGIN_CLOSE for each. Returns how many there were.
+    // ---
+
+    public int closeConnection(@NotNull LoginConnection connection) {
+        int res = 0;
+        for (ExchangeSession session : connection.close()) {
+            while (true) {
+                final LoginState from = session.getState();
+                if (from == LoginState.CLOSED) {
+                    break; // closed meanwhile, e.g. by its timeout
+                }
+                if (session.compareAndSetState(from, LoginState.CLOSED)) {
+                    removeSession(session);
+                    abandonedCount.increment();
+                    res++;
+                    break;
+                }
+            }
+        }
+        return res;
+    }
+
+    private @NotNull ClientToServerDispatcher<LoginConnection> buildDispatcher() {
+        return new ClientToServerDispatcher<LoginConnection>((c2s, connection) -> {
+            // verifyClientToServerMessage() lets no other payload type through
+            throw new IllegalArgumentException("Unexpected payload type " + c2s.getPayloadType());
+        })
+                .onLoginRequest(this::loginRequest)
+                .onLoginChallengeSolved(this::loginChallengeSolved)
+                .onLoginFollowup(this::loginFollowup)
+                .onLoginClose(this::loginClose);
+    }
+
+    // ---
+    // One handler per payload type. A message other than LOGIN_REQUEST goes on only if its
+    // exchange exists and accepts it (see accepted()); the state of the session is then changed
+    // with a CAS, re-evaluating the transition if another thread changed the state meanwhile.
+    // ---
+
+    private boolean loginRequest(@NotNull ClientToServer c2s, @NotNull LoginConnection connection) {
+        final LoginResponder responder = connection.getResponder();
+        final CommonStuff cs = c2s.getCommonStuff();
+        final long clientHigh = UtilsForProtobufUuid.clientExchangeHighOf(cs);
+        final long clientLow = UtilsForProtobufUuid.clientExchangeLowOf(cs);
+        // A LOGIN_REQUEST for an exchange that exists, or refused for its connection, does not get to
+        // cost a challenge: the challenge is only issued once the session holds its place and is in the table
+        ExchangeSession existing = sessions.get(clientHigh, clientLow);
+        if (existing == null) {
+            final ExchangeSession fresh = new ExchangeSession(clientHigh, clientLow,
+                    UtilsForProtobufUuid.serverExchangeHighOf(cs), UtilsForProtobufUuid.serverExchangeLowOf(cs), connection);
+            if (!connection.tryOpen(fresh)) {
+                responder.loginRequestAnswerFailure("Too many exchanges in flight on this connection, at most " + connection.getMaxExchanges(), cs);
+                return true;
+            }
+            fresh.acceptSeqNum(cs.getSeqNum());
+            existing = sessions.putIfAbsent(clientHigh, clientLow, fresh);
+            if (existing == null) {
+                final long now = System.nanoTime();
+                fresh.issueChallenge(challenges.issue(clientHigh, now), now);
+                arm(fresh, LoginState.CHALLENGE_ISSUED);
+                responder.loginChallenge(fresh.getProduct(), cs);
+                return true;
+            }
+            connection.ended(fresh);
+        }
+        if (!existing.acceptSeqNum(cs.getSeqNum())) {
+            return replayed(c2s, responder);
+        }
+        return invalidTransition(existing.getState(), c2s, responder);
+    }
+
+    private boolean loginChallengeSolved(@NotNull ClientToServer c2s, @NotNull LoginChallengeSolved solved, @NotNull LoginConnection connection) {
+        final LoginResponder responder = connection.getResponder();
+        final ExchangeSession session = sessionOf(c2s);
+        if (session == null) {
+            return invalidTransition(LoginState.NONE, c2s, responder);
+        }
+        if (!accepted(session, c2s, responder)) {
+            return true;
+        }
+        final boolean isSolution = UtilsForLoginChallenge.isSolution(solved.getA(), solved.getB(), session.getProduct());
+        while (true) {
+            final LoginState from = session.getState();
+            final LoginState to = LoginStateMachine.next(from, ClientToServer.PayloadType.LOGIN_CHALLENGE_SOLVED);
+            if (to == null) {
+                return invalidTransition(from, c2s, responder);
+            }
+            if (!isSolution) {
+                // The client has to start over with a new LOGIN_REQUEST
+                if (session.compareAndSetState(from, LoginState.CLOSED)) {
+                    removeSession(session);
+                    responder.loginChallengeSolvedAnswerFailure(c2s.getCommonStuff());
+                    return true;
+                }
+            } else if (session.compareAndSetState(from, to)) {
+                final long now = System.nanoTime();
+                challenges.onSolved(session.getClientExchangeHigh(), now - session.getIssuedAtNanos(), now);
+                arm(session, to);
+                responder.loginChallengeSolvedAnswerOk(c2s.getCommonStuff());
+                return true;
+            }
+        }
+    }
+
+    private boolean loginFollowup(@NotNull ClientToServer c2s, @NotNull LoginFollowup followup, @NotNull LoginConnection connection) {
+        final LoginResponder responder = connection.getResponder();
+        final ExchangeSession session = sessionOf(c2s);
+        if (session == null) {
+            return invalidTransition(LoginState.NONE, c2s, responder);
+        }
+        if (!accepted(session, c2s, responder)) {
+            return true;
+        }
+        final LoginState state = session.getState();
+        if (LoginStateMachine.next(state, ClientToServer.PayloadType.LOGIN_FOLLOWUP) == null) {
+            return invalidTransition(state, c2s, responder);
+        }
+        final Executor ioThread = connection.getIoThread();
+        if (players != null && ioThread != null) {
+            final CompletableFuture<PlayerDirectory.Player> lookup = players.resolveAsync(followup.getUsername());
+            if (!lookup.isDone()) {
+                // Answered on the I/O thread once looked up, unless the connection has gone meanwhile
+                lookup.whenComplete((player, failure) -> ioThread.execute(() -> {
+                    if (!connection.isClosed()) {
+                        followupLookedUp(session, c2s, followup, player, responder);
+                    }
+                }));
+                return false;
+            }
+            return followupLookedUp(session, c2s, followup, lookup.isCompletedExceptionally() ? null : lookup.join(), responder);
+        }
+        final UUID playerUuid;
+        try {
+            playerUuid = playerUuidOf(followup.getUsername());
+        } catch (UncheckedIOException e) {
+            return playerUnavailable(c2s, responder);
+        }
+        return followupAnswer(session, c2s, followup, playerUuid, responder);
+    }
+
+    // "player" is null if it could not be looked up
+
+    private boolean followupLookedUp(@NotNull ExchangeSession session, @NotNull ClientToServer c2s, @NotNull LoginFollowup followup,
+                                     PlayerDirectory.@Nullable Player player, @NotNull LoginResponder responder) {
+        if (player == null) {
+            return playerUnavailable(c2s, responder);
+        }
+        return followupAnswer(session, c2s, followup, player.getUuid(), responder);
+    }
+
+    private static boolean playerUnavailable(@NotNull ClientToServer c2s, @NotNull LoginResponder responder) {
+        responder.loginGenericFailure("The player directory is not available", c2s, c2s.getCommonStuff());
+        return true;
+    }
+
+    // The player is known; the exchange may have moved on meanwhile (e.g. timed out while it was looked up)
+
+    private boolean followupAnswer(@NotNull ExchangeSession session, @NotNull ClientToServer c2s, @NotNull LoginFollowup followup,
+                                   @NotNull UUID playerUuid, @NotNull LoginResponder responder) {
+        while (true) {
+            final LoginState from = session.getState();
+            final LoginState to = LoginStateMachine.next(from, ClientToServer.PayloadType.LOGIN_FOLLOWUP);
+            if (to == null) {
+                return invalidTransition(from, c2s, responder);
+            }
+            if (session.compareAndSetState(from, to)) {
+                arm(session, to);
+                responder.loginFollowupAnswerOk(playerUuid, followup.getUsername(), c2s.getCommonStuff());
+                return true;
+            }
+        }
+    }
+
+    private boolean loginClose(@NotNull ClientToServer c2s, @NotNull LoginConnection connection) {
+        final LoginResponder responder = connection.getResponder();
+        final ExchangeSession session = sessionOf(c2s);
+        if (session == null) {
+            return false; // nothing to close, closing is idempotent
+        }
+        if (!accepted(session, c2s, responder)) {
+            return true;
+        }
+        while (true) {
+            final LoginState from = session.getState();
+            final LoginState to = LoginStateMachine.next(from, ClientToServer.PayloadType.LOGIN_CLOSE);
+            if (to == null) {
+                return invalidTransition(from, c2s, responder);
+            }
+            if (session.compareAndSetState(from, to)) {
+                removeSession(session);
+                return false;
+            }
+        }
+    }
+
+    // Once "session" is CLOSED: drops it from the table, its timeout and its connection
+
+    private void removeSession(@NotNull ExchangeSession session) {
+        sessions.remove(session.getClientExchangeHigh(), session.getClientExchangeLow(), session);
+        disarm(session);
+        final LoginConnection connection = session.getConnection();
+        if (connection != null) {
+            connection.ended(session);
+        }
+    }
+
+    private @Nullable ExchangeSession sessionOf(@NotNull ClientToServer c2s) {
+        final CommonStuff cs = c2s.getCommonStuff();
+        return sessions.get(UtilsForProtobufUuid.clientExchangeHighOf(cs), UtilsForProtobufUuid.clientExchangeLowOf(cs));
+    }
+
+    // ---
+    // Whether the exchange "session" may go on with "c2s"; if not, the response has been given.
+    // The seqNum is checked before anything else is done for the message, notably before checking a solution.
+    // ---
+
+    private static boolean accepted(@NotNull ExchangeSession session, @NotNull ClientToServer c2s, @NotNull LoginResponder responder) {
+        final CommonStuff cs = c2s.getCommonStuff();
+        if (!session.hasServerExchangeUuid(UtilsForProtobufUuid.serverExchangeHighOf(cs), UtilsForProtobufUuid.serverExchangeLowOf(cs))) {
+            responder.loginGenericFailure("Server exchange UUID does not match the one of the exchange", c2s, cs);
+            return false;
+        }
+        if (!session.acceptSeqNum(cs.getSeqNum())) {
+            replayed(c2s, responder);
+            return false;
+        }
+        return true;
+    }
+
+    // ---
+    // Timeouts. A session has at most one timeout at a time, that of its current state; when two
+    // transitions race, the timeout left may be the one of the earlier state, which is as good.
+    // ---
+
+    private void arm(@NotNull ExchangeSession session, @NotNull LoginState state) {
+        if (wheel != null) {
+            assert timeouts != null;
+            final TimingWheel.Timeout<ExchangeSession> replaced = session.swapTimeout(wheel.schedule(session, timeouts.timeoutFor(state)));
+            if (replaced != null) {
+                replaced.cancel();
+            }
+        }
+    }
+
+    private static void disarm(@NotNull ExchangeSession session) {
+        final TimingWheel.Timeout<ExchangeSession> replaced = session.swapTimeout(null);
+        if (replaced != null) {
+            replaced.cancel();
+        }
+    }
+
+    private void expire(@NotNull TimingWheel.Timeout<ExchangeSession> timeout) {
+        final ExchangeSession session = timeout.getTask();
+        if (session.getTimeout() != timeout) {
+            return; // replaced meanwhile, and being cancelled
+        }
+        while (true) {
+            final LoginState from = session.getState();
+            if (from == LoginState.CLOSED) {
+                return;
+            }
+            if (session.compareAndSetState(from, LoginState.CLOSED)) {
+                removeSession(session);
+                expiredCount.increment();
+                if (expiryListener != null) {
+                    expiryListener.expired(session, from, buildExpiryFailure(session, from));
+                }
+                return;
+            }
+        }
+    }
+
+    // There is no message to blame: the cause is empty
+
+    private static @NotNull ServerToClient buildExpiryFailure(@NotNull ExchangeSession session, @NotNull LoginState state) {
+        final CommonData cd = new CommonData((int) Math.max(1, session.getHighestSeqNum()),
+                new UUID(session.getClientExchangeHigh(), session.getClientExchangeLow()),
+                new UUID(session.getServerExchangeHigh(), session.getServerExchangeLow()));
+        return buildLoginGenericFailure("The exchange timed out in state " + state, ClientToServer.getDefaultInstance(), cd);
+    }
+
+    private static boolean invalidTransition(@NotNull LoginState state, @NotNull ClientToServer cause, @NotNull LoginResponder responder) {
+        final String msg = (state == LoginState.NONE)
+                ? cause.getPayloadType() + " for an exchange which does not exist"
+                : cause.getPayloadType() + " is not allowed in state " + state;
+        responder.loginGenericFailure(msg, cause, cause.getCommonStuff());
+        return true;
+    }
+
+    private static boolean replayed(@NotNull ClientToServer cause, @NotNull LoginResponder responder) {
+        final String msg = cause.getPayloadType() + " with seqNum " + cause.getCommonStuff().getSeqNum() + " has already been received, or is too old";
+        responder.loginGenericFailure(msg, cause, cause.getCommonStuff());
+        return true;
+    }
+
+    // ---
+    // The LoginResponder behind handle(c2s): builds the response as a ServerToClient message
+    // ---
+
+    private static class MessageResponder implements LoginResponder {
+
+        private @Nullable ServerToClient response;
+
+        @Override
+        public void loginChallenge(long product, @NotNull CommonStuff echo) {
+            response = buildLoginChallenge(product, CommonData.fromProtobufCommonStuff(echo));
+        }
+
+        @Override
+        public void loginRequestAnswerFailure(@NotNull String msg, @NotNull CommonStuff echo) {
+            response = buildLoginRequestAnswerFailure(msg, CommonData.fromProtobufCommonStuff(echo));
+        }
+
+        @Override
+        public void loginChallengeSolvedAnswerOk(@NotNull CommonStuff echo) {
+            response = buildLoginChallengeSolvedAnswerOk(CommonData.fromProtobufCommonStuff(echo));
+        }
+
+        @Override
+        public void loginChallengeSolvedAnswerFailure(@NotNull CommonStuff echo) {
+            response = buildLoginChallengeSolvedAnswerFailure(CommonData.fromProtobufCommonStuff(echo));
+        }
+
+        @Override
+        public void loginFollowupAnswerOk(@NotNull UUID playerUuid, @NotNull String playerName, @NotNull CommonStuff echo) {
+            response = buildLoginFollowupAnswerOk(playerUuid, playerName, CommonData.fromProtobufCommonStuff(echo));
+        }
+
+        @Override
+        public void loginGenericFailure(@NotNull String msg, @NotNull ClientToServer cause, @NotNull CommonStuff echo) {
+            response = buildLoginGenericFailure(msg, cause, CommonData.fromProtobufCommonStuff(echo));
+        }
+    }
+
+    private @NotNull UUID playerUuidOf(@NotNull String username) {
+        return (players == null) ? playerUuidFor(username) : players.resolve(username).getUuid();
+    }
+
+    // The player UUID without a player directory, which is also the one a directory gives a new player
+
+    public static @NotNull UUID playerUuidFor(@NotNull String username) {
+        return PlayerDirectory.newPlayerUuid(username);
+    }
+}
@@ -0,0 +1,88 @@
+package name.pomelo.protobuf_trial.test.common;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.util.concurrent.TimeUnit;
+
+// ---
+// What AdaptiveDifficulty knows about the load, over a sliding window (see SlidingWindowCounter):
+// the LOGIN_REQUESTs and the time taken to solve the challenges, in total and per "source".
+//
+// A source is the top "prefixBits" bits of the client exchange UUID, the only identity the handler
+// has. Honest clients make random UUIDs and are spread over all sources; a client flooding the
+// server with a fixed prefix piles up in one.
+// ---
+
+public class LoginLoadMonitor {
+
+    private final static int BUCKETS = 10;
+
+    private final int prefixBits;
+    private final double windowSeconds;
+
+    private final @NotNull SlidingWindowCounter requests;
+    private final @NotNull SlidingWindowCounter solveNanos;
+    private final @NotNull SlidingWindowCounter solveCount;
+    private final @NotNull SlidingWindowCounter sourceRequests;
+    private final @NotNull SlidingWindowCounter sourceSolveNanos;
+    private final @NotNull SlidingWindowCounter sourceSolveCount;
+
+    public LoginLoadMonitor(int prefixBits, long windowNanos) {
+        if (prefixBits < 1 || prefixBits > 16) {
+            throw new IllegalArgumentException("prefixBits must be in [1,16] but is " + prefixBits);
+        }
+        this.prefixBits = prefixBits;
+        this.windowSeconds = (double) windowNanos / TimeUnit.SECONDS.toNanos(1);
+        final int sources = 1 << prefixBits;
+        this.requests = new SlidingWindowCounter(1, BUCKETS, windowNanos);
+        this.solveNanos = new SlidingWindowCounter(1, BUCKETS, windowNanos);
+        this.solveCount = new SlidingWindowCounter(1, BUCKETS, windowNanos);
+        this.sourceRequests = new SlidingWindowCounter(sources, BUCKETS, windowNanos);
+        this.sourceSolveNanos = new SlidingWindowCounter(sources, BUCKETS, windowNanos);
+        this.sourceSolveCount = new SlidingWindowCounter(sources, BUCKETS, windowNanos);
+    }
+
+    public int sourceOf(long clientExchangeHigh) {
+        return (int) (clientExchangeHigh >>> (64 - prefixBits));
+    }
+
+    public void onLoginRequest(long clientExchangeHigh, long nowNanos) {
+        requests.add(0, nowNanos, 1);
+        sourceRequests.add(sourceOf(clientExchangeHigh), nowNanos, 1);
+    }
+
+    public void onChallengeSolved(long clientExchangeHigh, long nanos, long nowNanos) {
+        final int source = sourceOf(clientExchangeHigh);
+        solveNanos.add(0, nowNanos, nanos);
+        solveCount.add(0, nowNanos, 1);
+        sourceSolveNanos.add(source, nowNanos, nanos);
+        sourceSolveCount.add(source, nowNanos, 1);
+    }
+
+    public long getRequests(long nowNanos) {
+        return requests.sum(0, nowNanos);
+    }
+
+    public double getRequestRate(long nowNanos) {
+        return getRequests(nowNanos) / windowSeconds;
+    }
+
+    public long getSourceRequests(long clientExchangeHigh, long nowNanos) {
+        return sourceRequests.sum(sourceOf(clientExchangeHigh), nowNanos);
+    }
+
+    // 0 if nothing was solved in the window
+
+    public long getAverageSolveNanos(long nowNanos) {
+        return average(solveNanos.sum(0, nowNanos), solveCount.sum(0, nowNanos));
+    }
+
+    public long getSourceAverageSolveNanos(long clientExchangeHigh, long nowNanos) {
+        final int source = sourceOf(clientExchangeHigh);
+        return average(sourceSolveNanos.sum(source, nowNanos), sourceSolveCount.sum(source, nowNanos));
+    }
+
+    private static long average(long sum, long count) {
+        return (count == 0) ? 0 : sum / count;
+    }
+}
@@ -0,0 +1,395 @@
+package name.pomelo.protobuf_trial.test.common;
+
+import com.google.protobuf.CodedOutputStream;
+import name.pomelo.protobuf_trial.protos.ClientToServer;
+import name.pomelo.protobuf_trial.protos.ServerToClient;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.io.Closeable;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.lang.management.ManagementFactory;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+// ---
+// What goes through the codec of a login server: the frames received, by ClientToServer payload
+// type, and rejected before parsing, by ScanResult reason (unknown or unrecognized payload type,
+// nil exchange UUID, invalid seqNum...); the frames sent, by ServerToClient payload type; the
+// frame sizes both ways; and how long verifying (MessageScanner) and parsing a frame take.
+//
+// Each I/O thread (NIO worker, or virtual thread of a connection) records through a Recorder of
+// its own, see recording(), which counts into plain long[] "counts" nobody else writes: by payload
+// type, by rejection reason, and the frame sizes below LOCAL_SIZE_LIMIT by histogram bucket (see
+// StripedHistogram). Each count is published with an opaque store, no atomic instruction nor
+// fence, and the getters add up the counts of the live Recorders and of those closed (a closed
+// Recorder's counts are moved into "retired"). The rarer frames of LOCAL_SIZE_LIMIT bytes or more,
+// and the timings, go into shared StripedHistograms. reset() takes the counts at that time as the
+// new zero, as only the owner of a Recorder may write its counts.
+//
+// The getters are not atomic: while a Recorder is being closed, its counts may be added twice.
+//
+// Reading the clock costs about as much as all the rest, so only one frame in 2^timingSampleShift
+// is timed (every 16th by default, 0 to time them all); everything else counts every frame.
+// Frames rejected are counted, but their verify time is only taken if they are sampled.
+//
+// The metrics are available through JMX (registerMBean(), see LoginMetricsMXBean) and can be
+// logged periodically (startLogging()).
+// ---
+
+public class LoginMetrics implements LoginMetricsMXBean, Closeable {
+
+    private final static Logger log = LoggerFactory.getLogger(LoginMetrics.class);
+
+    public final static String OBJECT_NAME = "name.pomelo.protobuf_trial:type=LoginMetrics";
+    public final static int DEFAULT_TIMING_SAMPLE_SHIFT = 4;
+
+    private final static ClientToServer.PayloadType[] C2S_TYPES = ClientToServer.PayloadType.values();
+    private final static ServerToClient.PayloadType[] S2C_TYPES = ServerToClient.PayloadType.values();
+
+    // Frame sizes counted by the Recorders themselves; login frames are well below
+
+    private final static int LOCAL_SIZE_LIMIT = 256;
+    private final static int LOCAL_SIZE_BUCKETS = StripedHistogram.bucketOf(LOCAL_SIZE_LIMIT - 1) + 1;
+
+    // ---
+    // Where each count is in "counts": by ordinal of the payload type (values not in the enum are
+    // counted under UNRECOGNIZED), by ScanResult code (OK is not used), by size bucket
+    // ---
+
+    private final static int RECEIVED = 0;
+    private final static int SENT = RECEIVED + C2S_TYPES.length;
+    private final static int REJECTED = SENT + S2C_TYPES.length;
+    private final static int SIZE_RECEIVED = REJECTED + ScanResult.COUNT;
+    private final static int SIZE_SENT = SIZE_RECEIVED + LOCAL_SIZE_BUCKETS;
+    private final static int COUNTS = SIZE_SENT + LOCAL_SIZE_BUCKETS;
+
+    private final static VarHandle COUNT = MethodHandles.arrayElementVarHandle(long[].class);
+
+    private final int timingSampleMask;
+
+    private final @NotNull Set<Recorder> recorders = ConcurrentHashMap.newKeySet();
+    private final @NotNull AtomicLongArray retired = new AtomicLongArray(COUNTS);
+
+    // The counts at the last reset()
+
+    private volatile long @NotNull [] zero = new long[COUNTS];
+
+    private final @NotNull StripedHistogram frameSizeReceived = new StripedHistogram();
+    private final @NotNull StripedHistogram frameSizeSent = new StripedHistogram();
+    private final @NotNull StripedHistogram verifyNanos = new StripedHistogram();
+    private final @NotNull StripedHistogram parseNanos = new StripedHistogram();
+
+    private @Nullable ObjectName registeredAs;
+    private @Nullable ScheduledExecutorService logger;
+
+    public LoginMetrics() {
+        this(DEFAULT_TIMING_SAMPLE_SHIFT);
+    }
+
+    public LoginMetrics(int timingSampleShift) {
+        if (timingSampleShift < 0 || timingSampleShift > 30) {
+            throw new IllegalArgumentException("timingSampleShift must be between 0 and 30 but is " + timingSampleShift);
+        }
+        this.timingSampleMask = (1 << timingSampleShift) - 1;
+    }
+
+    // ---
+    // The Recorder of one I/O thread, which checks the frames received with "scanner". To be
+    // closed when the thread is done with it, e.g. when the connection of a virtual thread closes.
+    // ---
+
+    public @NotNull Recorder recording(@NotNull MessageScanner scanner) {
+        final Recorder recorder = new Recorder(scanner);
+        recorders.add(recorder);
+        return recorder;
+    }
+
+    // ---
+    // Records for one I/O thread, not thread-safe.
+    //
+    // As a FrameValidator, it checks a frame with its MessageScanner and counts it, then
+    // parsed() is to be called once the frame has been parsed, to time the parsing; the
+    // frames sent are counted through sent() (see ServerToClientWriter.setMetrics()).
+    // close() once done: the counts are kept, and the Recorder is forgotten.
+    // ---
+
+    public final class Recorder implements FrameValidator, AutoCloseable {
+
+        private final @NotNull MessageScanner scanner;
+        private final long @NotNull [] counts = new long[COUNTS];
+        private int frames;
+        private boolean closed;
+
+        // Whether the frame being parsed is sampled, and when it was verified
+
+        private boolean timingParse;
+        private long verifiedAt;
+
+        private Recorder(@NotNull MessageScanner scanner) {
+            this.scanner = scanner;
+        }
+
+        @Override
+        public int validate(@NotNull ByteBuffer buf, int offset, int length) {
+            final boolean timed = (++frames & timingSampleMask) == 0;
+            final long start = timed ? System.nanoTime() : 0;
+            final int result = scanner.validate(buf, offset, length);
+            if (timed) {
+                verifiedAt = System.nanoTime();
+                verifyNanos.record(verifiedAt - start);
+            }
+            timingParse = timed && result == ScanResult.OK;
+            recordSize(SIZE_RECEIVED, frameSizeReceived, frameSize(length));
+            increment((result == ScanResult.OK) ? RECEIVED + clientToServerIndex(scanner.getPayloadTypeValue()) : REJECTED + result);
+            return result;
+        }
+
+        public void parsed() {
+            if (timingParse) {
+                parseNanos.record(System.nanoTime() - verifiedAt);
+                timingParse = false;
+            }
+        }
+
+        public void sent(int payloadTypeValue, int msgSize) {
+            increment(SENT + serverToClientIndex(payloadTypeValue));
+            recordSize(SIZE_SENT, frameSizeSent, frameSize(msgSize));
+        }
+
+        // Hands the counts over to the LoginMetrics; idempotent, and the Recorder is not to be used afterward
+
+        @Override
+        public void close() {
+            if (closed) {
+                return;
+            }
+            closed = true;
+            for (int i = 0; i < COUNTS; i++) {
+                if (counts[i] != 0) {
+                    retired.addAndGet(i, counts[i]);
+                }
+            }
+            recorders.remove(this);
+        }
+
+        // The only writer: a plain read of its own count, published with an opaque store
+
+        private void increment(int index) {
+            COUNT.setOpaque(counts, index, counts[index] + 1);
+        }
+
+        private void recordSize(int base, @NotNull StripedHistogram large, int frameSize) {
+            if (frameSize < LOCAL_SIZE_LIMIT) {
+                increment(base + StripedHistogram.bucketOf(frameSize));
+            } else {
+                large.record(frameSize);
+            }
+        }
+    }
+
+    // The counts of the live and closed Recorders since the last reset()
+
+    private long @NotNull [] counts() {
+        final long[] res = new long[COUNTS];
+        for (int i = 0; i < COUNTS; i++) {
+            res[i] = retired.get(i);
+        }
+        for (Recorder recorder : recorders) {
+            for (int i = 0; i < COUNTS; i++) {
+                res[i] += (long) COUNT.getOpaque(recorder.counts, i);
+            }
+        }
+        final long[] z = zero;
+        for (int i = 0; i < COUNTS; i++) {
+            res[i] -= z[i];
+        }
+        return res;
+    }
+
+    private static long sum(long @NotNull [] counts, int from, int count) {
+        long sum = 0;
+        for (int i = from; i < from + count; i++) {
+            sum += counts[i];
+        }
+        return sum;
+    }
+
+    private static int frameSize(int msgSize) {
+        return CodedOutputStream.computeUInt32SizeNoTag(msgSize) + msgSize;
+    }
+
+    private static int clientToServerIndex(int payloadTypeValue) {
+        final ClientToServer.PayloadType type = ClientToServer.PayloadType.forNumber(payloadTypeValue);
+        return (type == null) ? ClientToServer.PayloadType.UNRECOGNIZED.ordinal() : type.ordinal();
+    }
+
+    private static int serverToClientIndex(int payloadTypeValue) {
+        final ServerToClient.PayloadType type = ServerToClient.PayloadType.forNumber(payloadTypeValue);
+        return (type == null) ? ServerToClient.PayloadType.UNRECOGNIZED.ordinal() : type.ordinal();
+    }
+
+    // ---
+    // LoginMetricsMXBean
+    // ---
+
+    // Accepted and rejected
+
+    @Override
+    public long getFramesReceived() {
+        final long[] counts = counts();
+        return sum(counts, RECEIVED, C2S_TYPES.length) + sum(counts, REJECTED, ScanResult.COUNT);
+    }
+
+    @Override
+    public long getFramesSent() {
+        return sum(counts(), SENT, S2C_TYPES.length);
+    }
+
+    @Override
+    public long getFramesRejected() {
+        return sum(counts(), REJECTED, ScanResult.COUNT);
+    }
+
+    // Accepted only
+
+    @Override
+    public @NotNull Map<String, Long> getReceivedByPayloadType() {
+        final long[] counts = counts();
+        final Map<String, Long> res = new LinkedHashMap<>();
+        for (ClientToServer.PayloadType type : C2S_TYPES) {
+            putIfNonZero(res, type.name(), counts[RECEIVED + type.ordinal()]);
+        }
+        return res;
+    }
+
+    @Override
+    public @NotNull Map<String, Long> getSentByPayloadType() {
+        final long[] counts = counts();
+        final Map<String, Long> res = new LinkedHashMap<>();
+        for (ServerToClient.PayloadType type : S2C_TYPES) {
+            putIfNonZero(res, type.name(), counts[SENT + type.ordinal()]);
+        }
+        return res;
+    }
+
+    @Override
+    public @NotNull Map<String, Long> getRejectedByReason() {
+        final long[] counts = counts();
+        final Map<String, Long> res = new LinkedHashMap<>();
+        for (int result = 0; result < ScanResult.COUNT; result++) {
+            putIfNonZero(res, ScanResult.describe(result), counts[REJECTED + result]);
+        }
+        return res;
+    }
+
+    @Override
+    public @NotNull StripedHistogram.Snapshot getFrameSizeReceived() {
+        return frameSizeReceived.snapshot(Arrays.copyOfRange(counts(), SIZE_RECEIVED, SIZE_RECEIVED + LOCAL_SIZE_BUCKETS));
+    }
+
+    @Override
+    public @NotNull StripedHistogram.Snapshot getFrameSizeSent() {
+        return frameSizeSent.snapshot(Arrays.copyOfRange(counts(), SIZE_SENT, SIZE_SENT + LOCAL_SIZE_BUCKETS));
+    }
+
+    @Override
+    public @NotNull StripedHistogram.Snapshot getVerifyNanos() {
+        return verifyNanos.snapshot();
+    }
+
+    @Override
+    public @NotNull StripedHistogram.Snapshot getParseNanos() {
+        return parseNanos.snapshot();
+    }
+
+    @Override
+    public synchronized void reset() {
+        final long[] counts = counts();
+        final long[] z = zero;
+        for (int i = 0; i < COUNTS; i++) {
+            counts[i] += z[i];
+        }
+        zero = counts;
+        frameSizeReceived.reset();
+        frameSizeSent.reset();
+        verifyNanos.reset();
+        parseNanos.reset();
+    }
+
+    private static void putIfNonZero(@NotNull Map<String, Long> map, @NotNull String key, long value) {
+        if (value != 0) {
+            map.put(key, value);
+        }
+    }
+
+    // ---
+    // Publishing
+    // ---
+
+    public @NotNull LoginMetrics registerMBean() {
+        return registerMBean(OBJECT_NAME);
+    }
+
+    public @NotNull LoginMetrics registerMBean(@NotNull String objectName) {
+        try {
+            final ObjectName name = new ObjectName(objectName);
+            ManagementFactory.getPlatformMBeanServer().registerMBean(this, name);
+            registeredAs = name;
+        } catch (JMException e) {
+            throw new IllegalStateException("Could not register the metrics as " + objectName, e);
+        }
+        return this;
+    }
+
+    // Log a snapshot at INFO every "period"
+
+    public @NotNull LoginMetrics startLogging(long period, @NotNull TimeUnit unit) {
+        logger = Executors.newSingleThreadScheduledExecutor(r -> {
+            final Thread thread = new Thread(r, "login-metrics-logger");
+            thread.setDaemon(true);
+            return thread;
+        });
+        logger.scheduleAtFixedRate(() -> log.info("{}", this), period, period, unit);
+        return this;
+    }
+
+    @Override
+    public void close() {
+        if (logger != null) {
+            logger.shutdownNow();
+        }
+        if (registeredAs != null) {
+            final MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            try {
+                server.unregisterMBean(registeredAs);
+            } catch (JMException e) {
+                // unregistered meanwhile
+            }
+            registeredAs = null;
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "received " + getFramesReceived() + " " + getReceivedByPayloadType()
+                + ", rejected " + getFramesRejected() + " " + getRejectedByReason()
+                + ", sent " + getFramesSent() + " " + getSentByPayloadType()
+                + ", frame size in [" + getFrameSizeReceived() + "] out [" + getFrameSizeSent() + "]"
+                + ", verify ns [" + getVerifyNanos() + "], parse ns [" + getParseNanos() + "]";
+    }
+}
@@ -0,0 +1,36 @@
+package name.pomelo.protobuf_trial.test.common;
+
+import java.util.Map;
+
+// ---
+// The LoginMetrics of a login server as seen through JMX (e.g. in JConsole or VisualVM under
+// "name.pomelo.protobuf_trial:type=LoginMetrics"). Every getter reads the live counters.
+// The maps are keyed by payload type or ScanResult name and only list non-zero counts.
+// ---
+
+public interface LoginMetricsMXBean {
+
+    long getFramesReceived();
+
+    long getFramesSent();
+
+    long getFramesRejected();
+
+    Map<String, Long> getReceivedByPayloadType();
+
+    Map<String, Long> getSentByPayloadType();
+
+    Map<String, Long> getRejectedByReason();
+
+    StripedHistogram.Snapshot getFrameSizeReceived();
+
+    StripedHistogram.Snapshot getFrameSizeSent();
+
+    // Sampled, see LoginMetrics
+
+    StripedHistogram.Snapshot getVerifyNanos();
+
+    StripedHistogram.Snapshot getParseNanos();
+
+    void reset();
+}
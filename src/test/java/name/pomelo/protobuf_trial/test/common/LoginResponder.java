@@ -0,0 +1,32 @@
+package name.pomelo.protobuf_trial.test.common;
+
+import name.pomelo.protobuf_trial.protos.ClientToServer;
+import name.pomelo.protobuf_trial.protos.CommonStuff;
+import org.jetbrains.annotations.NotNull;
+
+import java.util.UUID;
+
+// ---
+// The responses LoginExchangeHandler can give. The handler calls (at most) one of these per
+// message handled, passing the CommonStuff of that message, which the response has to echo.
+//
+// Implemented by the handler itself to build ServerToClient messages, and by ServerToClientWriter
+// to encode the responses straight into a buffer without building any message.
+// ---
+
+public interface LoginResponder {
+
+    void loginChallenge(long product, @NotNull CommonStuff echo);
+
+    // A LOGIN_REQUEST refused before any challenge is issued (e.g. too many exchanges on the connection)
+
+    void loginRequestAnswerFailure(@NotNull String msg, @NotNull CommonStuff echo);
+
+    void loginChallengeSolvedAnswerOk(@NotNull CommonStuff echo);
+
+    void loginChallengeSolvedAnswerFailure(@NotNull CommonStuff echo);
+
+    void loginFollowupAnswerOk(@NotNull UUID playerUuid, @NotNull String playerName, @NotNull CommonStuff echo);
+
+    void loginGenericFailure(@NotNull String msg, @NotNull ClientToServer cause, @NotNull CommonStuff echo);
+}
@@ -0,0 +1,29 @@
+package name.pomelo.protobuf_trial.test.common;
+
+import lombok.Getter;
+import org.jetbrains.annotations.NotNull;
+
+import java.util.UUID;
+
+// ---
+// What a client obtains from a successful "Login exchange".
+// ---
+
+@Getter
+public class LoginResult {
+
+    private final @NotNull UUID clientExchangeUUID;
+    private final @NotNull UUID playerUuid;
+    private final @NotNull String playerName;
+
+    public LoginResult(@NotNull UUID clientExchangeUUID, @NotNull UUID playerUuid, @NotNull String playerName) {
+        this.clientExchangeUUID = clientExchangeUUID;
+        this.playerUuid = playerUuid;
+        this.playerName = playerName;
+    }
+
+    @Override
+    public String toString() {
+        return "LoginResult[exchange=" + clientExchangeUUID + ", player=" + playerName + "/" + playerUuid + "]";
+    }
+}
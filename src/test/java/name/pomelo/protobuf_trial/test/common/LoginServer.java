@@ -0,0 +1,21 @@
+package name.pomelo.protobuf_trial.test.common;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+
+// ---
+// A login server, whatever the engine underneath (see LoginServerEngine).
+// ---
+
+public interface LoginServer extends Closeable {
+
+    void start() throws IOException;
+
+    @NotNull InetSocketAddress getLocalAddress() throws IOException;
+
+    @NotNull LoginExchangeHandler getHandler();
+
+}
@@ -0,0 +1,58 @@
+package name.pomelo.protobuf_trial.test.common;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.util.Locale;
+
+// ---
+// The available login server engines, so that they can be compared on the same hardware:
+//
+// NIO             - a few Selector loops multiplexing all connections (LoginServerNio)
+// VIRTUAL_THREADS - one virtual thread per connection doing blocking I/O (LoginServerVirtualThreads)
+//
+// The engine is selected at startup with the system property "loginServer.engine"
+// (e.g. -DloginServer.engine=virtual_threads); the default is NIO.
+// NIO also reads its FlushPolicy from the system properties (see FlushPolicy).
+// ---
+
+public enum LoginServerEngine {
+
+    NIO,
+    VIRTUAL_THREADS;
+
+    public final static String SYSTEM_PROPERTY = "loginServer.engine";
+
+    public static @NotNull LoginServerEngine fromSystemProperty() {
+        final String value = System.getProperty(SYSTEM_PROPERTY);
+        if (value == null || value.isBlank()) {
+            return NIO;
+        }
+        try {
+            return valueOf(value.trim().toUpperCase(Locale.ROOT));
+        } catch (IllegalArgumentException e) {
+            throw new IllegalArgumentException("System property " + SYSTEM_PROPERTY + " has value '" + value + "', which is not one of NIO, VIRTUAL_THREADS");
+        }
+    }
+
+    public @NotNull LoginServer create(@NotNull InetSocketAddress bindAddress, @NotNull LoginExchangeHandler handler) throws IOException {
+        return create(bindAddress, handler, null);
+    }
+
+    // With a "journal", the server appends every frame received and sent to it (see FrameJournal)
+
+    public @NotNull LoginServer create(@NotNull InetSocketAddress bindAddress, @NotNull LoginExchangeHandler handler, @Nullable FrameJournal journal) throws IOException {
+        return create(bindAddress, handler, journal, null);
+    }
+
+    // With "metrics", the server counts and times the frames going through it (see LoginMetrics)
+
+    public @NotNull LoginServer create(@NotNull InetSocketAddress bindAddress, @NotNull LoginExchangeHandler handler, @Nullable FrameJournal journal, @Nullable LoginMetrics metrics) throws IOException {
+        return switch (this) {
+            case NIO -> new LoginServerNio(bindAddress, Runtime.getRuntime().availableProcessors(), handler, FlushPolicy.fromSystemProperties(), journal, metrics);
+            case VIRTUAL_THREADS -> new LoginServerVirtualThreads(bindAddress, handler, journal, metrics);
+        };
+    }
+}
@@ -0,0 +1,86 @@
+package name.pomelo.protobuf_trial.test.common;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+
+// ---
+// Start a login server and keep it running until the JVM is stopped.
+//
+// Arguments: [port] (default 7777)
+// Engine:    -DloginServer.engine=nio|virtual_threads (see LoginServerEngine)
+// Batching:  -DloginServer.flushBytes=N -DloginServer.flushDelayMicros=N (NIO only, see FlushPolicy)
+// Challenge: -DloginServer.challengeBits=N (size of the primes, see ChallengeGenerator)
+//            -DloginServer.adaptiveDifficulty=true (difficulty following the load, see AdaptiveDifficulty)
+// Timeouts:  -DloginServer.challengeTimeoutMillis=N -DloginServer.followupTimeoutMillis=N -DloginServer.closeTimeoutMillis=N
+//            (how long an exchange may wait for the client's next message, see ExchangeTimeouts)
+// Players:   -DloginServer.playerFile=FILE -DloginServer.playerCacheSize=N (player UUIDs from a file, cached, see PlayerDirectory;
+//            without it, derived from the usernames)
+// Exchanges: -DloginServer.maxExchangesPerConnection=N (open at a time on one connection, see LoginConnection)
+// Journal:   -DloginServer.journalDir=DIR (every frame received and sent, see FrameJournal)
+// Metrics:   always in JMX (see LoginMetrics), logged every -DloginServer.metricsLogSeconds=N (default 60, 0 = never)
+// ---
+
+public class LoginServerMain {
+
+    public final static String ADAPTIVE_DIFFICULTY_PROPERTY = "loginServer.adaptiveDifficulty";
+    public final static String JOURNAL_DIR_PROPERTY = "loginServer.journalDir";
+    public final static String METRICS_LOG_SECONDS_PROPERTY = "loginServer.metricsLogSeconds";
+
+    public static void main(String[] args) throws IOException, InterruptedException {
+        final int port = (args.length > 0) ? Integer.parseInt(args[0]) : 7777;
+        final LoginServerEngine engine = LoginServerEngine.fromSystemProperty();
+        final ExchangeSessionTable<ExchangeSession> sessions = new ExchangeSessionTable<>();
+        final ChallengeIssuer challenges;
+        if (Boolean.getBoolean(ADAPTIVE_DIFFICULTY_PROPERTY)) {
+            final ChallengeGenerator generator = new ChallengeGenerator(ChallengeGenerator.DEFAULT_PRIME_BITS, ChallengeGenerator.DEFAULT_POOL_CAPACITY).start();
+            challenges = new AdaptiveDifficulty(generator, DifficultyPolicy.defaults(), sessions).start(1, TimeUnit.SECONDS);
+        } else {
+            challenges = ChallengeGenerator.shared();
+        }
+        final ExchangeTimeouts timeouts = ExchangeTimeouts.fromSystemProperties();
+        final PlayerDirectory players = PlayerDirectory.fromSystemProperties();
+        if (players != null) {
+            players.registerMBean();
+        }
+        final LoginExchangeHandler handler = new LoginExchangeHandler(sessions, challenges, timeouts, null, players)
+                .setMaxExchangesPerConnection(LoginConnection.maxExchangesFromSystemProperties())
+                .startTimeouts();
+        final String journalDir = System.getProperty(JOURNAL_DIR_PROPERTY);
+        final FrameJournal journal = (journalDir == null || journalDir.isBlank()) ? null : new FrameJournal(Path.of(journalDir));
+        final LoginMetrics metrics = new LoginMetrics().registerMBean();
+        final int metricsLogSeconds = Integer.getInteger(METRICS_LOG_SECONDS_PROPERTY, 60);
+        if (metricsLogSeconds > 0) {
+            metrics.startLogging(metricsLogSeconds, TimeUnit.SECONDS);
+        }
+        final LoginServer server = engine.create(new InetSocketAddress(port), handler, journal, metrics);
+        server.start();
+        System.out.println("Login server (" + engine + ") listening on " + server.getLocalAddress() + ", " + timeouts
+                + ", at most " + handler.getMaxExchangesPerConnection() + " exchanges per connection");
+        if (journal != null) {
+            System.out.println("Journaling to " + journal.getDir());
+        }
+        if (players != null) {
+            System.out.println("Players from " + players.getStore());
+        }
+        Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+            try {
+                server.close();
+            } catch (IOException e) {
+                // exiting anyway
+            }
+            if (journal != null) {
+                journal.close();
+            }
+            if (players != null) {
+                try {
+                    players.close();
+                } catch (IOException e) {
+                    // exiting anyway
+                }
+            }
+        }));
+        Thread.currentThread().join();
+    }
+}
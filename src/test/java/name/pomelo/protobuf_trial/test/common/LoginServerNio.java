@@ -0,0 +1,474 @@
+package name.pomelo.protobuf_trial.test.common;
+
+import com.google.protobuf.InvalidProtocolBufferException;
+import name.pomelo.protobuf_trial.protos.ClientToServer;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.net.InetSocketAddress;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayDeque;
+import java.util.Iterator;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+
+// ---
+// A non-blocking login server speaking the "Login exchange" of packets.proto over TCP,
+// with length-delimited frames (see UtilsForProtobufFraming).
+//
+// - One acceptor thread hands new connections to "workers" round-robin.
+// - Each worker runs a Selector loop over its connections.
+// - Each worker owns one direct read buffer, shared by all of its connections, and a BufferPool:
+//   frames are parsed straight out of the read buffer and responses are encoded by a
+//   ServerToClientWriter straight into pooled buffers of the connection's OutboundBatcher,
+//   so there is no per-packet byte[] and no ServerToClient message is built for a response.
+// - The responses queued for a connection go out with one gathering write, when the FlushPolicy
+//   says so: at the end of each read by default, or once enough bytes are queued or a short delay
+//   has passed, so that one syscall carries the responses to several reads.
+// - Frames are checked on their raw bytes by a MessageScanner before being parsed; a client
+//   sending a malformed or invalid frame is disconnected without the frame being parsed.
+// - If the socket does not accept all of the responses, the connection stops reading until
+//   that backlog has been written.
+// - With a FrameJournal, every frame received and every response is appended to the journal,
+//   straight from the read buffer and the output buffers.
+// - With LoginMetrics, each worker counts the frames and times their verifying and parsing
+//   through a LoginMetrics.Recorder of its own.
+// - Each connection is a LoginConnection of the handler: it may carry many exchanges at a time
+//   (up to the handler's limit per connection), and those it leaves open when it goes away are closed.
+// - Nothing blocks a worker: a LOGIN_FOLLOWUP whose player has to be looked up in the store is
+//   answered once the PlayerDirectory has it, by a task the worker runs after its next select.
+//
+// Keeping per-connection state that small is what allows tens of thousands of concurrent logins.
+// ---
+
+public class LoginServerNio implements LoginServer {
+
+    private final static Logger log = LoggerFactory.getLogger(LoginServerNio.class);
+
+    private final static int READ_BUFFER_SIZE = 64 * 1024;
+
+    // The pooled output buffers, and how many a worker keeps around when the load drops
+
+    private final static int OUT_BUFFER_SIZE = 16 * 1024;
+    private final static int OUT_BUFFERS_RETAINED = 256;
+
+    // A client which does not read its responses gets disconnected once this much is backed up
+
+    private final static int MAX_PENDING_OUT = 1024 * 1024;
+
+    private final @NotNull LoginExchangeHandler handler;
+    private final @NotNull FlushPolicy flushPolicy;
+    private final @Nullable FrameJournal journal;
+    private final @Nullable LoginMetrics metrics;
+    private final int maxFrameSize;
+    private final @NotNull ServerSocketChannel serverChannel;
+    private final @NotNull Worker @NotNull [] workers;
+    private final @NotNull Thread acceptorThread;
+    private volatile boolean running;
+
+    public LoginServerNio(@NotNull InetSocketAddress bindAddress, int workerCount, @NotNull LoginExchangeHandler handler) throws IOException {
+        this(bindAddress, workerCount, handler, FlushPolicy.IMMEDIATE);
+    }
+
+    public LoginServerNio(@NotNull InetSocketAddress bindAddress, int workerCount, @NotNull LoginExchangeHandler handler, @NotNull FlushPolicy flushPolicy) throws IOException {
+        this(bindAddress, workerCount, handler, flushPolicy, null);
+    }
+
+    public LoginServerNio(@NotNull InetSocketAddress bindAddress, int workerCount, @NotNull LoginExchangeHandler handler, @NotNull FlushPolicy flushPolicy, @Nullable FrameJournal journal) throws IOException {
+        this(bindAddress, workerCount, handler, flushPolicy, journal, null);
+    }
+
+    public LoginServerNio(@NotNull InetSocketAddress bindAddress, int workerCount, @NotNull LoginExchangeHandler handler, @NotNull FlushPolicy flushPolicy, @Nullable FrameJournal journal, @Nullable LoginMetrics metrics) throws IOException {
+        if (workerCount <= 0) {
+            throw new IllegalArgumentException("workerCount must be greater than 0 but is " + workerCount);
+        }
+        this.handler = handler;
+        this.flushPolicy = flushPolicy;
+        this.journal = journal;
+        this.metrics = metrics;
+        this.maxFrameSize = UtilsForProtobufFraming.DEFAULT_MAX_FRAME_SIZE;
+        this.serverChannel = ServerSocketChannel.open();
+        this.serverChannel.bind(bindAddress, 4096);
+        this.workers = new Worker[workerCount];
+        for (int i = 0; i < workerCount; i++) {
+            workers[i] = new Worker(i);
+        }
+        this.acceptorThread = new Thread(this::acceptLoop, "login-nio-acceptor");
+    }
+
+    @Override
+    public @NotNull InetSocketAddress getLocalAddress() throws IOException {
+        return (InetSocketAddress) serverChannel.getLocalAddress();
+    }
+
+    @Override
+    public @NotNull LoginExchangeHandler getHandler() {
+        return handler;
+    }
+
+    @Override
+    public void start() {
+        running = true;
+        for (Worker worker : workers) {
+            worker.thread.start();
+        }
+        acceptorThread.start();
+    }
+
+    @Override
+    public void close() throws IOException {
+        running = false;
+        serverChannel.close(); // unblocks accept()
+        for (Worker worker : workers) {
+            worker.selector.wakeup();
+        }
+        try {
+            acceptorThread.join();
+            for (Worker worker : workers) {
+                worker.thread.join();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void acceptLoop() {
+        int next = 0;
+        while (running) {
+            try {
+                final SocketChannel channel = serverChannel.accept(); // blocking
+                channel.configureBlocking(false);
+                channel.setOption(StandardSocketOptions.TCP_NODELAY, true);
+                workers[next].register(channel);
+                next = (next + 1) % workers.length;
+            } catch (ClosedChannelException e) {
+                // close() has been called
+                break;
+            } catch (IOException e) {
+                log.warn("Accepting a connection failed", e);
+            }
+        }
+    }
+
+    // ---
+    // Per-connection state, attached to the SelectionKey
+    // ---
+
+    private final class Connection {
+
+        private final @NotNull SocketChannel channel;
+        private final @NotNull FrameDecoder<ClientToServer> decoder;
+        private final @NotNull OutboundBatcher out;
+        private final @NotNull LoginConnection login;
+        private @Nullable SelectionKey key; // once registered
+
+        // When the queued responses are due to be written (System.nanoTime()), 0 if not scheduled
+
+        private long flushDeadline;
+
+        private Connection(@NotNull SocketChannel channel, @NotNull Worker worker) {
+            this.channel = channel;
+            this.decoder = FrameDecoder.forClientToServer(maxFrameSize, worker.validator);
+            this.out = new OutboundBatcher(worker.pool, MAX_PENDING_OUT);
+            this.login = handler.openConnection(worker.writer, task -> worker.defer(this, task));
+        }
+    }
+
+    private final class Worker implements Runnable, FrameTarget {
+
+        private final @NotNull Selector selector;
+        private final @NotNull Thread thread;
+        private final @NotNull Queue<SocketChannel> newChannels = new ConcurrentLinkedQueue<>();
+
+        // Work handed back to this worker by other threads (see defer()), run after each select
+        private final @NotNull Queue<Runnable> deferred = new ConcurrentLinkedQueue<>();
+        private final @NotNull ByteBuffer readBuf = ByteBuffer.allocateDirect(READ_BUFFER_SIZE);
+        private final @NotNull BufferPool pool = new BufferPool(OUT_BUFFER_SIZE, OUT_BUFFERS_RETAINED);
+
+        // The connections with responses waiting for their flush deadline, earliest deadline first
+        // (the delay is the same for all, so this is the order in which they were scheduled)
+
+        private final @NotNull ArrayDeque<SelectionKey> scheduled = new ArrayDeque<>();
+
+        // Checks every frame of this worker's connections before it is parsed (and journals it first, if journaling)
+        private final @NotNull FrameValidator validator;
+
+        // Counts and times the frames of this worker's connections, if there are metrics
+        private final @Nullable LoginMetrics.Recorder recorder;
+
+        // Encodes this worker's responses straight into the output buffers (see bufferFor())
+        private final @NotNull ServerToClientWriter writer = new ServerToClientWriter();
+
+        // The connection whose read is currently being processed, and which receives the responses
+
+        private @Nullable Connection current;
+
+        private Worker(int index) throws IOException {
+            this.selector = Selector.open();
+            this.thread = new Thread(this, "login-nio-worker-" + index);
+            this.writer.setTarget(this);
+            this.writer.setJournal(journal);
+            final MessageScanner scanner = new MessageScanner();
+            this.recorder = (metrics == null) ? null : metrics.recording(scanner);
+            this.writer.setMetrics(recorder);
+            final FrameValidator checked = (recorder == null) ? scanner : recorder;
+            this.validator = (journal == null) ? checked : journal.recording(FrameJournal.CLIENT_TO_SERVER, checked);
+        }
+
+        private void register(@NotNull SocketChannel channel) {
+            newChannels.add(channel);
+            selector.wakeup();
+        }
+
+        // ---
+        // Runs "task" on this worker, with "conn" as the current connection receiving the responses;
+        // dropped if the connection has gone by then. Called from any thread.
+        // ---
+
+        private void defer(@NotNull Connection conn, @NotNull Runnable task) {
+            deferred.add(() -> runFor(conn, task));
+            selector.wakeup();
+        }
+
+        @Override
+        public void run() {
+            try {
+                while (running) {
+                    select();
+                    registerNewChannels();
+                    runDeferred();
+                    final Iterator<SelectionKey> iter = selector.selectedKeys().iterator();
+                    while (iter.hasNext()) {
+                        final SelectionKey key = iter.next();
+                        iter.remove();
+                        if (!key.isValid()) {
+                            continue;
+                        }
+                        final Connection conn = (Connection) key.attachment();
+                        if (key.isWritable()) {
+                            handleWrite(key, conn);
+                        }
+                        if (key.isValid() && key.isReadable()) {
+                            handleRead(key, conn);
+                        }
+                    }
+                    flushScheduled();
+                }
+            } catch (IOException e) {
+                log.error("Worker loop failed", e);
+            } finally {
+                for (SelectionKey key : selector.keys()) {
+                    closeQuietly(key);
+                }
+                SocketChannel channel;
+                while ((channel = newChannels.poll()) != null) {
+                    closeQuietly(channel);
+                }
+                deferred.clear(); // their connections are closed
+                closeQuietly(selector);
+                if (recorder != null) {
+                    recorder.close();
+                }
+            }
+        }
+
+        // Block until there is I/O, or until the earliest flush deadline
+
+        private void select() throws IOException {
+            final SelectionKey first = scheduled.peekFirst();
+            if (first == null) {
+                selector.select();
+                return;
+            }
+            final long nanosLeft = ((Connection) first.attachment()).flushDeadline - System.nanoTime();
+            if (nanosLeft <= 0) {
+                selector.selectNow();
+            } else {
+                selector.select(Math.max(1, TimeUnit.NANOSECONDS.toMillis(nanosLeft)));
+            }
+        }
+
+        private void registerNewChannels() {
+            SocketChannel channel;
+            while ((channel = newChannels.poll()) != null) {
+                final Connection conn = new Connection(channel, this);
+                try {
+                    conn.key = channel.register(selector, SelectionKey.OP_READ, conn);
+                } catch (ClosedChannelException e) {
+                    handler.closeConnection(conn.login); // the client went away already
+                }
+            }
+        }
+
+        private void runDeferred() {
+            Runnable task;
+            while ((task = deferred.poll()) != null) {
+                task.run();
+            }
+        }
+
+        private void runFor(@NotNull Connection conn, @NotNull Runnable task) {
+            final SelectionKey key = conn.key;
+            if (key == null || !key.isValid()) {
+                return;
+            }
+            current = conn;
+            try {
+                task.run();
+                queued(key, conn);
+            } catch (IllegalArgumentException | UncheckedIOException e) {
+                log.debug("Dropping connection {}: {}", conn.channel, e.getMessage());
+                closeQuietly(key);
+            } catch (IOException e) {
+                closeQuietly(key);
+            } finally {
+                current = null;
+            }
+        }
+
+        private void handleRead(@NotNull SelectionKey key, @NotNull Connection conn) {
+            readBuf.clear();
+            final int count;
+            try {
+                count = conn.channel.read(readBuf);
+            } catch (IOException e) {
+                closeQuietly(key);
+                return;
+            }
+            if (count < 0) {
+                if (conn.decoder.hasPartialFrame()) {
+                    log.debug("Connection {} closed in the middle of a frame", conn.channel);
+                }
+                closeQuietly(key);
+                return;
+            }
+            readBuf.flip();
+            current = conn;
+            try {
+                conn.decoder.decode(readBuf, this::respond);
+                queued(key, conn);
+            } catch (InvalidProtocolBufferException | IllegalArgumentException | UncheckedIOException e) {
+                log.debug("Dropping connection {}: {}", conn.channel, e.getMessage());
+                closeQuietly(key);
+            } catch (IOException e) {
+                closeQuietly(key);
+            } finally {
+                current = null;
+            }
+        }
+
+        // Called by the decoder for each message of "current"
+
+        private void respond(@NotNull ClientToServer c2s) {
+            if (recorder != null) {
+                recorder.parsed();
+            }
+            final Connection conn = current;
+            assert conn != null;
+            handler.handle(c2s, conn.login);
+        }
+
+        // Called by the writer for each response to "current": hands out an output buffer of the
+        // connection, writing out what is queued first if that reaches the flush threshold
+
+        @Override
+        public @NotNull ByteBuffer bufferFor(int frameSize) {
+            final Connection conn = current;
+            assert conn != null;
+            final OutboundBatcher out = conn.out;
+            if (!out.isEmpty() && out.getQueuedBytes() + frameSize > flushPolicy.getFlushBytes()) {
+                try {
+                    out.flush(conn.channel);
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            }
+            return out.bufferFor(frameSize);
+        }
+
+        // The responses to "conn" have been queued: write them out now, or schedule them, as the FlushPolicy says
+
+        private void queued(@NotNull SelectionKey key, @NotNull Connection conn) throws IOException {
+            if (conn.out.isEmpty() || (key.interestOps() & SelectionKey.OP_WRITE) != 0) {
+                return; // nothing to write, or already waiting for the socket to take the backlog
+            }
+            if (flushPolicy.isImmediate() || conn.out.getQueuedBytes() >= flushPolicy.getFlushBytes()) {
+                flush(key, conn);
+            } else if (conn.flushDeadline == 0) {
+                conn.flushDeadline = System.nanoTime() + flushPolicy.getFlushDelayNanos();
+                scheduled.addLast(key);
+            }
+        }
+
+        // Write out the responses queued for "conn"; stop reading from a client which does not keep up
+
+        private void flush(@NotNull SelectionKey key, @NotNull Connection conn) throws IOException {
+            conn.out.flush(conn.channel);
+            if (!conn.out.isEmpty()) {
+                key.interestOps(SelectionKey.OP_WRITE);
+            }
+        }
+
+        private void flushScheduled() {
+            final long now = System.nanoTime();
+            SelectionKey key;
+            while ((key = scheduled.peekFirst()) != null) {
+                final Connection conn = (Connection) key.attachment();
+                if (conn.flushDeadline - now > 0) {
+                    break;
+                }
+                scheduled.pollFirst();
+                conn.flushDeadline = 0;
+                if (!key.isValid() || (key.interestOps() & SelectionKey.OP_WRITE) != 0) {
+                    continue; // closed meanwhile, or already waiting for the socket to take the backlog
+                }
+                try {
+                    flush(key, conn);
+                } catch (IOException e) {
+                    closeQuietly(key);
+                }
+            }
+        }
+
+        private void handleWrite(@NotNull SelectionKey key, @NotNull Connection conn) {
+            try {
+                conn.out.flush(conn.channel);
+            } catch (IOException e) {
+                closeQuietly(key);
+                return;
+            }
+            if (conn.out.isEmpty()) {
+                key.interestOps(SelectionKey.OP_READ);
+            }
+        }
+    }
+
+    private void closeQuietly(@NotNull SelectionKey key) {
+        key.cancel();
+        closeQuietly(key.channel());
+        if (key.attachment() instanceof Connection conn) {
+            conn.out.release(); // only ever called by the worker owning the connection
+            handler.closeConnection(conn.login);
+        }
+    }
+
+    private static void closeQuietly(@NotNull Closeable closeable) {
+        try {
+            closeable.close();
+        } catch (IOException e) {
+            // nothing to be done
+        }
+    }
+}
@@ -0,0 +1,223 @@
+package name.pomelo.protobuf_trial.test.common;
+
+import com.google.protobuf.InvalidProtocolBufferException;
+import name.pomelo.protobuf_trial.protos.ClientToServer;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketException;
+import java.nio.ByteBuffer;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+// ---
+// A login server with one virtual thread per connection, doing plain blocking I/O:
+// read a length-delimited ClientToServer, handle it, write the length-delimited ServerToClient
+// (encoded by a ServerToClientWriter straight into the output buffer of the connection).
+//
+// With a FrameJournal, every frame received and every response is appended to the journal.
+// With LoginMetrics, they are counted and the verifying and parsing of the frames received is timed.
+// Each connection is a LoginConnection of the handler, which may carry many exchanges at a time;
+// those it leaves open when it goes away are closed.
+//
+// This is the simple alternative to LoginServerNio. The JDK parks a virtual thread blocked on a
+// socket and remounts it when data arrives, so an idle connection costs a parked virtual thread
+// (a few hundred bytes of stack) plus the stream buffers, and no platform thread.
+//
+// https://openjdk.org/jeps/444
+// ---
+
+public class LoginServerVirtualThreads implements LoginServer {
+
+    private final static Logger log = LoggerFactory.getLogger(LoginServerVirtualThreads.class);
+
+    private final static int STREAM_BUFFER_SIZE = 1024;
+
+    private final @NotNull LoginExchangeHandler handler;
+    private final @Nullable FrameJournal journal;
+    private final @Nullable LoginMetrics metrics;
+    private final int maxFrameSize;
+    private final @NotNull ServerSocket serverSocket;
+    private final @NotNull Set<Socket> openSockets = ConcurrentHashMap.newKeySet();
+    private volatile boolean running;
+    private Thread acceptorThread;
+
+    public LoginServerVirtualThreads(@NotNull InetSocketAddress bindAddress, @NotNull LoginExchangeHandler handler) throws IOException {
+        this(bindAddress, handler, null);
+    }
+
+    public LoginServerVirtualThreads(@NotNull InetSocketAddress bindAddress, @NotNull LoginExchangeHandler handler, @Nullable FrameJournal journal) throws IOException {
+        this(bindAddress, handler, journal, null);
+    }
+
+    public LoginServerVirtualThreads(@NotNull InetSocketAddress bindAddress, @NotNull LoginExchangeHandler handler, @Nullable FrameJournal journal, @Nullable LoginMetrics metrics) throws IOException {
+        this.handler = handler;
+        this.journal = journal;
+        this.metrics = metrics;
+        this.maxFrameSize = UtilsForProtobufFraming.DEFAULT_MAX_FRAME_SIZE;
+        this.serverSocket = new ServerSocket();
+        this.serverSocket.bind(bindAddress, 4096);
+    }
+
+    @Override
+    public @NotNull InetSocketAddress getLocalAddress() {
+        return (InetSocketAddress) serverSocket.getLocalSocketAddress();
+    }
+
+    @Override
+    public @NotNull LoginExchangeHandler getHandler() {
+        return handler;
+    }
+
+    @Override
+    public void start() {
+        running = true;
+        acceptorThread = Thread.ofVirtual().name("login-vt-acceptor").start(this::acceptLoop);
+    }
+
+    @Override
+    public void close() throws IOException {
+        running = false;
+        serverSocket.close(); // unblocks accept()
+        for (Socket socket : openSockets) {
+            closeQuietly(socket); // unblocks the reads
+        }
+        if (acceptorThread != null) {
+            try {
+                acceptorThread.join();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    private void acceptLoop() {
+        final Thread.Builder connectionThreads = Thread.ofVirtual().name("login-vt-conn-", 0);
+        while (running) {
+            final Socket socket;
+            try {
+                socket = serverSocket.accept();
+            } catch (IOException e) {
+                if (running) {
+                    log.warn("Accepting a connection failed", e);
+                    continue;
+                }
+                break; // close() has been called
+            }
+            openSockets.add(socket);
+            if (!running) {
+                closeQuietly(socket); // close() may have missed it
+                break;
+            }
+            connectionThreads.start(() -> serve(socket));
+        }
+    }
+
+    private void serve(@NotNull Socket socket) {
+        LoginConnection login = null;
+        LoginMetrics.Recorder recorder = null;
+        try (socket) {
+            socket.setTcpNoDelay(true);
+            final InputStream in = new BufferedInputStream(socket.getInputStream(), STREAM_BUFFER_SIZE);
+            final OutBuffer out = new OutBuffer(socket.getOutputStream());
+            final MessageScanner scanner = new MessageScanner();
+            recorder = (metrics == null) ? null : metrics.recording(scanner);
+            final FrameValidator checked = (recorder == null) ? scanner : recorder;
+            final FrameValidator validator = (journal == null) ? checked : journal.recording(FrameJournal.CLIENT_TO_SERVER, checked);
+            // The responses are encoded straight into "out", no ServerToClient message is built
+            final ServerToClientWriter writer = new ServerToClientWriter();
+            writer.setTarget(out);
+            writer.setJournal(journal);
+            writer.setMetrics(recorder);
+            login = handler.openConnection(writer);
+            while (running) {
+                // Like ClientToServer.parseDelimitedFrom(in), but with a maximum frame size,
+                // and with the frame checked by the scanner before it is parsed
+                final ClientToServer c2s = UtilsForProtobufFraming.readFrame(in, ClientToServer.parser(), maxFrameSize, validator);
+                if (c2s == null) {
+                    break; // the client closed the connection
+                }
+                if (recorder != null) {
+                    recorder.parsed();
+                }
+                handler.handle(c2s, login);
+                // Only flush once the client's pipelined messages have all been handled
+                if (in.available() == 0) {
+                    out.flush();
+                }
+            }
+        } catch (InvalidProtocolBufferException | IllegalArgumentException e) {
+            log.debug("Dropping connection {}: {}", socket, e.getMessage());
+        } catch (SocketException e) {
+            // connection reset, or closed by close()
+        } catch (IOException e) {
+            log.debug("Connection {} failed", socket, e);
+        } catch (UncheckedIOException e) {
+            // writing the responses failed
+            log.debug("Connection {} failed", socket, e.getCause());
+        } finally {
+            openSockets.remove(socket);
+            if (login != null) {
+                handler.closeConnection(login);
+            }
+            if (recorder != null) {
+                recorder.close();
+            }
+        }
+    }
+
+    // ---
+    // The output buffer of a connection, taking the place of a BufferedOutputStream:
+    // the writer encodes into it, and it goes to the socket when full or flushed.
+    // ---
+
+    private static final class OutBuffer implements FrameTarget {
+
+        private final @NotNull OutputStream out;
+        private @NotNull ByteBuffer buf = ByteBuffer.allocate(STREAM_BUFFER_SIZE);
+
+        private OutBuffer(@NotNull OutputStream out) {
+            this.out = out;
+        }
+
+        @Override
+        public @NotNull ByteBuffer bufferFor(int frameSize) {
+            if (buf.remaining() < frameSize) {
+                try {
+                    flush();
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+                if (buf.capacity() < frameSize) {
+                    buf = ByteBuffer.allocate(frameSize); // a large response, rare
+                }
+            }
+            return buf;
+        }
+
+        private void flush() throws IOException {
+            if (buf.position() > 0) {
+                out.write(buf.array(), 0, buf.position());
+                buf.clear();
+            }
+        }
+    }
+
+    private static void closeQuietly(@NotNull Socket socket) {
+        try {
+            socket.close();
+        } catch (IOException e) {
+            // nothing to be done
+        }
+    }
+}
@@ -0,0 +1,24 @@
+package name.pomelo.protobuf_trial.test.common;
+
+// ---
+// The states of a "Login exchange" on the server side (see LoginStateMachine).
+// ---
+
+public enum LoginState {
+
+    // No exchange yet: only LOGIN_REQUEST is acceptable
+    NONE,
+
+    // LOGIN_CHALLENGE has been sent, waiting for LOGIN_CHALLENGE_SOLVED
+    CHALLENGE_ISSUED,
+
+    // LOGIN_CHALLENGE_SOLVED_ANSWER_OK has been sent, waiting for LOGIN_FOLLOWUP
+    CHALLENGE_SOLVED,
+
+    // LOGIN_FOLLOWUP_ANSWER_OK has been sent, waiting for LOGIN_CLOSE
+    LOGGED_IN,
+
+    // The exchange is over and its session is being removed
+    CLOSED
+
+}
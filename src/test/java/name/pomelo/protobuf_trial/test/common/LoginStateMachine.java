@@ -0,0 +1,53 @@
+package name.pomelo.protobuf_trial.test.common;
+
+import name.pomelo.protobuf_trial.protos.ClientToServer;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+// ---
+// The legal order of the "Login exchange" messages, which packets.proto only describes in comments:
+//
+// NONE              --LOGIN_REQUEST---------->  CHALLENGE_ISSUED
+// CHALLENGE_ISSUED  --LOGIN_CHALLENGE_SOLVED->  CHALLENGE_SOLVED   (if the solution is wrong: CLOSED)
+// CHALLENGE_SOLVED  --LOGIN_FOLLOWUP--------->  LOGGED_IN
+// LOGGED_IN         --LOGIN_CLOSE------------>  CLOSED
+//
+// The client may also abandon the exchange with LOGIN_CLOSE at any point after LOGIN_REQUEST.
+// Anything else is an invalid transition.
+//
+// The transitions are held in a table indexed by state and payload type ordinals,
+// so that checking a transition is two array loads.
+// ---
+
+public abstract class LoginStateMachine {
+
+    private final static LoginState[][] transitions = buildTransitions();
+
+    private static LoginState @NotNull [] @NotNull [] buildTransitions() {
+        final LoginState[][] res = new LoginState[LoginState.values().length][ClientToServer.PayloadType.values().length];
+        add(res, LoginState.NONE, ClientToServer.PayloadType.LOGIN_REQUEST, LoginState.CHALLENGE_ISSUED);
+        add(res, LoginState.CHALLENGE_ISSUED, ClientToServer.PayloadType.LOGIN_CHALLENGE_SOLVED, LoginState.CHALLENGE_SOLVED);
+        add(res, LoginState.CHALLENGE_ISSUED, ClientToServer.PayloadType.LOGIN_CLOSE, LoginState.CLOSED);
+        add(res, LoginState.CHALLENGE_SOLVED, ClientToServer.PayloadType.LOGIN_FOLLOWUP, LoginState.LOGGED_IN);
+        add(res, LoginState.CHALLENGE_SOLVED, ClientToServer.PayloadType.LOGIN_CLOSE, LoginState.CLOSED);
+        add(res, LoginState.LOGGED_IN, ClientToServer.PayloadType.LOGIN_CLOSE, LoginState.CLOSED);
+        return res;
+    }
+
+    private static void add(LoginState @NotNull [] @NotNull [] table, @NotNull LoginState from, ClientToServer.@NotNull PayloadType msg, @NotNull LoginState to) {
+        table[from.ordinal()][msg.ordinal()] = to;
+    }
+
+    // ---
+    // The state reached from "from" on receiving a message of type "msg",
+    // or null if the client is not allowed to send "msg" in state "from".
+    // ---
+
+    public static @Nullable LoginState next(@NotNull LoginState from, ClientToServer.@NotNull PayloadType msg) {
+        return transitions[from.ordinal()][msg.ordinal()];
+    }
+
+    public static boolean isValid(@NotNull LoginState from, ClientToServer.@NotNull PayloadType msg) {
+        return next(from, msg) != null;
+    }
+}
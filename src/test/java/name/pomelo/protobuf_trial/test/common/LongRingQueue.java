@@ -0,0 +1,96 @@
+package name.pomelo.protobuf_trial.test.common;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+// ---
+// A bounded lock-free multi-producer multi-consumer queue of longs, on a ring of "capacity" cells
+// (a power of 2), after Dmitry Vyukov's bounded MPMC queue:
+//
+// https://www.1024cores.net/home/lock-free-algorithms/queues/bounded-mpmc-queue
+//
+// Each cell carries a sequence number telling whether it is ready to be written (seq == pos) or to be
+// read (seq == pos + 1) by whoever claimed position "pos" with a CAS on the enqueue or dequeue counter.
+// The value is published with a release store of the sequence number and read after an acquire load.
+//
+// 0 stands for "nothing": it cannot be queued, and poll() returns it if the queue is empty.
+// ---
+
+public class LongRingQueue {
+
+    private final int mask;
+    private final long[] values;
+    private final AtomicLongArray sequences;
+    private final AtomicLong enqueuePos = new AtomicLong();
+    private final AtomicLong dequeuePos = new AtomicLong();
+
+    public LongRingQueue(int capacity) {
+        if (capacity < 2 || Integer.bitCount(capacity) != 1) {
+            throw new IllegalArgumentException("capacity must be a power of 2 of at least 2 but is " + capacity);
+        }
+        this.mask = capacity - 1;
+        this.values = new long[capacity];
+        this.sequences = new AtomicLongArray(capacity);
+        for (int i = 0; i < capacity; i++) {
+            sequences.set(i, i);
+        }
+    }
+
+    public int capacity() {
+        return mask + 1;
+    }
+
+    // Approximate if other threads are at work
+
+    public int size() {
+        final long size = enqueuePos.get() - dequeuePos.get();
+        return (int) Math.max(0, Math.min(size, mask + 1));
+    }
+
+    // Returns false if the queue is full
+
+    public boolean offer(long value) {
+        if (value == 0) {
+            throw new IllegalArgumentException("0 cannot be queued");
+        }
+        long pos = enqueuePos.get();
+        while (true) {
+            final int cell = (int) (pos & mask);
+            final long dif = sequences.getAcquire(cell) - pos;
+            if (dif == 0) {
+                if (enqueuePos.compareAndSet(pos, pos + 1)) {
+                    values[cell] = value;
+                    sequences.setRelease(cell, pos + 1);
+                    return true;
+                }
+                pos = enqueuePos.get();
+            } else if (dif < 0) {
+                return false; // the cell still holds a value from one round ago
+            } else {
+                pos = enqueuePos.get(); // another producer got there first
+            }
+        }
+    }
+
+    // Returns 0 if the queue is empty
+
+    public long poll() {
+        long pos = dequeuePos.get();
+        while (true) {
+            final int cell = (int) (pos & mask);
+            final long dif = sequences.getAcquire(cell) - (pos + 1);
+            if (dif == 0) {
+                if (dequeuePos.compareAndSet(pos, pos + 1)) {
+                    final long value = values[cell];
+                    sequences.setRelease(cell, pos + mask + 1);
+                    return value;
+                }
+                pos = dequeuePos.get();
+            } else if (dif < 0) {
+                return 0; // the cell has not been written yet
+            } else {
+                pos = dequeuePos.get(); // another consumer got there first
+            }
+        }
+    }
+}
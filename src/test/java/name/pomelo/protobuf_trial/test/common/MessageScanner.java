@@ -0,0 +1,597 @@
+package name.pomelo.protobuf_trial.test.common;
+
+import lombok.Getter;
+import name.pomelo.protobuf_trial.protos.ClientToServer;
+import name.pomelo.protobuf_trial.protos.ServerToClient;
+import org.jetbrains.annotations.NotNull;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+// ---
+// Validation of ClientToServer / ServerToClient messages on the raw bytes, before parsing.
+//
+// verifyClientToServerMessage() and verifyServerToClientMessage() only run after parseFrom() has
+// built the whole object graph, and report problems by throwing exceptions with concatenated
+// strings. This scanner walks the protobuf wire format directly (tags, varints, lengths) and
+// returns a ScanResult code, so that a malformed or hostile frame can be dropped before
+// anything is allocated. It applies the same checks as the verify methods, and in addition
+// rejects a sub-message which does not go with "payload_type".
+//
+// It reads the buffer with absolute gets, like CodedInputStream would, but CodedInputStream
+// cannot be reused from one message to the next, whereas a scanner can: keep one per thread.
+// After a successful scan, the fields of the header can be read through the getters.
+//
+// A message which passes the scan may still fail to parse, e.g. if a string is not valid UTF-8.
+//
+// https://protobuf.dev/programming-guides/encoding/
+// ---
+
+public class MessageScanner implements FrameValidator {
+
+    private final static int WIRETYPE_VARINT = 0;
+    private final static int WIRETYPE_FIXED64 = 1;
+    private final static int WIRETYPE_LENGTH_DELIMITED = 2;
+    private final static int WIRETYPE_START_GROUP = 3;
+    private final static int WIRETYPE_END_GROUP = 4;
+    private final static int WIRETYPE_FIXED32 = 5;
+
+    // Same as the default recursion limit of CodedInputStream
+    private final static int MAX_DEPTH = 100;
+
+    // Which message a length-delimited field holds, for the structural walk of nested messages
+
+    private final static int KIND_NONE = 0;
+    private final static int KIND_CLIENT_TO_SERVER = 1;
+    private final static int KIND_COMMON_STUFF = 2;
+    private final static int KIND_UUID_SIMPLE = 3;
+    private final static int KIND_FAILURE_WITH_CAUSE = 4; // GenericFailure and LoginGenericFailure
+    private final static int KIND_LOGIN_FOLLOWUP_ANSWER_OK = 5;
+    private final static int KIND_SCALARS_ONLY = 6; // all the other sub-messages, including UuidFixed
+
+    private ByteBuffer buf;
+    private int pos;
+    private boolean malformed;
+
+    // Fields extracted by the last scan
+
+    @Getter
+    private int payloadTypeValue;
+    @Getter
+    private int seqNum;
+    @Getter
+    private long clientExchangeHigh;
+    @Getter
+    private long clientExchangeLow;
+    @Getter
+    private long serverExchangeHigh;
+    @Getter
+    private long serverExchangeLow;
+
+    // The exchange UUIDs as seen in either encoding; the getters above give the resolved ones
+
+    private boolean clientSimpleSeen;
+    private long clientSimpleHigh;
+    private long clientSimpleLow;
+    private boolean clientFixedSeen;
+    private long clientFixedHigh;
+    private long clientFixedLow;
+    private boolean serverSimpleSeen;
+    private long serverSimpleHigh;
+    private long serverSimpleLow;
+    private boolean serverFixedSeen;
+    private long serverFixedHigh;
+    private long serverFixedLow;
+
+    // Bit "n" is set if payload field 101+n has been seen
+    private int payloadFieldsSeen;
+
+    // Length of LoginFollowup.username
+    private int usernameLength;
+
+    // FrameValidator for ClientToServer frames
+
+    @Override
+    public int validate(@NotNull ByteBuffer buf, int offset, int length) {
+        return scanClientToServer(buf, offset, length);
+    }
+
+    public @NotNull FrameValidator forServerToClient() {
+        return this::scanServerToClient;
+    }
+
+    private void reset(@NotNull ByteBuffer buf, int offset) {
+        this.buf = buf;
+        this.pos = offset;
+        this.malformed = false;
+        this.payloadTypeValue = 0;
+        this.seqNum = 0;
+        this.clientExchangeHigh = 0L;
+        this.clientExchangeLow = 0L;
+        this.serverExchangeHigh = 0L;
+        this.serverExchangeLow = 0L;
+        this.clientSimpleSeen = false;
+        this.clientSimpleHigh = 0L;
+        this.clientSimpleLow = 0L;
+        this.clientFixedSeen = false;
+        this.clientFixedHigh = 0L;
+        this.clientFixedLow = 0L;
+        this.serverSimpleSeen = false;
+        this.serverSimpleHigh = 0L;
+        this.serverSimpleLow = 0L;
+        this.serverFixedSeen = false;
+        this.serverFixedHigh = 0L;
+        this.serverFixedLow = 0L;
+        this.payloadFieldsSeen = 0;
+        this.usernameLength = 0;
+    }
+
+    // ---
+    // Scan the ClientToServer message in buf[offset, offset+length). The buffer is not modified.
+    // ---
+
+    public int scanClientToServer(@NotNull ByteBuffer buf, int offset, int length) {
+        reset(buf, offset);
+        final int end = offset + length;
+        scanTopLevel(end, true);
+        this.buf = null;
+        resolveExchangeUuids();
+        if (malformed) {
+            return ScanResult.MALFORMED;
+        }
+        final int common = checkCommonStuff();
+        if (common != ScanResult.OK) {
+            return common;
+        }
+        final ClientToServer.PayloadType type = ClientToServer.PayloadType.forNumber(payloadTypeValue);
+        if (type == null) {
+            return ScanResult.PAYLOAD_TYPE_UNRECOGNIZED;
+        }
+        final int expectedField;
+        switch (type) {
+            case UNKNOWN:
+                return ScanResult.PAYLOAD_TYPE_UNKNOWN;
+            case LOGIN_CHALLENGE_SOLVED:
+                expectedField = ClientToServer.LOGIN_CHALLENGE_SOLVED_FIELD_NUMBER;
+                break;
+            case LOGIN_FOLLOWUP:
+                expectedField = ClientToServer.LOGIN_FOLLOWUP_FIELD_NUMBER;
+                break;
+            default:
+                // LOGIN_REQUEST, LOGIN_CLOSE: there is no payload/sub-msg
+                expectedField = 0;
+        }
+        final int payload = checkPayloadFields(expectedField);
+        if (payload != ScanResult.OK) {
+            return payload;
+        }
+        if (type == ClientToServer.PayloadType.LOGIN_FOLLOWUP && usernameLength == 0) {
+            return ScanResult.USERNAME_EMPTY;
+        }
+        return checkUuids();
+    }
+
+    // ---
+    // Scan the ServerToClient message in buf[offset, offset+length). The buffer is not modified.
+    // ---
+
+    public int scanServerToClient(@NotNull ByteBuffer buf, int offset, int length) {
+        reset(buf, offset);
+        final int end = offset + length;
+        scanTopLevel(end, false);
+        this.buf = null;
+        resolveExchangeUuids();
+        if (malformed) {
+            return ScanResult.MALFORMED;
+        }
+        final int common = checkCommonStuff();
+        if (common != ScanResult.OK) {
+            return common;
+        }
+        final ServerToClient.PayloadType type = ServerToClient.PayloadType.forNumber(payloadTypeValue);
+        if (type == null) {
+            return ScanResult.PAYLOAD_TYPE_UNRECOGNIZED;
+        }
+        final int expectedField = switch (type) {
+            case UNKNOWN -> -1;
+            case GENERIC_FAILURE -> ServerToClient.GENERIC_FAILURE_FIELD_NUMBER;
+            case LOGIN_GENERIC_FAILURE -> ServerToClient.LOGIN_GENERIC_FAILURE_FIELD_NUMBER;
+            case LOGIN_CHALLENGE -> ServerToClient.LOGIN_CHALLENGE_FIELD_NUMBER;
+            case LOGIN_REQUEST_ANSWER_FAILURE -> ServerToClient.LOGIN_REQUEST_ANSWER_FAILURE_FIELD_NUMBER;
+            case LOGIN_FOLLOWUP_ANSWER_OK -> ServerToClient.LOGIN_FOLLOWUP_ANSWER_OK_FIELD_NUMBER;
+            default -> 0; // there is no payload/sub-msg
+        };
+        if (expectedField < 0) {
+            return ScanResult.PAYLOAD_TYPE_UNKNOWN;
+        }
+        final int payload = checkPayloadFields(expectedField);
+        if (payload != ScanResult.OK) {
+            return payload;
+        }
+        return checkUuids();
+    }
+
+    // ---
+    // Read only the header (payload_type and common_stuff) of the ClientToServer or ServerToClient
+    // message in buf[offset, offset+length), jumping over the payload sub-messages by their length
+    // without looking into them. Returns ScanResult.OK or ScanResult.MALFORMED; nothing else is checked.
+    // After OK, the getters give the fields of the header, e.g. to filter or route frames.
+    // ---
+
+    public int peekHeader(@NotNull ByteBuffer buf, int offset, int length) {
+        reset(buf, offset);
+        final int end = offset + length;
+        while (pos < end && !malformed) {
+            final int tag = readTag(end);
+            final int field = tag >>> 3;
+            final int wireType = tag & 7;
+            if (field == 1 && wireType == WIRETYPE_VARINT) {
+                payloadTypeValue = (int) readVarint(end);
+            } else if (field == 2 && wireType == WIRETYPE_LENGTH_DELIMITED) {
+                final int subEnd = readLengthAndGetEnd(end);
+                scanCommonStuff(subEnd);
+            } else {
+                skipField(tag, end, 1);
+            }
+        }
+        if (pos != end) {
+            malformed = true;
+        }
+        this.buf = null;
+        resolveExchangeUuids();
+        return malformed ? ScanResult.MALFORMED : ScanResult.OK;
+    }
+
+    // The checks of the verify methods come in this order: seqNum, payload type, payload, UUIDs
+
+    private int checkCommonStuff() {
+        return (seqNum <= 0) ? ScanResult.SEQ_NUM_INVALID : ScanResult.OK;
+    }
+
+    private int checkPayloadFields(int expectedField) {
+        final int expectedBit = (expectedField == 0) ? 0 : 1 << (expectedField - 101);
+        if ((payloadFieldsSeen & expectedBit) != expectedBit) {
+            return ScanResult.PAYLOAD_MISSING;
+        }
+        if ((payloadFieldsSeen & ~expectedBit) != 0) {
+            return ScanResult.PAYLOAD_UNEXPECTED;
+        }
+        return ScanResult.OK;
+    }
+
+    private int checkUuids() {
+        if (clientExchangeHigh == 0L && clientExchangeLow == 0L) {
+            return ScanResult.CLIENT_EXCHANGE_UUID_NIL;
+        }
+        if (serverExchangeHigh == 0L && serverExchangeLow == 0L) {
+            return ScanResult.SERVER_EXCHANGE_UUID_NIL;
+        }
+        if ((clientSimpleSeen && clientFixedSeen && (clientSimpleHigh != clientFixedHigh || clientSimpleLow != clientFixedLow))
+                || (serverSimpleSeen && serverFixedSeen && (serverSimpleHigh != serverFixedHigh || serverSimpleLow != serverFixedLow))) {
+            return ScanResult.UUID_ENCODING_MISMATCH;
+        }
+        return ScanResult.OK;
+    }
+
+    // As in UtilsForProtobufUuid: UuidFixed wins over UuidSimple
+
+    private void resolveExchangeUuids() {
+        clientExchangeHigh = clientFixedSeen ? clientFixedHigh : clientSimpleHigh;
+        clientExchangeLow = clientFixedSeen ? clientFixedLow : clientSimpleLow;
+        serverExchangeHigh = serverFixedSeen ? serverFixedHigh : serverSimpleHigh;
+        serverExchangeLow = serverFixedSeen ? serverFixedLow : serverSimpleLow;
+    }
+
+    // ---
+    // Top level of ClientToServer / ServerToClient. As in protobuf, if a field appears
+    // several times the last scalar wins and sub-messages are merged.
+    // ---
+
+    private void scanTopLevel(int end, boolean clientToServer) {
+        while (pos < end && !malformed) {
+            final int tag = readTag(end);
+            final int field = tag >>> 3;
+            final int wireType = tag & 7;
+            if (field == 1 && wireType == WIRETYPE_VARINT) {
+                payloadTypeValue = (int) readVarint(end);
+            } else if (field == 2 && wireType == WIRETYPE_LENGTH_DELIMITED) {
+                final int subEnd = readLengthAndGetEnd(end);
+                scanCommonStuff(subEnd);
+            } else if (field >= 101 && field <= (clientToServer ? 102 : 105) && wireType == WIRETYPE_LENGTH_DELIMITED) {
+                payloadFieldsSeen |= 1 << (field - 101);
+                final int subEnd = readLengthAndGetEnd(end);
+                if (clientToServer && field == ClientToServer.LOGIN_FOLLOWUP_FIELD_NUMBER) {
+                    scanLoginFollowup(subEnd);
+                } else {
+                    walk(subEnd, payloadKind(clientToServer, field), 1);
+                }
+            } else {
+                skipField(tag, end, 1);
+            }
+        }
+        if (pos != end) {
+            malformed = true;
+        }
+    }
+
+    private static int payloadKind(boolean clientToServer, int field) {
+        if (clientToServer) {
+            return KIND_SCALARS_ONLY;
+        }
+        return switch (field) {
+            case ServerToClient.GENERIC_FAILURE_FIELD_NUMBER, ServerToClient.LOGIN_GENERIC_FAILURE_FIELD_NUMBER -> KIND_FAILURE_WITH_CAUSE;
+            case ServerToClient.LOGIN_FOLLOWUP_ANSWER_OK_FIELD_NUMBER -> KIND_LOGIN_FOLLOWUP_ANSWER_OK;
+            default -> KIND_SCALARS_ONLY;
+        };
+    }
+
+    private void scanCommonStuff(int end) {
+        while (pos < end && !malformed) {
+            final int tag = readTag(end);
+            final int field = tag >>> 3;
+            final int wireType = tag & 7;
+            if ((field == 1 || field == 2) && wireType == WIRETYPE_LENGTH_DELIMITED) {
+                final int subEnd = readLengthAndGetEnd(end);
+                scanUuidSimple(subEnd, field == 1);
+            } else if ((field == 4 || field == 5) && wireType == WIRETYPE_LENGTH_DELIMITED) {
+                final int subEnd = readLengthAndGetEnd(end);
+                scanUuidFixed(subEnd, field == 4);
+            } else if (field == 3 && wireType == WIRETYPE_VARINT) {
+                seqNum = (int) readVarint(end);
+            } else {
+                skipField(tag, end, 2);
+            }
+        }
+        if (pos != end) {
+            malformed = true;
+        }
+    }
+
+    private void scanUuidSimple(int end, boolean server) {
+        if (server) {
+            serverSimpleSeen = true;
+        } else {
+            clientSimpleSeen = true;
+        }
+        while (pos < end && !malformed) {
+            final int tag = readTag(end);
+            final int field = tag >>> 3;
+            final int wireType = tag & 7;
+            if ((field == 1 || field == 2) && wireType == WIRETYPE_VARINT) {
+                setExchangeUuidPart(server, false, field == 2, readVarint(end));
+            } else {
+                skipField(tag, end, 3);
+            }
+        }
+        if (pos != end) {
+            malformed = true;
+        }
+    }
+
+    private void scanUuidFixed(int end, boolean server) {
+        if (server) {
+            serverFixedSeen = true;
+        } else {
+            clientFixedSeen = true;
+        }
+        while (pos < end && !malformed) {
+            final int tag = readTag(end);
+            final int field = tag >>> 3;
+            final int wireType = tag & 7;
+            if ((field == 1 || field == 2) && wireType == WIRETYPE_FIXED64) {
+                setExchangeUuidPart(server, true, field == 2, readFixed64(end));
+            } else {
+                skipField(tag, end, 3);
+            }
+        }
+        if (pos != end) {
+            malformed = true;
+        }
+    }
+
+    private void setExchangeUuidPart(boolean server, boolean fixed, boolean high, long value) {
+        if (server) {
+            if (fixed) {
+                if (high) {
+                    serverFixedHigh = value;
+                } else {
+                    serverFixedLow = value;
+                }
+            } else {
+                if (high) {
+                    serverSimpleHigh = value;
+                } else {
+                    serverSimpleLow = value;
+                }
+            }
+        } else {
+            if (fixed) {
+                if (high) {
+                    clientFixedHigh = value;
+                } else {
+                    clientFixedLow = value;
+                }
+            } else {
+                if (high) {
+                    clientSimpleHigh = value;
+                } else {
+                    clientSimpleLow = value;
+                }
+            }
+        }
+    }
+
+    private void scanLoginFollowup(int end) {
+        while (pos < end && !malformed) {
+            final int tag = readTag(end);
+            if (tag == ((1 << 3) | WIRETYPE_LENGTH_DELIMITED)) {
+                final int subEnd = readLengthAndGetEnd(end);
+                usernameLength = subEnd - pos;
+                pos = subEnd;
+            } else {
+                skipField(tag, end, 2);
+            }
+        }
+        if (pos != end) {
+            malformed = true;
+        }
+    }
+
+    // ---
+    // Structural walk of a nested message we do not extract anything from: it must be
+    // well-formed, as parseFrom() would reject it otherwise.
+    // ---
+
+    private void walk(int end, int kind, int depth) {
+        if (depth > MAX_DEPTH) {
+            malformed = true;
+            return;
+        }
+        while (pos < end && !malformed) {
+            final int tag = readTag(end);
+            final int field = tag >>> 3;
+            final int nestedKind = ((tag & 7) == WIRETYPE_LENGTH_DELIMITED) ? nestedKind(kind, field) : KIND_NONE;
+            if (nestedKind != KIND_NONE) {
+                final int subEnd = readLengthAndGetEnd(end);
+                walk(subEnd, nestedKind, depth + 1);
+            } else {
+                skipField(tag, end, depth);
+            }
+        }
+        if (pos != end) {
+            malformed = true;
+        }
+    }
+
+    private static int nestedKind(int kind, int field) {
+        return switch (kind) {
+            case KIND_CLIENT_TO_SERVER -> switch (field) {
+                case 2 -> KIND_COMMON_STUFF;
+                case 101, 102 -> KIND_SCALARS_ONLY;
+                default -> KIND_NONE;
+            };
+            case KIND_COMMON_STUFF -> switch (field) {
+                case 1, 2 -> KIND_UUID_SIMPLE;
+                case 4, 5 -> KIND_SCALARS_ONLY;
+                default -> KIND_NONE;
+            };
+            case KIND_FAILURE_WITH_CAUSE -> (field == 2) ? KIND_CLIENT_TO_SERVER : KIND_NONE;
+            case KIND_LOGIN_FOLLOWUP_ANSWER_OK -> (field == 1) ? KIND_UUID_SIMPLE : KIND_NONE;
+            default -> KIND_NONE;
+        };
+    }
+
+    // ---
+    // Low-level wire format reading. On any problem, "malformed" is set and the position is
+    // moved to the end so that all loops terminate.
+    // ---
+
+    private int readTag(int end) {
+        // Like CodedInputStream, keep the low 32 bits of an over-long tag varint
+        final int tag = (int) readVarint(end);
+        if (!malformed && (tag >>> 3) == 0) {
+            // field number 0 is not allowed
+            fail(end);
+        }
+        return tag;
+    }
+
+    private long readVarint(int end) {
+        long result = 0;
+        for (int shift = 0; shift < 64; shift += 7) {
+            if (pos >= end) {
+                fail(end);
+                return 0;
+            }
+            final byte b = buf.get(pos++);
+            // The 10th byte can only contribute bit 63. For a non-canonical 10th byte (anything
+            // but 0x01), CodedInputStream still sets bit 63, so do the same to agree with parseFrom().
+            result |= (shift == 63) ? Long.MIN_VALUE : (long) (b & 0x7F) << shift;
+            if (b >= 0) {
+                return result;
+            }
+        }
+        fail(end);
+        return 0;
+    }
+
+    private long readFixed64(int end) {
+        if (end - pos < 8) {
+            fail(end);
+            return 0;
+        }
+        final long value = buf.getLong(pos);
+        pos += 8;
+        // fixed64 is little-endian on the wire, whatever the order the buffer has been set to
+        return (buf.order() == ByteOrder.LITTLE_ENDIAN) ? value : Long.reverseBytes(value);
+    }
+
+    private int readLengthAndGetEnd(int end) {
+        final long length = readVarint(end);
+        if (malformed) {
+            return end;
+        }
+        if (length < 0 || length > end - pos) {
+            fail(end);
+            return end;
+        }
+        return pos + (int) length;
+    }
+
+    private void skipField(int tag, int end, int depth) {
+        switch (tag & 7) {
+            case WIRETYPE_VARINT:
+                readVarint(end);
+                break;
+            case WIRETYPE_FIXED64:
+                skipBytes(8, end);
+                break;
+            case WIRETYPE_LENGTH_DELIMITED:
+                pos = readLengthAndGetEnd(end);
+                break;
+            case WIRETYPE_START_GROUP:
+                skipGroup(tag >>> 3, end, depth + 1);
+                break;
+            case WIRETYPE_FIXED32:
+                skipBytes(4, end);
+                break;
+            default:
+                // END_GROUP without START_GROUP, or wire types 6 and 7 which do not exist
+                fail(end);
+        }
+    }
+
+    private void skipGroup(int field, int end, int depth) {
+        if (depth > MAX_DEPTH) {
+            fail(end);
+            return;
+        }
+        while (!malformed) {
+            if (pos >= end) {
+                fail(end);
+                return;
+            }
+            final int tag = readTag(end);
+            if ((tag & 7) == WIRETYPE_END_GROUP) {
+                if ((tag >>> 3) != field) {
+                    fail(end);
+                }
+                return;
+            }
+            skipField(tag, end, depth);
+        }
+    }
+
+    private void skipBytes(int count, int end) {
+        if (end - pos < count) {
+            fail(end);
+        } else {
+            pos += count;
+        }
+    }
+
+    private void fail(int end) {
+        malformed = true;
+        pos = end;
+    }
+}
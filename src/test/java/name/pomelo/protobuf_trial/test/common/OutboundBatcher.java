@@ -0,0 +1,117 @@
+package name.pomelo.protobuf_trial.test.common;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.GatheringByteChannel;
+import java.util.Arrays;
+
+// ---
+// The outbound frames of one connection, coalesced into a few buffers taken from a BufferPool
+// and written with one gathering write (GatheringByteChannel.write(ByteBuffer[])) when flushed.
+// When to flush is up to the caller (see FlushPolicy and LoginServerNio).
+//
+// The buffers are in "write mode" between flushes and go back to the pool once written, so an idle
+// connection holds none. What the channel did not accept stays queued, in order, for the next flush.
+//
+// Not thread-safe: used by the worker owning the connection.
+// ---
+
+public class OutboundBatcher {
+
+    private final @NotNull BufferPool pool;
+    private final int maxQueuedBytes;
+
+    // The queued buffers, oldest first; the frames go into the last one
+
+    private @NotNull ByteBuffer @NotNull [] chunks = new ByteBuffer[4];
+    private int count;
+
+    public OutboundBatcher(@NotNull BufferPool pool, int maxQueuedBytes) {
+        this.pool = pool;
+        this.maxQueuedBytes = maxQueuedBytes;
+    }
+
+    public boolean isEmpty() {
+        return count == 0;
+    }
+
+    public int getQueuedBytes() {
+        int sum = 0;
+        for (int i = 0; i < count; i++) {
+            sum += chunks[i].position();
+        }
+        return sum;
+    }
+
+    // ---
+    // A buffer in "write mode" with at least "frameSize" bytes remaining, to write the next frame into.
+    // Throws UncheckedIOException if more than "maxQueuedBytes" would be queued: the peer does not
+    // read what it is sent, and the connection should be dropped.
+    // ---
+
+    public @NotNull ByteBuffer bufferFor(int frameSize) {
+        if (count > 0 && chunks[count - 1].remaining() >= frameSize) {
+            return chunks[count - 1];
+        }
+        if (getQueuedBytes() + frameSize > maxQueuedBytes) {
+            throw new UncheckedIOException(new IOException("More than " + maxQueuedBytes + " bytes of output are backed up"));
+        }
+        if (count == chunks.length) {
+            chunks = Arrays.copyOf(chunks, count * 2);
+        }
+        final ByteBuffer chunk = pool.acquire(frameSize);
+        chunks[count++] = chunk;
+        return chunk;
+    }
+
+    // ---
+    // Write as much of the queued output as "channel" accepts, with one gathering write.
+    // Returns the number of bytes written; isEmpty() tells whether everything has been written.
+    // ---
+
+    public long flush(@NotNull GatheringByteChannel channel) throws IOException {
+        if (count == 0) {
+            return 0;
+        }
+        for (int i = 0; i < count; i++) {
+            chunks[i].flip();
+        }
+        final long written;
+        try {
+            written = (count == 1) ? channel.write(chunks[0]) : channel.write(chunks, 0, count);
+        } finally {
+            compactAfterWrite();
+        }
+        return written;
+    }
+
+    // Release what has been written, move what has not to the front, back into "write mode"
+
+    private void compactAfterWrite() {
+        int kept = 0;
+        for (int i = 0; i < count; i++) {
+            final ByteBuffer chunk = chunks[i];
+            if (chunk.hasRemaining()) {
+                chunk.compact();
+                chunks[kept++] = chunk;
+            } else {
+                pool.release(chunk);
+            }
+        }
+        Arrays.fill(chunks, kept, count, null);
+        count = kept;
+    }
+
+    // The connection is gone: give the buffers back, dropping their content
+
+    public void release() {
+        for (int i = 0; i < count; i++) {
+            pool.release(chunks[i]);
+            chunks[i] = null;
+        }
+        count = 0;
+    }
+}
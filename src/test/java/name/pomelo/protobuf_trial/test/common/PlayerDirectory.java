@@ -0,0 +1,319 @@
+package name.pomelo.protobuf_trial.test.common;
+
+import lombok.Getter;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.lang.management.ManagementFactory;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+// ---
+// Resolves the username of a LOGIN_FOLLOWUP to its player, through a TinyLfuCache of at most
+// "cacheSize" players in front of a PlayerStore (e.g. a FilePlayerStore). A username that is
+// not in the store is registered with the UUID derived from it (newPlayerUuid()), so that a
+// player keeps the UUID of their first login.
+//
+// Concurrent misses for the same username are coalesced: the first thread looks it up in the
+// store, the others wait for its result instead of each doing the same I/O.
+//
+// resolve() does the lookup of a miss on the calling thread, blocking it on the store; that is for
+// a thread which may block (a virtual thread per connection). resolveAsync() does it on the
+// "loader" threads instead, for an I/O thread which must not: a hit is answered at once, a miss
+// by a future completed on a loader thread.
+//
+// The hits, misses, lookups and evictions are counted on LongAdders, and published through JMX
+// with registerMBean() (see PlayerDirectoryMXBean).
+//
+// Thread-safe.
+// ---
+
+public class PlayerDirectory implements PlayerDirectoryMXBean, Closeable {
+
+    public final static String OBJECT_NAME = "name.pomelo.protobuf_trial:type=PlayerDirectory";
+    public final static String PLAYER_FILE_PROPERTY = "loginServer.playerFile";
+    public final static String CACHE_SIZE_PROPERTY = "loginServer.playerCacheSize";
+    public final static int DEFAULT_CACHE_SIZE = 100_000;
+    public final static int DEFAULT_LOADER_THREADS = 4;
+
+    private final @NotNull PlayerStore store;
+    private final @NotNull TinyLfuCache<String, Player> cache;
+    private final @NotNull ExecutorService loader;
+    private final @NotNull ConcurrentHashMap<String, CompletableFuture<Player>> loading = new ConcurrentHashMap<>();
+    private final @NotNull LongAdder hitCount = new LongAdder();
+    private final @NotNull LongAdder missCount = new LongAdder();
+    private final @NotNull LongAdder coalescedCount = new LongAdder();
+    private final @NotNull LongAdder loadCount = new LongAdder();
+    private final @NotNull LongAdder registeredCount = new LongAdder();
+    private final @NotNull LongAdder loadFailureCount = new LongAdder();
+    private @Nullable ObjectName registeredAs;
+
+    // ---
+    // A player: the UUID is kept as its two halves
+    // ---
+
+    @Getter
+    public final static class Player {
+
+        private final @NotNull String username;
+        private final long uuidHigh;
+        private final long uuidLow;
+
+        public Player(@NotNull String username, long uuidHigh, long uuidLow) {
+            this.username = username;
+            this.uuidHigh = uuidHigh;
+            this.uuidLow = uuidLow;
+        }
+
+        public @NotNull UUID getUuid() {
+            return new UUID(uuidHigh, uuidLow);
+        }
+
+        @Override
+        public String toString() {
+            return "Player(" + username + ", " + getUuid() + ")";
+        }
+    }
+
+    public PlayerDirectory(@NotNull PlayerStore store, int cacheSize) {
+        this(store, cacheSize, DEFAULT_LOADER_THREADS);
+    }
+
+    public PlayerDirectory(@NotNull PlayerStore store, int cacheSize, int loaderThreads) {
+        this.store = store;
+        this.cache = new TinyLfuCache<>(cacheSize);
+        this.loader = Executors.newFixedThreadPool(loaderThreads, Thread.ofPlatform().name("player-loader-", 0).daemon().factory());
+    }
+
+    // The player directory in the file of "loginServer.playerFile", or null if the property is not set
+
+    public static @Nullable PlayerDirectory fromSystemProperties() throws IOException {
+        final String file = System.getProperty(PLAYER_FILE_PROPERTY);
+        if (file == null || file.isBlank()) {
+            return null;
+        }
+        return new PlayerDirectory(new FilePlayerStore(Path.of(file)), Integer.getInteger(CACHE_SIZE_PROPERTY, DEFAULT_CACHE_SIZE));
+    }
+
+    // The UUID a player gets when first seen
+
+    public static @NotNull UUID newPlayerUuid(@NotNull String username) {
+        return UUID.nameUUIDFromBytes(username.getBytes(StandardCharsets.UTF_8));
+    }
+
+    public @NotNull PlayerStore getStore() {
+        return store;
+    }
+
+    // ---
+    // The player "username", registering them if need be.
+    // Throws UncheckedIOException if the store could not be read or written.
+    // ---
+
+    public @NotNull Player resolve(@NotNull String username) {
+        final Player cached = cache.get(username);
+        if (cached != null) {
+            hitCount.increment();
+            return cached;
+        }
+        missCount.increment();
+        final CompletableFuture<Player> mine = new CompletableFuture<>();
+        final CompletableFuture<Player> theirs = loading.putIfAbsent(username, mine);
+        if (theirs != null) {
+            coalescedCount.increment();
+            return await(theirs);
+        }
+        loadInto(username, mine);
+        return await(mine);
+    }
+
+    // ---
+    // Same as above without blocking: a completed future on a hit, otherwise one completed on a
+    // loader thread, exceptionally with UncheckedIOException if the store could not be read or written.
+    // ---
+
+    public @NotNull CompletableFuture<Player> resolveAsync(@NotNull String username) {
+        final Player cached = cache.get(username);
+        if (cached != null) {
+            hitCount.increment();
+            return CompletableFuture.completedFuture(cached);
+        }
+        missCount.increment();
+        final CompletableFuture<Player> mine = new CompletableFuture<>();
+        final CompletableFuture<Player> theirs = loading.putIfAbsent(username, mine);
+        if (theirs != null) {
+            coalescedCount.increment();
+            return theirs;
+        }
+        try {
+            loader.execute(() -> loadInto(username, mine));
+        } catch (RejectedExecutionException e) {
+            loading.remove(username, mine);
+            mine.completeExceptionally(new UncheckedIOException(new IOException("The player directory is closed", e)));
+        }
+        return mine;
+    }
+
+    // Looks "username" up for the future "mine" which is in "loading"; the waiters get the result, or the failure
+
+    private void loadInto(@NotNull String username, @NotNull CompletableFuture<Player> mine) {
+        try {
+            // Loaded by another thread between the miss and now
+            Player player = cache.peek(username);
+            if (player == null) {
+                player = cache.put(username, load(username));
+            }
+            mine.complete(player);
+        } catch (RuntimeException e) {
+            mine.completeExceptionally(e);
+        } finally {
+            loading.remove(username, mine);
+        }
+    }
+
+    private @NotNull Player load(@NotNull String username) {
+        loadCount.increment();
+        try {
+            final Player found = store.find(username);
+            if (found != null) {
+                return found;
+            }
+            final UUID uuid = newPlayerUuid(username);
+            registeredCount.increment();
+            return store.register(username, uuid.getMostSignificantBits(), uuid.getLeastSignificantBits());
+        } catch (IOException e) {
+            loadFailureCount.increment();
+            throw new UncheckedIOException("Could not look up player " + username, e);
+        }
+    }
+
+    private static @NotNull Player await(@NotNull CompletableFuture<Player> future) {
+        try {
+            return future.join();
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof RuntimeException cause) {
+                throw cause;
+            }
+            throw e;
+        }
+    }
+
+    // ---
+    // Metrics
+    // ---
+
+    @Override
+    public long getHitCount() {
+        return hitCount.sum();
+    }
+
+    @Override
+    public long getMissCount() {
+        return missCount.sum();
+    }
+
+    @Override
+    public long getCoalescedCount() {
+        return coalescedCount.sum();
+    }
+
+    @Override
+    public long getLoadCount() {
+        return loadCount.sum();
+    }
+
+    @Override
+    public long getRegisteredCount() {
+        return registeredCount.sum();
+    }
+
+    @Override
+    public long getLoadFailureCount() {
+        return loadFailureCount.sum();
+    }
+
+    @Override
+    public long getEvictionCount() {
+        return cache.getEvictionCount();
+    }
+
+    @Override
+    public double getHitRate() {
+        final long hits = getHitCount();
+        final long total = hits + getMissCount();
+        return (total == 0) ? 0 : (double) hits / total;
+    }
+
+    @Override
+    public int getCachedCount() {
+        return cache.size();
+    }
+
+    @Override
+    public int getCacheMaximumSize() {
+        return cache.getMaximumSize();
+    }
+
+    // ---
+    // Publishing
+    // ---
+
+    public @NotNull PlayerDirectory registerMBean() {
+        return registerMBean(OBJECT_NAME);
+    }
+
+    public @NotNull PlayerDirectory registerMBean(@NotNull String objectName) {
+        try {
+            final ObjectName name = new ObjectName(objectName);
+            ManagementFactory.getPlatformMBeanServer().registerMBean(this, name);
+            registeredAs = name;
+        } catch (JMException e) {
+            throw new IllegalStateException("Could not register the player directory as " + objectName, e);
+        }
+        return this;
+    }
+
+    // Closes the store too, once the lookups under way are done
+
+    @Override
+    public void close() throws IOException {
+        loader.shutdown();
+        try {
+            loader.awaitTermination(10, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        if (registeredAs != null) {
+            final MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            try {
+                server.unregisterMBean(registeredAs);
+            } catch (JMException e) {
+                // unregistered meanwhile
+            }
+            registeredAs = null;
+        }
+        store.close();
+    }
+
+    @Override
+    public String toString() {
+        return "players: hits " + getHitCount() + ", misses " + getMissCount() + " (coalesced " + getCoalescedCount() + ")"
+                + ", loads " + getLoadCount() + " (registered " + getRegisteredCount() + ", failed " + getLoadFailureCount() + ")"
+                + ", cached " + getCachedCount() + "/" + getCacheMaximumSize() + ", evicted " + getEvictionCount();
+    }
+}
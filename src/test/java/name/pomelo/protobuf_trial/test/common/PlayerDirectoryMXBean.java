@@ -0,0 +1,31 @@
+package name.pomelo.protobuf_trial.test.common;
+
+// ---
+// The PlayerDirectory of a login server as seen through JMX
+// ("name.pomelo.protobuf_trial:type=PlayerDirectory"). Every getter reads the live counters.
+// ---
+
+public interface PlayerDirectoryMXBean {
+
+    long getHitCount();
+
+    long getMissCount();
+
+    // Misses which waited for the lookup of another thread instead of going to the store
+
+    long getCoalescedCount();
+
+    long getLoadCount();
+
+    long getRegisteredCount();
+
+    long getLoadFailureCount();
+
+    long getEvictionCount();
+
+    double getHitRate();
+
+    int getCachedCount();
+
+    int getCacheMaximumSize();
+}
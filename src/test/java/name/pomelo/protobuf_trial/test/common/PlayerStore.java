@@ -0,0 +1,28 @@
+package name.pomelo.protobuf_trial.test.common;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.Closeable;
+import java.io.IOException;
+
+// ---
+// Where a PlayerDirectory finds the players by username (e.g. a FilePlayerStore).
+// Lookups may be slow (I/O): the PlayerDirectory caches the results.
+//
+// Thread-safe.
+// ---
+
+public interface PlayerStore extends Closeable {
+
+    // The player "username", or null if there is none
+
+    @Nullable PlayerDirectory.Player find(@NotNull String username) throws IOException;
+
+    // Add the player "username" with the UUID "uuidHigh", "uuidLow", unless there already is one;
+    // returns the player as stored
+
+    @NotNull PlayerDirectory.Player register(@NotNull String username, long uuidHigh, long uuidLow) throws IOException;
+
+    int size();
+}
@@ -0,0 +1,80 @@
+package name.pomelo.protobuf_trial.test.common;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.nio.ByteBuffer;
+
+// ---
+// A buffer with an explicit lifetime, for what is parsed out of it without copying (see
+// LazyClientToServer): whoever keeps something aliasing the buffer holds a reference, taken
+// with retain() and given back with release(). The last release() gives a pooled buffer back to
+// its BufferPool, after which buffer(), retain() and release() throw IllegalStateException,
+// so that a buffer which has been recycled (and is being filled with something else) is never
+// read through a stale holder.
+//
+// A buffer not taken from a pool (e.g. a slice of a mapped journal segment, see wrap()) is
+// only marked released; keeping the mapping open is up to its owner.
+//
+// Not thread-safe: confined to one thread, like the BufferPool of a NIO worker.
+// ---
+
+public final class RefCountedBuffer {
+
+    private final @NotNull ByteBuffer buf;
+    private final @Nullable BufferPool pool;
+    private int refCount = 1;
+
+    private RefCountedBuffer(@NotNull ByteBuffer buf, @Nullable BufferPool pool) {
+        this.buf = buf;
+        this.pool = pool;
+    }
+
+    // A buffer of the pool with at least "minSize" bytes remaining, with one reference
+
+    public static @NotNull RefCountedBuffer acquire(@NotNull BufferPool pool, int minSize) {
+        return new RefCountedBuffer(pool.acquire(minSize), pool);
+    }
+
+    public static @NotNull RefCountedBuffer wrap(@NotNull ByteBuffer buf) {
+        return new RefCountedBuffer(buf, null);
+    }
+
+    public @NotNull ByteBuffer buffer() {
+        checkLive();
+        return buf;
+    }
+
+    public @NotNull RefCountedBuffer retain() {
+        checkLive();
+        refCount++;
+        return this;
+    }
+
+    // True if this was the last reference
+
+    public boolean release() {
+        checkLive();
+        if (--refCount > 0) {
+            return false;
+        }
+        if (pool != null) {
+            pool.release(buf);
+        }
+        return true;
+    }
+
+    public int getRefCount() {
+        return refCount;
+    }
+
+    public boolean isLive() {
+        return refCount > 0;
+    }
+
+    public void checkLive() {
+        if (refCount <= 0) {
+            throw new IllegalStateException("The buffer has been released");
+        }
+    }
+}
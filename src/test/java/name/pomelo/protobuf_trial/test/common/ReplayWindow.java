@@ -0,0 +1,64 @@
+package name.pomelo.protobuf_trial.test.common;
+
+import java.util.Arrays;
+
+// ---
+// An anti-replay window over the seqNums of one exchange, as the one of IPsec (RFC 4303, 3.4.3),
+// kept as a bitmap in a ring of "long" words (RFC 6479): the highest seqNum accepted so far, and
+// one bit for each of the WINDOW_SIZE seqNums below it telling whether it has been seen.
+//
+// accept() is O(1) and does not allocate: a seqNum above the highest one slides the window
+// (clearing the words it moves onto, at most WORDS of them), a seqNum inside the window
+// tests-and-sets its bit, and a seqNum below the window is refused as it cannot be told
+// apart from a replay. Messages may thus arrive reordered, but each seqNum only once.
+//
+// The ring has one more word than the window needs, so that sliding never clears bits
+// still inside the window.
+//
+// Thread-safe: accept() is synchronized, which costs nothing as long as the messages of an
+// exchange come from one connection.
+// ---
+
+public class ReplayWindow {
+
+    private final static int WORDS = 4; // a power of 2
+    private final static int WORD_MASK = WORDS - 1;
+
+    public final static int WINDOW_SIZE = (WORDS - 1) * Long.SIZE;
+
+    private final long[] words = new long[WORDS];
+    private long highest; // 0 as long as nothing has been accepted, seqNums are greater than 0
+
+    // Returns true if "seqNum" is seen for the first time, false for a replay (or a seqNum too old to tell)
+
+    public synchronized boolean accept(long seqNum) {
+        if (seqNum <= 0) {
+            return false;
+        }
+        if (seqNum > highest) {
+            final long fromWord = highest >>> 6;
+            final long toWord = seqNum >>> 6;
+            if (toWord - fromWord >= WORDS) {
+                Arrays.fill(words, 0L);
+            } else {
+                for (long w = fromWord + 1; w <= toWord; w++) {
+                    words[(int) (w & WORD_MASK)] = 0L;
+                }
+            }
+            highest = seqNum;
+        } else if (highest - seqNum >= WINDOW_SIZE) {
+            return false;
+        }
+        final int index = (int) ((seqNum >>> 6) & WORD_MASK);
+        final long bit = 1L << (seqNum & 63);
+        if ((words[index] & bit) != 0) {
+            return false;
+        }
+        words[index] |= bit;
+        return true;
+    }
+
+    public synchronized long getHighest() {
+        return highest;
+    }
+}
@@ -0,0 +1,61 @@
+package name.pomelo.protobuf_trial.test.common;
+
+import org.jetbrains.annotations.NotNull;
+
+// ---
+// Result codes of MessageScanner, as plain ints so that checking a message
+// never allocates (no exception, no enum lookup on the hot path).
+// ---
+
+public abstract class ScanResult {
+
+    public final static int OK = 0;
+
+    // The bytes are not a well-formed protobuf message (bad varint, truncated field, bad wire type...)
+    public final static int MALFORMED = 1;
+
+    // "payload_type" is absent or 0 (the default)
+    public final static int PAYLOAD_TYPE_UNKNOWN = 2;
+
+    // "payload_type" has a value which is not listed in the enum
+    public final static int PAYLOAD_TYPE_UNRECOGNIZED = 3;
+
+    // "payload_type" demands a sub-message which is not there
+    public final static int PAYLOAD_MISSING = 4;
+
+    // There is a sub-message which does not go with "payload_type"
+    public final static int PAYLOAD_UNEXPECTED = 5;
+
+    // "seq_num" is 0 (the default) or does not fit into a positive Java int
+    public final static int SEQ_NUM_INVALID = 6;
+
+    public final static int CLIENT_EXCHANGE_UUID_NIL = 7;
+
+    public final static int SERVER_EXCHANGE_UUID_NIL = 8;
+
+    // LOGIN_FOLLOWUP with an empty username
+    public final static int USERNAME_EMPTY = 9;
+
+    // An exchange UUID is carried both as UuidSimple and as UuidFixed, with different values
+    public final static int UUID_ENCODING_MISMATCH = 10;
+
+    // Number of result codes, for arrays indexed by result code
+    public final static int COUNT = 11;
+
+    public static @NotNull String describe(int result) {
+        return switch (result) {
+            case OK -> "OK";
+            case MALFORMED -> "MALFORMED";
+            case PAYLOAD_TYPE_UNKNOWN -> "PAYLOAD_TYPE_UNKNOWN";
+            case PAYLOAD_TYPE_UNRECOGNIZED -> "PAYLOAD_TYPE_UNRECOGNIZED";
+            case PAYLOAD_MISSING -> "PAYLOAD_MISSING";
+            case PAYLOAD_UNEXPECTED -> "PAYLOAD_UNEXPECTED";
+            case SEQ_NUM_INVALID -> "SEQ_NUM_INVALID";
+            case CLIENT_EXCHANGE_UUID_NIL -> "CLIENT_EXCHANGE_UUID_NIL";
+            case SERVER_EXCHANGE_UUID_NIL -> "SERVER_EXCHANGE_UUID_NIL";
+            case USERNAME_EMPTY -> "USERNAME_EMPTY";
+            case UUID_ENCODING_MISMATCH -> "UUID_ENCODING_MISMATCH";
+            default -> "UNDEFINED(" + result + ")";
+        };
+    }
+}
@@ -0,0 +1,238 @@
+package name.pomelo.protobuf_trial.test.common;
+
+import com.google.protobuf.CodedOutputStream;
+import com.google.protobuf.WireFormat;
+import name.pomelo.protobuf_trial.protos.CommonStuff;
+import name.pomelo.protobuf_trial.protos.ServerToClient;
+import name.pomelo.protobuf_trial.protos.UuidFixed;
+import name.pomelo.protobuf_trial.protos.UuidSimple;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Arrays;
+import java.util.UUID;
+
+// ---
+// Pre-serialized ServerToClient messages for the payload types without a payload
+// (LOGIN_REQUEST_ANSWER_OK, LOGIN_FOLLOWUP_ANSWER_FAILURE, LOGIN_CHALLENGE_SOLVED_ANSWER_OK and
+// LOGIN_CHALLENGE_SOLVED_ANSWER_FAILURE), which only differ by their CommonStuff:
+//
+//   [payload_type tag][payload_type][common_stuff tag]   constant, taken from the generated code
+//   [common_stuff length][common_stuff]                  the UUIDs and the seqNum, written here
+//
+// The CommonStuff is written with plain puts into the ByteBuffer, in field number order and leaving
+// out fields at their proto3 default, as the generated code does: the output is byte for byte what
+// buildXxx(commonData).toByteArray() gives, without building four messages and without going through
+// a CodedOutputStream. ServerToClientWriter answers with these.
+//
+// Immutable, shared by all threads.
+// ---
+
+public final class ServerToClientTemplate {
+
+    private final static int COMMON_STUFF_TAG = (ServerToClient.COMMON_STUFF_FIELD_NUMBER << 3) | WireFormat.WIRETYPE_LENGTH_DELIMITED;
+    private final static int SERVER_UUID_TAG = (CommonStuff.SERVER_EXCHANGE_UUID_FIELD_NUMBER << 3) | WireFormat.WIRETYPE_LENGTH_DELIMITED;
+    private final static int CLIENT_UUID_TAG = (CommonStuff.CLIENT_EXCHANGE_UUID_FIELD_NUMBER << 3) | WireFormat.WIRETYPE_LENGTH_DELIMITED;
+    private final static int SEQ_NUM_TAG = (CommonStuff.SEQ_NUM_FIELD_NUMBER << 3) | WireFormat.WIRETYPE_VARINT;
+    private final static int SERVER_UUID_FIXED_TAG = (CommonStuff.SERVER_EXCHANGE_UUID_FIXED_FIELD_NUMBER << 3) | WireFormat.WIRETYPE_LENGTH_DELIMITED;
+    private final static int CLIENT_UUID_FIXED_TAG = (CommonStuff.CLIENT_EXCHANGE_UUID_FIXED_FIELD_NUMBER << 3) | WireFormat.WIRETYPE_LENGTH_DELIMITED;
+    private final static int SIMPLE_LOW_TAG = (UuidSimple.LOW_FIELD_NUMBER << 3) | WireFormat.WIRETYPE_VARINT;
+    private final static int SIMPLE_HIGH_TAG = (UuidSimple.HIGH_FIELD_NUMBER << 3) | WireFormat.WIRETYPE_VARINT;
+    private final static int FIXED_LOW_TAG = (UuidFixed.LOW_FIELD_NUMBER << 3) | WireFormat.WIRETYPE_FIXED64;
+    private final static int FIXED_HIGH_TAG = (UuidFixed.HIGH_FIELD_NUMBER << 3) | WireFormat.WIRETYPE_FIXED64;
+
+    private final static @Nullable ServerToClientTemplate @NotNull [] templates = new ServerToClientTemplate[ServerToClient.PayloadType.values().length];
+
+    static {
+        for (ServerToClient.PayloadType type : new ServerToClient.PayloadType[]{
+                ServerToClient.PayloadType.LOGIN_REQUEST_ANSWER_OK,
+                ServerToClient.PayloadType.LOGIN_FOLLOWUP_ANSWER_FAILURE,
+                ServerToClient.PayloadType.LOGIN_CHALLENGE_SOLVED_ANSWER_OK,
+                ServerToClient.PayloadType.LOGIN_CHALLENGE_SOLVED_ANSWER_FAILURE}) {
+            templates[type.ordinal()] = new ServerToClientTemplate(type);
+        }
+    }
+
+    private final ServerToClient.@NotNull PayloadType payloadType;
+    private final byte @NotNull [] prefix;
+
+    private ServerToClientTemplate(ServerToClient.@NotNull PayloadType payloadType) {
+        this.payloadType = payloadType;
+        // All that comes before common_stuff is payload_type
+        final byte[] header = ServerToClient.newBuilder().setPayloadType(payloadType).build().toByteArray();
+        this.prefix = Arrays.copyOf(header, header.length + 1);
+        this.prefix[header.length] = (byte) COMMON_STUFF_TAG;
+    }
+
+    public static boolean hasTemplate(ServerToClient.@NotNull PayloadType payloadType) {
+        return payloadType != ServerToClient.PayloadType.UNRECOGNIZED && templates[payloadType.ordinal()] != null;
+    }
+
+    // Throws IllegalArgumentException for a payload type which has a payload
+
+    public static @NotNull ServerToClientTemplate of(ServerToClient.@NotNull PayloadType payloadType) {
+        if (!hasTemplate(payloadType)) {
+            throw new IllegalArgumentException("There is no template for payload type " + payloadType);
+        }
+        final ServerToClientTemplate res = templates[payloadType.ordinal()];
+        assert res != null;
+        return res;
+    }
+
+    public ServerToClient.@NotNull PayloadType getPayloadType() {
+        return payloadType;
+    }
+
+    // ---
+    // Write the length-delimited frame (as writeFrame(buildXxx(...))) and return its size; if "dst"
+    // does not have the room, throw BufferOverflowException and leave "dst" as it was.
+    // The CommonStuff is as in ServerToClientWriter.setCommon(): an exchange UUID is only written
+    // if "has" is set, in the encodings of "uuidEncoding".
+    // ---
+
+    public int writeFrame(@NotNull ByteBuffer dst, int seqNum, boolean hasClientExchangeUuid, long clientExchangeHigh, long clientExchangeLow,
+                          boolean hasServerExchangeUuid, long serverExchangeHigh, long serverExchangeLow, @NotNull UuidEncoding uuidEncoding) {
+        final int commonSize = commonStuffSize(seqNum, hasClientExchangeUuid, clientExchangeHigh, clientExchangeLow,
+                hasServerExchangeUuid, serverExchangeHigh, serverExchangeLow, uuidEncoding);
+        final int msgSize = prefix.length + varintSize(commonSize) + commonSize;
+        final int frameSize = varintSize(msgSize) + msgSize;
+        if (dst.remaining() < frameSize) {
+            throw new BufferOverflowException();
+        }
+        putVarint(dst, msgSize);
+        putMessage(dst, commonSize, seqNum, hasClientExchangeUuid, clientExchangeHigh, clientExchangeLow,
+                hasServerExchangeUuid, serverExchangeHigh, serverExchangeLow, uuidEncoding);
+        return frameSize;
+    }
+
+    public int writeFrame(@NotNull ByteBuffer dst, @NotNull CommonData commonData) {
+        final UUID client = commonData.getClientExchangeUUID();
+        final UUID server = commonData.getServerExchangeUUID();
+        return writeFrame(dst, commonData.getSeqNum(),
+                client != null, (client != null) ? client.getMostSignificantBits() : 0L, (client != null) ? client.getLeastSignificantBits() : 0L,
+                server != null, (server != null) ? server.getMostSignificantBits() : 0L, (server != null) ? server.getLeastSignificantBits() : 0L,
+                commonData.getUuidEncoding());
+    }
+
+    // The message without the frame length: same as buildXxx(commonData).toByteArray()
+
+    public byte @NotNull [] toByteArray(@NotNull CommonData commonData) {
+        final UUID client = commonData.getClientExchangeUUID();
+        final UUID server = commonData.getServerExchangeUUID();
+        final long clientHigh = (client != null) ? client.getMostSignificantBits() : 0L;
+        final long clientLow = (client != null) ? client.getLeastSignificantBits() : 0L;
+        final long serverHigh = (server != null) ? server.getMostSignificantBits() : 0L;
+        final long serverLow = (server != null) ? server.getLeastSignificantBits() : 0L;
+        final int commonSize = commonStuffSize(commonData.getSeqNum(), client != null, clientHigh, clientLow,
+                server != null, serverHigh, serverLow, commonData.getUuidEncoding());
+        final byte[] res = new byte[prefix.length + varintSize(commonSize) + commonSize];
+        putMessage(ByteBuffer.wrap(res), commonSize, commonData.getSeqNum(), client != null, clientHigh, clientLow,
+                server != null, serverHigh, serverLow, commonData.getUuidEncoding());
+        return res;
+    }
+
+    // ---
+    // Encoding
+    // ---
+
+    private static int commonStuffSize(int seqNum, boolean hasClientExchangeUuid, long clientExchangeHigh, long clientExchangeLow,
+                                       boolean hasServerExchangeUuid, long serverExchangeHigh, long serverExchangeLow, @NotNull UuidEncoding uuidEncoding) {
+        int size = (seqNum != 0) ? 1 + varintSize(Integer.toUnsignedLong(seqNum)) : 0;
+        if (uuidEncoding.hasSimple()) {
+            if (hasServerExchangeUuid) {
+                size += 2 + uuidSimpleSize(serverExchangeHigh, serverExchangeLow);
+            }
+            if (hasClientExchangeUuid) {
+                size += 2 + uuidSimpleSize(clientExchangeHigh, clientExchangeLow);
+            }
+        }
+        if (uuidEncoding.hasFixed()) {
+            if (hasServerExchangeUuid) {
+                size += 2 + uuidFixedSize(serverExchangeHigh, serverExchangeLow);
+            }
+            if (hasClientExchangeUuid) {
+                size += 2 + uuidFixedSize(clientExchangeHigh, clientExchangeLow);
+            }
+        }
+        return size;
+    }
+
+    private void putMessage(@NotNull ByteBuffer dst, int commonSize, int seqNum, boolean hasClientExchangeUuid, long clientExchangeHigh, long clientExchangeLow,
+                            boolean hasServerExchangeUuid, long serverExchangeHigh, long serverExchangeLow, @NotNull UuidEncoding uuidEncoding) {
+        dst.put(prefix);
+        putVarint(dst, commonSize);
+        if (hasServerExchangeUuid && uuidEncoding.hasSimple()) {
+            putUuidSimple(dst, SERVER_UUID_TAG, serverExchangeHigh, serverExchangeLow);
+        }
+        if (hasClientExchangeUuid && uuidEncoding.hasSimple()) {
+            putUuidSimple(dst, CLIENT_UUID_TAG, clientExchangeHigh, clientExchangeLow);
+        }
+        if (seqNum != 0) {
+            dst.put((byte) SEQ_NUM_TAG);
+            putVarint(dst, Integer.toUnsignedLong(seqNum));
+        }
+        if (hasServerExchangeUuid && uuidEncoding.hasFixed()) {
+            putUuidFixed(dst, SERVER_UUID_FIXED_TAG, serverExchangeHigh, serverExchangeLow);
+        }
+        if (hasClientExchangeUuid && uuidEncoding.hasFixed()) {
+            putUuidFixed(dst, CLIENT_UUID_FIXED_TAG, clientExchangeHigh, clientExchangeLow);
+        }
+    }
+
+    // A UUID sub-message is at most 22 bytes: its tag and length take a byte each
+
+    private static int uuidSimpleSize(long high, long low) {
+        return ((low != 0L) ? 1 + varintSize(low) : 0) + ((high != 0L) ? 1 + varintSize(high) : 0);
+    }
+
+    private static int uuidFixedSize(long high, long low) {
+        return ((low != 0L) ? 9 : 0) + ((high != 0L) ? 9 : 0);
+    }
+
+    private static void putUuidSimple(@NotNull ByteBuffer dst, int tag, long high, long low) {
+        dst.put((byte) tag);
+        dst.put((byte) uuidSimpleSize(high, low));
+        if (low != 0L) {
+            dst.put((byte) SIMPLE_LOW_TAG);
+            putVarint(dst, low);
+        }
+        if (high != 0L) {
+            dst.put((byte) SIMPLE_HIGH_TAG);
+            putVarint(dst, high);
+        }
+    }
+
+    private static void putUuidFixed(@NotNull ByteBuffer dst, int tag, long high, long low) {
+        dst.put((byte) tag);
+        dst.put((byte) uuidFixedSize(high, low));
+        if (low != 0L) {
+            dst.put((byte) FIXED_LOW_TAG);
+            putFixed64(dst, low);
+        }
+        if (high != 0L) {
+            dst.put((byte) FIXED_HIGH_TAG);
+            putFixed64(dst, high);
+        }
+    }
+
+    private static int varintSize(long value) {
+        return CodedOutputStream.computeUInt64SizeNoTag(value);
+    }
+
+    private static void putVarint(@NotNull ByteBuffer dst, long value) {
+        while ((value & ~0x7FL) != 0L) {
+            dst.put((byte) ((value & 0x7F) | 0x80));
+            value >>>= 7;
+        }
+        dst.put((byte) value);
+    }
+
+    // Little-endian, whatever the order of the buffer
+
+    private static void putFixed64(@NotNull ByteBuffer dst, long value) {
+        dst.putLong((dst.order() == ByteOrder.LITTLE_ENDIAN) ? value : Long.reverseBytes(value));
+    }
+}
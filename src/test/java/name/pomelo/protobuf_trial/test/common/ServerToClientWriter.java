@@ -0,0 +1,432 @@
+package name.pomelo.protobuf_trial.test.common;
+
+import com.google.protobuf.CodedOutputStream;
+import com.google.protobuf.WireFormat;
+import name.pomelo.protobuf_trial.protos.ClientToServer;
+import name.pomelo.protobuf_trial.protos.CommonStuff;
+import name.pomelo.protobuf_trial.protos.GenericFailure;
+import name.pomelo.protobuf_trial.protos.LoginChallenge;
+import name.pomelo.protobuf_trial.protos.LoginFollowupAnswerOk;
+import name.pomelo.protobuf_trial.protos.LoginRequestAnswerFailure;
+import name.pomelo.protobuf_trial.protos.ServerToClient;
+import name.pomelo.protobuf_trial.protos.UuidFixed;
+import name.pomelo.protobuf_trial.protos.UuidSimple;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+import java.util.UUID;
+
+// ---
+// Encodes length-delimited ServerToClient frames straight into a ByteBuffer through CodedOutputStream,
+// field by field, without building the ServerToClient, CommonStuff, UuidSimple/UuidFixed and payload
+// messages that the builders of UtilsForProtobufServerToClientMsgs create for every response.
+//
+// The output is byte for byte what writeFrame(buildXxx(...)) gives: the fields are written in field
+// number order and fields holding the proto3 default (0, "") are left out, as the generated code does.
+//
+// Usage: set the CommonStuff with setCommon(), then call writeXxx(dst, ...) for the payload type.
+// Every writeXxx() either writes the whole frame and returns its size, or, if "dst" does not have
+// the room, throws BufferOverflowException and leaves "dst" as it was.
+//
+// As a LoginResponder, the frames go to the buffer handed out by the FrameTarget (see setTarget()),
+// and the CommonStuff is the one of the message being answered, with the UUIDs in the answer encoding.
+// With a FrameJournal (see setJournal()), these frames are also appended to the journal, and with
+// a LoginMetrics.Recorder (see setMetrics()), they are counted.
+//
+// Keep one per thread, not thread-safe. Only the CodedOutputStream wrapping "dst" is allocated per
+// frame, as a CodedOutputStream cannot be pointed at another buffer once created; the payload types
+// without a payload go through a ServerToClientTemplate and allocate nothing.
+// ---
+
+public class ServerToClientWriter implements LoginResponder {
+
+    // The CommonStuff of the next frames
+
+    private int seqNum;
+    private boolean hasClientExchangeUuid;
+    private long clientExchangeHigh;
+    private long clientExchangeLow;
+    private boolean hasServerExchangeUuid;
+    private long serverExchangeHigh;
+    private long serverExchangeLow;
+    private @NotNull UuidEncoding uuidEncoding = UuidEncoding.SIMPLE;
+
+    private @Nullable FrameTarget target;
+    private @Nullable FrameJournal journal;
+    private @Nullable LoginMetrics.Recorder metrics;
+
+    public void setTarget(@Nullable FrameTarget target) {
+        this.target = target;
+    }
+
+    public void setJournal(@Nullable FrameJournal journal) {
+        this.journal = journal;
+    }
+
+    public void setMetrics(@Nullable LoginMetrics.Recorder metrics) {
+        this.metrics = metrics;
+    }
+
+    // ---
+    // Setting the CommonStuff
+    // ---
+
+    public void setCommon(int seqNum, long clientExchangeHigh, long clientExchangeLow, long serverExchangeHigh, long serverExchangeLow, @NotNull UuidEncoding uuidEncoding) {
+        this.seqNum = seqNum;
+        this.hasClientExchangeUuid = true;
+        this.clientExchangeHigh = clientExchangeHigh;
+        this.clientExchangeLow = clientExchangeLow;
+        this.hasServerExchangeUuid = true;
+        this.serverExchangeHigh = serverExchangeHigh;
+        this.serverExchangeLow = serverExchangeLow;
+        this.uuidEncoding = uuidEncoding;
+    }
+
+    // Same as commonData.toProtobufCommonStuff()
+
+    public void setCommon(@NotNull CommonData commonData) {
+        final UUID client = commonData.getClientExchangeUUID();
+        final UUID server = commonData.getServerExchangeUUID();
+        this.seqNum = commonData.getSeqNum();
+        this.hasClientExchangeUuid = (client != null);
+        this.clientExchangeHigh = (client != null) ? client.getMostSignificantBits() : 0L;
+        this.clientExchangeLow = (client != null) ? client.getLeastSignificantBits() : 0L;
+        this.hasServerExchangeUuid = (server != null);
+        this.serverExchangeHigh = (server != null) ? server.getMostSignificantBits() : 0L;
+        this.serverExchangeLow = (server != null) ? server.getLeastSignificantBits() : 0L;
+        this.uuidEncoding = commonData.getUuidEncoding();
+    }
+
+    // Same as CommonData.fromProtobufCommonStuff(echo).toProtobufCommonStuff(), i.e. echo a received CommonStuff
+
+    public void setCommonEcho(@NotNull CommonStuff echo) {
+        this.seqNum = echo.getSeqNum();
+        this.hasClientExchangeUuid = echo.hasClientExchangeUuid() || echo.hasClientExchangeUuidFixed();
+        this.clientExchangeHigh = UtilsForProtobufUuid.clientExchangeHighOf(echo);
+        this.clientExchangeLow = UtilsForProtobufUuid.clientExchangeLowOf(echo);
+        this.hasServerExchangeUuid = echo.hasServerExchangeUuid() || echo.hasServerExchangeUuidFixed();
+        this.serverExchangeHigh = UtilsForProtobufUuid.serverExchangeHighOf(echo);
+        this.serverExchangeLow = UtilsForProtobufUuid.serverExchangeLowOf(echo);
+        this.uuidEncoding = UtilsForProtobufUuid.answerEncodingOf(echo);
+    }
+
+    // ---
+    // One method per payload type, mirroring the builders
+    // ---
+
+    public int writeGenericFailure(@NotNull ByteBuffer dst, @NotNull String msg, @NotNull ClientToServer cause) {
+        return writeFailure(dst, ServerToClient.PayloadType.GENERIC_FAILURE_VALUE, ServerToClient.GENERIC_FAILURE_FIELD_NUMBER, msg, cause);
+    }
+
+    public int writeLoginGenericFailure(@NotNull ByteBuffer dst, @NotNull String msg, @NotNull ClientToServer cause) {
+        return writeFailure(dst, ServerToClient.PayloadType.LOGIN_GENERIC_FAILURE_VALUE, ServerToClient.LOGIN_GENERIC_FAILURE_FIELD_NUMBER, msg, cause);
+    }
+
+    public int writeLoginChallenge(@NotNull ByteBuffer dst, long product) {
+        final int payloadSize = uint64Size(LoginChallenge.PRODUCT_FIELD_NUMBER, product);
+        final int msgSize = headerSize(ServerToClient.PayloadType.LOGIN_CHALLENGE_VALUE) + nestedSize(ServerToClient.LOGIN_CHALLENGE_FIELD_NUMBER, payloadSize);
+        final CodedOutputStream out = begin(dst, msgSize);
+        try {
+            writeHeader(out, ServerToClient.PayloadType.LOGIN_CHALLENGE_VALUE);
+            writeNestedTag(out, ServerToClient.LOGIN_CHALLENGE_FIELD_NUMBER, payloadSize);
+            writeUInt64(out, LoginChallenge.PRODUCT_FIELD_NUMBER, product);
+            return end(out);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    public int writeLoginRequestAnswerOk(@NotNull ByteBuffer dst) {
+        return writeHeaderOnly(dst, ServerToClient.PayloadType.LOGIN_REQUEST_ANSWER_OK_VALUE);
+    }
+
+    public int writeLoginRequestAnswerFailure(@NotNull ByteBuffer dst, @NotNull String msg) {
+        final int payloadSize = stringSize(LoginRequestAnswerFailure.MSG_FIELD_NUMBER, msg);
+        final int msgSize = headerSize(ServerToClient.PayloadType.LOGIN_REQUEST_ANSWER_FAILURE_VALUE) + nestedSize(ServerToClient.LOGIN_REQUEST_ANSWER_FAILURE_FIELD_NUMBER, payloadSize);
+        final CodedOutputStream out = begin(dst, msgSize);
+        try {
+            writeHeader(out, ServerToClient.PayloadType.LOGIN_REQUEST_ANSWER_FAILURE_VALUE);
+            writeNestedTag(out, ServerToClient.LOGIN_REQUEST_ANSWER_FAILURE_FIELD_NUMBER, payloadSize);
+            writeString(out, LoginRequestAnswerFailure.MSG_FIELD_NUMBER, msg);
+            return end(out);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    public int writeLoginFollowupAnswerOk(@NotNull ByteBuffer dst, long playerHigh, long playerLow, @NotNull String playerName) {
+        final int uuidSize = uuidSimpleSize(playerHigh, playerLow);
+        final int payloadSize = nestedSize(LoginFollowupAnswerOk.PLAYER_UUID_FIELD_NUMBER, uuidSize)
+                + stringSize(LoginFollowupAnswerOk.PLAYER_NAME_FIELD_NUMBER, playerName);
+        final int msgSize = headerSize(ServerToClient.PayloadType.LOGIN_FOLLOWUP_ANSWER_OK_VALUE) + nestedSize(ServerToClient.LOGIN_FOLLOWUP_ANSWER_OK_FIELD_NUMBER, payloadSize);
+        final CodedOutputStream out = begin(dst, msgSize);
+        try {
+            writeHeader(out, ServerToClient.PayloadType.LOGIN_FOLLOWUP_ANSWER_OK_VALUE);
+            writeNestedTag(out, ServerToClient.LOGIN_FOLLOWUP_ANSWER_OK_FIELD_NUMBER, payloadSize);
+            writeNestedTag(out, LoginFollowupAnswerOk.PLAYER_UUID_FIELD_NUMBER, uuidSize);
+            writeUuidSimple(out, playerHigh, playerLow);
+            writeString(out, LoginFollowupAnswerOk.PLAYER_NAME_FIELD_NUMBER, playerName);
+            return end(out);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    public int writeLoginFollowupAnswerFailure(@NotNull ByteBuffer dst) {
+        return writeHeaderOnly(dst, ServerToClient.PayloadType.LOGIN_FOLLOWUP_ANSWER_FAILURE_VALUE);
+    }
+
+    public int writeLoginChallengeSolvedAnswerOk(@NotNull ByteBuffer dst) {
+        return writeHeaderOnly(dst, ServerToClient.PayloadType.LOGIN_CHALLENGE_SOLVED_ANSWER_OK_VALUE);
+    }
+
+    public int writeLoginChallengeSolvedAnswerFailure(@NotNull ByteBuffer dst) {
+        return writeHeaderOnly(dst, ServerToClient.PayloadType.LOGIN_CHALLENGE_SOLVED_ANSWER_FAILURE_VALUE);
+    }
+
+    // ---
+    // LoginResponder: echo the CommonStuff of the message answered, write to the FrameTarget
+    // ---
+
+    private @NotNull FrameTarget checkedTarget() {
+        if (target == null) {
+            throw new IllegalStateException("No FrameTarget has been set");
+        }
+        return target;
+    }
+
+    @Override
+    public void loginChallenge(long product, @NotNull CommonStuff echo) {
+        setCommonEcho(echo);
+        final int payloadSize = uint64Size(LoginChallenge.PRODUCT_FIELD_NUMBER, product);
+        final int msgSize = headerSize(ServerToClient.PayloadType.LOGIN_CHALLENGE_VALUE) + nestedSize(ServerToClient.LOGIN_CHALLENGE_FIELD_NUMBER, payloadSize);
+        final ByteBuffer dst = checkedTarget().bufferFor(frameSize(msgSize));
+        writeLoginChallenge(dst, product);
+        written(dst, ServerToClient.PayloadType.LOGIN_CHALLENGE_VALUE, msgSize);
+    }
+
+    @Override
+    public void loginRequestAnswerFailure(@NotNull String msg, @NotNull CommonStuff echo) {
+        setCommonEcho(echo);
+        final int payloadSize = stringSize(LoginRequestAnswerFailure.MSG_FIELD_NUMBER, msg);
+        final int msgSize = headerSize(ServerToClient.PayloadType.LOGIN_REQUEST_ANSWER_FAILURE_VALUE) + nestedSize(ServerToClient.LOGIN_REQUEST_ANSWER_FAILURE_FIELD_NUMBER, payloadSize);
+        final ByteBuffer dst = checkedTarget().bufferFor(frameSize(msgSize));
+        writeLoginRequestAnswerFailure(dst, msg);
+        written(dst, ServerToClient.PayloadType.LOGIN_REQUEST_ANSWER_FAILURE_VALUE, msgSize);
+    }
+
+    @Override
+    public void loginChallengeSolvedAnswerOk(@NotNull CommonStuff echo) {
+        setCommonEcho(echo);
+        final int msgSize = headerSize(ServerToClient.PayloadType.LOGIN_CHALLENGE_SOLVED_ANSWER_OK_VALUE);
+        final ByteBuffer dst = checkedTarget().bufferFor(frameSize(msgSize));
+        writeLoginChallengeSolvedAnswerOk(dst);
+        written(dst, ServerToClient.PayloadType.LOGIN_CHALLENGE_SOLVED_ANSWER_OK_VALUE, msgSize);
+    }
+
+    @Override
+    public void loginChallengeSolvedAnswerFailure(@NotNull CommonStuff echo) {
+        setCommonEcho(echo);
+        final int msgSize = headerSize(ServerToClient.PayloadType.LOGIN_CHALLENGE_SOLVED_ANSWER_FAILURE_VALUE);
+        final ByteBuffer dst = checkedTarget().bufferFor(frameSize(msgSize));
+        writeLoginChallengeSolvedAnswerFailure(dst);
+        written(dst, ServerToClient.PayloadType.LOGIN_CHALLENGE_SOLVED_ANSWER_FAILURE_VALUE, msgSize);
+    }
+
+    @Override
+    public void loginFollowupAnswerOk(@NotNull UUID playerUuid, @NotNull String playerName, @NotNull CommonStuff echo) {
+        setCommonEcho(echo);
+        final long high = playerUuid.getMostSignificantBits();
+        final long low = playerUuid.getLeastSignificantBits();
+        final int payloadSize = nestedSize(LoginFollowupAnswerOk.PLAYER_UUID_FIELD_NUMBER, uuidSimpleSize(high, low))
+                + stringSize(LoginFollowupAnswerOk.PLAYER_NAME_FIELD_NUMBER, playerName);
+        final int msgSize = headerSize(ServerToClient.PayloadType.LOGIN_FOLLOWUP_ANSWER_OK_VALUE) + nestedSize(ServerToClient.LOGIN_FOLLOWUP_ANSWER_OK_FIELD_NUMBER, payloadSize);
+        final ByteBuffer dst = checkedTarget().bufferFor(frameSize(msgSize));
+        writeLoginFollowupAnswerOk(dst, high, low, playerName);
+        written(dst, ServerToClient.PayloadType.LOGIN_FOLLOWUP_ANSWER_OK_VALUE, msgSize);
+    }
+
+    @Override
+    public void loginGenericFailure(@NotNull String msg, @NotNull ClientToServer cause, @NotNull CommonStuff echo) {
+        setCommonEcho(echo);
+        final int msgSize = failureSize(ServerToClient.PayloadType.LOGIN_GENERIC_FAILURE_VALUE, ServerToClient.LOGIN_GENERIC_FAILURE_FIELD_NUMBER, msg, cause);
+        final ByteBuffer dst = checkedTarget().bufferFor(frameSize(msgSize));
+        writeLoginGenericFailure(dst, msg, cause);
+        written(dst, ServerToClient.PayloadType.LOGIN_GENERIC_FAILURE_VALUE, msgSize);
+    }
+
+    // The message just written is the "msgSize" bytes before the position of "dst"
+
+    private void written(@NotNull ByteBuffer dst, int payloadType, int msgSize) {
+        if (journal != null) {
+            journal.append(FrameJournal.SERVER_TO_CLIENT, dst, dst.position() - msgSize, msgSize);
+        }
+        if (metrics != null) {
+            metrics.sent(payloadType, msgSize);
+        }
+    }
+
+    // ---
+    // Common parts
+    // ---
+
+    // GenericFailure and LoginGenericFailure have the same fields: msg = 1, cause = 2
+
+    private int failureSize(int payloadType, int payloadField, @NotNull String msg, @NotNull ClientToServer cause) {
+        final int payloadSize = stringSize(GenericFailure.MSG_FIELD_NUMBER, msg) + CodedOutputStream.computeMessageSize(GenericFailure.CAUSE_FIELD_NUMBER, cause);
+        return headerSize(payloadType) + nestedSize(payloadField, payloadSize);
+    }
+
+    private int writeFailure(@NotNull ByteBuffer dst, int payloadType, int payloadField, @NotNull String msg, @NotNull ClientToServer cause) {
+        final int payloadSize = stringSize(GenericFailure.MSG_FIELD_NUMBER, msg) + CodedOutputStream.computeMessageSize(GenericFailure.CAUSE_FIELD_NUMBER, cause);
+        final int msgSize = headerSize(payloadType) + nestedSize(payloadField, payloadSize);
+        final CodedOutputStream out = begin(dst, msgSize);
+        try {
+            writeHeader(out, payloadType);
+            writeNestedTag(out, payloadField, payloadSize);
+            writeString(out, GenericFailure.MSG_FIELD_NUMBER, msg);
+            out.writeMessage(GenericFailure.CAUSE_FIELD_NUMBER, cause);
+            return end(out);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    // Through the template of the payload type, without a CodedOutputStream
+
+    private int writeHeaderOnly(@NotNull ByteBuffer dst, int payloadType) {
+        return ServerToClientTemplate.of(ServerToClient.PayloadType.forNumber(payloadType)).writeFrame(dst, seqNum,
+                hasClientExchangeUuid, clientExchangeHigh, clientExchangeLow, hasServerExchangeUuid, serverExchangeHigh, serverExchangeLow, uuidEncoding);
+    }
+
+    private static int frameSize(int msgSize) {
+        return CodedOutputStream.computeUInt32SizeNoTag(msgSize) + msgSize;
+    }
+
+    private static @NotNull CodedOutputStream begin(@NotNull ByteBuffer dst, int msgSize) {
+        final int frameSize = frameSize(msgSize);
+        if (dst.remaining() < frameSize) {
+            throw new BufferOverflowException();
+        }
+        final CodedOutputStream out = CodedOutputStream.newInstance(dst);
+        try {
+            out.writeUInt32NoTag(msgSize);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return out;
+    }
+
+    private static int end(@NotNull CodedOutputStream out) throws IOException {
+        out.flush(); // moves the position of the buffer
+        return out.getTotalBytesWritten();
+    }
+
+    // payload_type = 1, common_stuff = 2
+
+    private int headerSize(int payloadType) {
+        return CodedOutputStream.computeEnumSize(ServerToClient.PAYLOAD_TYPE_FIELD_NUMBER, payloadType)
+                + nestedSize(ServerToClient.COMMON_STUFF_FIELD_NUMBER, commonStuffSize());
+    }
+
+    private void writeHeader(@NotNull CodedOutputStream out, int payloadType) throws IOException {
+        out.writeEnum(ServerToClient.PAYLOAD_TYPE_FIELD_NUMBER, payloadType);
+        writeNestedTag(out, ServerToClient.COMMON_STUFF_FIELD_NUMBER, commonStuffSize());
+        if (hasServerExchangeUuid && uuidEncoding.hasSimple()) {
+            writeNestedTag(out, CommonStuff.SERVER_EXCHANGE_UUID_FIELD_NUMBER, uuidSimpleSize(serverExchangeHigh, serverExchangeLow));
+            writeUuidSimple(out, serverExchangeHigh, serverExchangeLow);
+        }
+        if (hasClientExchangeUuid && uuidEncoding.hasSimple()) {
+            writeNestedTag(out, CommonStuff.CLIENT_EXCHANGE_UUID_FIELD_NUMBER, uuidSimpleSize(clientExchangeHigh, clientExchangeLow));
+            writeUuidSimple(out, clientExchangeHigh, clientExchangeLow);
+        }
+        if (seqNum != 0) {
+            out.writeUInt32(CommonStuff.SEQ_NUM_FIELD_NUMBER, seqNum);
+        }
+        if (hasServerExchangeUuid && uuidEncoding.hasFixed()) {
+            writeNestedTag(out, CommonStuff.SERVER_EXCHANGE_UUID_FIXED_FIELD_NUMBER, uuidFixedSize(serverExchangeHigh, serverExchangeLow));
+            writeUuidFixed(out, serverExchangeHigh, serverExchangeLow);
+        }
+        if (hasClientExchangeUuid && uuidEncoding.hasFixed()) {
+            writeNestedTag(out, CommonStuff.CLIENT_EXCHANGE_UUID_FIXED_FIELD_NUMBER, uuidFixedSize(clientExchangeHigh, clientExchangeLow));
+            writeUuidFixed(out, clientExchangeHigh, clientExchangeLow);
+        }
+    }
+
+    private int commonStuffSize() {
+        int size = (seqNum != 0) ? CodedOutputStream.computeUInt32Size(CommonStuff.SEQ_NUM_FIELD_NUMBER, seqNum) : 0;
+        if (hasServerExchangeUuid && uuidEncoding.hasSimple()) {
+            size += nestedSize(CommonStuff.SERVER_EXCHANGE_UUID_FIELD_NUMBER, uuidSimpleSize(serverExchangeHigh, serverExchangeLow));
+        }
+        if (hasClientExchangeUuid && uuidEncoding.hasSimple()) {
+            size += nestedSize(CommonStuff.CLIENT_EXCHANGE_UUID_FIELD_NUMBER, uuidSimpleSize(clientExchangeHigh, clientExchangeLow));
+        }
+        if (hasServerExchangeUuid && uuidEncoding.hasFixed()) {
+            size += nestedSize(CommonStuff.SERVER_EXCHANGE_UUID_FIXED_FIELD_NUMBER, uuidFixedSize(serverExchangeHigh, serverExchangeLow));
+        }
+        if (hasClientExchangeUuid && uuidEncoding.hasFixed()) {
+            size += nestedSize(CommonStuff.CLIENT_EXCHANGE_UUID_FIXED_FIELD_NUMBER, uuidFixedSize(clientExchangeHigh, clientExchangeLow));
+        }
+        return size;
+    }
+
+    // UuidSimple and UuidFixed: low = 1, high = 2
+
+    private static int uuidSimpleSize(long high, long low) {
+        return uint64Size(UuidSimple.LOW_FIELD_NUMBER, low) + uint64Size(UuidSimple.HIGH_FIELD_NUMBER, high);
+    }
+
+    private static void writeUuidSimple(@NotNull CodedOutputStream out, long high, long low) throws IOException {
+        writeUInt64(out, UuidSimple.LOW_FIELD_NUMBER, low);
+        writeUInt64(out, UuidSimple.HIGH_FIELD_NUMBER, high);
+    }
+
+    private static int uuidFixedSize(long high, long low) {
+        return ((low != 0L) ? CodedOutputStream.computeFixed64Size(UuidFixed.LOW_FIELD_NUMBER, low) : 0)
+                + ((high != 0L) ? CodedOutputStream.computeFixed64Size(UuidFixed.HIGH_FIELD_NUMBER, high) : 0);
+    }
+
+    private static void writeUuidFixed(@NotNull CodedOutputStream out, long high, long low) throws IOException {
+        if (low != 0L) {
+            out.writeFixed64(UuidFixed.LOW_FIELD_NUMBER, low);
+        }
+        if (high != 0L) {
+            out.writeFixed64(UuidFixed.HIGH_FIELD_NUMBER, high);
+        }
+    }
+
+    // Fields at their proto3 default do not appear on the wire
+
+    private static int uint64Size(int field, long value) {
+        return (value != 0L) ? CodedOutputStream.computeUInt64Size(field, value) : 0;
+    }
+
+    private static void writeUInt64(@NotNull CodedOutputStream out, int field, long value) throws IOException {
+        if (value != 0L) {
+            out.writeUInt64(field, value);
+        }
+    }
+
+    private static int stringSize(int field, @NotNull String value) {
+        return value.isEmpty() ? 0 : CodedOutputStream.computeStringSize(field, value);
+    }
+
+    private static void writeString(@NotNull CodedOutputStream out, int field, @NotNull String value) throws IOException {
+        if (!value.isEmpty()) {
+            out.writeString(field, value);
+        }
+    }
+
+    private static int nestedSize(int field, int size) {
+        return CodedOutputStream.computeTagSize(field) + CodedOutputStream.computeUInt32SizeNoTag(size) + size;
+    }
+
+    private static void writeNestedTag(@NotNull CodedOutputStream out, int field, int size) throws IOException {
+        out.writeTag(field, WireFormat.WIRETYPE_LENGTH_DELIMITED);
+        out.writeUInt32NoTag(size);
+    }
+}
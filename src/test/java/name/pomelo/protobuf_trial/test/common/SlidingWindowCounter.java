@@ -0,0 +1,71 @@
+package name.pomelo.protobuf_trial.test.common;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+// ---
+// Counts over the last "window" (split into "buckets" buckets), for each of "keys" keys.
+// The oldest bucket is dropped as a whole, so a sum covers between window * (buckets - 1) / buckets
+// and window of the past.
+//
+// Lock-free: each bucket has the index of the time slice it counts, and a thread entering a new slice
+// resets the bucket it lands on. An add racing with that reset may be lost, which is fine for
+// estimates of load. An add with a time older than the slice of its bucket (a thread that read the
+// clock before another one moved on a whole window) is dropped: that slice has left the window.
+// ---
+
+public class SlidingWindowCounter {
+
+    private final int keys;
+    private final int buckets;
+    private final long bucketNanos;
+    private final AtomicLongArray counts;
+    private final AtomicLongArray slices;
+
+    public SlidingWindowCounter(int keys, int buckets, long windowNanos) {
+        if (keys <= 0 || buckets <= 0 || windowNanos < buckets) {
+            throw new IllegalArgumentException("Bad keys/buckets/window: " + keys + "/" + buckets + "/" + windowNanos);
+        }
+        this.keys = keys;
+        this.buckets = buckets;
+        this.bucketNanos = windowNanos / buckets;
+        this.counts = new AtomicLongArray(keys * buckets);
+        this.slices = new AtomicLongArray(keys * buckets);
+        for (int i = 0; i < keys * buckets; i++) {
+            slices.set(i, Long.MIN_VALUE); // never counted
+        }
+    }
+
+    public int getKeys() {
+        return keys;
+    }
+
+    public long getWindowNanos() {
+        return bucketNanos * buckets;
+    }
+
+    public void add(int key, long nowNanos, long delta) {
+        final long slice = Math.floorDiv(nowNanos, bucketNanos);
+        final int i = key * buckets + (int) Math.floorMod(slice, (long) buckets);
+        final long seen = slices.get(i);
+        if (seen > slice) {
+            return; // stale: must not take the bucket back to an older slice
+        }
+        if (seen < slice && slices.compareAndSet(i, seen, slice)) {
+            counts.set(i, 0);
+        }
+        counts.addAndGet(i, delta);
+    }
+
+    public long sum(int key, long nowNanos) {
+        final long slice = Math.floorDiv(nowNanos, bucketNanos);
+        long sum = 0;
+        for (int b = 0; b < buckets; b++) {
+            final int i = key * buckets + b;
+            final long age = slice - slices.get(i);
+            if (age >= 0 && age < buckets) {
+                sum += counts.get(i);
+            }
+        }
+        return sum;
+    }
+}
@@ -0,0 +1,182 @@
+package name.pomelo.protobuf_trial.test.common;
+
+import lombok.Getter;
+import org.jetbrains.annotations.NotNull;
+
+import javax.management.ConstructorParameters;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+// ---
+// A histogram of non-negative long values (nanoseconds, bytes...) in the manner of HdrHistogram:
+// log-linear buckets, i.e. 2^SUB_BITS linear sub-buckets per power of two, so that a value is
+// known to within 1/2^SUB_BITS (about 3%) whatever its magnitude, in a fixed number of buckets.
+//
+// Values 0 .. 2^SUB_BITS-1 have a bucket each. Above, for a value whose highest bit is "msb":
+//
+//   shift  = msb - SUB_BITS                               (the bits dropped)
+//   bucket = ((shift + 1) << SUB_BITS) + (value >>> shift) - 2^SUB_BITS
+//
+// Values above 2^MAX_BITS-1 (about 68 s in nanoseconds) are counted as that.
+//
+// Recording is a bucket lookup (a few shifts) and one atomic add, lock-free; the mean is worked
+// out from the middle of the buckets, rather than by adding up the values too. The buckets are
+// striped over several arrays, picked by thread id, so that recording threads mostly write to
+// different cache lines; snapshot() adds up the stripes. Snapshots taken while recording are
+// not atomic: a value may be in the count but not yet in the buckets, or the other way around.
+// ---
+
+public class StripedHistogram {
+
+    public final static int SUB_BITS = 5;
+    public final static int MAX_BITS = 36;
+
+    private final static int BUCKETS = (MAX_BITS - SUB_BITS + 1) << SUB_BITS;
+    private final static long MAX_VALUE = (1L << MAX_BITS) - 1;
+
+    private final @NotNull AtomicLongArray @NotNull [] stripes;
+    private final int stripeMask;
+
+    // ---
+    // What a histogram held at some point: the count, mean and maximum, and some percentiles.
+    // Percentiles and the maximum are the highest value of their bucket.
+    // A JMX CompositeData through its getters (see LoginMetricsMXBean).
+    // ---
+
+    @Getter
+    public static class Snapshot {
+
+        private final long count;
+        private final double mean;
+        private final long p50;
+        private final long p90;
+        private final long p99;
+        private final long p999;
+        private final long max;
+
+        @ConstructorParameters({"count", "mean", "p50", "p90", "p99", "p999", "max"})
+        public Snapshot(long count, double mean, long p50, long p90, long p99, long p999, long max) {
+            this.count = count;
+            this.mean = mean;
+            this.p50 = p50;
+            this.p90 = p90;
+            this.p99 = p99;
+            this.p999 = p999;
+            this.max = max;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("n=%d mean=%.1f p50=%d p90=%d p99=%d p99.9=%d max=%d", count, mean, p50, p90, p99, p999, max);
+        }
+    }
+
+    // One stripe per processor (rounded up to a power of two), at most 16
+
+    public StripedHistogram() {
+        this(Math.min(16, ceilingPowerOfTwo(Runtime.getRuntime().availableProcessors())));
+    }
+
+    public StripedHistogram(int stripeCount) {
+        if (stripeCount <= 0 || Integer.bitCount(stripeCount) != 1) {
+            throw new IllegalArgumentException("stripeCount must be a power of 2 but is " + stripeCount);
+        }
+        this.stripes = new AtomicLongArray[stripeCount];
+        for (int i = 0; i < stripeCount; i++) {
+            stripes[i] = new AtomicLongArray(BUCKETS);
+        }
+        this.stripeMask = stripeCount - 1;
+    }
+
+    private static int ceilingPowerOfTwo(int n) {
+        return (n <= 1) ? 1 : Integer.highestOneBit(n - 1) << 1;
+    }
+
+    public static int bucketOf(long value) {
+        final long v = Math.min(Math.max(value, 0), MAX_VALUE);
+        if (v < (1L << SUB_BITS)) {
+            return (int) v;
+        }
+        final int shift = 63 - Long.numberOfLeadingZeros(v) - SUB_BITS;
+        return ((shift + 1) << SUB_BITS) + (int) (v >>> shift) - (1 << SUB_BITS);
+    }
+
+    // The highest value that goes into "bucket"
+
+    public static long highestValueOf(int bucket) {
+        if (bucket < (1 << SUB_BITS)) {
+            return bucket;
+        }
+        final int shift = (bucket >>> SUB_BITS) - 1;
+        final long lowest = (long) ((1 << SUB_BITS) + (bucket & ((1 << SUB_BITS) - 1))) << shift;
+        return lowest + (1L << shift) - 1;
+    }
+
+    private static double middleValueOf(int bucket) {
+        if (bucket < (1 << SUB_BITS)) {
+            return bucket;
+        }
+        final int shift = (bucket >>> SUB_BITS) - 1;
+        return highestValueOf(bucket) - ((1L << shift) - 1) / 2.0;
+    }
+
+    public void record(long value) {
+        stripes[(int) Thread.currentThread().threadId() & stripeMask].getAndIncrement(bucketOf(value));
+    }
+
+    public void reset() {
+        for (AtomicLongArray stripe : stripes) {
+            for (int i = 0; i < BUCKETS; i++) {
+                stripe.set(i, 0);
+            }
+        }
+    }
+
+    public @NotNull Snapshot snapshot() {
+        return snapshot(new long[0]);
+    }
+
+    // ---
+    // Same as above, with the counts of "more" added, by bucket from bucket 0: values counted
+    // elsewhere into the buckets of bucketOf() (see LoginMetrics.Recorder)
+    // ---
+
+    public @NotNull Snapshot snapshot(long @NotNull [] more) {
+        final long[] counts = new long[BUCKETS];
+        System.arraycopy(more, 0, counts, 0, Math.min(more.length, BUCKETS));
+        for (AtomicLongArray stripe : stripes) {
+            for (int i = 0; i < BUCKETS; i++) {
+                counts[i] += stripe.get(i);
+            }
+        }
+        long count = 0;
+        double sum = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            count += counts[i];
+            sum += counts[i] * middleValueOf(i);
+        }
+        if (count == 0) {
+            return new Snapshot(0, 0.0, 0, 0, 0, 0, 0);
+        }
+        int highest = BUCKETS - 1;
+        while (counts[highest] == 0) {
+            highest--;
+        }
+        return new Snapshot(count, sum / count,
+                valueAt(counts, count, 0.5), valueAt(counts, count, 0.9), valueAt(counts, count, 0.99), valueAt(counts, count, 0.999),
+                highestValueOf(highest));
+    }
+
+    // The value below which "quantile" of the "total" values lie
+
+    private static long valueAt(long @NotNull [] counts, long total, double quantile) {
+        final long rank = Math.max(1, (long) Math.ceil(quantile * total));
+        long seen = 0;
+        for (int i = 0; i < counts.length; i++) {
+            seen += counts[i];
+            if (seen >= rank) {
+                return highestValueOf(i);
+            }
+        }
+        return highestValueOf(counts.length - 1);
+    }
+}
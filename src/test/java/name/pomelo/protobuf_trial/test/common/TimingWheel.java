@@ -0,0 +1,330 @@
+package name.pomelo.protobuf_trial.test.common;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.Closeable;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Consumer;
+
+// ---
+// A hierarchical timing wheel (Varghese & Lauck; as the timers of the Linux kernel or of Kafka)
+// for many timeouts of which most are cancelled before they expire, as the step timeouts of
+// login exchanges: schedule() and cancel() are O(1) whatever the number of timeouts pending.
+//
+// Time is cut into ticks of "tickNanos". There are LEVELS wheels of SLOTS slots each: a timeout
+// due in less than SLOTS ticks goes into the slot of its tick in level 0, one due in less than
+// SLOTS^2 ticks into the slot of its SLOTS ticks in level 1, and so on. Every tick expires one
+// slot of level 0; whenever a level goes round, the next slot of the level above is "cascaded",
+// i.e. its timeouts are spread over the levels below. With 64 slots and 10 ms ticks, the levels
+// cover 0.64 s, 41 s, 44 min and 46 h. A timeout due later than that waits in the top level,
+// cascaded round again until it is in range. Timeouts expire at or after their deadline, within
+// a tick (plus however late advance() is called).
+//
+// The slots are intrusive doubly-linked lists of the Timeout handles themselves, touched by the
+// thread running advance() only. schedule() and cancel() may be called from any thread: they
+// hand the Timeout over through a lock-free queue, which advance() drains before each round.
+// A Timeout is expired or cancelled once, whichever comes first (a CAS on its state).
+//
+// advance() is driven by start() on a thread of its own, or by hand (tests). "onExpiry" runs on
+// that thread and should be short.
+// ---
+
+public class TimingWheel<T> implements Closeable {
+
+    private final static Logger log = LoggerFactory.getLogger(TimingWheel.class);
+
+    public final static int SLOT_BITS = 6;
+    public final static int SLOTS = 1 << SLOT_BITS;
+    public final static int LEVELS = 4;
+
+    private final static int SLOT_MASK = SLOTS - 1;
+    private final static long MAX_TICKS = 1L << (SLOT_BITS * LEVELS);
+
+    private final long tickNanos;
+    private final long startNanos;
+    private final @NotNull Consumer<? super Timeout<T>> onExpiry;
+
+    // Sentinel heads of the circular lists, level by level
+    private final @NotNull Timeout<T> @NotNull [] slots;
+
+    private final @NotNull Queue<Timeout<T>> added = new ConcurrentLinkedQueue<>();
+    private final @NotNull Queue<Timeout<T>> cancelled = new ConcurrentLinkedQueue<>();
+    private final @NotNull AtomicLong pending = new AtomicLong();
+    private final @NotNull ReentrantLock advancing = new ReentrantLock();
+
+    // The last tick processed; guarded by "advancing"
+    private long currentTick;
+
+    private @Nullable ScheduledExecutorService ticker;
+
+    // ---
+    // The handle of one scheduled task, which is also its node in a slot
+    // ---
+
+    public final static class Timeout<T> {
+
+        private final static VarHandle STATE;
+
+        static {
+            try {
+                STATE = MethodHandles.lookup().findVarHandle(Timeout.class, "state", int.class);
+            } catch (ReflectiveOperationException e) {
+                throw new ExceptionInInitializerError(e);
+            }
+        }
+
+        private final static int PENDING = 0;
+        private final static int EXPIRED = 1;
+        private final static int CANCELLED = 2;
+
+        private final @Nullable TimingWheel<T> wheel;
+        private final @Nullable T task;
+        private final long deadlineTick;
+        private volatile int state = PENDING;
+
+        // Links in the slot; null while not in a slot
+        private @Nullable Timeout<T> prev;
+        private @Nullable Timeout<T> next;
+
+        private Timeout(@Nullable TimingWheel<T> wheel, @Nullable T task, long deadlineTick) {
+            this.wheel = wheel;
+            this.task = task;
+            this.deadlineTick = deadlineTick;
+        }
+
+        public @NotNull T getTask() {
+            assert task != null : "a sentinel has no task";
+            return task;
+        }
+
+        public boolean isExpired() {
+            return state == EXPIRED;
+        }
+
+        public boolean isCancelled() {
+            return state == CANCELLED;
+        }
+
+        // False if it has already expired (or been cancelled)
+
+        public boolean cancel() {
+            if (!STATE.compareAndSet(this, PENDING, CANCELLED)) {
+                return false;
+            }
+            assert wheel != null;
+            wheel.pending.decrementAndGet();
+            wheel.cancelled.add(this);
+            return true;
+        }
+
+        private boolean expire() {
+            return STATE.compareAndSet(this, PENDING, EXPIRED);
+        }
+
+        private void unlink() {
+            if (next != null) {
+                assert prev != null;
+                prev.next = next;
+                next.prev = prev;
+                prev = null;
+                next = null;
+            }
+        }
+    }
+
+    public TimingWheel(long tickNanos, @NotNull Consumer<? super Timeout<T>> onExpiry) {
+        this(tickNanos, System.nanoTime(), onExpiry);
+    }
+
+    public TimingWheel(long tickNanos, long startNanos, @NotNull Consumer<? super Timeout<T>> onExpiry) {
+        if (tickNanos <= 0) {
+            throw new IllegalArgumentException("tickNanos must be greater than 0 but is " + tickNanos);
+        }
+        this.tickNanos = tickNanos;
+        this.startNanos = startNanos;
+        this.onExpiry = onExpiry;
+        @SuppressWarnings("unchecked") final Timeout<T>[] heads = new Timeout[LEVELS * SLOTS];
+        for (int i = 0; i < heads.length; i++) {
+            final Timeout<T> head = new Timeout<>(null, null, 0);
+            head.prev = head;
+            head.next = head;
+            heads[i] = head;
+        }
+        this.slots = heads;
+    }
+
+    public long getTickNanos() {
+        return tickNanos;
+    }
+
+    // Scheduled, and neither expired nor cancelled yet
+
+    public long getPendingCount() {
+        return pending.get();
+    }
+
+    // ---
+    // Have "onExpiry" called with the returned Timeout once "delayNanos" have passed, unless cancelled
+    // ---
+
+    public @NotNull Timeout<T> schedule(@NotNull T task, long delayNanos) {
+        return scheduleAt(task, System.nanoTime() + Math.max(0, delayNanos));
+    }
+
+    public @NotNull Timeout<T> scheduleAt(@NotNull T task, long deadlineNanos) {
+        // rounded up, so as never to expire early
+        final long deadlineTick = Math.ceilDiv(deadlineNanos - startNanos, tickNanos);
+        final Timeout<T> timeout = new Timeout<>(this, task, deadlineTick);
+        pending.incrementAndGet();
+        added.add(timeout);
+        return timeout;
+    }
+
+    public @NotNull TimingWheel<T> start() {
+        ticker = Executors.newSingleThreadScheduledExecutor(r -> {
+            final Thread thread = new Thread(r, "timing-wheel");
+            thread.setDaemon(true);
+            return thread;
+        });
+        ticker.scheduleAtFixedRate(() -> advance(System.nanoTime()), tickNanos, tickNanos, TimeUnit.NANOSECONDS);
+        return this;
+    }
+
+    @Override
+    public void close() {
+        if (ticker != null) {
+            ticker.shutdownNow();
+        }
+    }
+
+    // ---
+    // Process every tick up to "nowNanos", expiring what is due. One thread at a time; returns
+    // the number of timeouts expired, or 0 at once if another thread is advancing the wheel.
+    // ---
+
+    public int advance(long nowNanos) {
+        if (!advancing.tryLock()) {
+            return 0;
+        }
+        try {
+            final long targetTick = Math.floorDiv(nowNanos - startNanos, tickNanos);
+            int expired = 0;
+            drainQueues();
+            while (currentTick < targetTick) {
+                final long tick = currentTick + 1;
+                // top-down, so that what comes down from a level is cascaded again if due in this round of the level below
+                for (int level = LEVELS - 1; level > 0; level--) {
+                    if ((tick & ((1L << (SLOT_BITS * level)) - 1)) == 0) {
+                        cascade(level, (int) (tick >>> (SLOT_BITS * level)) & SLOT_MASK);
+                    }
+                }
+                expired += expireSlot(tick);
+                currentTick = tick;
+                // for callers far behind, e.g. after a long pause
+                drainQueues();
+            }
+            return expired;
+        } finally {
+            advancing.unlock();
+        }
+    }
+
+    private void drainQueues() {
+        Timeout<T> timeout;
+        while ((timeout = added.poll()) != null) {
+            if (timeout.state == Timeout.PENDING) {
+                insert(timeout);
+            }
+        }
+        while ((timeout = cancelled.poll()) != null) {
+            timeout.unlink();
+        }
+    }
+
+    // Into the level and slot for its deadline as seen from the next tick to process
+
+    private void insert(@NotNull Timeout<T> timeout) {
+        final long base = currentTick + 1;
+        long deadline = Math.max(timeout.deadlineTick, base);
+        final long delta = deadline - base;
+        int level = 0;
+        if (delta >= MAX_TICKS) {
+            // out of range: parked in the top level, to be cascaded round until it is in range
+            level = LEVELS - 1;
+            deadline = base + MAX_TICKS - 1;
+        } else {
+            while (delta >= (1L << (SLOT_BITS * (level + 1)))) {
+                level++;
+            }
+        }
+        final Timeout<T> head = slots[level * SLOTS + ((int) (deadline >>> (SLOT_BITS * level)) & SLOT_MASK)];
+        assert head.prev != null;
+        timeout.prev = head.prev;
+        timeout.next = head;
+        head.prev.next = timeout;
+        head.prev = timeout;
+    }
+
+    private void cascade(int level, int slot) {
+        final Timeout<T> head = slots[level * SLOTS + slot];
+        Timeout<T> timeout = detach(head);
+        while (timeout != null) {
+            final Timeout<T> next = timeout.next;
+            timeout.prev = null;
+            timeout.next = null;
+            if (timeout.state == Timeout.PENDING) {
+                insert(timeout);
+            }
+            timeout = next;
+        }
+    }
+
+    private int expireSlot(long tick) {
+        final Timeout<T> head = slots[(int) tick & SLOT_MASK];
+        Timeout<T> timeout = detach(head);
+        int expired = 0;
+        while (timeout != null) {
+            final Timeout<T> next = timeout.next;
+            timeout.prev = null;
+            timeout.next = null;
+            if (timeout.deadlineTick > tick) {
+                insert(timeout); // cannot happen, but would rather be late than early
+            } else if (timeout.expire()) {
+                pending.decrementAndGet();
+                expired++;
+                try {
+                    onExpiry.accept(timeout);
+                } catch (RuntimeException e) {
+                    log.warn("Expiring a timeout failed", e);
+                }
+            }
+            timeout = next;
+        }
+        return expired;
+    }
+
+    // Empty the slot, returning its former content as a null-terminated list
+
+    private static <T> @Nullable Timeout<T> detach(@NotNull Timeout<T> head) {
+        if (head.next == head) {
+            return null;
+        }
+        final Timeout<T> first = head.next;
+        assert head.prev != null;
+        head.prev.next = null;
+        head.prev = head;
+        head.next = head;
+        return first;
+    }
+}
@@ -0,0 +1,408 @@
+package name.pomelo.protobuf_trial.test.common;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Consumer;
+
+// ---
+// A bounded cache holding at most "maximumSize" entries, evicted by W-TinyLFU:
+//
+// - a small LRU "window" (1% of the entries) takes every new entry, so that a burst of new keys
+//   gets a chance to be used again before being judged;
+// - the "main" part (the other 99%) is a segmented LRU: "probation" for the entries which came
+//   through the window, "protected" (80% of main) for those used again since;
+// - an entry leaving the window only gets into a full main part if its key has been seen more
+//   often than the key of the entry it would push out (the LRU entry of probation), which is
+//   told by a FrequencySketch of all the accesses, halved every 10 * maximumSize accesses so
+//   that old popularity fades. Otherwise the entry from the window is the one evicted.
+//
+// A one-off scan over many keys thus goes through the window and out again without flushing the
+// entries used all the time.
+//
+// The entries are in a ConcurrentHashMap, so a read is a lookup in it. The LRU lists and the
+// sketch are only changed under a lock: a hit is noted into a striped, lossy ring buffer, drained
+// under the lock by whichever thread finds a buffer half full and the lock free, or by the next
+// put(). When the buffers are full, hits go unrecorded, which only makes the policy a little less
+// precise. An entry's value never changes once put.
+//
+// Thread-safe.
+// ---
+
+public class TinyLfuCache<K, V> {
+
+    // In the map but not yet in a list: put() has yet to take the lock
+
+    private final static int ADDING = -1;
+    private final static int WINDOW = 0;
+    private final static int PROBATION = 1;
+    private final static int PROTECTED = 2;
+
+    private final int maximumSize;
+    private final int windowMaximum;
+    private final int protectedMaximum;
+    private final @NotNull ConcurrentHashMap<K, Node<K, V>> data;
+    private final @NotNull ReentrantLock lock = new ReentrantLock();
+    private final @NotNull FrequencySketch sketch;
+    private final @NotNull ReadBuffer<Node<K, V>> readBuffer = new ReadBuffer<>();
+    private final @NotNull LongAdder evictionCount = new LongAdder();
+
+    // The LRU lists, least recently used first; guarded by "lock"
+
+    private final @NotNull Deque<K, V> window = new Deque<>();
+    private final @NotNull Deque<K, V> probation = new Deque<>();
+    private final @NotNull Deque<K, V> protectedDeque = new Deque<>();
+
+    private final static class Node<K, V> {
+
+        private final @NotNull K key;
+        private final @NotNull V value;
+
+        // guarded by "lock"
+
+        private int queue = ADDING;
+        private boolean evicted;
+        private @Nullable Node<K, V> prev;
+        private @Nullable Node<K, V> next;
+
+        private Node(@NotNull K key, @NotNull V value) {
+            this.key = key;
+            this.value = value;
+        }
+    }
+
+    public TinyLfuCache(int maximumSize) {
+        if (maximumSize <= 0) {
+            throw new IllegalArgumentException("maximumSize must be greater than 0 but is " + maximumSize);
+        }
+        this.maximumSize = maximumSize;
+        this.windowMaximum = Math.max(1, maximumSize / 100);
+        this.protectedMaximum = (maximumSize - windowMaximum) * 8 / 10;
+        this.data = new ConcurrentHashMap<>(Math.min(maximumSize, 1 << 16));
+        this.sketch = new FrequencySketch(maximumSize);
+    }
+
+    public int getMaximumSize() {
+        return maximumSize;
+    }
+
+    public int size() {
+        return data.size();
+    }
+
+    public long getEvictionCount() {
+        return evictionCount.sum();
+    }
+
+    // How often "key" has been seen lately, as the sketch estimates it (0 to 15)
+
+    public int frequency(@NotNull K key) {
+        lock.lock();
+        try {
+            return sketch.frequency(key.hashCode());
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // The value for "key", or null, noting the access
+
+    public @Nullable V get(@NotNull K key) {
+        final Node<K, V> node = data.get(key);
+        if (node == null) {
+            return null;
+        }
+        if (readBuffer.offer(node) && lock.tryLock()) {
+            try {
+                drainReadBuffer();
+            } finally {
+                lock.unlock();
+            }
+        }
+        return node.value;
+    }
+
+    // The value for "key", or null, without noting the access
+
+    public @Nullable V peek(@NotNull K key) {
+        final Node<K, V> node = data.get(key);
+        return (node == null) ? null : node.value;
+    }
+
+    // ---
+    // Add "value" for "key" unless there already is a value, and return the value in the cache.
+    // The entry may be evicted right away, if the cache is full of more frequently used keys.
+    // ---
+
+    public @NotNull V put(@NotNull K key, @NotNull V value) {
+        final Node<K, V> node = new Node<>(key, value);
+        final Node<K, V> existing = data.putIfAbsent(key, node);
+        if (existing != null) {
+            return existing.value;
+        }
+        lock.lock();
+        try {
+            drainReadBuffer();
+            sketch.increment(key.hashCode());
+            node.queue = WINDOW;
+            window.addLast(node);
+            evict();
+        } finally {
+            lock.unlock();
+        }
+        return value;
+    }
+
+    // ---
+    // Policy, under "lock"
+    // ---
+
+    private void drainReadBuffer() {
+        readBuffer.drainTo(this::onAccess);
+    }
+
+    private void onAccess(@NotNull Node<K, V> node) {
+        if (node.evicted) {
+            return;
+        }
+        sketch.increment(node.key.hashCode());
+        switch (node.queue) {
+            case ADDING -> {
+                // counted, and about to be added by put()
+            }
+            case WINDOW -> window.moveToLast(node);
+            case PROBATION -> {
+                probation.remove(node);
+                node.queue = PROTECTED;
+                protectedDeque.addLast(node);
+                if (protectedDeque.size > protectedMaximum) {
+                    final Node<K, V> demoted = protectedDeque.removeFirst();
+                    assert demoted != null;
+                    demoted.queue = PROBATION;
+                    probation.addLast(demoted);
+                }
+            }
+            default -> protectedDeque.moveToLast(node);
+        }
+    }
+
+    // Move the entries which overflow the window to main, where each candidate has to beat the LRU entry of main
+
+    private void evict() {
+        while (window.size > windowMaximum) {
+            final Node<K, V> candidate = window.removeFirst();
+            assert candidate != null;
+            if (window.size + probation.size + protectedDeque.size < maximumSize) {
+                candidate.queue = PROBATION;
+                probation.addLast(candidate);
+                continue;
+            }
+            final Node<K, V> victim = (probation.first != null) ? probation.first : protectedDeque.first;
+            if (victim != null && sketch.frequency(candidate.key.hashCode()) > sketch.frequency(victim.key.hashCode())) {
+                (victim.queue == PROBATION ? probation : protectedDeque).remove(victim);
+                remove(victim);
+                candidate.queue = PROBATION;
+                probation.addLast(candidate);
+            } else {
+                remove(candidate);
+            }
+        }
+    }
+
+    private void remove(@NotNull Node<K, V> node) {
+        node.evicted = true;
+        data.remove(node.key, node);
+        evictionCount.increment();
+    }
+
+    // ---
+    // A doubly-linked list through the nodes
+    // ---
+
+    private final static class Deque<K, V> {
+
+        private @Nullable Node<K, V> first;
+        private @Nullable Node<K, V> last;
+        private int size;
+
+        private void addLast(@NotNull Node<K, V> node) {
+            node.prev = last;
+            node.next = null;
+            if (last == null) {
+                first = node;
+            } else {
+                last.next = node;
+            }
+            last = node;
+            size++;
+        }
+
+        private @Nullable Node<K, V> removeFirst() {
+            final Node<K, V> node = first;
+            if (node != null) {
+                remove(node);
+            }
+            return node;
+        }
+
+        private void remove(@NotNull Node<K, V> node) {
+            if (node.prev == null) {
+                first = node.next;
+            } else {
+                node.prev.next = node.next;
+            }
+            if (node.next == null) {
+                last = node.prev;
+            } else {
+                node.next.prev = node.prev;
+            }
+            node.prev = null;
+            node.next = null;
+            size--;
+        }
+
+        private void moveToLast(@NotNull Node<K, V> node) {
+            if (node != last) {
+                remove(node);
+                addLast(node);
+            }
+        }
+    }
+
+    // ---
+    // A count-min sketch of 4-bit counters, 16 to a long, 4 counters per key. "frequency()" is
+    // the smallest of the 4 counters of a key, which may overestimate it (on collisions) but never
+    // underestimates it until the counters are halved.
+    //
+    // There is a long (16 counters) per entry of the cache, as in Caffeine: with the 4 increments
+    // of each of the 10 * maximumSize accesses between two halvings, that keeps the counters well
+    // below saturation, and the estimates of keys seldom or never seen near 0. With fewer counters
+    // they all read 15, and the admission compares ties.
+    // ---
+
+    final static class FrequencySketch {
+
+        private final static long[] SEEDS = {0xc3a5c85c97cb3127L, 0xb492b66fbe98f273L, 0x9ae16a3b2f90404fL, 0xcbf29ce484222325L};
+        private final static long RESET_MASK = 0x7777777777777777L;
+
+        private final long @NotNull [] table;
+        private final int sampleSize;
+        private int additions;
+
+        FrequencySketch(int maximumSize) {
+            final int longs = Integer.highestOneBit(Math.max(8, Math.min(maximumSize, 1 << 28)) - 1) << 1;
+            this.table = new long[longs];
+            this.sampleSize = (int) Math.min(10L * maximumSize, Integer.MAX_VALUE);
+        }
+
+        int frequency(int hashCode) {
+            final long spread = spread(hashCode);
+            int res = 15;
+            for (int i = 0; i < 4; i++) {
+                final long h = indexHash(spread, i);
+                res = Math.min(res, (int) ((table[tableIndex(h)] >>> counterShift(h)) & 0xF));
+            }
+            return res;
+        }
+
+        void increment(int hashCode) {
+            final long spread = spread(hashCode);
+            boolean added = false;
+            for (int i = 0; i < 4; i++) {
+                final long h = indexHash(spread, i);
+                final int index = tableIndex(h);
+                final int shift = counterShift(h);
+                if (((table[index] >>> shift) & 0xF) != 0xF) {
+                    table[index] += 1L << shift;
+                    added = true;
+                }
+            }
+            if (added && ++additions == sampleSize) {
+                reset();
+            }
+        }
+
+        private void reset() {
+            for (int i = 0; i < table.length; i++) {
+                table[i] = (table[i] >>> 1) & RESET_MASK;
+            }
+            additions /= 2;
+        }
+
+        private static long spread(int hashCode) {
+            final long h = hashCode * 0x9e3779b97f4a7c15L;
+            return h ^ (h >>> 32);
+        }
+
+        private static long indexHash(long spread, int i) {
+            final long h = (spread + SEEDS[i]) * SEEDS[i];
+            return h + (h >>> 32);
+        }
+
+        private int tableIndex(long h) {
+            return (int) (h >>> 4) & (table.length - 1);
+        }
+
+        private static int counterShift(long h) {
+            return (int) (h & 15) << 2;
+        }
+    }
+
+    // ---
+    // Striped ring buffers, one picked by the thread id: a slot is claimed by a CAS on the write
+    // counter of the buffer; a full buffer drops the element. offer() returns true once the buffer
+    // is half full, to have it drained.
+    // ---
+
+    private final static class ReadBuffer<E> {
+
+        private final static int STRIPES = Integer.highestOneBit(Math.max(1, Runtime.getRuntime().availableProcessors()) * 2 - 1) << 1;
+        private final static int SIZE = 16;
+
+        private final @NotNull AtomicReferenceArray<E> slots = new AtomicReferenceArray<>(STRIPES * SIZE);
+        private final @NotNull AtomicLong @NotNull [] writes = new AtomicLong[STRIPES];
+        private final @NotNull AtomicLong @NotNull [] reads = new AtomicLong[STRIPES]; // only moved under the lock of the cache
+
+        private ReadBuffer() {
+            for (int i = 0; i < STRIPES; i++) {
+                writes[i] = new AtomicLong();
+                reads[i] = new AtomicLong();
+            }
+        }
+
+        private boolean offer(@NotNull E element) {
+            final int stripe = (int) Thread.currentThread().threadId() & (STRIPES - 1);
+            final AtomicLong write = writes[stripe];
+            final long w = write.get();
+            final long pending = w - reads[stripe].get();
+            if (pending >= SIZE || !write.compareAndSet(w, w + 1)) {
+                return pending >= SIZE / 2;
+            }
+            slots.lazySet(stripe * SIZE + (int) (w & (SIZE - 1)), element);
+            return pending + 1 >= SIZE / 2;
+        }
+
+        private void drainTo(@NotNull Consumer<E> consumer) {
+            for (int stripe = 0; stripe < STRIPES; stripe++) {
+                long r = reads[stripe].get();
+                final long w = writes[stripe].get();
+                while (r < w) {
+                    final int index = stripe * SIZE + (int) (r & (SIZE - 1));
+                    final E element = slots.get(index);
+                    if (element == null) {
+                        break; // claimed but not written yet
+                    }
+                    slots.lazySet(index, null);
+                    consumer.accept(element);
+                    r++;
+                }
+                reads[stripe].lazySet(r);
+            }
+        }
+    }
+}
@@ -0,0 +1,128 @@
+package name.pomelo.protobuf_trial.test.common;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.util.random.RandomGenerator;
+
+// ---
+// The "Login challenge" is a factoring problem: the server sends the product
+// of two primes ("LoginChallenge.product") and the client has to send back
+// the two factors ("LoginChallengeSolved.a" and "LoginChallengeSolved.b").
+//
+// The server takes its products from a ChallengeGenerator; the helpers here are
+// the arithmetic shared by the server, the generator and the clients.
+// ---
+
+public abstract class UtilsForLoginChallenge {
+
+    // ---
+    // Primality of "n" below 2^32, by Miller-Rabin with the bases 2, 7 and 61, which give the right
+    // answer for all n < 4759123141 (Jaeschke 1993). Nothing is allocated.
+    // ---
+
+    public static boolean isPrime(long n) {
+        if (n >= (1L << 32)) {
+            throw new IllegalArgumentException("n must be below 2^32 but is " + n);
+        }
+        if (n < 2) {
+            return false;
+        }
+        if (n < 4) {
+            return true;
+        }
+        if (n % 2 == 0) {
+            return false;
+        }
+        return millerRabin(n, 2) && millerRabin(n, 7) && millerRabin(n, 61);
+    }
+
+    private static boolean millerRabin(long n, long base) {
+        if (base % n == 0) {
+            return true;
+        }
+        long d = n - 1;
+        final int s = Long.numberOfTrailingZeros(d);
+        d >>>= s;
+        long x = powMod(base, d, n);
+        if (x == 1 || x == n - 1) {
+            return true;
+        }
+        for (int r = 1; r < s; r++) {
+            x = mulMod(x, x, n);
+            if (x == n - 1) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    // a, b < n < 2^32: the product fits into 64 unsigned bits
+
+    private static long mulMod(long a, long b, long n) {
+        return Long.remainderUnsigned(a * b, n);
+    }
+
+    private static long powMod(long base, long exp, long n) {
+        long result = 1;
+        long b = base % n;
+        while (exp > 0) {
+            if ((exp & 1) != 0) {
+                result = mulMod(result, b, n);
+            }
+            b = mulMod(b, b, n);
+            exp >>>= 1;
+        }
+        return result;
+    }
+
+    // ---
+    // A random prime of exactly "bits" bits (2 to 31), so that the product of two fits in 62 bits
+    // and remains positive as a Java long.
+    // ---
+
+    public final static int MIN_PRIME_BITS = 2;
+    public final static int MAX_PRIME_BITS = 31;
+
+    public static long randomPrime(int bits, @NotNull RandomGenerator rng) {
+        if (bits < MIN_PRIME_BITS || bits > MAX_PRIME_BITS) {
+            throw new IllegalArgumentException("bits must be in [" + MIN_PRIME_BITS + "," + MAX_PRIME_BITS + "] but is " + bits);
+        }
+        final long low = 1L << (bits - 1);
+        while (true) {
+            final long candidate = low | rng.nextLong(low); // top bit set
+            if (isPrime(candidate)) {
+                return candidate;
+            }
+        }
+    }
+
+    // ---
+    // Check the answer to a challenge. Trivial factors (1 and the product itself) are not accepted.
+    // "a" and "b" are uint64 on the wire and compared as such. The multiplication must not overflow:
+    // otherwise any odd "a" would do, with "b" the product times the inverse of "a" modulo 2^64.
+    // ---
+
+    public static boolean isSolution(long a, long b, long product) {
+        return Long.compareUnsigned(a, 1) > 0
+                && Long.compareUnsigned(b, 1) > 0
+                && Math.unsignedMultiplyHigh(a, b) == 0
+                && a * b == product;
+    }
+
+    // ---
+    // Solve a challenge on the client side, by trial division.
+    // Returns the smallest factor of "n" (which is "n" itself if "n" is prime).
+    // ---
+
+    public static long smallestFactor(long n) {
+        if (n % 2 == 0) {
+            return 2;
+        }
+        for (long f = 3; f <= n / f; f += 2) {
+            if (n % f == 0) {
+                return f;
+            }
+        }
+        return n;
+    }
+}
@@ -16,7 +16,9 @@ public class UtilsForProtobufClientToServerMsgs {
         System.out.println(printer.print(mob));
     }
 
-    private static void verifyClientToServerMessage(@NotNull ClientToServer c2s) {
+    // Also used by the login servers and clients, and by the benchmarks
+
+    public static void verifyClientToServerMessage(@NotNull ClientToServer c2s) {
         if (c2s.getCommonStuff().getSeqNum() <= 0) {
             // The default value for the seqNum
             // protobuf may actually map an unsigned 32-bit value above 0x8000000
@@ -68,12 +70,16 @@ public class UtilsForProtobufClientToServerMsgs {
         }
         // The default value for the UUID is the "nil" UUID containing only 0.
         // It should not be encountered!
-        if (UtilsForProtobufUuid.isNilUuid(c2s.getCommonStuff().getClientExchangeUuid())) {
+        // They may come as UuidSimple or UuidFixed or both (see CommonStuff in packets.proto)
+        if (UtilsForProtobufUuid.isNilClientExchangeUuid(c2s.getCommonStuff())) {
             throw new IllegalArgumentException("Client Exchange UUID is nil");
         }
-        if (UtilsForProtobufUuid.isNilUuid(c2s.getCommonStuff().getServerExchangeUuid())) {
+        if (UtilsForProtobufUuid.isNilServerExchangeUuid(c2s.getCommonStuff())) {
             throw new IllegalArgumentException("Server Exchange UUID is nil");
         }
+        if (!UtilsForProtobufUuid.hasConsistentExchangeUuids(c2s.getCommonStuff())) {
+            throw new IllegalArgumentException("Exchange UUID differs between UuidSimple and UuidFixed");
+        }
     }
 
     private static @NotNull ClientToServer.Builder buildCclientToServerBuilder(@NotNull CommonData commonData) {
@@ -81,7 +87,14 @@ public class UtilsForProtobufClientToServerMsgs {
     }
 
     public static @NotNull ClientToServer deserialize(final byte[] pbBytes) throws InvalidProtocolBufferException {
-        final ClientToServer c2sBack = ClientToServer.parseFrom(ByteBuffer.wrap(pbBytes));
+        return deserialize(ByteBuffer.wrap(pbBytes));
+    }
+
+    // From the position to the limit of a heap, direct or mapped buffer, read in place. To leave
+    // the strings undecoded until they are read, see LazyClientToServer.
+
+    public static @NotNull ClientToServer deserialize(@NotNull ByteBuffer buf) throws InvalidProtocolBufferException {
+        final ClientToServer c2sBack = ClientToServer.parseFrom(buf.duplicate());
         verifyClientToServerMessage(c2sBack);
         return c2sBack;
     }
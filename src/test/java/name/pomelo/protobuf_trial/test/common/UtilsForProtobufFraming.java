@@ -0,0 +1,159 @@
+package name.pomelo.protobuf_trial.test.common;
+
+import com.google.protobuf.CodedOutputStream;
+import com.google.protobuf.InvalidProtocolBufferException;
+import com.google.protobuf.MessageLite;
+import com.google.protobuf.Parser;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+
+// ---
+// Framing of protobuf messages on a stream.
+//
+// Protobuf messages are not self-delimiting, so on a stream every message ("frame") is
+// preceded by its length, encoded as a varint. This is the same layout as the one produced
+// by MessageLite.writeDelimitedTo() and consumed by Parser.parseDelimitedFrom():
+//
+// [varint length, 1..5 bytes][message bytes, "length" many]
+//
+// Unlike parseDelimitedFrom(), we enforce a maximum frame size so that a hostile peer
+// cannot make us allocate arbitrarily large buffers.
+//
+// https://protobuf.dev/programming-guides/techniques/#streaming
+// ---
+
+public abstract class UtilsForProtobufFraming {
+
+    // The largest message we are ready to accept by default. Our messages are well below 1 KiB.
+
+    public final static int DEFAULT_MAX_FRAME_SIZE = 64 * 1024;
+
+    // A varint-encoded 32-bit length takes at most 5 bytes
+
+    public final static int MAX_HEADER_SIZE = 5;
+
+    public static int computeFrameSize(@NotNull MessageLite msg) {
+        final int size = msg.getSerializedSize();
+        return CodedOutputStream.computeUInt32SizeNoTag(size) + size;
+    }
+
+    // ---
+    // Write a single frame into "dst", starting at its position, and advance the position.
+    // Throws BufferOverflowException (and writes nothing) if "dst" does not have enough room.
+    // The message is encoded straight into "dst", which may be a direct buffer.
+    // ---
+
+    public static void writeFrame(@NotNull MessageLite msg, @NotNull ByteBuffer dst) throws IOException {
+        final int size = msg.getSerializedSize();
+        final int frameSize = CodedOutputStream.computeUInt32SizeNoTag(size) + size;
+        if (dst.remaining() < frameSize) {
+            throw new BufferOverflowException();
+        }
+        final CodedOutputStream cos = CodedOutputStream.newInstance(dst);
+        cos.writeUInt32NoTag(size);
+        msg.writeTo(cos);
+        cos.flush(); // this sets the position of "dst"
+    }
+
+    // For use in lambdas. Encoding into a ByteBuffer does not actually do any I/O.
+
+    public static void writeFrameUnchecked(@NotNull MessageLite msg, @NotNull ByteBuffer dst) {
+        try {
+            writeFrame(msg, dst);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    public static void writeFrame(@NotNull MessageLite msg, @NotNull OutputStream out) throws IOException {
+        msg.writeDelimitedTo(out);
+    }
+
+    // ---
+    // Read a varint-encoded frame length at absolute index "index" of "buf", without moving its position.
+    // Returns the length in the low 32 bits and the size of the header in the high 32 bits,
+    // or -1 if the header is not entirely in the buffer yet.
+    // Throws if the varint is malformed (more than 5 bytes) or if the length is out of range.
+    // ---
+
+    public static long peekFrameHeader(@NotNull ByteBuffer buf, int index, int maxFrameSize) throws InvalidProtocolBufferException {
+        final int limit = buf.limit();
+        int result = 0;
+        for (int i = 0; i < MAX_HEADER_SIZE; i++) {
+            if (index + i >= limit) {
+                return -1;
+            }
+            final byte b = buf.get(index + i);
+            if (i == MAX_HEADER_SIZE - 1 && (b & 0xF0) != 0) {
+                throw new InvalidProtocolBufferException("Frame length varint does not fit into 32 bits");
+            }
+            result |= (b & 0x7F) << (7 * i);
+            if (b >= 0) {
+                if (result < 0 || result > maxFrameSize) {
+                    throw new InvalidProtocolBufferException("Frame length " + Integer.toUnsignedString(result) + " exceeds the maximum of " + maxFrameSize);
+                }
+                return ((long) (i + 1) << 32) | result;
+            }
+        }
+        throw new InvalidProtocolBufferException("Frame length varint is longer than " + MAX_HEADER_SIZE + " bytes");
+    }
+
+    // ---
+    // Read a single frame from a blocking InputStream.
+    // Returns null if the stream is at EOF before the frame starts (i.e. the peer closed cleanly).
+    // Throws if the stream ends in the middle of a frame or if the frame is too large.
+    // ---
+
+    public static <T> @Nullable T readFrame(@NotNull InputStream in, @NotNull Parser<T> parser, int maxFrameSize) throws IOException {
+        return readFrame(in, parser, maxFrameSize, null);
+    }
+
+    // With a "validator", the frame is checked on its raw bytes before being parsed (see MessageScanner)
+
+    public static <T> @Nullable T readFrame(@NotNull InputStream in, @NotNull Parser<T> parser, int maxFrameSize, @Nullable FrameValidator validator) throws IOException {
+        final int firstByte = in.read();
+        if (firstByte < 0) {
+            return null;
+        }
+        int size = firstByte & 0x7F;
+        if ((firstByte & 0x80) != 0) {
+            for (int i = 1; ; i++) {
+                if (i >= MAX_HEADER_SIZE) {
+                    throw new InvalidProtocolBufferException("Frame length varint is longer than " + MAX_HEADER_SIZE + " bytes");
+                }
+                final int b = in.read();
+                if (b < 0) {
+                    throw new InvalidProtocolBufferException("Stream ended inside a frame header");
+                }
+                if (i == MAX_HEADER_SIZE - 1 && (b & 0xF0) != 0) {
+                    throw new InvalidProtocolBufferException("Frame length varint does not fit into 32 bits");
+                }
+                size |= (b & 0x7F) << (7 * i);
+                if ((b & 0x80) == 0) {
+                    break;
+                }
+            }
+        }
+        if (size < 0 || size > maxFrameSize) {
+            throw new InvalidProtocolBufferException("Frame length " + Integer.toUnsignedString(size) + " exceeds the maximum of " + maxFrameSize);
+        }
+        final byte[] bytes = in.readNBytes(size);
+        if (bytes.length < size) {
+            throw new InvalidProtocolBufferException("Stream ended inside a frame: expected " + size + " bytes but got " + bytes.length);
+        }
+        if (validator != null) {
+            final int result = validator.validate(ByteBuffer.wrap(bytes), 0, size);
+            if (result != ScanResult.OK) {
+                throw new FrameRejectedException(result);
+            }
+        }
+        return parser.parseFrom(bytes);
+    }
+}
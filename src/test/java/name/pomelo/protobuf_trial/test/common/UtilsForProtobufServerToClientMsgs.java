@@ -13,7 +13,9 @@ public class UtilsForProtobufServerToClientMsgs {
         return ServerToClient.newBuilder().setCommonStuff(commonData.toProtobufCommonStuff());
     }
 
-    private static void verifyServerToClientMessage(@NotNull ServerToClient s2c) {
+    // Also used by the login servers and clients, and by the benchmarks
+
+    public static void verifyServerToClientMessage(@NotNull ServerToClient s2c) {
         if (s2c.getCommonStuff().getSeqNum() <= 0) {
             // The default value for the seqNum
             // protobuf may actually map an unsigned 32-bit value above 0x8000000
@@ -99,12 +101,16 @@ public class UtilsForProtobufServerToClientMsgs {
         }
         // The default value for the UUID is the "nil" UUID containing only 0.
         // It should not be encountered!
-        if (UtilsForProtobufUuid.isNilUuid(s2c.getCommonStuff().getClientExchangeUuid())) {
+        // They may come as UuidSimple or UuidFixed or both (see CommonStuff in packets.proto)
+        if (UtilsForProtobufUuid.isNilClientExchangeUuid(s2c.getCommonStuff())) {
             throw new IllegalArgumentException("Client Exchange UUID is nil");
         }
-        if (UtilsForProtobufUuid.isNilUuid(s2c.getCommonStuff().getServerExchangeUuid())) {
+        if (UtilsForProtobufUuid.isNilServerExchangeUuid(s2c.getCommonStuff())) {
             throw new IllegalArgumentException("Server Exchange UUID is nil");
         }
+        if (!UtilsForProtobufUuid.hasConsistentExchangeUuids(s2c.getCommonStuff())) {
+            throw new IllegalArgumentException("Exchange UUID differs between UuidSimple and UuidFixed");
+        }
     }
 
     public static @NotNull ServerToClient deserialize(final byte[] pbBytes) throws InvalidProtocolBufferException {
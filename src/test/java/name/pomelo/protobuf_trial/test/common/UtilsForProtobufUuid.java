@@ -1,12 +1,11 @@
 package name.pomelo.protobuf_trial.test.common;
 
-import com.google.protobuf.ByteString;
+import name.pomelo.protobuf_trial.protos.CommonStuff;
 import name.pomelo.protobuf_trial.protos.Uuid;
+import name.pomelo.protobuf_trial.protos.UuidFixed;
 import name.pomelo.protobuf_trial.protos.UuidSimple;
 import org.jetbrains.annotations.NotNull;
 
-import java.io.ByteArrayInputStream;
-import java.io.ByteArrayOutputStream;
 import java.util.UUID;
 
 // ---
@@ -22,6 +21,8 @@ import java.util.UUID;
 //
 // https://protobuf.dev/reference/java/api-docs/com/google/protobuf/CodedOutputStream
 // https://protobuf.dev/reference/java/api-docs/com/google/protobuf/ByteString.html
+//
+// The conversions themselves are done by UuidCodec.
 // ---
 
 public abstract class UtilsForProtobufUuid {
@@ -30,66 +31,98 @@ public abstract class UtilsForProtobufUuid {
         return uuid.getLow() == 0L && uuid.getHigh() == 0L;
     }
 
-    public static boolean isNilUuid(@NotNull UUID uuid) {
-        return uuid.getLeastSignificantBits() == 0L && uuid.getMostSignificantBits() == 0L;
+    public static boolean isNilUuid(@NotNull UuidFixed uuid) {
+        return uuid.getLow() == 0L && uuid.getHigh() == 0L;
     }
 
-    private static long readLongBigEndianly(@NotNull ByteArrayInputStream bais) {
-        long shift = 0;
-        for (int i = 0; i < 8; i++) {
-            int n = bais.read();
-            if (n < 0) {
-                System.err.println("No more data from ByteArrayInputStream at index " + i);
-                return shift;
-            } else {
-                shift = shift | (long) (n) << i * 8;
-            }
-        }
-        return shift;
+    public static boolean isNilUuid(@NotNull UUID uuid) {
+        return uuid.getLeastSignificantBits() == 0L && uuid.getMostSignificantBits() == 0L;
     }
 
-    private static void writeLongBigEndianly(final long value, @NotNull ByteArrayOutputStream baos) {
-        long shift = value;
-        for (int i = 0; i < 8; i++) {
-            baos.write((int) (shift & 0xFF));
-            shift >>= 8;
-        }
+    public static @NotNull UuidSimple javaUuidToProtobufUuidSimple(@NotNull UUID javaUuid) {
+        return UuidCodec.toUuidSimple(javaUuid);
     }
 
-    public static @NotNull UuidSimple javaUuidToProtobufUuidSimple(@NotNull UUID javaUuid) {
-        return UuidSimple.newBuilder()
-                .setHigh(javaUuid.getMostSignificantBits())
-                .setLow(javaUuid.getLeastSignificantBits())
-                .build();
+    public static @NotNull UuidFixed javaUuidToProtobufUuidFixed(@NotNull UUID javaUuid) {
+        return UuidCodec.toUuidFixed(javaUuid);
     }
 
     public static @NotNull Uuid javaUuidToProtobufUuid(@NotNull UUID javaUuid) {
-        final var byteArray = uuidToBigEndianArray(javaUuid);
-        final var byteString = ByteString.copyFrom(byteArray);
-        return Uuid.newBuilder().setData(byteString).build();
+        return UuidCodec.toUuid(javaUuid);
     }
 
     public static @NotNull UUID protobufUuidToJavaUuid(@NotNull Uuid pbUuid) {
-        ByteArrayInputStream bais = new ByteArrayInputStream(pbUuid.getData().toByteArray());
-        final long low = readLongBigEndianly(bais);
-        final long high = readLongBigEndianly(bais);
-        return new UUID(high, low);
+        return UuidCodec.toJavaUuid(pbUuid);
     }
 
     public static @NotNull UUID protobufUuidSimpleToJavaUuid(@NotNull UuidSimple pbUuid) {
-        final long low = pbUuid.getLow();
-        final long high = pbUuid.getHigh();
-        return new UUID(high, low);
+        return UuidCodec.toJavaUuid(pbUuid);
+    }
+
+    public static @NotNull UUID protobufUuidFixedToJavaUuid(@NotNull UuidFixed pbUuid) {
+        return UuidCodec.toJavaUuid(pbUuid);
+    }
+
+    // ---
+    // The exchange UUIDs of a CommonStuff, which may come as UuidSimple or as UuidFixed or both,
+    // in which case UuidFixed is used (see CommonStuff in packets.proto).
+    // An absent UUID gives the nil UUID, i.e. 0 for both longs.
+    // ---
+
+    public static long clientExchangeHighOf(@NotNull CommonStuff cs) {
+        return cs.hasClientExchangeUuidFixed() ? cs.getClientExchangeUuidFixed().getHigh() : cs.getClientExchangeUuid().getHigh();
+    }
+
+    public static long clientExchangeLowOf(@NotNull CommonStuff cs) {
+        return cs.hasClientExchangeUuidFixed() ? cs.getClientExchangeUuidFixed().getLow() : cs.getClientExchangeUuid().getLow();
+    }
+
+    public static long serverExchangeHighOf(@NotNull CommonStuff cs) {
+        return cs.hasServerExchangeUuidFixed() ? cs.getServerExchangeUuidFixed().getHigh() : cs.getServerExchangeUuid().getHigh();
+    }
+
+    public static long serverExchangeLowOf(@NotNull CommonStuff cs) {
+        return cs.hasServerExchangeUuidFixed() ? cs.getServerExchangeUuidFixed().getLow() : cs.getServerExchangeUuid().getLow();
+    }
+
+    public static boolean isNilClientExchangeUuid(@NotNull CommonStuff cs) {
+        return clientExchangeHighOf(cs) == 0L && clientExchangeLowOf(cs) == 0L;
+    }
+
+    public static boolean isNilServerExchangeUuid(@NotNull CommonStuff cs) {
+        return serverExchangeHighOf(cs) == 0L && serverExchangeLowOf(cs) == 0L;
+    }
+
+    // False if a UUID appears in both encodings with different values
+
+    public static boolean hasConsistentExchangeUuids(@NotNull CommonStuff cs) {
+        if (cs.hasClientExchangeUuid() && cs.hasClientExchangeUuidFixed()
+                && (cs.getClientExchangeUuid().getHigh() != cs.getClientExchangeUuidFixed().getHigh()
+                || cs.getClientExchangeUuid().getLow() != cs.getClientExchangeUuidFixed().getLow())) {
+            return false;
+        }
+        return !cs.hasServerExchangeUuid() || !cs.hasServerExchangeUuidFixed()
+                || (cs.getServerExchangeUuid().getHigh() == cs.getServerExchangeUuidFixed().getHigh()
+                && cs.getServerExchangeUuid().getLow() == cs.getServerExchangeUuidFixed().getLow());
+    }
+
+    // The encoding to answer a CommonStuff with: UuidFixed if the peer used it, UuidSimple otherwise
+
+    public static @NotNull UuidEncoding answerEncodingOf(@NotNull CommonStuff cs) {
+        return (cs.hasClientExchangeUuidFixed() || cs.hasServerExchangeUuidFixed()) ? UuidEncoding.FIXED : UuidEncoding.SIMPLE;
+    }
+
+    // The 16 bytes of "Uuid.data": least significant byte first (see UuidCodec for the layout)
+
+    public static byte @NotNull [] uuidToLittleEndianArray(@NotNull UUID uuid) {
+        return UuidCodec.toBytes(uuid.getMostSignificantBits(), uuid.getLeastSignificantBits());
     }
 
-    // UUID: [F][E][D][C][B][A][9][8],[7][6][5][4][3][2][1][0]
-    // bytes: [0][1][2][3][4][5][6][7],[8][9][A][B][C][D][E][F] <-- highest index
+    // The bytes were never big endian, use uuidToLittleEndianArray(), which returns the same thing
 
+    @Deprecated
     public static byte @NotNull [] uuidToBigEndianArray(@NotNull UUID uuid) {
-        final var baos = new ByteArrayOutputStream(16);
-        writeLongBigEndianly(uuid.getLeastSignificantBits(), baos); // least significant 8 byte first
-        writeLongBigEndianly(uuid.getMostSignificantBits(), baos); // most significant 8 byte first
-        return baos.toByteArray();
+        return uuidToLittleEndianArray(uuid);
     }
 
     public static @NotNull String bytesToString(byte @NotNull [] byteArray) {
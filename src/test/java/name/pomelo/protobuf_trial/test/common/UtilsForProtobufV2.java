@@ -0,0 +1,174 @@
+package name.pomelo.protobuf_trial.test.common;
+
+import name.pomelo.protobuf_trial.protos.*;
+import org.jetbrains.annotations.NotNull;
+
+// ---
+// Conversions between the version 1 messages (packets.proto) and the version 2 messages
+// (packets_v2.proto), and the verification of version 2 messages, which dispatches on the
+// payload case instead of a payload type.
+//
+// The conversions keep CommonStuff and the sub-messages as they are; a version 1 message whose
+// payload type is UNKNOWN or unrecognized becomes a version 2 message without payload, and the
+// other way around, so that verification rejects both alike.
+// ---
+
+public class UtilsForProtobufV2 {
+
+    private final static NoPayload NO_PAYLOAD = NoPayload.getDefaultInstance();
+
+    // ---
+    // Client->Server
+    // ---
+
+    public static @NotNull ClientToServerV2 toV2(@NotNull ClientToServer c2s) {
+        final ClientToServerV2.Builder builder = ClientToServerV2.newBuilder().setCommonStuff(c2s.getCommonStuff());
+        switch (c2s.getPayloadType()) {
+            case LOGIN_REQUEST -> builder.setLoginRequest(NO_PAYLOAD);
+            case LOGIN_CHALLENGE_SOLVED -> builder.setLoginChallengeSolved(c2s.getLoginChallengeSolved());
+            case LOGIN_FOLLOWUP -> builder.setLoginFollowup(c2s.getLoginFollowup());
+            case LOGIN_CLOSE -> builder.setLoginClose(NO_PAYLOAD);
+            default -> {
+                // UNKNOWN or UNRECOGNIZED: no payload
+            }
+        }
+        return builder.build();
+    }
+
+    public static @NotNull ClientToServer toV1(@NotNull ClientToServerV2 c2s) {
+        final ClientToServer.Builder builder = ClientToServer.newBuilder().setCommonStuff(c2s.getCommonStuff());
+        switch (c2s.getPayloadCase()) {
+            case LOGIN_REQUEST -> builder.setPayloadType(ClientToServer.PayloadType.LOGIN_REQUEST);
+            case LOGIN_CHALLENGE_SOLVED -> builder
+                    .setPayloadType(ClientToServer.PayloadType.LOGIN_CHALLENGE_SOLVED)
+                    .setLoginChallengeSolved(c2s.getLoginChallengeSolved());
+            case LOGIN_FOLLOWUP -> builder
+                    .setPayloadType(ClientToServer.PayloadType.LOGIN_FOLLOWUP)
+                    .setLoginFollowup(c2s.getLoginFollowup());
+            case LOGIN_CLOSE -> builder.setPayloadType(ClientToServer.PayloadType.LOGIN_CLOSE);
+            case PAYLOAD_NOT_SET -> {
+                // stays UNKNOWN
+            }
+        }
+        return builder.build();
+    }
+
+    // ---
+    // Server->Client
+    // ---
+
+    public static @NotNull ServerToClientV2 toV2(@NotNull ServerToClient s2c) {
+        final ServerToClientV2.Builder builder = ServerToClientV2.newBuilder().setCommonStuff(s2c.getCommonStuff());
+        switch (s2c.getPayloadType()) {
+            case GENERIC_FAILURE -> builder.setGenericFailure(failureV2(
+                    s2c.getGenericFailure().getMsg(), s2c.getGenericFailure().getCause()));
+            case LOGIN_GENERIC_FAILURE -> builder.setLoginGenericFailure(failureV2(
+                    s2c.getLoginGenericFailure().getMsg(), s2c.getLoginGenericFailure().getCause()));
+            case LOGIN_CHALLENGE -> builder.setLoginChallenge(s2c.getLoginChallenge());
+            case LOGIN_REQUEST_ANSWER_OK -> builder.setLoginRequestAnswerOk(NO_PAYLOAD);
+            case LOGIN_REQUEST_ANSWER_FAILURE -> builder.setLoginRequestAnswerFailure(s2c.getLoginRequestAnswerFailure());
+            case LOGIN_FOLLOWUP_ANSWER_OK -> builder.setLoginFollowupAnswerOk(s2c.getLoginFollowupAnswerOk());
+            case LOGIN_FOLLOWUP_ANSWER_FAILURE -> builder.setLoginFollowupAnswerFailure(NO_PAYLOAD);
+            case LOGIN_CHALLENGE_SOLVED_ANSWER_OK -> builder.setLoginChallengeSolvedAnswerOk(NO_PAYLOAD);
+            case LOGIN_CHALLENGE_SOLVED_ANSWER_FAILURE -> builder.setLoginChallengeSolvedAnswerFailure(NO_PAYLOAD);
+            default -> {
+                // UNKNOWN or UNRECOGNIZED: no payload
+            }
+        }
+        return builder.build();
+    }
+
+    public static @NotNull ServerToClient toV1(@NotNull ServerToClientV2 s2c) {
+        final ServerToClient.Builder builder = ServerToClient.newBuilder().setCommonStuff(s2c.getCommonStuff());
+        switch (s2c.getPayloadCase()) {
+            case GENERIC_FAILURE -> builder
+                    .setPayloadType(ServerToClient.PayloadType.GENERIC_FAILURE)
+                    .setGenericFailure(GenericFailure.newBuilder()
+                            .setMsg(s2c.getGenericFailure().getMsg())
+                            .setCause(toV1(s2c.getGenericFailure().getCause())));
+            case LOGIN_GENERIC_FAILURE -> builder
+                    .setPayloadType(ServerToClient.PayloadType.LOGIN_GENERIC_FAILURE)
+                    .setLoginGenericFailure(LoginGenericFailure.newBuilder()
+                            .setMsg(s2c.getLoginGenericFailure().getMsg())
+                            .setCause(toV1(s2c.getLoginGenericFailure().getCause())));
+            case LOGIN_CHALLENGE -> builder
+                    .setPayloadType(ServerToClient.PayloadType.LOGIN_CHALLENGE)
+                    .setLoginChallenge(s2c.getLoginChallenge());
+            case LOGIN_REQUEST_ANSWER_OK -> builder.setPayloadType(ServerToClient.PayloadType.LOGIN_REQUEST_ANSWER_OK);
+            case LOGIN_REQUEST_ANSWER_FAILURE -> builder
+                    .setPayloadType(ServerToClient.PayloadType.LOGIN_REQUEST_ANSWER_FAILURE)
+                    .setLoginRequestAnswerFailure(s2c.getLoginRequestAnswerFailure());
+            case LOGIN_FOLLOWUP_ANSWER_OK -> builder
+                    .setPayloadType(ServerToClient.PayloadType.LOGIN_FOLLOWUP_ANSWER_OK)
+                    .setLoginFollowupAnswerOk(s2c.getLoginFollowupAnswerOk());
+            case LOGIN_FOLLOWUP_ANSWER_FAILURE -> builder.setPayloadType(ServerToClient.PayloadType.LOGIN_FOLLOWUP_ANSWER_FAILURE);
+            case LOGIN_CHALLENGE_SOLVED_ANSWER_OK -> builder.setPayloadType(ServerToClient.PayloadType.LOGIN_CHALLENGE_SOLVED_ANSWER_OK);
+            case LOGIN_CHALLENGE_SOLVED_ANSWER_FAILURE -> builder.setPayloadType(ServerToClient.PayloadType.LOGIN_CHALLENGE_SOLVED_ANSWER_FAILURE);
+            case PAYLOAD_NOT_SET -> {
+                // stays UNKNOWN
+            }
+        }
+        return builder.build();
+    }
+
+    private static @NotNull FailureV2 failureV2(@NotNull String msg, @NotNull ClientToServer cause) {
+        return FailureV2.newBuilder().setMsg(msg).setCause(toV2(cause)).build();
+    }
+
+    // ---
+    // Verification, as verifyClientToServerMessage() and verifyServerToClientMessage() do
+    // for version 1. Whether a sub-message is there is given by the payload case itself.
+    // ---
+
+    public static void verifyClientToServerMessage(@NotNull ClientToServerV2 c2s) {
+        switch (c2s.getPayloadCase()) {
+            case PAYLOAD_NOT_SET:
+                throw new IllegalArgumentException("There is no payload");
+            case LOGIN_FOLLOWUP:
+                if (c2s.getLoginFollowup().getUsername().isEmpty()) {
+                    throw new IllegalArgumentException("Payload is LOGIN_FOLLOWUP but there is no valid username");
+                }
+                break;
+            case LOGIN_REQUEST:
+            case LOGIN_CHALLENGE_SOLVED:
+            case LOGIN_CLOSE:
+                // there is nothing to test here really
+                break;
+        }
+        verifyCommonStuff(c2s.getCommonStuff());
+    }
+
+    public static void verifyServerToClientMessage(@NotNull ServerToClientV2 s2c) {
+        switch (s2c.getPayloadCase()) {
+            case PAYLOAD_NOT_SET:
+                throw new IllegalArgumentException("There is no payload");
+            case GENERIC_FAILURE:
+            case LOGIN_GENERIC_FAILURE:
+            case LOGIN_CHALLENGE:
+            case LOGIN_REQUEST_ANSWER_OK:
+            case LOGIN_REQUEST_ANSWER_FAILURE:
+            case LOGIN_FOLLOWUP_ANSWER_OK:
+            case LOGIN_FOLLOWUP_ANSWER_FAILURE:
+            case LOGIN_CHALLENGE_SOLVED_ANSWER_OK:
+            case LOGIN_CHALLENGE_SOLVED_ANSWER_FAILURE:
+                // there is nothing to test here really
+                break;
+        }
+        verifyCommonStuff(s2c.getCommonStuff());
+    }
+
+    private static void verifyCommonStuff(@NotNull CommonStuff cs) {
+        if (cs.getSeqNum() <= 0) {
+            throw new IllegalArgumentException("seqNum must be greater than 0 but is " + cs.getSeqNum());
+        }
+        if (UtilsForProtobufUuid.isNilClientExchangeUuid(cs)) {
+            throw new IllegalArgumentException("Client Exchange UUID is nil");
+        }
+        if (UtilsForProtobufUuid.isNilServerExchangeUuid(cs)) {
+            throw new IllegalArgumentException("Server Exchange UUID is nil");
+        }
+        if (!UtilsForProtobufUuid.hasConsistentExchangeUuids(cs)) {
+            throw new IllegalArgumentException("Exchange UUID differs between UuidSimple and UuidFixed");
+        }
+    }
+}
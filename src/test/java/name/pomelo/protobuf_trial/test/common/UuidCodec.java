@@ -0,0 +1,154 @@
+package name.pomelo.protobuf_trial.test.common;
+
+import com.google.protobuf.ByteString;
+import com.google.protobuf.UnsafeByteOperations;
+import name.pomelo.protobuf_trial.protos.Uuid;
+import name.pomelo.protobuf_trial.protos.UuidFixed;
+import name.pomelo.protobuf_trial.protos.UuidSimple;
+import org.jetbrains.annotations.NotNull;
+
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.nio.ByteOrder;
+import java.util.UUID;
+
+// ---
+// Encoding and decoding of the two UUID representations of packets.proto, working on the
+// two longs of a UUID ("high" = most significant bits, "low" = least significant bits)
+// so that no java.util.UUID needs to be created on the way.
+//
+// "UuidSimple": low = field 1, high = field 2, both uint64.
+//
+// "UuidFixed": low = field 1, high = field 2, both fixed64 (8 bytes little-endian on the wire).
+//
+// "Uuid": "data" holds 16 bytes, the low long first, then the high long, each of them
+// in little-endian byte order:
+//
+// UUID:  [F][E][D][C][B][A][9][8],[7][6][5][4][3][2][1][0]   (bytes of the 128-bit value, [0] the least significant)
+// data:  [0][1][2][3][4][5][6][7],[8][9][A][B][C][D][E][F]   (data[0] first on the wire)
+//
+// e.g. 00112233-4455-6677-8899-aabbccddeeff gives ff.ee.dd.cc.bb.aa.99.88.77.66.55.44.33.22.11.00
+// This is the layout that UtilsForProtobufUuid has always produced.
+//
+// Empty "data" (the default) decodes to the nil UUID. Any other length than 16 is rejected.
+// ---
+
+public abstract class UuidCodec {
+
+    public final static int UUID_DATA_SIZE = 16;
+
+    private final static VarHandle LONG_LITTLE_ENDIAN = MethodHandles.byteArrayViewVarHandle(long[].class, ByteOrder.LITTLE_ENDIAN);
+
+    // ---
+    // Byte array layout
+    // ---
+
+    public static void writeBytes(long high, long low, byte @NotNull [] dst, int offset) {
+        LONG_LITTLE_ENDIAN.set(dst, offset, low);
+        LONG_LITTLE_ENDIAN.set(dst, offset + 8, high);
+    }
+
+    public static byte @NotNull [] toBytes(long high, long low) {
+        final byte[] res = new byte[UUID_DATA_SIZE];
+        writeBytes(high, low, res, 0);
+        return res;
+    }
+
+    public static long readHigh(byte @NotNull [] src, int offset) {
+        return (long) LONG_LITTLE_ENDIAN.get(src, offset + 8);
+    }
+
+    public static long readLow(byte @NotNull [] src, int offset) {
+        return (long) LONG_LITTLE_ENDIAN.get(src, offset);
+    }
+
+    // ---
+    // "Uuid"
+    // ---
+
+    public static @NotNull Uuid toUuid(long high, long low) {
+        // The array is never modified after this, so protobuf may keep it without a defensive copy
+        return Uuid.newBuilder().setData(UnsafeByteOperations.unsafeWrap(toBytes(high, low))).build();
+    }
+
+    public static @NotNull Uuid toUuid(@NotNull UUID uuid) {
+        return toUuid(uuid.getMostSignificantBits(), uuid.getLeastSignificantBits());
+    }
+
+    public static long highOf(@NotNull Uuid uuid) {
+        final ByteString data = checkedData(uuid);
+        return data.isEmpty() ? 0L : readLittleEndianLong(data, 8);
+    }
+
+    public static long lowOf(@NotNull Uuid uuid) {
+        final ByteString data = checkedData(uuid);
+        return data.isEmpty() ? 0L : readLittleEndianLong(data, 0);
+    }
+
+    public static @NotNull UUID toJavaUuid(@NotNull Uuid uuid) {
+        return new UUID(highOf(uuid), lowOf(uuid));
+    }
+
+    private static @NotNull ByteString checkedData(@NotNull Uuid uuid) {
+        final ByteString data = uuid.getData();
+        if (!data.isEmpty() && data.size() != UUID_DATA_SIZE) {
+            throw new IllegalArgumentException("Uuid data must hold " + UUID_DATA_SIZE + " bytes but holds " + data.size());
+        }
+        return data;
+    }
+
+    // A ByteString does not expose its backing array: its read-only view is read as one long (the view does
+    // not escape, so once inlined it is scalar-replaced: BenchUuid.uuidToLongs allocates nothing)
+
+    private static long readLittleEndianLong(@NotNull ByteString data, int offset) {
+        return data.asReadOnlyByteBuffer().order(ByteOrder.LITTLE_ENDIAN).getLong(offset);
+    }
+
+    // ---
+    // "UuidSimple"
+    // ---
+
+    public static @NotNull UuidSimple toUuidSimple(long high, long low) {
+        return UuidSimple.newBuilder().setHigh(high).setLow(low).build();
+    }
+
+    public static @NotNull UuidSimple toUuidSimple(@NotNull UUID uuid) {
+        return toUuidSimple(uuid.getMostSignificantBits(), uuid.getLeastSignificantBits());
+    }
+
+    public static long highOf(@NotNull UuidSimple uuid) {
+        return uuid.getHigh();
+    }
+
+    public static long lowOf(@NotNull UuidSimple uuid) {
+        return uuid.getLow();
+    }
+
+    public static @NotNull UUID toJavaUuid(@NotNull UuidSimple uuid) {
+        return new UUID(uuid.getHigh(), uuid.getLow());
+    }
+
+    // ---
+    // "UuidFixed"
+    // ---
+
+    public static @NotNull UuidFixed toUuidFixed(long high, long low) {
+        return UuidFixed.newBuilder().setHigh(high).setLow(low).build();
+    }
+
+    public static @NotNull UuidFixed toUuidFixed(@NotNull UUID uuid) {
+        return toUuidFixed(uuid.getMostSignificantBits(), uuid.getLeastSignificantBits());
+    }
+
+    public static long highOf(@NotNull UuidFixed uuid) {
+        return uuid.getHigh();
+    }
+
+    public static long lowOf(@NotNull UuidFixed uuid) {
+        return uuid.getLow();
+    }
+
+    public static @NotNull UUID toJavaUuid(@NotNull UuidFixed uuid) {
+        return new UUID(uuid.getHigh(), uuid.getLow());
+    }
+}
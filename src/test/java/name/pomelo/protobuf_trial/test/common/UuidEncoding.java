@@ -0,0 +1,25 @@
+package name.pomelo.protobuf_trial.test.common;
+
+// ---
+// How the exchange UUIDs of a CommonStuff are put on the wire (see CommonStuff in packets.proto).
+// ---
+
+public enum UuidEncoding {
+
+    // UuidSimple only (two uint64 varints), understood by every peer
+    SIMPLE,
+
+    // UuidFixed only (two fixed64), once both peers know that the other side understands it
+    FIXED,
+
+    // Both, to offer UuidFixed in a LOGIN_REQUEST while staying readable by a peer which only knows UuidSimple
+    SIMPLE_AND_FIXED;
+
+    public boolean hasSimple() {
+        return this != FIXED;
+    }
+
+    public boolean hasFixed() {
+        return this != SIMPLE;
+    }
+}
@@ -0,0 +1,142 @@
+package name.pomelo.protobuf_trial.test.testing;
+
+import name.pomelo.protobuf_trial.protos.ServerToClient;
+import name.pomelo.protobuf_trial.test.common.AdaptiveDifficulty;
+import name.pomelo.protobuf_trial.test.common.ChallengeGenerator;
+import name.pomelo.protobuf_trial.test.common.CommonData;
+import name.pomelo.protobuf_trial.test.common.DifficultyPolicy;
+import name.pomelo.protobuf_trial.test.common.ExchangeSession;
+import name.pomelo.protobuf_trial.test.common.ExchangeSessionTable;
+import name.pomelo.protobuf_trial.test.common.LoginExchangeHandler;
+import name.pomelo.protobuf_trial.test.common.LoginLoadMonitor;
+import name.pomelo.protobuf_trial.test.common.SlidingWindowCounter;
+import name.pomelo.protobuf_trial.test.common.UtilsForLoginChallenge;
+import org.junit.jupiter.api.Test;
+
+import java.util.SplittableRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static com.google.common.truth.Truth.assertThat;
+import static name.pomelo.protobuf_trial.test.common.UtilsForProtobufClientToServerMsgs.*;
+
+// ---
+// Test the difficulty of the "Login challenge" following the load, on a simulated clock.
+// ---
+
+class TestAdaptiveDifficulty {
+
+    private final static long SECOND = TimeUnit.SECONDS.toNanos(1);
+
+    private static int primeBitsOf(long product) {
+        return 64 - Long.numberOfLeadingZeros(UtilsForLoginChallenge.smallestFactor(product));
+    }
+
+    @Test
+    void testSlidingWindowCounter() {
+        final SlidingWindowCounter counter = new SlidingWindowCounter(2, 10, 10 * SECOND);
+        final long t0 = -5 * SECOND; // System.nanoTime() may well be negative
+        for (int s = 0; s < 10; s++) {
+            counter.add(0, t0 + s * SECOND, 1);
+        }
+        counter.add(1, t0, 100);
+        assertThat(counter.sum(0, t0 + 9 * SECOND)).isEqualTo(10);
+        assertThat(counter.sum(1, t0 + 9 * SECOND)).isEqualTo(100);
+        // One bucket (second) drops out per second
+        assertThat(counter.sum(0, t0 + 12 * SECOND)).isEqualTo(7);
+        assertThat(counter.sum(1, t0 + 12 * SECOND)).isEqualTo(0);
+        assertThat(counter.sum(0, t0 + 30 * SECOND)).isEqualTo(0);
+        // A bucket coming round again starts from 0
+        counter.add(0, t0 + 20 * SECOND, 5);
+        assertThat(counter.sum(0, t0 + 20 * SECOND)).isEqualTo(5);
+        // A stale time landing on that bucket neither resets it nor counts
+        counter.add(0, t0 + 10 * SECOND, 3);
+        assertThat(counter.sum(0, t0 + 20 * SECOND)).isEqualTo(5);
+    }
+
+    @Test
+    void testPolicy() {
+        final DifficultyPolicy policy = new DifficultyPolicy(10, 24, 1000, 1000, 50_000_000L, 0.2, 100, 4);
+        assertThat(policy.primeBitsFor(0, 0, 0)).isEqualTo(10);
+        assertThat(policy.primeBitsFor(200, 200, 0)).isEqualTo(10);  // idle
+        assertThat(policy.primeBitsFor(1000, 0, 0)).isEqualTo(24);   // request rate at capacity
+        assertThat(policy.primeBitsFor(0, 5000, 0)).isEqualTo(24);   // far too many exchanges in flight
+        final int half = policy.primeBitsFor(625, 0, 0);
+        assertThat(half).isEqualTo(17);
+        // Solving takes too long already: back off, unless overloaded
+        assertThat(policy.primeBitsFor(625, 0, 1_000_000_000L)).isEqualTo(half - 1);
+        assertThat(policy.primeBitsFor(1000, 0, 1_000_000_000L)).isEqualTo(24);
+        assertThat(policy.hardPrimeBitsFor(17)).isEqualTo(21);
+        assertThat(policy.hardPrimeBitsFor(30)).isEqualTo(UtilsForLoginChallenge.MAX_PRIME_BITS);
+        // Flooding: at least 100 requests and 20% of all, or 10% for a fast solver
+        assertThat(policy.isFlooding(99, 100, 0, 0)).isFalse();
+        assertThat(policy.isFlooding(200, 1000, 0, 0)).isTrue();
+        assertThat(policy.isFlooding(150, 1000, 0, 0)).isFalse();
+        assertThat(policy.isFlooding(150, 1000, 1_000_000L, 10_000_000L)).isTrue();
+    }
+
+    @Test
+    void testFloodingSourceGetsHarderChallenges() {
+        final DifficultyPolicy policy = new DifficultyPolicy(8, 16, 1000, 1000, 50_000_000L, 0.2, 100, 6);
+        // Not started: the products come from the fallback tables, which is enough here
+        final ChallengeGenerator generator = new ChallengeGenerator(8, 64);
+        final AtomicInteger inFlight = new AtomicInteger();
+        final AdaptiveDifficulty difficulty = new AdaptiveDifficulty(generator, policy, new LoginLoadMonitor(10, 10 * SECOND), inFlight::get);
+        final SplittableRandom rng = new SplittableRandom(4711);
+        final long flooder = 0x1234_0000_0000_0000L;
+        long now = 0;
+        for (int i = 0; i < 300; i++) {
+            now += 1_000_000; // 1000 per second, idle
+            assertThat(primeBitsOf(difficulty.issue(rng.nextLong(), now))).isEqualTo(8);
+        }
+        int hard = 0;
+        for (int i = 0; i < 300; i++) {
+            now += 1_000_000;
+            hard += (primeBitsOf(difficulty.issue(flooder | rng.nextLong(1L << 48), now)) == 14) ? 1 : 0;
+        }
+        assertThat(difficulty.isFlooding(flooder, now)).isTrue();
+        assertThat(difficulty.isFlooding(rng.nextLong(), now)).isFalse();
+        assertThat(hard).isGreaterThan(150);
+    }
+
+    @Test
+    void testDifficultyFollowsLoad() {
+        final DifficultyPolicy policy = new DifficultyPolicy(8, 16, 100, 1000, 50_000_000L, 0.2, 100, 4);
+        final ChallengeGenerator generator = new ChallengeGenerator(8, 64);
+        final AtomicInteger inFlight = new AtomicInteger();
+        final AdaptiveDifficulty difficulty = new AdaptiveDifficulty(generator, policy, new LoginLoadMonitor(10, 10 * SECOND), inFlight::get);
+        final SplittableRandom rng = new SplittableRandom(4711);
+        long now = 0;
+        assertThat(difficulty.update(now)).isEqualTo(8);
+        // 2000 requests in 10 seconds: twice the capacity
+        for (int i = 0; i < 2000; i++) {
+            now += 5_000_000;
+            difficulty.issue(rng.nextLong(), now);
+        }
+        assertThat(difficulty.update(now)).isEqualTo(16);
+        assertThat(generator.getHardPrimeBits()).isEqualTo(20);
+        assertThat(primeBitsOf(difficulty.issue(rng.nextLong(), now))).isEqualTo(16);
+        // The requests stop, but the exchanges stay open for a while
+        now += 20 * SECOND;
+        inFlight.set(625);
+        assertThat(difficulty.update(now)).isEqualTo(12);
+        inFlight.set(0);
+        assertThat(difficulty.update(now)).isEqualTo(8);
+        assertThat(primeBitsOf(difficulty.issue(rng.nextLong(), now))).isEqualTo(8);
+    }
+
+    @Test
+    void testHandlerReportsSolveTimes() {
+        final ExchangeSessionTable<ExchangeSession> sessions = new ExchangeSessionTable<>();
+        final AdaptiveDifficulty difficulty = new AdaptiveDifficulty(new ChallengeGenerator(8, 64), DifficultyPolicy.defaults(), sessions);
+        final LoginExchangeHandler handler = new LoginExchangeHandler(sessions, difficulty);
+        final CommonData cd = CommonData.generateRandomCommonData();
+        final ServerToClient challenge = handler.handle(buildLoginRequest(cd.withSeqNum(1)));
+        final long product = challenge.getLoginChallenge().getProduct();
+        final long a = UtilsForLoginChallenge.smallestFactor(product);
+        handler.handle(buildLoginChallengeSolved(a, product / a, cd.withSeqNum(2)));
+        final long now = System.nanoTime();
+        assertThat(difficulty.getMonitor().getRequests(now)).isEqualTo(1);
+        assertThat(difficulty.getMonitor().getAverageSolveNanos(now)).isGreaterThan(0L);
+    }
+}
@@ -0,0 +1,182 @@
+package name.pomelo.protobuf_trial.test.testing;
+
+import name.pomelo.protobuf_trial.test.common.ChallengeGenerator;
+import name.pomelo.protobuf_trial.test.common.LongRingQueue;
+import name.pomelo.protobuf_trial.test.common.UtilsForLoginChallenge;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.SplittableRandom;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+import static com.google.common.truth.Truth.assertThat;
+
+// ---
+// Test the generation and the checking of "Login challenges".
+// ---
+
+class TestChallengeGenerator {
+
+    private static boolean isPrimeByTrialDivision(long n) {
+        return n >= 2 && UtilsForLoginChallenge.smallestFactor(n) == n;
+    }
+
+    @Test
+    void testIsPrime() {
+        for (long n = 0; n < 100_000; n++) {
+            assertThat(UtilsForLoginChallenge.isPrime(n)).isEqualTo(isPrimeByTrialDivision(n));
+        }
+        assertThat(UtilsForLoginChallenge.isPrime(2147483647L)).isTrue();  // 2^31 - 1
+        assertThat(UtilsForLoginChallenge.isPrime(4294967291L)).isTrue();  // largest prime below 2^32
+        assertThat(UtilsForLoginChallenge.isPrime(3215031751L)).isFalse(); // strong pseudoprime to bases 2, 3, 5, 7
+        assertThat(UtilsForLoginChallenge.isPrime(25326001L)).isFalse();   // strong pseudoprime to bases 2, 3, 5
+        final SplittableRandom rng = new SplittableRandom(4711);
+        for (int i = 0; i < 1000; i++) {
+            final long n = rng.nextLong(1L << 32);
+            assertThat(UtilsForLoginChallenge.isPrime(n)).isEqualTo(isPrimeByTrialDivision(n));
+        }
+    }
+
+    @Test
+    void testRandomPrime() {
+        final SplittableRandom rng = new SplittableRandom(4711);
+        for (int bits = UtilsForLoginChallenge.MIN_PRIME_BITS; bits <= UtilsForLoginChallenge.MAX_PRIME_BITS; bits++) {
+            final long p = UtilsForLoginChallenge.randomPrime(bits, rng);
+            assertThat(64 - Long.numberOfLeadingZeros(p)).isEqualTo(bits);
+            assertThat(isPrimeByTrialDivision(p)).isTrue();
+        }
+    }
+
+    @Test
+    void testIsSolutionDoesNotOverflow() {
+        final long product = 383L * 997L;
+        assertThat(UtilsForLoginChallenge.isSolution(383, 997, product)).isTrue();
+        assertThat(UtilsForLoginChallenge.isSolution(1, product, product)).isFalse();
+        assertThat(UtilsForLoginChallenge.isSolution(-1, -product, product)).isFalse(); // (2^64 - 1) * (2^64 - product)
+        // For odd "a", "b" = product * a^-1 (mod 2^64) gives a * b == product in 64-bit arithmetic
+        int forged = 0;
+        for (long a = 3; a < 1000; a += 2) {
+            long inverse = a; // Newton's iteration, each step doubles the number of correct bits
+            for (int i = 0; i < 5; i++) {
+                inverse *= 2 - a * inverse;
+            }
+            final long b = product * inverse;
+            assertThat(a * b).isEqualTo(product);
+            if (a != 383 && a != 997 && a != product) {
+                assertThat(UtilsForLoginChallenge.isSolution(a, b, product)).isFalse();
+                forged++;
+            }
+        }
+        assertThat(forged).isGreaterThan(0);
+    }
+
+    @Test
+    void testProductsAreSemiprimesOfTheRequestedSize() throws Exception {
+        try (ChallengeGenerator generator = new ChallengeGenerator(12, 64).start()) {
+            for (int i = 0; i < 1000; i++) {
+                final long product = generator.take();
+                final long p = UtilsForLoginChallenge.smallestFactor(product);
+                final long q = product / p;
+                assertThat(64 - Long.numberOfLeadingZeros(p)).isEqualTo(12);
+                assertThat(64 - Long.numberOfLeadingZeros(q)).isEqualTo(12);
+                assertThat(isPrimeByTrialDivision(q)).isTrue();
+                assertThat(UtilsForLoginChallenge.isSolution(p, q, product)).isTrue();
+            }
+            assertThat(generator.getGeneratedCount()).isGreaterThan(0L);
+            // A change of difficulty applies to the products taken afterward
+            generator.setPrimeBits(20);
+            for (int i = 0; i < 100; i++) {
+                final long p = UtilsForLoginChallenge.smallestFactor(generator.take());
+                assertThat(64 - Long.numberOfLeadingZeros(p)).isEqualTo(20);
+            }
+        }
+    }
+
+    @Test
+    void testTakeWithoutProducerFallsBack() {
+        // Never started: every take() misses the pool, and still gets a product right away
+        final ChallengeGenerator generator = new ChallengeGenerator(16, 64);
+        for (int i = 0; i < 100; i++) {
+            final long product = generator.take();
+            final long p = UtilsForLoginChallenge.smallestFactor(product);
+            assertThat(64 - Long.numberOfLeadingZeros(p)).isEqualTo(16);
+            assertThat(isPrimeByTrialDivision(product / p)).isTrue();
+        }
+        assertThat(generator.getPoolMissCount()).isEqualTo(100L);
+    }
+
+    // ---
+    // A flood drains the pools: the products made instead must still not come back, at either level,
+    // or a client could solve its challenges from the answers it has cached
+    // ---
+
+    @Test
+    void testFallbackProductsDoNotRepeat() {
+        final ChallengeGenerator generator = new ChallengeGenerator(16, 64);
+        generator.setPrimeBits(16, 20);
+        final int takes = 100_000;
+        final Set<Long> normal = new HashSet<>();
+        final Set<Long> hard = new HashSet<>();
+        for (int i = 0; i < takes; i++) {
+            normal.add(generator.take());
+            hard.add(generator.takeHard());
+        }
+        assertThat(normal).hasSize(takes);
+        assertThat(hard).hasSize(takes);
+        assertThat(generator.getPoolMissCount()).isEqualTo(2L * takes);
+        for (long product : hard.stream().limit(100).toList()) {
+            final long p = UtilsForLoginChallenge.smallestFactor(product);
+            assertThat(64 - Long.numberOfLeadingZeros(p)).isEqualTo(20);
+            assertThat(64 - Long.numberOfLeadingZeros(product / p)).isEqualTo(20);
+            assertThat(isPrimeByTrialDivision(product / p)).isTrue();
+        }
+    }
+
+    @Test
+    void testLongRingQueueConcurrently() throws Exception {
+        final LongRingQueue queue = new LongRingQueue(64);
+        final int threads = 4;
+        final int perThread = 20_000;
+        final LongAdder consumedSum = new LongAdder();
+        final LongAdder consumedCount = new LongAdder();
+        // Threads of their own: the spinning producers and consumers must all run at the same time
+        final ExecutorService executor = Executors.newFixedThreadPool(2 * threads);
+        final List<CompletableFuture<Void>> futures = new ArrayList<>();
+        for (int t = 0; t < threads; t++) {
+            final int base = t * perThread;
+            futures.add(CompletableFuture.runAsync(() -> {
+                for (int i = 1; i <= perThread; i++) {
+                    while (!queue.offer(base + i)) {
+                        Thread.yield(); // not spinning, there may be fewer cores than threads
+                    }
+                }
+            }, executor));
+            futures.add(CompletableFuture.runAsync(() -> {
+                for (int i = 0; i < perThread; i++) {
+                    long v;
+                    while ((v = queue.poll()) == 0) {
+                        Thread.yield();
+                    }
+                    consumedSum.add(v);
+                    consumedCount.increment();
+                }
+            }, executor));
+        }
+        try {
+            CompletableFuture.allOf(futures.toArray(new CompletableFuture[0])).get(60, TimeUnit.SECONDS);
+        } finally {
+            executor.shutdownNow();
+        }
+        final long n = (long) threads * perThread;
+        assertThat(consumedCount.sum()).isEqualTo(n);
+        assertThat(consumedSum.sum()).isEqualTo(n * (n + 1) / 2);
+        assertThat(queue.poll()).isEqualTo(0L);
+    }
+}
@@ -0,0 +1,90 @@
+package name.pomelo.protobuf_trial.test.testing;
+
+import name.pomelo.protobuf_trial.protos.ClientToServer;
+import name.pomelo.protobuf_trial.test.common.ClientToServerDispatcher;
+import name.pomelo.protobuf_trial.test.common.CommonData;
+import org.junit.jupiter.api.Test;
+
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.List;
+
+import static com.google.common.truth.Truth.assertThat;
+import static name.pomelo.protobuf_trial.test.common.UtilsForProtobufClientToServerMsgs.*;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+class TestClientToServerDispatcher {
+
+    private static ClientToServerDispatcher<List<String>> newDispatcher() {
+        return new ClientToServerDispatcher<List<String>>((c2s, seen) -> seen.add("rejected " + c2s.getPayloadTypeValue()))
+                .onLoginRequest((c2s, seen) -> seen.add("request"))
+                .onLoginChallengeSolved((c2s, solved, seen) -> seen.add("solved " + solved.getA() + " " + solved.getB()))
+                .onLoginFollowup((c2s, followup, seen) -> seen.add("followup " + followup.getUsername()));
+    }
+
+    @Test
+    void testDispatchWithPayload() {
+        final ClientToServerDispatcher<List<String>> dispatcher = newDispatcher();
+        final CommonData cd = CommonData.generateRandomCommonData();
+        final List<String> seen = new ArrayList<>();
+        dispatcher.dispatch(buildLoginRequest(cd), seen);
+        dispatcher.dispatch(buildLoginChallengeSolved(11, 23, cd), seen);
+        dispatcher.dispatch(buildLoginFollowup("john doe", cd), seen);
+        // no handler for LOGIN_CLOSE
+        dispatcher.dispatch(buildLoginFinish(cd), seen);
+        assertThat(seen).containsExactly("request", "solved 11 23", "followup john doe", "rejected " + ClientToServer.PayloadType.LOGIN_CLOSE_VALUE).inOrder();
+        assertThat(dispatcher.isRegistered(ClientToServer.PayloadType.LOGIN_FOLLOWUP)).isTrue();
+        assertThat(dispatcher.isRegistered(ClientToServer.PayloadType.LOGIN_CLOSE)).isFalse();
+    }
+
+    @Test
+    void testUnknownAndUnrecognizedAreRejected() {
+        final ClientToServerDispatcher<List<String>> dispatcher = newDispatcher();
+        final ClientToServer unknown = ClientToServer.newBuilder()
+                .setCommonStuff(CommonData.generateRandomCommonData().toProtobufCommonStuff())
+                .build();
+        final ClientToServer unrecognized = unknown.toBuilder().setPayloadTypeValue(99).build();
+        assertThat(unrecognized.getPayloadType()).isEqualTo(ClientToServer.PayloadType.UNRECOGNIZED);
+        final List<String> seen = new ArrayList<>();
+        dispatcher.dispatch(unknown, seen);
+        dispatcher.dispatch(unrecognized, seen);
+        assertThat(seen).containsExactly("rejected 0", "rejected 99").inOrder();
+    }
+
+    @Test
+    void testRegisteredOnce() {
+        final ClientToServerDispatcher<List<String>> dispatcher = newDispatcher();
+        assertThrows(IllegalStateException.class, () -> dispatcher.onLoginRequest((c2s, seen) -> true));
+    }
+
+    // ---
+    // Neither handling nor rejecting allocates: no exception is made for a rejected message.
+    // ---
+
+    @Test
+    void testRejectionDoesNotAllocate() {
+        final long[] counts = new long[2];
+        final ClientToServerDispatcher<long[]> dispatcher = new ClientToServerDispatcher<long[]>((c2s, c) -> {
+            c[1]++;
+            return false;
+        }).onLoginFollowup((c2s, followup, c) -> {
+            c[0] += followup.getUsername().length();
+            return true;
+        });
+        final ClientToServer followup = buildLoginFollowup("john doe", CommonData.generateRandomCommonData());
+        final ClientToServer unrecognized = followup.toBuilder().setPayloadTypeValue(99).build();
+        final var threads = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        final long threadId = Thread.currentThread().threadId();
+        final int rounds = 100_000;
+        final long before = threads.getThreadAllocatedBytes(threadId);
+        for (int i = 0; i < rounds; i++) {
+            dispatcher.dispatch(followup, counts);
+            dispatcher.dispatch(unrecognized, counts);
+        }
+        final long allocated = threads.getThreadAllocatedBytes(threadId) - before;
+        assertThat(counts[0]).isEqualTo(8L * rounds);
+        assertThat(counts[1]).isEqualTo(rounds);
+        // an exception per rejection would be well over 100 bytes each
+        assertThat(allocated).isLessThan(rounds);
+    }
+}
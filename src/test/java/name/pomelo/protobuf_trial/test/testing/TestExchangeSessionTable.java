@@ -0,0 +1,106 @@
+package name.pomelo.protobuf_trial.test.testing;
+
+import name.pomelo.protobuf_trial.test.common.ExchangeSessionTable;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.UUID;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static com.google.common.truth.Truth.assertThat;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+// ---
+// Test the session table keyed by the two longs of an exchange UUID,
+// against a plain HashMap<UUID, ...> as reference.
+// ---
+
+class TestExchangeSessionTable {
+
+    private final static int rounds = 100_000;
+
+    @Test
+    void testAgainstHashMap() {
+        // Few stripes and a small capacity so that resizes and probe chains happen a lot
+        final ExchangeSessionTable<String> table = new ExchangeSessionTable<>(2, 4);
+        final Map<UUID, String> reference = new HashMap<>();
+        final List<UUID> keys = new ArrayList<>();
+        final Random rand = new Random(42);
+        for (int i = 0; i < 2000; i++) {
+            // Include badly distributed keys as well as random ones
+            keys.add((i % 2 == 0) ? UUID.randomUUID() : new UUID(i / 16, i % 16 + 1));
+        }
+        for (int round = 0; round < rounds; round++) {
+            final UUID key = keys.get(rand.nextInt(keys.size()));
+            final long high = key.getMostSignificantBits();
+            final long low = key.getLeastSignificantBits();
+            switch (rand.nextInt(3)) {
+                case 0 -> {
+                    final String value = "v" + round;
+                    assertThat(table.putIfAbsent(high, low, value)).isEqualTo(reference.putIfAbsent(key, value));
+                }
+                case 1 -> assertThat(table.remove(high, low)).isEqualTo(reference.remove(key));
+                default -> assertThat(table.get(high, low)).isEqualTo(reference.get(key));
+            }
+        }
+        assertThat(table.size()).isEqualTo(reference.size());
+        for (UUID key : keys) {
+            assertThat(table.get(key.getMostSignificantBits(), key.getLeastSignificantBits())).isEqualTo(reference.get(key));
+        }
+        final AtomicInteger visited = new AtomicInteger();
+        table.forEach((key, value) -> {
+            assertThat(value).isEqualTo(reference.get(new UUID(key[0], key[1])));
+            visited.incrementAndGet();
+        });
+        assertThat(visited.get()).isEqualTo(reference.size());
+    }
+
+    @Test
+    void testRemoveOnlyIfSameValue() {
+        final ExchangeSessionTable<String> table = new ExchangeSessionTable<>();
+        final String value = "value";
+        table.putIfAbsent(1, 2, value);
+        assertThat(table.remove(1, 2, "other")).isFalse();
+        assertThat(table.get(1, 2)).isSameInstanceAs(value);
+        assertThat(table.remove(1, 2, value)).isTrue();
+        assertThat(table.get(1, 2)).isNull();
+    }
+
+    @Test
+    void testNilKeyIsRejected() {
+        final ExchangeSessionTable<String> table = new ExchangeSessionTable<>();
+        assertThrows(IllegalArgumentException.class, () -> table.putIfAbsent(0, 0, "value"));
+    }
+
+    @Test
+    void testConcurrentInsertAndRemove() throws InterruptedException {
+        final ExchangeSessionTable<Long> table = new ExchangeSessionTable<>();
+        final int threadCount = 4;
+        final int perThread = 20_000;
+        final List<Thread> threads = new ArrayList<>();
+        for (int t = 0; t < threadCount; t++) {
+            final long high = t + 1;
+            threads.add(Thread.ofPlatform().start(() -> {
+                for (long low = 0; low < perThread; low++) {
+                    assertThat(table.putIfAbsent(high, low, low)).isNull();
+                }
+                for (long low = 0; low < perThread; low += 2) {
+                    assertThat(table.remove(high, low)).isEqualTo(low);
+                }
+            }));
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        assertThat(table.size()).isEqualTo(threadCount * perThread / 2);
+        for (long high = 1; high <= threadCount; high++) {
+            for (long low = 0; low < perThread; low++) {
+                assertThat(table.get(high, low)).isEqualTo((low % 2 == 0) ? null : low);
+            }
+        }
+    }
+}
@@ -0,0 +1,248 @@
+package name.pomelo.protobuf_trial.test.testing;
+
+import name.pomelo.protobuf_trial.protos.ClientToServer;
+import name.pomelo.protobuf_trial.protos.ServerToClient;
+import name.pomelo.protobuf_trial.test.common.CommonData;
+import name.pomelo.protobuf_trial.test.common.FrameJournal;
+import name.pomelo.protobuf_trial.test.common.FrameJournalReader;
+import name.pomelo.protobuf_trial.test.common.LoginClientExchange;
+import name.pomelo.protobuf_trial.test.common.LoginClientNio;
+import name.pomelo.protobuf_trial.test.common.LoginExchangeHandler;
+import name.pomelo.protobuf_trial.test.common.LoginServer;
+import name.pomelo.protobuf_trial.test.common.LoginServerEngine;
+import name.pomelo.protobuf_trial.test.common.UtilsForProtobufUuid;
+import org.jetbrains.annotations.NotNull;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import static com.google.common.truth.Truth.assertThat;
+import static name.pomelo.protobuf_trial.test.common.UtilsForProtobufClientToServerMsgs.*;
+import static name.pomelo.protobuf_trial.test.common.UtilsForProtobufServerToClientMsgs.*;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+// ---
+// Test the memory-mapped journal of frames: appending, rolling over to new segments,
+// appending from several threads, recovering after a crash, and journaling by the login servers.
+// ---
+
+class TestFrameJournal {
+
+    private final static int SMALL_SEGMENT_SIZE = 4096;
+
+    private static void append(@NotNull FrameJournal journal, int kind, byte @NotNull [] msg) {
+        journal.append(kind, ByteBuffer.wrap(msg), 0, msg.length);
+    }
+
+    // The messages of all records of all segments, their kinds go to "kinds".
+    // With a single thread appending, the timestamps must be in order.
+
+    private static @NotNull List<byte[]> readAll(@NotNull Path dir, @NotNull List<Integer> kinds, boolean ordered) throws IOException {
+        final List<byte[]> messages = new ArrayList<>();
+        long lastTimestamp = Long.MIN_VALUE;
+        for (Path segment : FrameJournalReader.segments(dir)) {
+            final FrameJournalReader reader = FrameJournalReader.open(segment);
+            while (reader.next()) {
+                kinds.add(reader.getKind());
+                final ByteBuffer msg = reader.getMessage();
+                final byte[] bytes = new byte[msg.remaining()];
+                msg.get(msg.position(), bytes);
+                messages.add(bytes);
+                if (ordered) {
+                    assertThat(reader.getTimestampNanos()).isAtLeast(lastTimestamp);
+                }
+                lastTimestamp = reader.getTimestampNanos();
+            }
+            assertThat(reader.isTruncated()).isFalse();
+        }
+        return messages;
+    }
+
+    @Test
+    void testAppendAndRead(@TempDir Path dir) throws IOException {
+        final CommonData cd = CommonData.generateRandomCommonData();
+        final ClientToServer c2s = buildLoginFollowup("John Doe", cd);
+        final ServerToClient s2c = buildLoginChallenge(11 * 13, cd);
+        try (FrameJournal journal = new FrameJournal(dir, SMALL_SEGMENT_SIZE)) {
+            append(journal, FrameJournal.CLIENT_TO_SERVER, c2s.toByteArray());
+            append(journal, FrameJournal.SERVER_TO_CLIENT, s2c.toByteArray());
+            // an empty message is a valid message (all fields at their defaults)
+            append(journal, FrameJournal.CLIENT_TO_SERVER, new byte[0]);
+            assertThrows(IllegalArgumentException.class, () -> append(journal, FrameJournal.CLIENT_TO_SERVER, new byte[SMALL_SEGMENT_SIZE]));
+            assertThrows(IllegalArgumentException.class, () -> append(journal, FrameJournal.PADDING, new byte[1]));
+        }
+        final FrameJournalReader reader = FrameJournalReader.open(FrameJournalReader.segments(dir).getFirst());
+        assertThat(reader.next()).isTrue();
+        assertThat(reader.getKind()).isEqualTo(FrameJournal.CLIENT_TO_SERVER);
+        assertThat(reader.parseClientToServer()).isEqualTo(c2s);
+        assertThat(reader.next()).isTrue();
+        assertThat(reader.getKind()).isEqualTo(FrameJournal.SERVER_TO_CLIENT);
+        assertThat(reader.parseServerToClient()).isEqualTo(s2c);
+        assertThat(reader.next()).isTrue();
+        assertThat(reader.parseClientToServer()).isEqualTo(ClientToServer.getDefaultInstance());
+        assertThat(reader.next()).isFalse();
+        assertThat(reader.isTruncated()).isFalse();
+        assertThat(reader.isFull()).isFalse();
+    }
+
+    @Test
+    void testSegmentRollover(@TempDir Path dir) throws IOException {
+        final List<byte[]> written = new ArrayList<>();
+        try (FrameJournal journal = new FrameJournal(dir, SMALL_SEGMENT_SIZE)) {
+            for (int i = 0; i < 500; i++) {
+                final byte[] msg = buildLoginFollowup("player " + i, CommonData.generateRandomCommonData()).toByteArray();
+                append(journal, FrameJournal.CLIENT_TO_SERVER, msg);
+                written.add(msg);
+            }
+        }
+        assertThat(FrameJournalReader.segments(dir).size()).isGreaterThan(10);
+        final List<Integer> kinds = new ArrayList<>();
+        final List<byte[]> read = readAll(dir, kinds, true);
+        assertThat(read).hasSize(written.size());
+        assertThat(kinds).doesNotContain(FrameJournal.SERVER_TO_CLIENT);
+        for (int i = 0; i < written.size(); i++) {
+            assertThat(read.get(i)).isEqualTo(written.get(i));
+        }
+    }
+
+    @Test
+    void testConcurrentAppends(@TempDir Path dir) throws Exception {
+        final int threads = 4;
+        final int perThread = 2000;
+        final ExecutorService executor = Executors.newFixedThreadPool(threads);
+        try (FrameJournal journal = new FrameJournal(dir, 64 * 1024)) {
+            final List<Future<?>> futures = new ArrayList<>();
+            for (int t = 0; t < threads; t++) {
+                final int thread = t;
+                futures.add(executor.submit(() -> {
+                    final ByteBuffer msg = ByteBuffer.allocate(8 + thread * 40); // records of different sizes
+                    for (int i = 0; i < perThread; i++) {
+                        msg.putInt(0, thread).putInt(4, i);
+                        journal.append(FrameJournal.CLIENT_TO_SERVER, msg, 0, msg.capacity());
+                    }
+                }));
+            }
+            for (Future<?> future : futures) {
+                future.get(60, TimeUnit.SECONDS);
+            }
+        } finally {
+            executor.shutdown();
+        }
+        // Every record is there exactly once, and the records of each thread are in order
+        final int[] next = new int[threads];
+        for (byte[] msg : readAll(dir, new ArrayList<>(), false)) {
+            final ByteBuffer buf = ByteBuffer.wrap(msg);
+            final int thread = buf.getInt(0);
+            assertThat(msg.length).isEqualTo(8 + thread * 40);
+            assertThat(buf.getInt(4)).isEqualTo(next[thread]);
+            next[thread]++;
+        }
+        for (int t = 0; t < threads; t++) {
+            assertThat(next[t]).isEqualTo(perThread);
+        }
+    }
+
+    @Test
+    void testRecoveryDiscardsPartialRecord(@TempDir Path dir) throws IOException {
+        final List<byte[]> written = new ArrayList<>();
+        try (FrameJournal journal = new FrameJournal(dir, SMALL_SEGMENT_SIZE)) {
+            for (int i = 0; i < 10; i++) {
+                final byte[] msg = ("frame " + i).getBytes();
+                append(journal, FrameJournal.SERVER_TO_CLIENT, msg);
+                written.add(msg);
+            }
+        }
+        // A crash in the middle of a record: its first word made it to the file, not all of its content
+        final Path segment = FrameJournalReader.segments(dir).getLast();
+        final FrameJournalReader before = FrameJournalReader.open(segment);
+        while (before.next()) {
+            // to the end
+        }
+        final int end = before.getPosition();
+        try (FileChannel channel = FileChannel.open(segment, StandardOpenOption.WRITE)) {
+            final ByteBuffer partial = ByteBuffer.allocate(24).order(ByteOrder.LITTLE_ENDIAN);
+            partial.putInt((FrameJournal.CLIENT_TO_SERVER << 24) | 40).putInt(0x12345678).putLong(42L).putLong(-1L).flip();
+            channel.write(partial, end);
+        }
+        final FrameJournalReader damaged = FrameJournalReader.open(segment);
+        while (damaged.next()) {
+            // to the end
+        }
+        assertThat(damaged.isTruncated()).isTrue();
+        assertThat(damaged.getPosition()).isEqualTo(end);
+        // Reopening wipes the partial record and appends after the last complete one
+        try (FrameJournal journal = new FrameJournal(dir, SMALL_SEGMENT_SIZE)) {
+            final byte[] msg = "after the crash".getBytes();
+            append(journal, FrameJournal.CLIENT_TO_SERVER, msg);
+            written.add(msg);
+        }
+        assertThat(FrameJournalReader.segments(dir)).hasSize(1);
+        final List<byte[]> read = readAll(dir, new ArrayList<>(), true);
+        assertThat(read).hasSize(written.size());
+        for (int i = 0; i < written.size(); i++) {
+            assertThat(read.get(i)).isEqualTo(written.get(i));
+        }
+    }
+
+    @Test
+    void testServersJournalEveryFrame(@TempDir Path dir) throws Exception {
+        final int logins = 50;
+        final InetSocketAddress loopback = new InetSocketAddress(InetAddress.getLoopbackAddress(), 0);
+        for (LoginServerEngine engine : LoginServerEngine.values()) {
+            final Path journalDir = dir.resolve(engine.name());
+            try (FrameJournal journal = new FrameJournal(journalDir)) {
+                try (LoginServer server = engine.create(loopback, new LoginExchangeHandler(), journal)) {
+                    server.start();
+                    try (LoginClientNio client = new LoginClientNio(server.getLocalAddress())) {
+                        final List<CompletableFuture<?>> futures = new ArrayList<>();
+                        for (int i = 0; i < logins; i++) {
+                            futures.add(client.login(new LoginClientExchange("player " + i)));
+                        }
+                        for (CompletableFuture<?> future : futures) {
+                            future.get(30, TimeUnit.SECONDS);
+                        }
+                    }
+                    // LOGIN_CLOSE may still be in flight when the client considers itself done
+                    final long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+                    while (server.getHandler().getOpenExchangeCount() > 0 && System.nanoTime() < deadline) {
+                        Thread.sleep(10);
+                    }
+                }
+            }
+            // LOGIN_REQUEST, LOGIN_CHALLENGE_SOLVED, LOGIN_FOLLOWUP, LOGIN_CLOSE in, three answers out
+            int received = 0;
+            int sent = 0;
+            for (Path segment : FrameJournalReader.segments(journalDir)) {
+                final FrameJournalReader reader = FrameJournalReader.open(segment);
+                while (reader.next()) {
+                    if (reader.getKind() == FrameJournal.CLIENT_TO_SERVER) {
+                        verifyClientToServerMessage(reader.parseClientToServer());
+                        received++;
+                    } else {
+                        final ServerToClient s2c = reader.parseServerToClient();
+                        verifyServerToClientMessage(s2c);
+                        assertThat(UtilsForProtobufUuid.isNilClientExchangeUuid(s2c.getCommonStuff())).isFalse();
+                        sent++;
+                    }
+                }
+            }
+            assertThat(received).isEqualTo(4 * logins);
+            assertThat(sent).isEqualTo(3 * logins);
+        }
+    }
+}
@@ -0,0 +1,221 @@
+package name.pomelo.protobuf_trial.test.testing;
+
+import name.pomelo.protobuf_trial.protos.ClientToServer;
+import name.pomelo.protobuf_trial.protos.ServerToClient;
+import name.pomelo.protobuf_trial.test.common.FailureRates;
+import name.pomelo.protobuf_trial.test.common.FlushPolicy;
+import name.pomelo.protobuf_trial.test.common.FrameJournal;
+import name.pomelo.protobuf_trial.test.common.FrameJournalReader;
+import name.pomelo.protobuf_trial.test.common.JournalEntry;
+import name.pomelo.protobuf_trial.test.common.JournalFilter;
+import name.pomelo.protobuf_trial.test.common.JournalQuery;
+import name.pomelo.protobuf_trial.test.common.JournalReplay;
+import name.pomelo.protobuf_trial.test.common.LoginClientExchange;
+import name.pomelo.protobuf_trial.test.common.LoginExchangeHandler;
+import name.pomelo.protobuf_trial.test.common.LoginServerNio;
+import name.pomelo.protobuf_trial.test.common.ScanResult;
+import org.jetbrains.annotations.NotNull;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ForkJoinPool;
+
+import static com.google.common.truth.Truth.assertThat;
+
+// ---
+// Test the offline queries over a FrameJournal: finding the frames of an exchange, scanning in
+// parallel over many segments, the failure rates per minute, and replaying to a login server.
+//
+// The journal is written by driving a LoginExchangeHandler directly, with made-up timestamps
+// spread over three minutes, so that its content is known exactly.
+// ---
+
+class TestJournalQuery {
+
+    private final static int EXCHANGES = 30;
+
+    // An exchange starts every 6 s from a full minute on, its messages are 1 ms apart
+
+    private final static long BASE_NANOS = 29_000_000L * 60_000_000_000L;
+    private final static long EXCHANGE_SPACING_NANOS = 6_000_000_000L;
+    private final static long MESSAGE_SPACING_NANOS = 1_000_000L;
+
+    // What went into the journal
+
+    private static class Recorded {
+        final List<UUID> exchanges = new ArrayList<>();
+        long clientToServer;
+        long serverToClient;
+        long[] requestsPerMinute = new long[3];
+        long[] replayedPerMinute = new long[3];
+    }
+
+    private static void append(@NotNull FrameJournal journal, int kind, long timestampNanos, byte @NotNull [] msg) {
+        journal.append(kind, timestampNanos, ByteBuffer.wrap(msg), 0, msg.length);
+    }
+
+    // ---
+    // Complete logins, every third of which also sends its LOGIN_REQUEST twice, which the server
+    // answers with a LOGIN_GENERIC_FAILURE. Small segments, so that the journal has many of them.
+    // ---
+
+    private static @NotNull Recorded writeJournal(@NotNull Path dir) throws IOException {
+        final Recorded rec = new Recorded();
+        final LoginExchangeHandler handler = new LoginExchangeHandler();
+        try (FrameJournal journal = new FrameJournal(dir, 4096)) {
+            for (int i = 0; i < EXCHANGES; i++) {
+                final LoginClientExchange exchange = new LoginClientExchange("player " + i);
+                rec.exchanges.add(exchange.getClientExchangeUUID());
+                final int minute = (int) (i * EXCHANGE_SPACING_NANOS / 60_000_000_000L);
+                long ts = BASE_NANOS + i * EXCHANGE_SPACING_NANOS;
+                ClientToServer c2s = exchange.start();
+                final ClientToServer request = c2s;
+                while (true) {
+                    append(journal, FrameJournal.CLIENT_TO_SERVER, ts, c2s.toByteArray());
+                    rec.clientToServer++;
+                    if (c2s.getPayloadType() == ClientToServer.PayloadType.LOGIN_REQUEST) {
+                        rec.requestsPerMinute[minute]++;
+                    }
+                    final ServerToClient s2c = handler.handle(c2s);
+                    if (s2c == null) {
+                        break;
+                    }
+                    append(journal, FrameJournal.SERVER_TO_CLIENT, ts + MESSAGE_SPACING_NANOS / 2, s2c.toByteArray());
+                    rec.serverToClient++;
+                    ts += MESSAGE_SPACING_NANOS;
+                    if (i % 3 == 0 && c2s == request) {
+                        // The duplicate, before carrying on with the challenge
+                        append(journal, FrameJournal.CLIENT_TO_SERVER, ts, request.toByteArray());
+                        final ServerToClient failure = handler.handle(request);
+                        assertThat(failure.getPayloadType()).isEqualTo(ServerToClient.PayloadType.LOGIN_GENERIC_FAILURE);
+                        append(journal, FrameJournal.SERVER_TO_CLIENT, ts + MESSAGE_SPACING_NANOS / 2, failure.toByteArray());
+                        rec.clientToServer++;
+                        rec.serverToClient++;
+                        rec.requestsPerMinute[minute]++;
+                        rec.replayedPerMinute[minute]++;
+                        ts += MESSAGE_SPACING_NANOS;
+                    }
+                    c2s = exchange.onResponse(s2c);
+                }
+                assertThat(exchange.isDone()).isTrue();
+            }
+        }
+        assertThat(FrameJournalReader.segments(dir).size()).isAtLeast(4);
+        return rec;
+    }
+
+    @Test
+    void testFindExchange(@TempDir Path dir) throws IOException {
+        final Recorded rec = writeJournal(dir);
+        final JournalQuery query = new JournalQuery(dir);
+        for (int i : new int[]{0, 1, EXCHANGES - 1}) {
+            final UUID uuid = rec.exchanges.get(i);
+            final List<JournalEntry> found = query.find(JournalFilter.all().withClientExchange(uuid));
+            // REQUEST, CHALLENGE, SOLVED, SOLVED_OK, FOLLOWUP, FOLLOWUP_OK, CLOSE, and the duplicate REQUEST with its failure
+            assertThat(found).hasSize(i % 3 == 0 ? 9 : 7);
+            long lastTimestamp = Long.MIN_VALUE;
+            for (JournalEntry entry : found) {
+                assertThat(entry.getHeaderResult()).isEqualTo(ScanResult.OK);
+                assertThat(entry.getClientExchangeUuid()).isEqualTo(uuid);
+                assertThat(entry.getTimestampNanos()).isGreaterThan(lastTimestamp);
+                lastTimestamp = entry.getTimestampNanos();
+                if (entry.isClientToServer()) {
+                    assertThat(entry.parseClientToServer().getPayloadTypeValue()).isEqualTo(entry.getPayloadTypeValue());
+                } else {
+                    assertThat(entry.parseServerToClient().getCommonStuff().getSeqNum()).isEqualTo(entry.getSeqNum());
+                }
+            }
+            assertThat(found.getFirst().getPayloadTypeValue()).isEqualTo(ClientToServer.PayloadType.LOGIN_REQUEST_VALUE);
+            assertThat(found.getLast().getPayloadTypeValue()).isEqualTo(ClientToServer.PayloadType.LOGIN_CLOSE_VALUE);
+        }
+        // Narrowed down to the challenges of the first minute
+        final List<JournalEntry> challenges = query.find(JournalFilter.all()
+                .withKind(FrameJournal.SERVER_TO_CLIENT)
+                .withPayloadType(ServerToClient.PayloadType.LOGIN_CHALLENGE_VALUE)
+                .withTimeRange(BASE_NANOS, BASE_NANOS + 60_000_000_000L));
+        assertThat(challenges).hasSize(10);
+        assertThat(query.find(JournalFilter.all().withClientExchange(UUID.randomUUID()))).isEmpty();
+    }
+
+    @Test
+    void testScanInParallel(@TempDir Path dir) throws IOException {
+        final Recorded rec = writeJournal(dir);
+        final ForkJoinPool pool = new ForkJoinPool(4);
+        try {
+            final JournalQuery query = new JournalQuery(dir, pool);
+            final Set<Long> segmentsSeen = ConcurrentHashMap.newKeySet();
+            final long c2s = query.scan(JournalFilter.all().withKind(FrameJournal.CLIENT_TO_SERVER), entry -> {
+                assertThat(entry.isClientToServer()).isTrue();
+                segmentsSeen.add(entry.getSegmentIndex());
+            });
+            assertThat(c2s).isEqualTo(rec.clientToServer);
+            assertThat(segmentsSeen.size()).isEqualTo(FrameJournalReader.segments(dir).size());
+            assertThat(query.scan(JournalFilter.all(), entry -> { })).isEqualTo(rec.clientToServer + rec.serverToClient);
+        } finally {
+            pool.shutdown();
+        }
+        // An empty directory has nothing
+        assertThat(new JournalQuery(Files.createDirectory(dir.resolve("nothing"))).find(JournalFilter.all())).isEmpty();
+    }
+
+    @Test
+    void testFailureRates(@TempDir Path dir) throws IOException {
+        final Recorded rec = writeJournal(dir);
+        final List<FailureRates.Row> rows = FailureRates.compute(new JournalQuery(dir)).getRows();
+        // Three minutes, each with the four message types of the client
+        assertThat(rows).hasSize(3 * 4);
+        for (FailureRates.Row row : rows) {
+            final int minute = (int) ((row.getMinuteEpochNanos() - BASE_NANOS) / 60_000_000_000L);
+            assertThat(minute).isIn(List.of(0, 1, 2));
+            if (row.getPayloadType().equals(ClientToServer.PayloadType.LOGIN_REQUEST.name())) {
+                assertThat(row.getReceived()).isEqualTo(rec.requestsPerMinute[minute]);
+                assertThat(row.getFailed()).isEqualTo(rec.replayedPerMinute[minute]);
+                assertThat(row.getFailureRate()).isGreaterThan(0.0);
+            } else {
+                assertThat(row.getReceived()).isEqualTo(10);
+                assertThat(row.getFailed()).isEqualTo(0);
+            }
+        }
+    }
+
+    // ---
+    // On a fresh server, the challenges differ from the recorded ones: every replayed exchange
+    // gets a challenge, then fails its solution, its followup and its duplicate request.
+    // ---
+
+    @Test
+    void testReplay(@TempDir Path dir) throws IOException, InterruptedException {
+        writeJournal(dir);
+        final JournalQuery query = new JournalQuery(dir);
+        try (LoginServerNio server = new LoginServerNio(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 1, new LoginExchangeHandler(), FlushPolicy.IMMEDIATE)) {
+            server.start();
+            final List<JournalEntry> all = query.find(JournalFilter.all().withKind(FrameJournal.CLIENT_TO_SERVER));
+            final JournalReplay.Result fast = JournalReplay.replay(all, server.getLocalAddress(), 0);
+            assertThat(fast.getSent()).isEqualTo(all.size());
+            assertThat(fast.getReceived()).isEqualTo(fast.getExpected());
+            assertThat(fast.getExpected()).isEqualTo(all.size() - EXCHANGES); // all but the LOGIN_CLOSEs
+            assertThat(fast.getReceivedByType().get(ServerToClient.PayloadType.LOGIN_CHALLENGE)).isEqualTo(EXCHANGES);
+            assertThat(fast.getReceivedByType().get(ServerToClient.PayloadType.LOGIN_CHALLENGE_SOLVED_ANSWER_FAILURE)).isEqualTo(EXCHANGES);
+            assertThat(fast.getRecordedSpanNanos()).isGreaterThan((EXCHANGES - 1) * EXCHANGE_SPACING_NANOS);
+            assertThat(fast.getElapsedNanos()).isLessThan(fast.getRecordedSpanNanos());
+            // One exchange at its original pace; its messages are 1 ms apart
+            final List<JournalEntry> one = query.find(JournalFilter.all().withKind(FrameJournal.CLIENT_TO_SERVER).withClientExchange(all.get(EXCHANGES / 2).getClientExchangeUuid()));
+            final JournalReplay.Result paced = JournalReplay.replay(one, server.getLocalAddress(), 1.0);
+            assertThat(paced.getSent()).isEqualTo(one.size());
+            assertThat(paced.getReceived()).isEqualTo(paced.getExpected());
+            assertThat(paced.getRecordedSpanNanos()).isAtLeast((one.size() - 1) * MESSAGE_SPACING_NANOS);
+            assertThat(paced.getElapsedNanos()).isAtLeast(paced.getRecordedSpanNanos());
+        }
+    }
+}
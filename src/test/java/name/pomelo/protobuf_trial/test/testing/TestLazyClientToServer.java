@@ -0,0 +1,149 @@
+package name.pomelo.protobuf_trial.test.testing;
+
+import com.google.protobuf.ByteString;
+import com.google.protobuf.InvalidProtocolBufferException;
+import name.pomelo.protobuf_trial.protos.ClientToServer;
+import name.pomelo.protobuf_trial.test.common.BufferPool;
+import name.pomelo.protobuf_trial.test.common.CommonData;
+import name.pomelo.protobuf_trial.test.common.LazyClientToServer;
+import name.pomelo.protobuf_trial.test.common.RefCountedBuffer;
+import name.pomelo.protobuf_trial.test.common.UtilsForProtobufFraming;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.List;
+
+import static com.google.common.truth.Truth.assertThat;
+import static name.pomelo.protobuf_trial.test.common.UtilsForProtobufClientToServerMsgs.*;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+class TestLazyClientToServer {
+
+    private static RefCountedBuffer pooled(BufferPool pool, ClientToServer c2s) {
+        final RefCountedBuffer buf = RefCountedBuffer.acquire(pool, c2s.getSerializedSize());
+        buf.buffer().put(c2s.toByteArray()).flip();
+        return buf;
+    }
+
+    @Test
+    void testAllPayloadTypes() throws InvalidProtocolBufferException {
+        final CommonData cd = CommonData.generateRandomCommonData();
+        for (ClientToServer c2s : List.of(buildLoginRequest(cd), buildLoginChallengeSolved(11, 23, cd), buildLoginFollowup("john doe", cd), buildLoginFinish(cd))) {
+            final ByteBuffer direct = ByteBuffer.allocateDirect(c2s.getSerializedSize());
+            direct.put(c2s.toByteArray()).flip();
+            try (LazyClientToServer lazy = LazyClientToServer.parse(direct)) {
+                assertThat(lazy.getPayloadType()).isEqualTo(c2s.getPayloadType());
+                assertThat(lazy.getCommonStuff()).isEqualTo(c2s.getCommonStuff());
+                assertThat(lazy.toClientToServer()).isEqualTo(c2s);
+            }
+            assertThat(deserialize(direct)).isEqualTo(c2s);
+            assertThat(direct.position()).isEqualTo(0);
+        }
+    }
+
+    // ---
+    // The username is a slice of the buffer, decoded when read
+    // ---
+
+    @Test
+    void testUsernameIsDecodedWhenRead() throws InvalidProtocolBufferException {
+        final BufferPool pool = new BufferPool(256, 4);
+        final RefCountedBuffer buf = pooled(pool, buildLoginFollowup("john doe", CommonData.generateRandomCommonData()));
+        try (LazyClientToServer lazy = LazyClientToServer.parse(buf, 0, buf.buffer().limit())) {
+            assertThat(lazy.hasLoginFollowup()).isTrue();
+            assertThat(lazy.getUsernameBytes()).isEqualTo(ByteString.copyFromUtf8("john doe"));
+            // the username is at the end of the message
+            buf.buffer().put(buf.buffer().limit() - 1, (byte) 'E');
+            assertThat(lazy.getUsername()).isEqualTo("john doE");
+        }
+        buf.release();
+    }
+
+    @Test
+    void testInvalidUtf8IsRejectedWhenRead() throws InvalidProtocolBufferException {
+        final ClientToServer c2s = buildLoginFollowup("john doe", CommonData.generateRandomCommonData());
+        final ByteBuffer direct = ByteBuffer.allocateDirect(c2s.getSerializedSize());
+        direct.put(c2s.toByteArray()).flip();
+        // the username ends in the first byte of a 2-byte sequence
+        direct.put(direct.limit() - 1, (byte) 0xC3);
+        assertThrows(InvalidProtocolBufferException.class, () -> ClientToServer.parseFrom(direct.duplicate()));
+        try (LazyClientToServer lazy = LazyClientToServer.parse(direct)) {
+            assertThat(lazy.getPayloadType()).isEqualTo(ClientToServer.PayloadType.LOGIN_FOLLOWUP);
+            assertThrows(IllegalArgumentException.class, lazy::getUsername);
+        }
+    }
+
+    // ---
+    // The buffer goes back to the pool with the last reference, and cannot be read through
+    // a message parsed out of it afterwards.
+    // ---
+
+    @Test
+    void testBufferLifetime() throws InvalidProtocolBufferException {
+        final BufferPool pool = new BufferPool(256, 4);
+        final CommonData cd = CommonData.generateRandomCommonData();
+        final RefCountedBuffer buf = pooled(pool, buildLoginChallengeSolved(11, 23, cd));
+        final LazyClientToServer first = LazyClientToServer.parse(buf, 0, buf.buffer().limit());
+        final LazyClientToServer second = LazyClientToServer.parse(buf, 0, buf.buffer().limit());
+        assertThat(buf.getRefCount()).isEqualTo(3);
+        // the reader of the buffer is done with it, the messages still hold it
+        assertThat(buf.release()).isFalse();
+        first.close();
+        first.close();
+        assertThrows(IllegalStateException.class, first::getA);
+        assertThat(second.getA()).isEqualTo(11);
+        assertThat(pool.getRetainedCount()).isEqualTo(0);
+        second.close();
+        assertThat(buf.isLive()).isFalse();
+        assertThat(pool.getRetainedCount()).isEqualTo(1);
+        assertThrows(IllegalStateException.class, buf::buffer);
+        assertThrows(IllegalStateException.class, buf::retain);
+        assertThrows(IllegalStateException.class, () -> LazyClientToServer.parse(buf, 0, 1));
+        // recycled for another message, which the old holders cannot see
+        final RefCountedBuffer recycled = pooled(pool, buildLoginFollowup("jane doe", cd));
+        assertThat(pool.getAllocatedCount()).isEqualTo(1);
+        assertThrows(IllegalStateException.class, second::getB);
+        recycled.release();
+    }
+
+    // ---
+    // Frames parsed in place out of a mapped file
+    // ---
+
+    @Test
+    void testMappedFile(@TempDir Path dir) throws IOException {
+        final CommonData cd = CommonData.generateRandomCommonData();
+        final List<ClientToServer> msgs = List.of(buildLoginRequest(cd.withSeqNum(1)), buildLoginChallengeSolved(11, 23, cd.withSeqNum(2)), buildLoginFollowup("john doe", cd.withSeqNum(3)));
+        final ByteBuffer frames = ByteBuffer.allocate(1024);
+        for (ClientToServer c2s : msgs) {
+            UtilsForProtobufFraming.writeFrame(c2s, frames);
+        }
+        frames.flip();
+        final Path file = dir.resolve("frames");
+        Files.write(file, Arrays.copyOf(frames.array(), frames.limit()));
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            final MappedByteBuffer mapped = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            final RefCountedBuffer buf = RefCountedBuffer.wrap(mapped);
+            int pos = 0;
+            for (ClientToServer c2s : msgs) {
+                final long header = UtilsForProtobufFraming.peekFrameHeader(mapped, pos, UtilsForProtobufFraming.DEFAULT_MAX_FRAME_SIZE);
+                final int headerSize = (int) (header >>> 32);
+                final int size = (int) header;
+                try (LazyClientToServer lazy = LazyClientToServer.parse(buf, pos + headerSize, size)) {
+                    assertThat(lazy.toClientToServer()).isEqualTo(c2s);
+                }
+                pos += headerSize + size;
+            }
+            assertThat(pos).isEqualTo(mapped.limit());
+            assertThat(buf.release()).isTrue();
+        }
+    }
+}
@@ -0,0 +1,96 @@
+package name.pomelo.protobuf_trial.test.testing;
+
+import com.google.protobuf.InvalidProtocolBufferException;
+import name.pomelo.protobuf_trial.protos.ClientToServer;
+import name.pomelo.protobuf_trial.protos.ServerToClient;
+import name.pomelo.protobuf_trial.test.common.CommonData;
+import name.pomelo.protobuf_trial.test.common.LazyServerToClient;
+import org.junit.jupiter.api.Test;
+
+import java.nio.ByteBuffer;
+
+import static com.google.common.truth.Truth.assertThat;
+import static name.pomelo.protobuf_trial.test.common.UtilsForProtobufClientToServerMsgs.buildLoginFollowup;
+import static name.pomelo.protobuf_trial.test.common.UtilsForProtobufServerToClientMsgs.*;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+class TestLazyServerToClient {
+
+    private static ByteBuffer direct(ServerToClient s2c) {
+        final byte[] bytes = s2c.toByteArray();
+        final ByteBuffer buf = ByteBuffer.allocateDirect(bytes.length);
+        buf.put(bytes).flip();
+        return buf;
+    }
+
+    @Test
+    void testFailure() throws InvalidProtocolBufferException {
+        final CommonData cd = CommonData.generateRandomCommonData();
+        final ClientToServer cause = buildLoginFollowup("john doe", cd.withSeqNum(3));
+        for (ServerToClient s2c : new ServerToClient[]{
+                buildLoginGenericFailure("not allowed", cause, cd.withSeqNum(3)),
+                buildGenericFailure("generic", cause, cd.withSeqNum(3))}) {
+            final LazyServerToClient lazy = LazyServerToClient.parse(direct(s2c));
+            assertThat(lazy.getPayloadType()).isEqualTo(s2c.getPayloadType());
+            assertThat(lazy.getCommonStuff()).isEqualTo(s2c.getCommonStuff());
+            assertThat(lazy.isFailure()).isTrue();
+            assertThat(lazy.getFailureMsg()).isEqualTo(s2c.getPayloadType() == ServerToClient.PayloadType.GENERIC_FAILURE ? "generic" : "not allowed");
+            assertThat(lazy.getCauseBytes()).isEqualTo(cause.toByteString());
+            assertThat(lazy.getCause()).isEqualTo(cause);
+            assertThat(lazy.getCause()).isSameInstanceAs(lazy.getCause());
+            assertThat(lazy.toServerToClient()).isEqualTo(s2c);
+        }
+    }
+
+    // ---
+    // The cause is a slice of the input, not a copy: it changes with the input
+    // ---
+
+    @Test
+    void testCauseAliasesTheInput() throws InvalidProtocolBufferException {
+        final CommonData cd = CommonData.generateRandomCommonData();
+        final ClientToServer cause = buildLoginFollowup("john doe", cd);
+        final ServerToClient s2c = buildLoginGenericFailure("not allowed", cause, cd);
+        final ByteBuffer buf = direct(s2c);
+        final LazyServerToClient lazy = LazyServerToClient.parse(buf);
+        assertThat(lazy.getCauseBytes()).isEqualTo(cause.toByteString());
+        // the username is at the end of the cause, which is at the end of the message
+        buf.put(buf.limit() - 1, (byte) 'E');
+        assertThat(lazy.getCauseBytes().toStringUtf8()).endsWith("john doE");
+        assertThat(lazy.getCause().getLoginFollowup().getUsername()).isEqualTo("john doE");
+    }
+
+    @Test
+    void testNotAFailure() throws InvalidProtocolBufferException {
+        final ServerToClient s2c = buildLoginChallenge(11 * 23, CommonData.generateRandomCommonData());
+        final LazyServerToClient lazy = LazyServerToClient.parse(direct(s2c));
+        assertThat(lazy.isFailure()).isFalse();
+        assertThat(lazy.getPayloadField()).isEqualTo(ServerToClient.LOGIN_CHALLENGE_FIELD_NUMBER);
+        assertThat(lazy.getPayloadBytes()).isEqualTo(s2c.getLoginChallenge().toByteString());
+        assertThrows(IllegalStateException.class, lazy::getFailureMsg);
+        final LazyServerToClient noPayload = LazyServerToClient.parse(direct(buildLoginRequestAnswerOk(CommonData.generateRandomCommonData())));
+        assertThat(noPayload.getPayloadField()).isEqualTo(0);
+    }
+
+    // ---
+    // Header only: the payload is not looked at, so a truncated payload goes unnoticed
+    // until the payload is asked for, whereas parse() rejects it at once.
+    // ---
+
+    @Test
+    void testHeaderOnly() throws InvalidProtocolBufferException {
+        final CommonData cd = CommonData.generateRandomCommonData();
+        final ServerToClient s2c = buildLoginGenericFailure("not allowed", buildLoginFollowup("john doe", cd), cd);
+        final ByteBuffer truncated = direct(s2c).limit(s2c.getSerializedSize() - 1);
+        assertThrows(InvalidProtocolBufferException.class, () -> LazyServerToClient.parse(truncated));
+        final LazyServerToClient header = LazyServerToClient.parseHeader(truncated);
+        assertThat(header.getPayloadType()).isEqualTo(ServerToClient.PayloadType.LOGIN_GENERIC_FAILURE);
+        assertThat(header.getCommonStuff()).isEqualTo(s2c.getCommonStuff());
+        assertThat(header.getBytes().size()).isEqualTo(s2c.getSerializedSize() - 1);
+        assertThrows(InvalidProtocolBufferException.class, header::getFailureMsg);
+        // complete, the payload is found when asked for
+        final LazyServerToClient complete = LazyServerToClient.parseHeader(direct(s2c));
+        assertThat(complete.getFailureMsg()).isEqualTo("not allowed");
+        assertThat(complete.getPayloadField()).isEqualTo(ServerToClient.LOGIN_GENERIC_FAILURE_FIELD_NUMBER);
+    }
+}
@@ -0,0 +1,128 @@
+package name.pomelo.protobuf_trial.test.testing;
+
+import name.pomelo.protobuf_trial.protos.ClientToServer;
+import name.pomelo.protobuf_trial.test.common.LoadGenerator;
+import name.pomelo.protobuf_trial.test.common.LoginConnection;
+import name.pomelo.protobuf_trial.test.common.LoginExchangeHandler;
+import name.pomelo.protobuf_trial.test.common.LoginServer;
+import name.pomelo.protobuf_trial.test.common.LoginServerEngine;
+import name.pomelo.protobuf_trial.test.common.StripedHistogram;
+import org.jetbrains.annotations.NotNull;
+import org.junit.jupiter.api.Test;
+
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static com.google.common.truth.Truth.assertThat;
+
+// ---
+// Run the load generator against a login server over the loopback interface.
+// ---
+
+class TestLoadGenerator {
+
+    private final static InetSocketAddress loopback = new InetSocketAddress(InetAddress.getLoopbackAddress(), 0);
+
+    private static LoadGenerator.Result run(@NotNull LoginExchangeHandler handler, @NotNull LoadGenerator.Settings settings) throws Exception {
+        try (LoginServer server = LoginServerEngine.NIO.create(loopback, handler)) {
+            server.start();
+            final LoadGenerator.Result result = new LoadGenerator(server.getLocalAddress(), settings).run();
+            System.out.println(result);
+            return result;
+        }
+    }
+
+    private static void assertAllCompleted(@NotNull LoadGenerator.Result result) {
+        assertThat(result.getScheduled()).isGreaterThan(0);
+        assertThat(result.getFailed()).isEqualTo(0);
+        assertThat(result.getCompleted()).isEqualTo(result.getScheduled());
+        assertThat(result.getStepLatencies().keySet()).containsExactly(
+                ClientToServer.PayloadType.LOGIN_REQUEST, ClientToServer.PayloadType.LOGIN_CHALLENGE_SOLVED, ClientToServer.PayloadType.LOGIN_FOLLOWUP).inOrder();
+        for (StripedHistogram.Snapshot step : result.getStepLatencies().values()) {
+            assertThat(step.getCount()).isEqualTo(result.getCompleted());
+            assertThat(step.getP50()).isAtMost(step.getP99());
+            assertThat(step.getP99()).isAtMost(step.getP999());
+        }
+        assertThat(result.getExchangeLatency().getCount()).isEqualTo(result.getCompleted());
+        assertThat(result.getFailureLatency().getCount()).isEqualTo(0);
+    }
+
+    @Test
+    void testOpenLoop() throws Exception {
+        final LoadGenerator.Result result = run(new LoginExchangeHandler(), LoadGenerator.Settings.openLoop(200, 50, 1, TimeUnit.SECONDS));
+        assertAllCompleted(result);
+        // the schedule, not the server, decides how many exchanges there are
+        assertThat(result.getScheduled()).isEqualTo(200);
+    }
+
+    @Test
+    void testClosedLoop() throws Exception {
+        final LoadGenerator.Result result = run(new LoginExchangeHandler(), LoadGenerator.Settings.closedLoop(8, 0, 1, TimeUnit.SECONDS)
+                .withWarmup(200, TimeUnit.MILLISECONDS));
+        assertAllCompleted(result);
+        assertThat(result.getThroughput()).isGreaterThan(0.0);
+    }
+
+    // ---
+    // The server stalls once for 500 ms, holding up the one client and its next ~25 scheduled
+    // exchanges. Measured from their actual start, only the stalled exchange would be slow (1%);
+    // measured from their intended start, every one held up is, by what it waited.
+    // ---
+
+    @Test
+    void testStallIsNotOmitted() throws Exception {
+        final AtomicBoolean stalled = new AtomicBoolean();
+        final LoginExchangeHandler stalling = new LoginExchangeHandler() {
+            @Override
+            public boolean handle(@NotNull ClientToServer c2s, @NotNull LoginConnection connection) {
+                if (c2s.getPayloadType() == ClientToServer.PayloadType.LOGIN_FOLLOWUP && !stalled.getAndSet(true)) {
+                    try {
+                        Thread.sleep(500);
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    }
+                }
+                return super.handle(c2s, connection);
+            }
+        };
+        final LoadGenerator.Result result = run(stalling, LoadGenerator.Settings.closedLoop(1, 50, 2, TimeUnit.SECONDS));
+        assertAllCompleted(result);
+        assertThat(stalled.get()).isTrue();
+        assertThat(result.getScheduled()).isEqualTo(100);
+        assertThat(result.getExchangeLatency().getMax()).isAtLeast(TimeUnit.MILLISECONDS.toNanos(500));
+        assertThat(result.getExchangeLatency().getP90()).isAtLeast(TimeUnit.MILLISECONDS.toNanos(100));
+        // the stall is in the LOGIN_FOLLOWUP step of one exchange, the waiting in the LOGIN_REQUEST step of the next ones
+        assertThat(result.getStepLatencies().get(ClientToServer.PayloadType.LOGIN_REQUEST).getP90()).isAtLeast(TimeUnit.MILLISECONDS.toNanos(100));
+    }
+
+    // ---
+    // Every LOGIN_FOLLOWUP is answered too late: the exchanges time out, and those failures are
+    // timed from their intended start rather than dropped from the latencies
+    // ---
+
+    @Test
+    void testFailuresAreTimed() throws Exception {
+        final LoginExchangeHandler late = new LoginExchangeHandler() {
+            @Override
+            public boolean handle(@NotNull ClientToServer c2s, @NotNull LoginConnection connection) {
+                if (c2s.getPayloadType() == ClientToServer.PayloadType.LOGIN_FOLLOWUP) {
+                    try {
+                        Thread.sleep(150);
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    }
+                }
+                return super.handle(c2s, connection);
+            }
+        };
+        final LoadGenerator.Result result = run(late, LoadGenerator.Settings.closedLoop(1, 5, 1, TimeUnit.SECONDS).withTimeoutMillis(50));
+        assertThat(result.getScheduled()).isEqualTo(5);
+        assertThat(result.getFailed()).isEqualTo(5);
+        assertThat(result.getCompleted()).isEqualTo(0);
+        assertThat(result.getExchangeLatency().getCount()).isEqualTo(0);
+        assertThat(result.getFailureLatency().getCount()).isEqualTo(5);
+        assertThat(result.getFailureLatency().getMean()).isAtLeast((double) TimeUnit.MILLISECONDS.toNanos(50));
+    }
+}
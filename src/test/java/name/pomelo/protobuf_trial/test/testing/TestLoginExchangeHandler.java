@@ -0,0 +1,222 @@
+package name.pomelo.protobuf_trial.test.testing;
+
+import name.pomelo.protobuf_trial.protos.ClientToServer;
+import name.pomelo.protobuf_trial.protos.ServerToClient;
+import name.pomelo.protobuf_trial.test.common.ChallengeGenerator;
+import name.pomelo.protobuf_trial.test.common.CommonData;
+import name.pomelo.protobuf_trial.test.common.ExchangeSession;
+import name.pomelo.protobuf_trial.test.common.ExchangeSessionTable;
+import name.pomelo.protobuf_trial.test.common.ExchangeTimeouts;
+import name.pomelo.protobuf_trial.test.common.LoginClientExchange;
+import name.pomelo.protobuf_trial.test.common.LoginExchangeHandler;
+import name.pomelo.protobuf_trial.test.common.LoginState;
+import name.pomelo.protobuf_trial.test.common.LoginStateMachine;
+import name.pomelo.protobuf_trial.test.common.TimingWheel;
+import name.pomelo.protobuf_trial.test.common.UtilsForLoginChallenge;
+import name.pomelo.protobuf_trial.test.common.UuidEncoding;
+import org.jetbrains.annotations.NotNull;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+import static com.google.common.truth.Truth.assertThat;
+import static name.pomelo.protobuf_trial.test.common.UtilsForProtobufClientToServerMsgs.*;
+
+// ---
+// Test the "Login exchange" state machine, directly on the handler (no network).
+// ---
+
+class TestLoginExchangeHandler {
+
+    private static void assertLoginGenericFailure(ServerToClient s2c, @NotNull ClientToServer cause) {
+        assertThat(s2c).isNotNull();
+        assertThat(s2c.getPayloadType()).isEqualTo(ServerToClient.PayloadType.LOGIN_GENERIC_FAILURE);
+        assertThat(s2c.getLoginGenericFailure().getCause()).isEqualTo(cause);
+        assertThat(s2c.getCommonStuff()).isEqualTo(cause.getCommonStuff());
+        System.out.println("Rejected as expected: " + s2c.getLoginGenericFailure().getMsg());
+    }
+
+    @Test
+    void testTransitionTable() {
+        assertThat(LoginStateMachine.next(LoginState.NONE, ClientToServer.PayloadType.LOGIN_REQUEST)).isEqualTo(LoginState.CHALLENGE_ISSUED);
+        assertThat(LoginStateMachine.next(LoginState.CHALLENGE_ISSUED, ClientToServer.PayloadType.LOGIN_CHALLENGE_SOLVED)).isEqualTo(LoginState.CHALLENGE_SOLVED);
+        assertThat(LoginStateMachine.next(LoginState.CHALLENGE_SOLVED, ClientToServer.PayloadType.LOGIN_FOLLOWUP)).isEqualTo(LoginState.LOGGED_IN);
+        assertThat(LoginStateMachine.next(LoginState.LOGGED_IN, ClientToServer.PayloadType.LOGIN_CLOSE)).isEqualTo(LoginState.CLOSED);
+        assertThat(LoginStateMachine.next(LoginState.CHALLENGE_ISSUED, ClientToServer.PayloadType.LOGIN_CLOSE)).isEqualTo(LoginState.CLOSED);
+        assertThat(LoginStateMachine.isValid(LoginState.NONE, ClientToServer.PayloadType.LOGIN_FOLLOWUP)).isFalse();
+        assertThat(LoginStateMachine.isValid(LoginState.CHALLENGE_ISSUED, ClientToServer.PayloadType.LOGIN_FOLLOWUP)).isFalse();
+        assertThat(LoginStateMachine.isValid(LoginState.CHALLENGE_SOLVED, ClientToServer.PayloadType.LOGIN_REQUEST)).isFalse();
+        assertThat(LoginStateMachine.isValid(LoginState.LOGGED_IN, ClientToServer.PayloadType.LOGIN_CHALLENGE_SOLVED)).isFalse();
+        for (ClientToServer.PayloadType type : ClientToServer.PayloadType.values()) {
+            assertThat(LoginStateMachine.isValid(LoginState.CLOSED, type)).isFalse();
+            assertThat(LoginStateMachine.isValid(LoginState.NONE, type)).isEqualTo(type == ClientToServer.PayloadType.LOGIN_REQUEST);
+        }
+    }
+
+    @Test
+    void testFullExchange() {
+        final LoginExchangeHandler handler = new LoginExchangeHandler();
+        final CommonData cd = CommonData.generateRandomCommonData();
+        final ServerToClient challenge = handler.handle(buildLoginRequest(cd.withSeqNum(1)));
+        assertThat(challenge.getPayloadType()).isEqualTo(ServerToClient.PayloadType.LOGIN_CHALLENGE);
+        assertThat(handler.getOpenExchangeCount()).isEqualTo(1);
+        final long product = challenge.getLoginChallenge().getProduct();
+        final long a = UtilsForLoginChallenge.smallestFactor(product);
+        final ServerToClient solvedOk = handler.handle(buildLoginChallengeSolved(a, product / a, cd.withSeqNum(2)));
+        assertThat(solvedOk.getPayloadType()).isEqualTo(ServerToClient.PayloadType.LOGIN_CHALLENGE_SOLVED_ANSWER_OK);
+        final ServerToClient followupOk = handler.handle(buildLoginFollowup("john doe", cd.withSeqNum(3)));
+        assertThat(followupOk.getPayloadType()).isEqualTo(ServerToClient.PayloadType.LOGIN_FOLLOWUP_ANSWER_OK);
+        assertThat(followupOk.getLoginFollowupAnswerOk().getPlayerName()).isEqualTo("john doe");
+        assertThat(handler.handle(buildLoginFinish(cd.withSeqNum(4)))).isNull();
+        assertThat(handler.getOpenExchangeCount()).isEqualTo(0);
+    }
+
+    @Test
+    void testInvalidTransitionsCarryTheirCause() {
+        final LoginExchangeHandler handler = new LoginExchangeHandler();
+        final CommonData cd = CommonData.generateRandomCommonData();
+        // No exchange yet
+        final ClientToServer prematureSolved = buildLoginChallengeSolved(2, 3, cd.withSeqNum(1));
+        assertLoginGenericFailure(handler.handle(prematureSolved), prematureSolved);
+        handler.handle(buildLoginRequest(cd.withSeqNum(2)));
+        // Second LOGIN_REQUEST for the same exchange
+        final ClientToServer secondRequest = buildLoginRequest(cd.withSeqNum(3));
+        assertLoginGenericFailure(handler.handle(secondRequest), secondRequest);
+        // LOGIN_FOLLOWUP before the challenge is solved
+        final ClientToServer prematureFollowup = buildLoginFollowup("john doe", cd.withSeqNum(4));
+        assertLoginGenericFailure(handler.handle(prematureFollowup), prematureFollowup);
+        // The exchange is still there and can be closed
+        assertThat(handler.getOpenExchangeCount()).isEqualTo(1);
+        assertThat(handler.handle(buildLoginFinish(cd.withSeqNum(5)))).isNull();
+        assertThat(handler.getOpenExchangeCount()).isEqualTo(0);
+    }
+
+    @Test
+    void testWrongSolutionClosesTheExchange() {
+        final LoginExchangeHandler handler = new LoginExchangeHandler();
+        final CommonData cd = CommonData.generateRandomCommonData();
+        final long product = handler.handle(buildLoginRequest(cd.withSeqNum(1))).getLoginChallenge().getProduct();
+        final ServerToClient answer = handler.handle(buildLoginChallengeSolved(product, 1, cd.withSeqNum(2)));
+        assertThat(answer.getPayloadType()).isEqualTo(ServerToClient.PayloadType.LOGIN_CHALLENGE_SOLVED_ANSWER_FAILURE);
+        assertThat(handler.getOpenExchangeCount()).isEqualTo(0);
+    }
+
+    @Test
+    void testReplayedMessagesAreRejected() {
+        final LoginExchangeHandler handler = new LoginExchangeHandler();
+        final CommonData cd = CommonData.generateRandomCommonData();
+        final long product = handler.handle(buildLoginRequest(cd.withSeqNum(1))).getLoginChallenge().getProduct();
+        // A LOGIN_CHALLENGE_SOLVED reusing the seqNum of the LOGIN_REQUEST is not even looked at:
+        // the wrong solution does not close the exchange
+        final ClientToServer reusedSeqNum = buildLoginChallengeSolved(product, 1, cd.withSeqNum(1));
+        assertLoginGenericFailure(handler.handle(reusedSeqNum), reusedSeqNum);
+        assertThat(handler.getOpenExchangeCount()).isEqualTo(1);
+        // The right solution gets through once, its replay is rejected
+        final long a = UtilsForLoginChallenge.smallestFactor(product);
+        final ClientToServer solved = buildLoginChallengeSolved(a, product / a, cd.withSeqNum(3));
+        assertThat(handler.handle(solved).getPayloadType()).isEqualTo(ServerToClient.PayloadType.LOGIN_CHALLENGE_SOLVED_ANSWER_OK);
+        assertLoginGenericFailure(handler.handle(solved), solved);
+        // Reordered: seqNum 2 has not been seen yet
+        final ClientToServer followup = buildLoginFollowup("john doe", cd.withSeqNum(2));
+        assertThat(handler.handle(followup).getPayloadType()).isEqualTo(ServerToClient.PayloadType.LOGIN_FOLLOWUP_ANSWER_OK);
+        // A replayed LOGIN_REQUEST or LOGIN_CLOSE gets rejected too, and does not close the exchange
+        final ClientToServer request = buildLoginRequest(cd.withSeqNum(1));
+        assertLoginGenericFailure(handler.handle(request), request);
+        final ClientToServer close = buildLoginFinish(cd.withSeqNum(2));
+        assertLoginGenericFailure(handler.handle(close), close);
+        final UUID uuid = cd.getClientExchangeUUID();
+        assertThat(handler.getSessions().get(uuid.getMostSignificantBits(), uuid.getLeastSignificantBits()).getState()).isEqualTo(LoginState.LOGGED_IN);
+        assertThat(handler.handle(buildLoginFinish(cd.withSeqNum(4)))).isNull();
+        assertThat(handler.getOpenExchangeCount()).isEqualTo(0);
+    }
+
+    @Test
+    void testServerExchangeUuidMustMatch() {
+        final LoginExchangeHandler handler = new LoginExchangeHandler();
+        final CommonData cd = CommonData.generateRandomCommonData();
+        handler.handle(buildLoginRequest(cd.withSeqNum(1)));
+        final CommonData other = new CommonData(2, cd.getClientExchangeUUID(), UUID.randomUUID());
+        final ClientToServer followup = buildLoginFollowup("john doe", other);
+        assertLoginGenericFailure(handler.handle(followup), followup);
+    }
+
+    @Test
+    void testUuidEncodingIsMirrored() {
+        final LoginExchangeHandler handler = new LoginExchangeHandler();
+        // A LOGIN_REQUEST offering UuidFixed gets answered with UuidFixed only
+        final CommonData offer = CommonData.generateRandomCommonData().withUuidEncoding(UuidEncoding.SIMPLE_AND_FIXED);
+        final ServerToClient challenge = handler.handle(buildLoginRequest(offer));
+        assertThat(challenge.getCommonStuff()).isEqualTo(offer.withUuidEncoding(UuidEncoding.FIXED).toProtobufCommonStuff());
+        // A LOGIN_REQUEST with UuidSimple gets answered with UuidSimple
+        final CommonData simple = CommonData.generateRandomCommonData();
+        assertThat(handler.handle(buildLoginRequest(simple)).getCommonStuff()).isEqualTo(simple.toProtobufCommonStuff());
+    }
+
+    @Test
+    void testUuidEncodingNegotiation() {
+        for (UuidEncoding preferred : new UuidEncoding[]{UuidEncoding.SIMPLE, UuidEncoding.FIXED}) {
+            final LoginExchangeHandler handler = new LoginExchangeHandler();
+            final LoginClientExchange exchange = new LoginClientExchange("john doe", preferred);
+            ClientToServer c2s = exchange.start();
+            assertThat(c2s.getCommonStuff().hasClientExchangeUuidFixed()).isEqualTo(preferred == UuidEncoding.FIXED);
+            while (!exchange.isDone()) {
+                c2s = exchange.onResponse(handler.handle(c2s));
+                // After the first answer, only the negotiated encoding is used
+                assertThat(c2s.getCommonStuff().hasClientExchangeUuid()).isEqualTo(preferred == UuidEncoding.SIMPLE);
+                assertThat(c2s.getCommonStuff().hasClientExchangeUuidFixed()).isEqualTo(preferred == UuidEncoding.FIXED);
+            }
+            assertThat(exchange.getUuidEncoding()).isEqualTo(preferred);
+            assertThat(handler.handle(c2s)).isNull();
+            assertThat(handler.getOpenExchangeCount()).isEqualTo(0);
+        }
+    }
+
+    // ---
+    // An exchange stalled after LOGIN_CHALLENGE is closed once its timeout expires, the wheel being
+    // advanced by hand; one which goes on in time re-arms its timeout at every step.
+    // ---
+
+    @Test
+    void testStalledExchangeExpires() {
+        final List<ServerToClient> failures = new ArrayList<>();
+        final List<LoginState> states = new ArrayList<>();
+        final ExchangeTimeouts timeouts = new ExchangeTimeouts(TimeUnit.SECONDS.toNanos(1), TimeUnit.SECONDS.toNanos(2), TimeUnit.SECONDS.toNanos(3), TimeUnit.MILLISECONDS.toNanos(10));
+        final LoginExchangeHandler handler = new LoginExchangeHandler(new ExchangeSessionTable<>(), ChallengeGenerator.shared(), timeouts, (session, state, failure) -> {
+            states.add(state);
+            failures.add(failure);
+        });
+        final TimingWheel<ExchangeSession> wheel = handler.getTimingWheel();
+        assertThat(wheel).isNotNull();
+        final long start = System.nanoTime();
+        final CommonData stalled = CommonData.generateRandomCommonData();
+        handler.handle(buildLoginRequest(stalled.withSeqNum(1)));
+        final CommonData goingOn = CommonData.generateRandomCommonData();
+        final ServerToClient challenge = handler.handle(buildLoginRequest(goingOn.withSeqNum(1)));
+        final long product = challenge.getLoginChallenge().getProduct();
+        final long a = UtilsForLoginChallenge.smallestFactor(product);
+        handler.handle(buildLoginChallengeSolved(a, product / a, goingOn.withSeqNum(2)));
+        assertThat(wheel.getPendingCount()).isEqualTo(2);
+        wheel.advance(start + TimeUnit.MILLISECONDS.toNanos(500));
+        assertThat(handler.getOpenExchangeCount()).isEqualTo(2);
+        wheel.advance(System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(1100));
+        assertThat(handler.getOpenExchangeCount()).isEqualTo(1);
+        assertThat(handler.getExpiredExchangeCount()).isEqualTo(1);
+        assertThat(states).containsExactly(LoginState.CHALLENGE_ISSUED);
+        final ServerToClient failure = failures.getFirst();
+        assertThat(failure.getPayloadType()).isEqualTo(ServerToClient.PayloadType.LOGIN_GENERIC_FAILURE);
+        assertThat(failure.getCommonStuff()).isEqualTo(stalled.withSeqNum(1).toProtobufCommonStuff());
+        // too late
+        final ClientToServer lateSolved = buildLoginChallengeSolved(2, 3, stalled.withSeqNum(2));
+        assertLoginGenericFailure(handler.handle(lateSolved), lateSolved);
+        // the other one is in time, and its timeout goes away with it
+        handler.handle(buildLoginFollowup("john doe", goingOn.withSeqNum(3)));
+        assertThat(handler.handle(buildLoginFinish(goingOn.withSeqNum(4)))).isNull();
+        wheel.advance(System.nanoTime());
+        assertThat(wheel.getPendingCount()).isEqualTo(0);
+        assertThat(handler.getOpenExchangeCount()).isEqualTo(0);
+        assertThat(handler.getExpiredExchangeCount()).isEqualTo(1);
+    }
+}
@@ -0,0 +1,278 @@
+package name.pomelo.protobuf_trial.test.testing;
+
+import name.pomelo.protobuf_trial.protos.ClientToServer;
+import name.pomelo.protobuf_trial.protos.ServerToClient;
+import name.pomelo.protobuf_trial.test.common.CommonData;
+import name.pomelo.protobuf_trial.test.common.LoginClientExchange;
+import name.pomelo.protobuf_trial.test.common.LoginClientNio;
+import name.pomelo.protobuf_trial.test.common.LoginExchangeHandler;
+import name.pomelo.protobuf_trial.test.common.LoginMetrics;
+import name.pomelo.protobuf_trial.test.common.LoginServer;
+import name.pomelo.protobuf_trial.test.common.LoginServerEngine;
+import name.pomelo.protobuf_trial.test.common.MessageScanner;
+import name.pomelo.protobuf_trial.test.common.ScanResult;
+import name.pomelo.protobuf_trial.test.common.StripedHistogram;
+import name.pomelo.protobuf_trial.test.common.UtilsForProtobufFraming;
+import org.jetbrains.annotations.NotNull;
+import org.junit.jupiter.api.Test;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import javax.management.openmbean.CompositeData;
+import javax.management.openmbean.TabularData;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import static com.google.common.truth.Truth.assertThat;
+import static name.pomelo.protobuf_trial.test.common.UtilsForProtobufClientToServerMsgs.buildLoginRequest;
+
+// ---
+// Test the metrics: the buckets and percentiles of StripedHistogram against exact values,
+// recording from several threads, the counts of the login servers for complete logins and
+// rejected frames, and reading the metrics through JMX.
+// ---
+
+class TestLoginMetrics {
+
+    private final static Random rand = new Random(4711);
+
+    @Test
+    void testHistogramBuckets() {
+        int lastBucket = -1;
+        for (long v = 0; v < 100_000; v++) {
+            final int bucket = StripedHistogram.bucketOf(v);
+            assertThat(bucket).isAnyOf(lastBucket, lastBucket + 1);
+            lastBucket = bucket;
+        }
+        for (int i = 0; i < 100_000; i++) {
+            final long v = rand.nextLong(1L << StripedHistogram.MAX_BITS);
+            final long highest = StripedHistogram.highestValueOf(StripedHistogram.bucketOf(v));
+            assertThat(highest).isAtLeast(v);
+            assertThat(highest - v).isAtMost(v >>> StripedHistogram.SUB_BITS);
+            assertThat(StripedHistogram.bucketOf(highest)).isEqualTo(StripedHistogram.bucketOf(v));
+            if (highest + 1 < (1L << StripedHistogram.MAX_BITS)) {
+                assertThat(StripedHistogram.bucketOf(highest + 1)).isEqualTo(StripedHistogram.bucketOf(v) + 1);
+            }
+        }
+        // Out of range values are clamped
+        assertThat(StripedHistogram.bucketOf(-5)).isEqualTo(0);
+        assertThat(StripedHistogram.bucketOf(Long.MAX_VALUE)).isEqualTo(StripedHistogram.bucketOf((1L << StripedHistogram.MAX_BITS) - 1));
+    }
+
+    @Test
+    void testHistogramPercentiles() {
+        final StripedHistogram histogram = new StripedHistogram(4);
+        assertThat(histogram.snapshot().getCount()).isEqualTo(0);
+        final long[] values = new long[200_000];
+        long sum = 0;
+        for (int i = 0; i < values.length; i++) {
+            // Roughly like latencies: mostly short, with a long tail
+            values[i] = (long) (1000 * Math.exp(rand.nextGaussian()));
+            histogram.record(values[i]);
+            sum += values[i];
+        }
+        Arrays.sort(values);
+        final StripedHistogram.Snapshot snapshot = histogram.snapshot();
+        assertThat(snapshot.getCount()).isEqualTo(values.length);
+        final double mean = (double) sum / values.length;
+        assertThat(snapshot.getMean()).isWithin(mean / (1 << StripedHistogram.SUB_BITS)).of(mean);
+        assertClose(snapshot.getP50(), values[values.length / 2 - 1]);
+        assertClose(snapshot.getP90(), values[values.length * 9 / 10 - 1]);
+        assertClose(snapshot.getP99(), values[values.length * 99 / 100 - 1]);
+        assertClose(snapshot.getP999(), values[values.length * 999 / 1000 - 1]);
+        assertClose(snapshot.getMax(), values[values.length - 1]);
+        histogram.reset();
+        assertThat(histogram.snapshot().getCount()).isEqualTo(0);
+    }
+
+    // Within the precision of a bucket
+
+    private static void assertClose(long fromHistogram, long exact) {
+        assertThat(fromHistogram).isAtLeast(exact);
+        assertThat(fromHistogram - exact).isAtMost(Math.max(1, exact >>> (StripedHistogram.SUB_BITS - 1)));
+    }
+
+    @Test
+    void testHistogramRecordsFromSeveralThreads() throws Exception {
+        final StripedHistogram histogram = new StripedHistogram();
+        final int threads = 4;
+        final int perThread = 100_000;
+        final ExecutorService executor = Executors.newFixedThreadPool(threads);
+        try {
+            final List<Future<?>> futures = new ArrayList<>();
+            for (int t = 0; t < threads; t++) {
+                futures.add(executor.submit(() -> {
+                    for (int i = 0; i < perThread; i++) {
+                        histogram.record(i % 100);
+                    }
+                }));
+            }
+            for (Future<?> future : futures) {
+                future.get(30, TimeUnit.SECONDS);
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+        final StripedHistogram.Snapshot snapshot = histogram.snapshot();
+        assertThat(snapshot.getCount()).isEqualTo(threads * perThread);
+        assertThat(snapshot.getMax()).isEqualTo(99);
+        assertThat(snapshot.getMean()).isWithin(0.5).of(49.5);
+    }
+
+    // Send one frame on a connection of its own and wait for the server to drop the connection
+
+    private static void sendRejected(@NotNull InetSocketAddress server, @NotNull ClientToServer c2s) throws IOException {
+        try (Socket socket = new Socket()) {
+            socket.setSoTimeout(10_000);
+            socket.connect(server);
+            UtilsForProtobufFraming.writeFrame(c2s, socket.getOutputStream());
+            assertThat(socket.getInputStream().read()).isEqualTo(-1);
+        }
+    }
+
+    @Test
+    void testServersCountEveryFrame() throws Exception {
+        final int logins = 50;
+        final InetSocketAddress loopback = new InetSocketAddress(InetAddress.getLoopbackAddress(), 0);
+        for (LoginServerEngine engine : LoginServerEngine.values()) {
+            // Every frame timed
+            final LoginMetrics metrics = new LoginMetrics(0);
+            try (LoginServer server = engine.create(loopback, new LoginExchangeHandler(), null, metrics)) {
+                server.start();
+                try (LoginClientNio client = new LoginClientNio(server.getLocalAddress())) {
+                    final List<CompletableFuture<?>> futures = new ArrayList<>();
+                    for (int i = 0; i < logins; i++) {
+                        futures.add(client.login(new LoginClientExchange("player " + i)));
+                    }
+                    for (CompletableFuture<?> future : futures) {
+                        future.get(30, TimeUnit.SECONDS);
+                    }
+                }
+                final ClientToServer request = buildLoginRequest(new CommonData(1, UUID.randomUUID(), UUID.randomUUID()));
+                sendRejected(server.getLocalAddress(), request.toBuilder().setCommonStuff(request.getCommonStuff().toBuilder().setSeqNum(0)).build());
+                sendRejected(server.getLocalAddress(), request.toBuilder().clearPayloadType().build());
+                sendRejected(server.getLocalAddress(), request.toBuilder().setPayloadTypeValue(11).build());
+                // LOGIN_CLOSE may still be in flight when the client considers itself done
+                final long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+                while (metrics.getReceivedByPayloadType().getOrDefault("LOGIN_CLOSE", 0L) < logins && System.nanoTime() < deadline) {
+                    Thread.sleep(10);
+                }
+            }
+            assertThat(metrics.getReceivedByPayloadType()).containsExactly(
+                    "LOGIN_REQUEST", (long) logins, "LOGIN_CHALLENGE_SOLVED", (long) logins,
+                    "LOGIN_FOLLOWUP", (long) logins, "LOGIN_CLOSE", (long) logins).inOrder();
+            assertThat(metrics.getSentByPayloadType()).containsExactly(
+                    "LOGIN_CHALLENGE", (long) logins, "LOGIN_FOLLOWUP_ANSWER_OK", (long) logins,
+                    "LOGIN_CHALLENGE_SOLVED_ANSWER_OK", (long) logins).inOrder();
+            assertThat(metrics.getRejectedByReason()).containsExactly(
+                    "PAYLOAD_TYPE_UNKNOWN", 1L, "PAYLOAD_TYPE_UNRECOGNIZED", 1L, "SEQ_NUM_INVALID", 1L).inOrder();
+            assertThat(metrics.getFramesReceived()).isEqualTo(4 * logins + 3);
+            assertThat(metrics.getFramesRejected()).isEqualTo(3);
+            assertThat(metrics.getFramesSent()).isEqualTo(3 * logins);
+            assertThat(metrics.getFrameSizeReceived().getCount()).isEqualTo(4 * logins + 3);
+            assertThat(metrics.getFrameSizeSent().getCount()).isEqualTo(3 * logins);
+            assertThat(metrics.getFrameSizeSent().getP50()).isGreaterThan(20);
+            assertThat(metrics.getVerifyNanos().getCount()).isEqualTo(4 * logins + 3);
+            assertThat(metrics.getParseNanos().getCount()).isEqualTo(4 * logins);
+            assertThat(metrics.getParseNanos().getP50()).isGreaterThan(0);
+        }
+    }
+
+    @Test
+    void testSampledTiming() {
+        final LoginMetrics metrics = new LoginMetrics(2);
+        final LoginMetrics.Recorder recorder = metrics.recording(new MessageScanner());
+        final byte[] bytes = buildLoginRequest(CommonData.generateRandomCommonData()).toByteArray();
+        for (int i = 0; i < 100; i++) {
+            assertThat(recorder.validate(ByteBuffer.wrap(bytes), 0, bytes.length)).isEqualTo(ScanResult.OK);
+            recorder.parsed();
+        }
+        assertThat(metrics.getReceivedByPayloadType()).containsExactly("LOGIN_REQUEST", 100L);
+        assertThat(metrics.getVerifyNanos().getCount()).isEqualTo(25);
+        assertThat(metrics.getParseNanos().getCount()).isEqualTo(25);
+        metrics.reset();
+        assertThat(metrics.getFramesReceived()).isEqualTo(0);
+        assertThat(metrics.getReceivedByPayloadType()).isEmpty();
+    }
+
+    // ---
+    // Each Recorder counts on its own: the counts of a closed Recorder are kept, those of a live one
+    // are included, reset() applies to both, and frames too large to be counted locally still are
+    // ---
+
+    @Test
+    void testRecordersCountOnTheirOwn() throws Exception {
+        final LoginMetrics metrics = new LoginMetrics();
+        final int threads = 4;
+        final int perThread = 10_000;
+        final ExecutorService executor = Executors.newFixedThreadPool(threads);
+        try {
+            final List<Future<?>> futures = new ArrayList<>();
+            for (int t = 0; t < threads; t++) {
+                futures.add(executor.submit(() -> {
+                    try (LoginMetrics.Recorder recorder = metrics.recording(new MessageScanner())) {
+                        for (int i = 0; i < perThread; i++) {
+                            recorder.sent(ServerToClient.PayloadType.LOGIN_CHALLENGE_VALUE, 40);
+                        }
+                    }
+                }));
+            }
+            for (Future<?> future : futures) {
+                future.get(30, TimeUnit.SECONDS);
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+        final LoginMetrics.Recorder live = metrics.recording(new MessageScanner());
+        live.sent(ServerToClient.PayloadType.LOGIN_CHALLENGE_VALUE, 40);
+        live.sent(ServerToClient.PayloadType.LOGIN_CHALLENGE_VALUE, 1000);
+        assertThat(metrics.getSentByPayloadType()).containsExactly("LOGIN_CHALLENGE", threads * perThread + 2L);
+        final StripedHistogram.Snapshot sizes = metrics.getFrameSizeSent();
+        assertThat(sizes.getCount()).isEqualTo(threads * perThread + 2L);
+        assertThat(sizes.getP50()).isEqualTo(41);
+        assertThat(sizes.getMax()).isAtLeast(1002);
+        metrics.reset();
+        assertThat(metrics.getFramesSent()).isEqualTo(0);
+        assertThat(metrics.getFrameSizeSent().getCount()).isEqualTo(0);
+        live.sent(ServerToClient.PayloadType.LOGIN_CHALLENGE_VALUE, 40);
+        live.close();
+        live.close();
+        assertThat(metrics.getFramesSent()).isEqualTo(1);
+        assertThat(metrics.getFrameSizeSent().getCount()).isEqualTo(1);
+    }
+
+    @Test
+    void testJmx() throws Exception {
+        final String name = "name.pomelo.protobuf_trial:type=LoginMetrics,name=test";
+        final MBeanServer mbeans = ManagementFactory.getPlatformMBeanServer();
+        try (LoginMetrics metrics = new LoginMetrics(0).registerMBean(name)) {
+            final LoginMetrics.Recorder recorder = metrics.recording(new MessageScanner());
+            recorder.sent(ServerToClient.PayloadType.LOGIN_GENERIC_FAILURE_VALUE, 40);
+            recorder.sent(999, 40); // not in the enum
+            final ObjectName objectName = new ObjectName(name);
+            assertThat(mbeans.getAttribute(objectName, "FramesSent")).isEqualTo(2L);
+            assertThat(((TabularData) mbeans.getAttribute(objectName, "SentByPayloadType")).size()).isEqualTo(2);
+            final CompositeData sizes = (CompositeData) mbeans.getAttribute(objectName, "FrameSizeSent");
+            assertThat(sizes.get("count")).isEqualTo(2L);
+            assertThat(sizes.get("max")).isEqualTo(41L);
+            assertThat(metrics.getSentByPayloadType()).containsExactly("LOGIN_GENERIC_FAILURE", 1L, "UNRECOGNIZED", 1L).inOrder();
+            mbeans.invoke(objectName, "reset", null, null);
+            assertThat(metrics.getFramesSent()).isEqualTo(0);
+        }
+        assertThat(mbeans.isRegistered(new ObjectName(name))).isFalse();
+    }
+}
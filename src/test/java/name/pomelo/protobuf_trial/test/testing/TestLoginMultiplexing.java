@@ -0,0 +1,281 @@
+package name.pomelo.protobuf_trial.test.testing;
+
+import name.pomelo.protobuf_trial.protos.ClientToServer;
+import name.pomelo.protobuf_trial.protos.CommonStuff;
+import name.pomelo.protobuf_trial.protos.ServerToClient;
+import name.pomelo.protobuf_trial.test.common.ChallengeGenerator;
+import name.pomelo.protobuf_trial.test.common.ChallengeIssuer;
+import name.pomelo.protobuf_trial.test.common.CommonData;
+import name.pomelo.protobuf_trial.test.common.ExchangeSessionTable;
+import name.pomelo.protobuf_trial.test.common.LoginClientExchange;
+import name.pomelo.protobuf_trial.test.common.LoginClientMultiplexed;
+import name.pomelo.protobuf_trial.test.common.LoginConnection;
+import name.pomelo.protobuf_trial.test.common.LoginExchangeHandler;
+import name.pomelo.protobuf_trial.test.common.LoginResponder;
+import name.pomelo.protobuf_trial.test.common.LoginResult;
+import name.pomelo.protobuf_trial.test.common.LoginServer;
+import name.pomelo.protobuf_trial.test.common.LoginServerEngine;
+import name.pomelo.protobuf_trial.test.common.UtilsForProtobufFraming;
+import name.pomelo.protobuf_trial.test.common.UuidEncoding;
+import org.jetbrains.annotations.NotNull;
+import org.junit.jupiter.api.Test;
+
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static com.google.common.truth.Truth.assertThat;
+import static name.pomelo.protobuf_trial.test.common.UtilsForProtobufClientToServerMsgs.*;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+// ---
+// Many "Login exchanges" over one connection: interleaved, answered out of order, and limited per connection.
+// ---
+
+class TestLoginMultiplexing {
+
+    private final static InetSocketAddress loopback = new InetSocketAddress(InetAddress.getLoopbackAddress(), 0);
+
+    private final static int multiplexedLogins = 2000;
+
+    // ---
+    // Records the type of the last response
+    // ---
+
+    private static class LastResponse implements LoginResponder {
+
+        private ServerToClient.PayloadType type;
+
+        @Override
+        public void loginChallenge(long product, @NotNull CommonStuff echo) {
+            this.type = ServerToClient.PayloadType.LOGIN_CHALLENGE;
+        }
+
+        @Override
+        public void loginRequestAnswerFailure(@NotNull String msg, @NotNull CommonStuff echo) {
+            this.type = ServerToClient.PayloadType.LOGIN_REQUEST_ANSWER_FAILURE;
+        }
+
+        @Override
+        public void loginChallengeSolvedAnswerOk(@NotNull CommonStuff echo) {
+            this.type = ServerToClient.PayloadType.LOGIN_CHALLENGE_SOLVED_ANSWER_OK;
+        }
+
+        @Override
+        public void loginChallengeSolvedAnswerFailure(@NotNull CommonStuff echo) {
+            this.type = ServerToClient.PayloadType.LOGIN_CHALLENGE_SOLVED_ANSWER_FAILURE;
+        }
+
+        @Override
+        public void loginFollowupAnswerOk(@NotNull UUID playerUuid, @NotNull String playerName, @NotNull CommonStuff echo) {
+            this.type = ServerToClient.PayloadType.LOGIN_FOLLOWUP_ANSWER_OK;
+        }
+
+        @Override
+        public void loginGenericFailure(@NotNull String msg, @NotNull ClientToServer cause, @NotNull CommonStuff echo) {
+            this.type = ServerToClient.PayloadType.LOGIN_GENERIC_FAILURE;
+        }
+    }
+
+    @Test
+    void testManyLoginsOverOneConnection() throws Exception {
+        for (LoginServerEngine engine : LoginServerEngine.values()) {
+            System.out.println("Running " + multiplexedLogins + " logins over one connection against engine " + engine);
+            runManyLoginsOverOneConnection(engine);
+        }
+    }
+
+    private static void runManyLoginsOverOneConnection(@NotNull LoginServerEngine engine) throws Exception {
+        final LoginExchangeHandler handler = new LoginExchangeHandler().setMaxExchangesPerConnection(64);
+        try (LoginServer server = engine.create(loopback, handler)) {
+            server.start();
+            try (LoginClientMultiplexed client = new LoginClientMultiplexed(server.getLocalAddress(), 64)) {
+                final List<CompletableFuture<LoginResult>> futures = new ArrayList<>();
+                for (int i = 0; i < multiplexedLogins; i++) {
+                    // Half of the exchanges negotiate UuidFixed
+                    final UuidEncoding preferred = (i % 2 == 0) ? UuidEncoding.SIMPLE : UuidEncoding.FIXED;
+                    futures.add(client.login(new LoginClientExchange("player " + i, preferred)));
+                }
+                for (int i = 0; i < multiplexedLogins; i++) {
+                    final LoginResult result = futures.get(i).get(30, TimeUnit.SECONDS);
+                    assertThat(result.getPlayerName()).isEqualTo("player " + i);
+                    assertThat(result.getPlayerUuid()).isEqualTo(LoginExchangeHandler.playerUuidFor("player " + i));
+                }
+                assertThat(client.getRefusedCount()).isEqualTo(0);
+                assertThat(client.getInFlightCount()).isEqualTo(0);
+            }
+            awaitNoOpenExchanges(handler);
+        }
+    }
+
+    // ---
+    // The limit per connection, directly on the handler: a LOGIN_REQUEST beyond it is refused
+    // until an exchange of the connection has ended; closing the connection closes its exchanges
+    // ---
+
+    @Test
+    void testLimitPerConnection() {
+        final LoginExchangeHandler handler = new LoginExchangeHandler().setMaxExchangesPerConnection(3);
+        final LastResponse last = new LastResponse();
+        final LoginConnection connection = handler.openConnection(last);
+        final List<CommonData> open = new ArrayList<>();
+        for (int i = 0; i < 3; i++) {
+            final CommonData cd = CommonData.generateRandomCommonData();
+            handler.handle(buildLoginRequest(cd), connection);
+            assertThat(last.type).isEqualTo(ServerToClient.PayloadType.LOGIN_CHALLENGE);
+            open.add(cd);
+        }
+        final CommonData refused = CommonData.generateRandomCommonData();
+        handler.handle(buildLoginRequest(refused), connection);
+        assertThat(last.type).isEqualTo(ServerToClient.PayloadType.LOGIN_REQUEST_ANSWER_FAILURE);
+        assertThat(connection.getRefusedCount()).isEqualTo(1);
+        assertThat(handler.getOpenExchangeCount()).isEqualTo(3);
+        // Other connections are not affected
+        final LoginConnection other = handler.openConnection(new LastResponse());
+        handler.handle(buildLoginRequest(CommonData.generateRandomCommonData()), other);
+        assertThat(other.getOpenExchangeCount()).isEqualTo(1);
+        // A wrong solution ends an exchange, making room
+        final CommonData wrong = open.removeFirst();
+        handler.handle(buildLoginChallengeSolved(1, 1, wrong.withSeqNum(wrong.getSeqNum() + 1)), connection);
+        assertThat(last.type).isEqualTo(ServerToClient.PayloadType.LOGIN_CHALLENGE_SOLVED_ANSWER_FAILURE);
+        assertThat(connection.getOpenExchangeCount()).isEqualTo(2);
+        handler.handle(buildLoginRequest(refused.withSeqNum(refused.getSeqNum() + 1)), connection);
+        assertThat(last.type).isEqualTo(ServerToClient.PayloadType.LOGIN_CHALLENGE);
+        assertThat(connection.getOpenExchangeCount()).isEqualTo(3);
+        // The connection goes away
+        assertThat(handler.closeConnection(connection)).isEqualTo(3);
+        assertThat(connection.getOpenExchangeCount()).isEqualTo(0);
+        assertThat(handler.getAbandonedExchangeCount()).isEqualTo(3);
+        assertThat(handler.getOpenExchangeCount()).isEqualTo(1);
+        handler.handle(buildLoginRequest(CommonData.generateRandomCommonData()), connection);
+        assertThat(last.type).isEqualTo(ServerToClient.PayloadType.LOGIN_REQUEST_ANSWER_FAILURE);
+        // Without a connection, there is no limit
+        for (int i = 0; i < 10; i++) {
+            assertThat(handler.handle(buildLoginRequest(CommonData.generateRandomCommonData())).getPayloadType()).isEqualTo(ServerToClient.PayloadType.LOGIN_CHALLENGE);
+        }
+    }
+
+    // ---
+    // A refused LOGIN_REQUEST takes no product from the generator (nor, with AdaptiveDifficulty,
+    // counts as a request of its UUID prefix); neither does one for an exchange that exists
+    // ---
+
+    @Test
+    void testRefusalIssuesNoChallenge() {
+        final AtomicInteger issued = new AtomicInteger();
+        final ChallengeIssuer counting = (clientExchangeHigh, nowNanos) -> {
+            issued.incrementAndGet();
+            return ChallengeGenerator.shared().issue(clientExchangeHigh, nowNanos);
+        };
+        final LoginExchangeHandler handler = new LoginExchangeHandler(new ExchangeSessionTable<>(), counting).setMaxExchangesPerConnection(2);
+        final LastResponse last = new LastResponse();
+        final LoginConnection connection = handler.openConnection(last);
+        final CommonData first = CommonData.generateRandomCommonData();
+        handler.handle(buildLoginRequest(first), connection);
+        handler.handle(buildLoginRequest(CommonData.generateRandomCommonData()), connection);
+        assertThat(issued.get()).isEqualTo(2);
+        for (int i = 0; i < 100; i++) {
+            handler.handle(buildLoginRequest(CommonData.generateRandomCommonData()), connection);
+            assertThat(last.type).isEqualTo(ServerToClient.PayloadType.LOGIN_REQUEST_ANSWER_FAILURE);
+        }
+        handler.handle(buildLoginRequest(first.withSeqNum(first.getSeqNum() + 1)), connection);
+        assertThat(last.type).isEqualTo(ServerToClient.PayloadType.LOGIN_GENERIC_FAILURE);
+        assertThat(issued.get()).isEqualTo(2);
+        assertThat(connection.getRefusedCount()).isEqualTo(100);
+    }
+
+    // ---
+    // Over the network: pipelined LOGIN_REQUESTs beyond the limit are refused, and the exchanges
+    // left open are closed when the client disconnects
+    // ---
+
+    @Test
+    void testRefusedAndClosedOnDisconnect() throws Exception {
+        for (LoginServerEngine engine : LoginServerEngine.values()) {
+            runRefusedAndClosedOnDisconnect(engine);
+        }
+    }
+
+    private static void runRefusedAndClosedOnDisconnect(@NotNull LoginServerEngine engine) throws Exception {
+        final LoginExchangeHandler handler = new LoginExchangeHandler().setMaxExchangesPerConnection(4);
+        try (LoginServer server = engine.create(loopback, handler)) {
+            server.start();
+            final List<CommonData> requests = new ArrayList<>();
+            try (Socket socket = new Socket()) {
+                socket.connect(server.getLocalAddress());
+                final OutputStream out = socket.getOutputStream();
+                final InputStream in = socket.getInputStream();
+                for (int i = 0; i < 6; i++) {
+                    final CommonData cd = CommonData.generateRandomCommonData();
+                    UtilsForProtobufFraming.writeFrame(buildLoginRequest(cd), out);
+                    requests.add(cd);
+                }
+                out.flush();
+                for (int i = 0; i < 6; i++) {
+                    final ServerToClient s2c = UtilsForProtobufFraming.readFrame(in, ServerToClient.parser(), UtilsForProtobufFraming.DEFAULT_MAX_FRAME_SIZE);
+                    assertThat(s2c).isNotNull();
+                    assertThat(s2c.getCommonStuff()).isEqualTo(requests.get(i).toProtobufCommonStuff());
+                    if (i < 4) {
+                        assertThat(s2c.getPayloadType()).isEqualTo(ServerToClient.PayloadType.LOGIN_CHALLENGE);
+                    } else {
+                        assertThat(s2c.getPayloadType()).isEqualTo(ServerToClient.PayloadType.LOGIN_REQUEST_ANSWER_FAILURE);
+                        System.out.println("Refused as expected: " + s2c.getLoginRequestAnswerFailure().getMsg());
+                    }
+                }
+                assertThat(handler.getOpenExchangeCount()).isEqualTo(4);
+            }
+            awaitNoOpenExchanges(handler);
+            assertThat(handler.getAbandonedExchangeCount()).isEqualTo(4);
+        }
+    }
+
+    // ---
+    // A client allowing itself more than the server does gets the surplus refused
+    // ---
+
+    @Test
+    void testClientExceedingServerLimit() throws Exception {
+        final LoginExchangeHandler handler = new LoginExchangeHandler().setMaxExchangesPerConnection(2);
+        try (LoginServer server = LoginServerEngine.NIO.create(loopback, handler)) {
+            server.start();
+            try (LoginClientMultiplexed client = new LoginClientMultiplexed(server.getLocalAddress(), 8)) {
+                final List<CompletableFuture<LoginResult>> futures = new ArrayList<>();
+                for (int i = 0; i < 8; i++) {
+                    futures.add(client.login("player " + i));
+                }
+                int ok = 0;
+                for (CompletableFuture<LoginResult> f : futures) {
+                    try {
+                        f.get(30, TimeUnit.SECONDS);
+                        ok++;
+                    } catch (ExecutionException e) {
+                        assertThat(e.getCause()).isInstanceOf(IllegalStateException.class);
+                    }
+                }
+                assertThat(ok).isAtLeast(2);
+                assertThat(client.getRefusedCount()).isEqualTo(8 - ok);
+            }
+            final LoginClientMultiplexed closed = new LoginClientMultiplexed(server.getLocalAddress(), 2);
+            closed.close();
+            assertThrows(ExecutionException.class, () -> closed.login("player 0").get(30, TimeUnit.SECONDS));
+        }
+    }
+
+    private static void awaitNoOpenExchanges(@NotNull LoginExchangeHandler handler) throws InterruptedException {
+        // LOGIN_CLOSE, or the disconnect, may still be on its way when the client considers itself done
+        final long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+        while (handler.getOpenExchangeCount() > 0 && System.nanoTime() < deadline) {
+            Thread.sleep(10);
+        }
+        assertThat(handler.getOpenExchangeCount()).isEqualTo(0);
+    }
+}
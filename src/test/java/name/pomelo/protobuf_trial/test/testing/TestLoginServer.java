@@ -0,0 +1,161 @@
+package name.pomelo.protobuf_trial.test.testing;
+
+import name.pomelo.protobuf_trial.protos.ClientToServer;
+import name.pomelo.protobuf_trial.protos.ServerToClient;
+import name.pomelo.protobuf_trial.test.common.CommonData;
+import name.pomelo.protobuf_trial.test.common.FlushPolicy;
+import name.pomelo.protobuf_trial.test.common.LoginClientExchange;
+import name.pomelo.protobuf_trial.test.common.LoginClientNio;
+import name.pomelo.protobuf_trial.test.common.LoginExchangeHandler;
+import name.pomelo.protobuf_trial.test.common.LoginResult;
+import name.pomelo.protobuf_trial.test.common.LoginServer;
+import name.pomelo.protobuf_trial.test.common.LoginServerEngine;
+import name.pomelo.protobuf_trial.test.common.LoginServerNio;
+import name.pomelo.protobuf_trial.test.common.UtilsForProtobufFraming;
+import name.pomelo.protobuf_trial.test.common.UuidEncoding;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+import static com.google.common.truth.Truth.assertThat;
+import static name.pomelo.protobuf_trial.test.common.UtilsForProtobufClientToServerMsgs.*;
+
+// ---
+// Run "Login exchanges" against each login server engine over the loopback interface.
+// ---
+
+class TestLoginServer {
+
+    private final static InetSocketAddress loopback = new InetSocketAddress(InetAddress.getLoopbackAddress(), 0);
+
+    private final static int concurrentLogins = 1000;
+
+    private static @Nullable ServerToClient exchange(@NotNull Socket socket, @NotNull ClientToServer c2s) throws IOException {
+        final OutputStream out = socket.getOutputStream();
+        final InputStream in = socket.getInputStream();
+        UtilsForProtobufFraming.writeFrame(c2s, out);
+        out.flush();
+        return UtilsForProtobufFraming.readFrame(in, ServerToClient.parser(), UtilsForProtobufFraming.DEFAULT_MAX_FRAME_SIZE);
+    }
+
+    @Test
+    void testManyConcurrentLogins() throws Exception {
+        for (LoginServerEngine engine : LoginServerEngine.values()) {
+            System.out.println("Running " + concurrentLogins + " concurrent logins against engine " + engine);
+            runManyConcurrentLogins(engine);
+        }
+    }
+
+    @Test
+    void testManyConcurrentLoginsWithDelayedFlush() throws Exception {
+        // Responses wait up to 2 ms for more to go out with them, or until 4 KiB are queued
+        final FlushPolicy policy = new FlushPolicy(4096, TimeUnit.MILLISECONDS.toNanos(2));
+        System.out.println("Running " + concurrentLogins + " concurrent logins against engine NIO with " + policy);
+        runManyConcurrentLogins(new LoginServerNio(loopback, 2, new LoginExchangeHandler(), policy));
+    }
+
+    private static void runManyConcurrentLogins(@NotNull LoginServerEngine engine) throws Exception {
+        runManyConcurrentLogins(engine.create(loopback, new LoginExchangeHandler()));
+    }
+
+    private static void runManyConcurrentLogins(@NotNull LoginServer loginServer) throws Exception {
+        try (LoginServer server = loginServer;
+             LoginClientNio client = new LoginClientNio(startAndGetAddress(server))) {
+            final List<CompletableFuture<LoginResult>> futures = new ArrayList<>();
+            for (int i = 0; i < concurrentLogins; i++) {
+                // Half of the clients negotiate UuidFixed
+                final UuidEncoding preferred = (i % 2 == 0) ? UuidEncoding.SIMPLE : UuidEncoding.FIXED;
+                futures.add(client.login(new LoginClientExchange("player " + i, preferred)));
+            }
+            for (int i = 0; i < concurrentLogins; i++) {
+                final LoginResult result = futures.get(i).get(30, TimeUnit.SECONDS);
+                assertThat(result.getPlayerName()).isEqualTo("player " + i);
+                assertThat(result.getPlayerUuid()).isEqualTo(LoginExchangeHandler.playerUuidFor("player " + i));
+            }
+            // LOGIN_CLOSE may still be in flight when the client considers itself done
+            final long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+            while (server.getHandler().getOpenExchangeCount() > 0 && System.nanoTime() < deadline) {
+                Thread.sleep(10);
+            }
+            assertThat(server.getHandler().getOpenExchangeCount()).isEqualTo(0);
+        }
+    }
+
+    @Test
+    void testWrongSolutionIsRefused() throws Exception {
+        for (LoginServerEngine engine : LoginServerEngine.values()) {
+            runWrongSolutionIsRefused(engine);
+        }
+    }
+
+    private static void runWrongSolutionIsRefused(@NotNull LoginServerEngine engine) throws Exception {
+        try (LoginServer server = engine.create(loopback, new LoginExchangeHandler());
+             Socket socket = new Socket()) {
+            socket.connect(startAndGetAddress(server));
+            final CommonData cd = CommonData.generateRandomCommonData();
+            final ServerToClient challenge = exchange(socket, buildLoginRequest(cd));
+            assertThat(challenge).isNotNull();
+            assertThat(challenge.getPayloadType()).isEqualTo(ServerToClient.PayloadType.LOGIN_CHALLENGE);
+            assertThat(challenge.getCommonStuff()).isEqualTo(cd.toProtobufCommonStuff());
+            final long product = challenge.getLoginChallenge().getProduct();
+            final ServerToClient answer = exchange(socket, buildLoginChallengeSolved(1, product, cd.withSeqNum(cd.getSeqNum() + 1)));
+            assertThat(answer).isNotNull();
+            assertThat(answer.getPayloadType()).isEqualTo(ServerToClient.PayloadType.LOGIN_CHALLENGE_SOLVED_ANSWER_FAILURE);
+        }
+    }
+
+    @Test
+    void testFollowupBeforeSolvingIsRefused() throws Exception {
+        for (LoginServerEngine engine : LoginServerEngine.values()) {
+            runFollowupBeforeSolvingIsRefused(engine);
+        }
+    }
+
+    private static void runFollowupBeforeSolvingIsRefused(@NotNull LoginServerEngine engine) throws Exception {
+        try (LoginServer server = engine.create(loopback, new LoginExchangeHandler());
+             Socket socket = new Socket()) {
+            socket.connect(startAndGetAddress(server));
+            final CommonData cd = CommonData.generateRandomCommonData();
+            exchange(socket, buildLoginRequest(cd));
+            final ClientToServer followup = buildLoginFollowup("john doe", cd.withSeqNum(cd.getSeqNum() + 1));
+            final ServerToClient answer = exchange(socket, followup);
+            assertThat(answer).isNotNull();
+            assertThat(answer.getPayloadType()).isEqualTo(ServerToClient.PayloadType.LOGIN_GENERIC_FAILURE);
+            assertThat(answer.getLoginGenericFailure().getCause()).isEqualTo(followup);
+        }
+    }
+
+    @Test
+    void testInvalidMessageDropsConnection() throws Exception {
+        for (LoginServerEngine engine : LoginServerEngine.values()) {
+            runInvalidMessageDropsConnection(engine);
+        }
+    }
+
+    private static void runInvalidMessageDropsConnection(@NotNull LoginServerEngine engine) throws Exception {
+        try (LoginServer server = engine.create(loopback, new LoginExchangeHandler());
+             Socket socket = new Socket()) {
+            socket.connect(startAndGetAddress(server));
+            final ClientToServer invalid = ClientToServer.newBuilder()
+                    .setCommonStuff(CommonData.generateRandomCommonData().toProtobufCommonStuff())
+                    .build(); // payload type UNKNOWN
+            assertThat(exchange(socket, invalid)).isNull();
+        }
+    }
+
+    private static @NotNull InetSocketAddress startAndGetAddress(@NotNull LoginServer server) throws IOException {
+        server.start();
+        return server.getLocalAddress();
+    }
+}
@@ -0,0 +1,268 @@
+package name.pomelo.protobuf_trial.test.testing;
+
+import com.google.protobuf.InvalidProtocolBufferException;
+import name.pomelo.protobuf_trial.protos.ClientToServer;
+import name.pomelo.protobuf_trial.protos.CommonStuff;
+import name.pomelo.protobuf_trial.protos.LoginFollowup;
+import name.pomelo.protobuf_trial.protos.ServerToClient;
+import name.pomelo.protobuf_trial.test.common.CommonData;
+import name.pomelo.protobuf_trial.test.common.FrameDecoder;
+import name.pomelo.protobuf_trial.test.common.FrameRejectedException;
+import name.pomelo.protobuf_trial.test.common.MessageScanner;
+import name.pomelo.protobuf_trial.test.common.ScanResult;
+import name.pomelo.protobuf_trial.test.common.UtilsForProtobufFraming;
+import name.pomelo.protobuf_trial.test.common.UtilsForProtobufUuid;
+import name.pomelo.protobuf_trial.test.common.UuidCodec;
+import name.pomelo.protobuf_trial.test.common.UuidEncoding;
+import org.jetbrains.annotations.NotNull;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.UUID;
+
+import static com.google.common.truth.Truth.assertThat;
+import static name.pomelo.protobuf_trial.test.common.UtilsForProtobufClientToServerMsgs.*;
+import static name.pomelo.protobuf_trial.test.common.UtilsForProtobufServerToClientMsgs.*;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+// ---
+// Test the validation of messages on their raw bytes: valid messages pass and yield
+// their header fields, invalid ones get the expected result code, and on randomly
+// mutated messages the scanner agrees with parseFrom() followed by the verify checks.
+// ---
+
+class TestMessageScanner {
+
+    private final static int rounds = 50_000;
+
+    private final static Random rand = new Random(4711);
+
+    private static @NotNull List<ClientToServer> generateValidClientToServerMsgs() {
+        final List<ClientToServer> res = new ArrayList<>();
+        for (int i = 0; i < 21; i++) {
+            final CommonData cd = CommonData.generateRandomCommonData().withUuidEncoding(UuidEncoding.values()[i % 3]);
+            res.add(buildLoginRequest(cd));
+            res.add(buildLoginChallengeSolved(rand.nextLong(), rand.nextLong(), cd));
+            res.add(buildLoginFollowup("player " + i, cd));
+            res.add(buildLoginFinish(cd));
+        }
+        return res;
+    }
+
+    private static int scan(@NotNull MessageScanner scanner, byte @NotNull [] bytes) {
+        // Surround the message with junk, the scanner must stay within its bounds
+        final ByteBuffer buf = ByteBuffer.allocateDirect(bytes.length + 6);
+        buf.put(new byte[]{(byte) 0xFF, (byte) 0xFF, (byte) 0xFF}).put(bytes).put(new byte[]{(byte) 0xFF, (byte) 0xFF, (byte) 0xFF});
+        return scanner.scanClientToServer(buf, 3, bytes.length);
+    }
+
+    private static @NotNull CommonStuff validCommonStuff() {
+        return CommonData.generateRandomCommonData().toProtobufCommonStuff();
+    }
+
+    // The result code that verifyClientToServerMessage() implies for a message which parsed
+
+    private static int expectedResult(@NotNull ClientToServer c2s) {
+        if (c2s.getCommonStuff().getSeqNum() <= 0) {
+            return ScanResult.SEQ_NUM_INVALID;
+        }
+        final boolean solved = c2s.hasLoginChallengeSolved();
+        final boolean followup = c2s.hasLoginFollowup();
+        switch (c2s.getPayloadType()) {
+            case UNRECOGNIZED:
+                return ScanResult.PAYLOAD_TYPE_UNRECOGNIZED;
+            case UNKNOWN:
+                return ScanResult.PAYLOAD_TYPE_UNKNOWN;
+            case LOGIN_CHALLENGE_SOLVED:
+                if (!solved) {
+                    return ScanResult.PAYLOAD_MISSING;
+                }
+                if (followup) {
+                    return ScanResult.PAYLOAD_UNEXPECTED;
+                }
+                break;
+            case LOGIN_FOLLOWUP:
+                if (!followup) {
+                    return ScanResult.PAYLOAD_MISSING;
+                }
+                if (solved) {
+                    return ScanResult.PAYLOAD_UNEXPECTED;
+                }
+                if (c2s.getLoginFollowup().getUsername().isEmpty()) {
+                    return ScanResult.USERNAME_EMPTY;
+                }
+                break;
+            default:
+                if (solved || followup) {
+                    return ScanResult.PAYLOAD_UNEXPECTED;
+                }
+        }
+        if (UtilsForProtobufUuid.isNilClientExchangeUuid(c2s.getCommonStuff())) {
+            return ScanResult.CLIENT_EXCHANGE_UUID_NIL;
+        }
+        if (UtilsForProtobufUuid.isNilServerExchangeUuid(c2s.getCommonStuff())) {
+            return ScanResult.SERVER_EXCHANGE_UUID_NIL;
+        }
+        if (!UtilsForProtobufUuid.hasConsistentExchangeUuids(c2s.getCommonStuff())) {
+            return ScanResult.UUID_ENCODING_MISMATCH;
+        }
+        return ScanResult.OK;
+    }
+
+    @Test
+    void testValidClientToServerMsgs() {
+        final MessageScanner scanner = new MessageScanner();
+        for (ClientToServer c2s : generateValidClientToServerMsgs()) {
+            assertThat(scan(scanner, c2s.toByteArray())).isEqualTo(ScanResult.OK);
+            final CommonStuff cs = c2s.getCommonStuff();
+            assertThat(scanner.getPayloadTypeValue()).isEqualTo(c2s.getPayloadTypeValue());
+            assertThat(scanner.getSeqNum()).isEqualTo(cs.getSeqNum());
+            assertThat(scanner.getClientExchangeHigh()).isEqualTo(UtilsForProtobufUuid.clientExchangeHighOf(cs));
+            assertThat(scanner.getClientExchangeLow()).isEqualTo(UtilsForProtobufUuid.clientExchangeLowOf(cs));
+            assertThat(scanner.getServerExchangeHigh()).isEqualTo(UtilsForProtobufUuid.serverExchangeHighOf(cs));
+            assertThat(scanner.getServerExchangeLow()).isEqualTo(UtilsForProtobufUuid.serverExchangeLowOf(cs));
+        }
+    }
+
+    @Test
+    void testValidServerToClientMsgs() {
+        final MessageScanner scanner = new MessageScanner();
+        final CommonData cd = CommonData.generateRandomCommonData();
+        final ClientToServer cause = buildLoginRequest(cd);
+        final List<ServerToClient> msgs = List.of(
+                buildGenericFailure("failure", cause, cd),
+                buildLoginGenericFailure("login failure", cause, cd),
+                buildLoginChallenge(11 * 13, cd),
+                buildLoginRequestAnswerOk(cd),
+                buildLoginRequestAnswerFailure("refused", cd),
+                buildLoginFollowupAnswerOk(UUID.randomUUID(), "john doe", cd),
+                buildLoginFollowupAnswerFailure(cd),
+                buildLoginChallengeSolvedAnswerOk(cd),
+                buildLoginChallengeSolvedAnswerFailure(cd));
+        for (ServerToClient s2c : msgs) {
+            final byte[] bytes = s2c.toByteArray();
+            assertThat(scanner.scanServerToClient(ByteBuffer.wrap(bytes), 0, bytes.length)).isEqualTo(ScanResult.OK);
+            assertThat(scanner.getPayloadTypeValue()).isEqualTo(s2c.getPayloadTypeValue());
+            assertThat(scanner.getSeqNum()).isEqualTo(cd.getSeqNum());
+        }
+        // A ServerToClient with the payload of another payload type
+        final ServerToClient mismatch = buildLoginChallenge(11 * 13, cd).toBuilder().setPayloadType(ServerToClient.PayloadType.LOGIN_REQUEST_ANSWER_OK).build();
+        final byte[] bytes = mismatch.toByteArray();
+        assertThat(scanner.scanServerToClient(ByteBuffer.wrap(bytes), 0, bytes.length)).isEqualTo(ScanResult.PAYLOAD_UNEXPECTED);
+    }
+
+    @Test
+    void testInvalidClientToServerMsgs() {
+        final MessageScanner scanner = new MessageScanner();
+        final CommonStuff cs = validCommonStuff();
+        final ClientToServer request = ClientToServer.newBuilder().setPayloadType(ClientToServer.PayloadType.LOGIN_REQUEST).setCommonStuff(cs).build();
+        assertThat(scan(scanner, request.toByteArray())).isEqualTo(ScanResult.OK);
+        assertThat(scan(scanner, request.toBuilder().clearPayloadType().build().toByteArray())).isEqualTo(ScanResult.PAYLOAD_TYPE_UNKNOWN);
+        assertThat(scan(scanner, request.toBuilder().setPayloadTypeValue(11).build().toByteArray())).isEqualTo(ScanResult.PAYLOAD_TYPE_UNRECOGNIZED);
+        assertThat(scan(scanner, request.toBuilder().setCommonStuff(cs.toBuilder().setSeqNum(0)).build().toByteArray())).isEqualTo(ScanResult.SEQ_NUM_INVALID);
+        assertThat(scan(scanner, request.toBuilder().setCommonStuff(cs.toBuilder().setSeqNum(-5)).build().toByteArray())).isEqualTo(ScanResult.SEQ_NUM_INVALID);
+        assertThat(scan(scanner, request.toBuilder().setCommonStuff(cs.toBuilder().clearClientExchangeUuid()).build().toByteArray())).isEqualTo(ScanResult.CLIENT_EXCHANGE_UUID_NIL);
+        assertThat(scan(scanner, request.toBuilder().setCommonStuff(cs.toBuilder().clearServerExchangeUuid()).build().toByteArray())).isEqualTo(ScanResult.SERVER_EXCHANGE_UUID_NIL);
+        assertThat(scan(scanner, request.toBuilder().setCommonStuff(cs.toBuilder().setClientExchangeUuidFixed(UuidCodec.toUuidFixed(1, 2))).build().toByteArray())).isEqualTo(ScanResult.UUID_ENCODING_MISMATCH);
+        assertThat(scan(scanner, request.toBuilder().setPayloadType(ClientToServer.PayloadType.LOGIN_FOLLOWUP).build().toByteArray())).isEqualTo(ScanResult.PAYLOAD_MISSING);
+        assertThat(scan(scanner, request.toBuilder().setLoginFollowup(LoginFollowup.newBuilder().setUsername("john doe")).build().toByteArray())).isEqualTo(ScanResult.PAYLOAD_UNEXPECTED);
+        assertThat(scan(scanner, request.toBuilder().setPayloadType(ClientToServer.PayloadType.LOGIN_FOLLOWUP).setLoginFollowup(LoginFollowup.getDefaultInstance()).build().toByteArray())).isEqualTo(ScanResult.USERNAME_EMPTY);
+        // Truncation anywhere makes the message malformed or incomplete, never a crash
+        final byte[] bytes = request.toByteArray();
+        for (int length = 0; length < bytes.length; length++) {
+            final byte[] truncated = new byte[length];
+            System.arraycopy(bytes, 0, truncated, 0, length);
+            assertThat(scan(scanner, truncated)).isNotEqualTo(ScanResult.OK);
+        }
+        // Field number 0, invalid wire type, over-long varint
+        assertThat(scan(scanner, new byte[]{0x00, 0x01})).isEqualTo(ScanResult.MALFORMED);
+        assertThat(scan(scanner, new byte[]{0x0F})).isEqualTo(ScanResult.MALFORMED);
+        assertThat(scan(scanner, new byte[]{0x08, (byte) 0xFF, (byte) 0xFF, (byte) 0xFF, (byte) 0xFF, (byte) 0xFF, (byte) 0xFF, (byte) 0xFF, (byte) 0xFF, (byte) 0xFF, (byte) 0xFF, 0x01})).isEqualTo(ScanResult.MALFORMED);
+    }
+
+    @Test
+    void testPeekHeader() {
+        final MessageScanner scanner = new MessageScanner();
+        final CommonData cd = CommonData.generateRandomCommonData();
+        final List<byte[]> msgs = List.of(
+                buildLoginFollowup("john doe", cd).toByteArray(),
+                buildLoginGenericFailure("login failure", buildLoginRequest(cd), cd).toByteArray(),
+                // Invalid in what follows the header, which peekHeader() does not look at
+                buildLoginRequest(cd).toBuilder().setLoginFollowup(LoginFollowup.getDefaultInstance()).build().toByteArray());
+        for (byte[] bytes : msgs) {
+            final ByteBuffer buf = ByteBuffer.allocate(bytes.length + 2).put(1, bytes);
+            assertThat(scanner.peekHeader(buf, 1, bytes.length)).isEqualTo(ScanResult.OK);
+            assertThat(scanner.getSeqNum()).isEqualTo(cd.getSeqNum());
+            assertThat(scanner.getClientExchangeHigh()).isEqualTo(cd.getClientExchangeUUID().getMostSignificantBits());
+            assertThat(scanner.getClientExchangeLow()).isEqualTo(cd.getClientExchangeUUID().getLeastSignificantBits());
+            assertThat(scanner.getServerExchangeLow()).isEqualTo(cd.getServerExchangeUUID().getLeastSignificantBits());
+        }
+        assertThat(scanner.getPayloadTypeValue()).isEqualTo(ClientToServer.PayloadType.LOGIN_REQUEST_VALUE);
+        // Cut off within the payload
+        final byte[] followup = msgs.getFirst();
+        assertThat(scanner.peekHeader(ByteBuffer.wrap(followup), 0, followup.length - 1)).isEqualTo(ScanResult.MALFORMED);
+    }
+
+    @Test
+    void testAgreesWithParseAndVerifyOnMutatedMsgs() {
+        final MessageScanner scanner = new MessageScanner();
+        final List<ClientToServer> valid = generateValidClientToServerMsgs();
+        final int[] resultCounts = new int[ScanResult.COUNT];
+        for (int round = 0; round < rounds; round++) {
+            final byte[] bytes = valid.get(rand.nextInt(valid.size())).toByteArray();
+            final int mutations = 1 + rand.nextInt(3);
+            for (int i = 0; i < mutations; i++) {
+                bytes[rand.nextInt(bytes.length)] = (byte) rand.nextInt(256);
+            }
+            final int result = scan(scanner, bytes);
+            resultCounts[result]++;
+            ClientToServer parsed;
+            try {
+                parsed = ClientToServer.parseFrom(bytes);
+            } catch (InvalidProtocolBufferException exe) {
+                parsed = null;
+            }
+            if (parsed == null) {
+                // The scanner does not check UTF-8, that is the only thing it may miss
+                if (result != ScanResult.MALFORMED) {
+                    assertThat(isInvalidUtf8(bytes)).isTrue();
+                }
+            } else {
+                assertThat(result).isEqualTo(expectedResult(parsed));
+            }
+        }
+        for (int i = 0; i < ScanResult.COUNT; i++) {
+            System.out.println(ScanResult.describe(i) + ": " + resultCounts[i]);
+        }
+        assertThat(resultCounts[ScanResult.OK]).isGreaterThan(0);
+        assertThat(resultCounts[ScanResult.MALFORMED]).isGreaterThan(0);
+    }
+
+    private static boolean isInvalidUtf8(byte @NotNull [] bytes) {
+        try {
+            ClientToServer.parseFrom(bytes);
+            return false;
+        } catch (InvalidProtocolBufferException exe) {
+            return exe.getMessage().contains("UTF-8");
+        }
+    }
+
+    @Test
+    void testFrameDecoderRejectsBeforeParsing() throws IOException {
+        final ClientToServer valid = buildLoginRequest(CommonData.generateRandomCommonData());
+        final ClientToServer invalid = valid.toBuilder().setCommonStuff(valid.getCommonStuff().toBuilder().setSeqNum(0)).build();
+        final ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        UtilsForProtobufFraming.writeFrame(valid, baos);
+        UtilsForProtobufFraming.writeFrame(invalid, baos);
+        final FrameDecoder<ClientToServer> decoder = FrameDecoder.forClientToServer(UtilsForProtobufFraming.DEFAULT_MAX_FRAME_SIZE, new MessageScanner());
+        final List<ClientToServer> received = new ArrayList<>();
+        final FrameRejectedException exe = assertThrows(FrameRejectedException.class, () -> decoder.decode(ByteBuffer.wrap(baos.toByteArray()), received::add));
+        assertThat(exe.getResult()).isEqualTo(ScanResult.SEQ_NUM_INVALID);
+        assertThat(received).containsExactly(valid);
+    }
+}
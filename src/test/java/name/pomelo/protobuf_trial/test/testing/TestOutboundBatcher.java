@@ -0,0 +1,147 @@
+package name.pomelo.protobuf_trial.test.testing;
+
+import name.pomelo.protobuf_trial.test.common.BufferPool;
+import name.pomelo.protobuf_trial.test.common.OutboundBatcher;
+import org.jetbrains.annotations.NotNull;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.GatheringByteChannel;
+
+import static com.google.common.truth.Truth.assertThat;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+// ---
+// Test the coalescing of outbound frames into pooled buffers, written with gathering writes.
+// ---
+
+class TestOutboundBatcher {
+
+    // A channel accepting at most "accept" bytes per write, like a socket with a full send buffer
+
+    private static class ThrottledChannel implements GatheringByteChannel {
+
+        private final ByteArrayOutputStream received = new ByteArrayOutputStream();
+        private int accept = Integer.MAX_VALUE;
+        private int writeCalls;
+
+        @Override
+        public long write(ByteBuffer @NotNull [] srcs, int offset, int length) {
+            writeCalls++;
+            long total = 0;
+            for (int i = offset; i < offset + length && total < accept; i++) {
+                total += take(srcs[i], (int) (accept - total));
+            }
+            return total;
+        }
+
+        @Override
+        public long write(ByteBuffer @NotNull [] srcs) {
+            return write(srcs, 0, srcs.length);
+        }
+
+        @Override
+        public int write(@NotNull ByteBuffer src) {
+            writeCalls++;
+            return take(src, accept);
+        }
+
+        private int take(@NotNull ByteBuffer src, int max) {
+            final int n = Math.min(src.remaining(), max);
+            for (int i = 0; i < n; i++) {
+                received.write(src.get());
+            }
+            return n;
+        }
+
+        @Override
+        public boolean isOpen() {
+            return true;
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+
+    private static void putFrame(@NotNull OutboundBatcher batcher, int index, int size) {
+        final ByteBuffer buf = batcher.bufferFor(size);
+        for (int i = 0; i < size; i++) {
+            buf.put((byte) (index + i));
+        }
+    }
+
+    private static byte @NotNull [] expected(int frames, int size) {
+        final byte[] bytes = new byte[frames * size];
+        for (int f = 0; f < frames; f++) {
+            for (int i = 0; i < size; i++) {
+                bytes[f * size + i] = (byte) (f + i);
+            }
+        }
+        return bytes;
+    }
+
+    @Test
+    void testFramesAreCoalescedIntoOneWrite() throws Exception {
+        final BufferPool pool = new BufferPool(1024, 8);
+        final OutboundBatcher batcher = new OutboundBatcher(pool, 1024 * 1024);
+        final ThrottledChannel channel = new ThrottledChannel();
+        // 100 frames of 50 bytes spread over 5 pooled buffers
+        for (int f = 0; f < 100; f++) {
+            putFrame(batcher, f, 50);
+        }
+        assertThat(batcher.getQueuedBytes()).isEqualTo(5000);
+        assertThat(batcher.flush(channel)).isEqualTo(5000);
+        assertThat(channel.writeCalls).isEqualTo(1);
+        assertThat(batcher.isEmpty()).isTrue();
+        assertThat(channel.received.toByteArray()).isEqualTo(expected(100, 50));
+        // The buffers went back to the pool and are used again
+        assertThat(pool.getRetainedCount()).isEqualTo(5);
+        for (int f = 0; f < 100; f++) {
+            putFrame(batcher, f, 50);
+        }
+        batcher.flush(channel);
+        assertThat(pool.getAllocatedCount()).isEqualTo(5);
+    }
+
+    @Test
+    void testPartialWritesKeepTheOrder() throws Exception {
+        final BufferPool pool = new BufferPool(256, 8);
+        final OutboundBatcher batcher = new OutboundBatcher(pool, 1024 * 1024);
+        final ThrottledChannel channel = new ThrottledChannel();
+        channel.accept = 333;
+        int frames = 0;
+        while (frames < 40) {
+            putFrame(batcher, frames++, 30);
+            putFrame(batcher, frames++, 30);
+            batcher.flush(channel);
+        }
+        while (!batcher.isEmpty()) {
+            assertThat(batcher.flush(channel)).isGreaterThan(0L);
+        }
+        assertThat(channel.received.toByteArray()).isEqualTo(expected(40, 30));
+    }
+
+    @Test
+    void testLargeFrameAndBacklogLimit() throws Exception {
+        final BufferPool pool = new BufferPool(256, 8);
+        final OutboundBatcher batcher = new OutboundBatcher(pool, 4096);
+        final ThrottledChannel channel = new ThrottledChannel();
+        // A frame larger than the pooled buffers gets a buffer of its own, not taken back by the pool
+        putFrame(batcher, 0, 1000);
+        batcher.flush(channel);
+        assertThat(channel.received.size()).isEqualTo(1000);
+        assertThat(pool.getRetainedCount()).isEqualTo(0);
+        // A peer which does not read gets its connection dropped
+        channel.accept = 0;
+        for (int f = 0; f < 16; f++) {
+            putFrame(batcher, f, 256);
+        }
+        assertThrows(UncheckedIOException.class, () -> batcher.bufferFor(256));
+        batcher.release();
+        assertThat(batcher.isEmpty()).isTrue();
+        assertThat(pool.getRetainedCount()).isEqualTo(8);
+    }
+}
@@ -0,0 +1,259 @@
+package name.pomelo.protobuf_trial.test.testing;
+
+import name.pomelo.protobuf_trial.protos.ServerToClient;
+import name.pomelo.protobuf_trial.test.common.ChallengeGenerator;
+import name.pomelo.protobuf_trial.test.common.CommonData;
+import name.pomelo.protobuf_trial.test.common.ExchangeSessionTable;
+import name.pomelo.protobuf_trial.test.common.FilePlayerStore;
+import name.pomelo.protobuf_trial.test.common.LoginClientMultiplexed;
+import name.pomelo.protobuf_trial.test.common.LoginExchangeHandler;
+import name.pomelo.protobuf_trial.test.common.LoginResult;
+import name.pomelo.protobuf_trial.test.common.LoginServerNio;
+import name.pomelo.protobuf_trial.test.common.PlayerDirectory;
+import name.pomelo.protobuf_trial.test.common.PlayerStore;
+import name.pomelo.protobuf_trial.test.common.UtilsForLoginChallenge;
+import name.pomelo.protobuf_trial.test.common.UtilsForProtobufUuid;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static com.google.common.truth.Truth.assertThat;
+import static name.pomelo.protobuf_trial.test.common.UtilsForProtobufClientToServerMsgs.*;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+class TestPlayerDirectory {
+
+    // ---
+    // A PlayerStore whose lookups can be held up or made to fail, counting them
+    // ---
+
+    private static class SlowStore implements PlayerStore {
+
+        private final @NotNull PlayerStore store;
+        private final @NotNull AtomicInteger finds = new AtomicInteger();
+        private volatile @Nullable CountDownLatch gate;
+        private volatile boolean failing;
+
+        private SlowStore(@NotNull PlayerStore store) {
+            this.store = store;
+        }
+
+        @Override
+        public PlayerDirectory.@Nullable Player find(@NotNull String username) throws IOException {
+            finds.incrementAndGet();
+            final CountDownLatch g = gate;
+            if (g != null) {
+                try {
+                    g.await();
+                } catch (InterruptedException e) {
+                    throw new IOException(e);
+                }
+            }
+            if (failing) {
+                throw new IOException("The disk is gone");
+            }
+            return store.find(username);
+        }
+
+        @Override
+        public PlayerDirectory.@NotNull Player register(@NotNull String username, long uuidHigh, long uuidLow) throws IOException {
+            return store.register(username, uuidHigh, uuidLow);
+        }
+
+        @Override
+        public int size() {
+            return store.size();
+        }
+
+        @Override
+        public void close() throws IOException {
+            store.close();
+        }
+    }
+
+    @Test
+    void testFileStore(@TempDir Path dir) throws IOException {
+        final Path file = dir.resolve("players");
+        try (FilePlayerStore store = new FilePlayerStore(file)) {
+            for (int i = 0; i < 1000; i++) {
+                store.register("player " + i, i + 1, -i);
+            }
+            // already there: kept as it was
+            assertThat(store.register("player 7", 42, 42).getUuidHigh()).isEqualTo(8);
+            assertThat(store.find("nobody")).isNull();
+        }
+        final long complete = Files.size(file);
+        // a record cut short, as by a crash
+        Files.write(file, new byte[]{40, 0, 0, 0, 8, 0, 0}, StandardOpenOption.APPEND);
+        try (FilePlayerStore store = new FilePlayerStore(file)) {
+            assertThat(Files.size(file)).isEqualTo(complete);
+            assertThat(store.size()).isEqualTo(1000);
+            for (int i = 0; i < 1000; i++) {
+                final PlayerDirectory.Player player = store.find("player " + i);
+                assertThat(player).isNotNull();
+                assertThat(player.getUuidHigh()).isEqualTo(i + 1);
+                assertThat(player.getUuidLow()).isEqualTo(-i);
+            }
+            final String longName = "a rather long player name, longer than what is read ahead with the header ✓";
+            store.register(longName, 1, 2);
+            assertThat(store.find(longName).getUuidLow()).isEqualTo(2);
+        }
+    }
+
+    @Test
+    void testHitsAndMisses(@TempDir Path dir) throws IOException {
+        try (PlayerDirectory players = new PlayerDirectory(new FilePlayerStore(dir.resolve("players")), 100)) {
+            final PlayerDirectory.Player first = players.resolve("john doe");
+            assertThat(first.getUuid()).isEqualTo(PlayerDirectory.newPlayerUuid("john doe"));
+            assertThat(players.resolve("john doe")).isSameInstanceAs(first);
+            players.resolve("jane doe");
+            assertThat(players.getMissCount()).isEqualTo(2);
+            assertThat(players.getHitCount()).isEqualTo(1);
+            assertThat(players.getRegisteredCount()).isEqualTo(2);
+            assertThat(players.getCachedCount()).isEqualTo(2);
+            assertThat(players.getStore().size()).isEqualTo(2);
+        }
+        // known from the file now, not registered again
+        try (PlayerDirectory players = new PlayerDirectory(new FilePlayerStore(dir.resolve("players")), 100)) {
+            assertThat(players.resolve("john doe").getUuid()).isEqualTo(PlayerDirectory.newPlayerUuid("john doe"));
+            assertThat(players.getLoadCount()).isEqualTo(1);
+            assertThat(players.getRegisteredCount()).isEqualTo(0);
+        }
+    }
+
+    @Test
+    void testConcurrentMissesAreCoalesced(@TempDir Path dir) throws Exception {
+        final SlowStore store = new SlowStore(new FilePlayerStore(dir.resolve("players")));
+        final CountDownLatch gate = new CountDownLatch(1);
+        store.gate = gate;
+        final int threads = 8;
+        try (PlayerDirectory players = new PlayerDirectory(store, 100);
+             ExecutorService executor = Executors.newFixedThreadPool(threads)) {
+            final List<Future<PlayerDirectory.Player>> resolved = new ArrayList<>();
+            for (int i = 0; i < threads; i++) {
+                resolved.add(executor.submit(() -> players.resolve("john doe")));
+            }
+            while (players.getCoalescedCount() < threads - 1) {
+                Thread.sleep(1);
+            }
+            gate.countDown();
+            for (Future<PlayerDirectory.Player> f : resolved) {
+                assertThat(f.get()).isSameInstanceAs(resolved.getFirst().get());
+            }
+            assertThat(store.finds.get()).isEqualTo(1);
+            assertThat(players.getLoadCount()).isEqualTo(1);
+            assertThat(players.getMissCount()).isEqualTo(threads);
+        }
+    }
+
+    @Test
+    void testStoreFailure(@TempDir Path dir) throws IOException {
+        final SlowStore store = new SlowStore(new FilePlayerStore(dir.resolve("players")));
+        try (PlayerDirectory players = new PlayerDirectory(store, 100)) {
+            store.failing = true;
+            assertThrows(UncheckedIOException.class, () -> players.resolve("john doe"));
+            assertThat(players.getLoadFailureCount()).isEqualTo(1);
+            assertThat(players.getCachedCount()).isEqualTo(0);
+            store.failing = false;
+            assertThat(players.resolve("john doe").getUsername()).isEqualTo("john doe");
+        }
+    }
+
+    // ---
+    // The handler takes the player UUID from the directory; with the directory failing, the
+    // LOGIN_FOLLOWUP is rejected and the exchange stays where it was
+    // ---
+
+    @Test
+    void testHandlerUsesDirectory(@TempDir Path dir) throws IOException {
+        final SlowStore store = new SlowStore(new FilePlayerStore(dir.resolve("players")));
+        store.register("john doe", 1234, 5678);
+        try (PlayerDirectory players = new PlayerDirectory(store, 100)) {
+            final LoginExchangeHandler handler = new LoginExchangeHandler(new ExchangeSessionTable<>(), ChallengeGenerator.shared(), null, null, players);
+            final CommonData cd = CommonData.generateRandomCommonData();
+            final long product = handler.handle(buildLoginRequest(cd.withSeqNum(1))).getLoginChallenge().getProduct();
+            final long a = UtilsForLoginChallenge.smallestFactor(product);
+            handler.handle(buildLoginChallengeSolved(a, product / a, cd.withSeqNum(2)));
+            store.failing = true;
+            final ServerToClient failure = handler.handle(buildLoginFollowup("john doe", cd.withSeqNum(3)));
+            assertThat(failure.getPayloadType()).isEqualTo(ServerToClient.PayloadType.LOGIN_GENERIC_FAILURE);
+            store.failing = false;
+            final ServerToClient ok = handler.handle(buildLoginFollowup("john doe", cd.withSeqNum(4)));
+            assertThat(ok.getPayloadType()).isEqualTo(ServerToClient.PayloadType.LOGIN_FOLLOWUP_ANSWER_OK);
+            final var playerUuid = UtilsForProtobufUuid.protobufUuidSimpleToJavaUuid(ok.getLoginFollowupAnswerOk().getPlayerUuid());
+            assertThat(playerUuid.getMostSignificantBits()).isEqualTo(1234);
+            assertThat(playerUuid.getLeastSignificantBits()).isEqualTo(5678);
+        }
+    }
+
+    @Test
+    void testResolveAsync(@TempDir Path dir) throws Exception {
+        final SlowStore store = new SlowStore(new FilePlayerStore(dir.resolve("players")));
+        final CountDownLatch gate = new CountDownLatch(1);
+        store.gate = gate;
+        try (PlayerDirectory players = new PlayerDirectory(store, 100)) {
+            final CompletableFuture<PlayerDirectory.Player> first = players.resolveAsync("john doe");
+            final CompletableFuture<PlayerDirectory.Player> second = players.resolveAsync("john doe");
+            assertThat(first.isDone()).isFalse();
+            assertThat(second).isSameInstanceAs(first);
+            gate.countDown();
+            assertThat(first.get(10, TimeUnit.SECONDS).getUuid()).isEqualTo(PlayerDirectory.newPlayerUuid("john doe"));
+            assertThat(players.resolveAsync("john doe").isDone()).isTrue();
+            assertThat(players.getCoalescedCount()).isEqualTo(1);
+            assertThat(players.getHitCount()).isEqualTo(1);
+            store.failing = true;
+            final CompletableFuture<PlayerDirectory.Player> failed = players.resolveAsync("jane doe");
+            final Exception e = assertThrows(Exception.class, () -> failed.get(10, TimeUnit.SECONDS));
+            assertThat(e).hasCauseThat().isInstanceOf(UncheckedIOException.class);
+        }
+    }
+
+    // ---
+    // The NIO engine does not wait for the store: while the lookup of one player is held up, the
+    // logins of a cached player go through on the same worker; the held up one is answered after
+    // ---
+
+    @Test
+    void testNioWorkerDoesNotWaitForTheStore(@TempDir Path dir) throws Exception {
+        final SlowStore store = new SlowStore(new FilePlayerStore(dir.resolve("players")));
+        try (PlayerDirectory players = new PlayerDirectory(store, 100)) {
+            players.resolve("jane doe");
+            final CountDownLatch gate = new CountDownLatch(1);
+            store.gate = gate;
+            final LoginExchangeHandler handler = new LoginExchangeHandler(new ExchangeSessionTable<>(), ChallengeGenerator.shared(), null, null, players);
+            try (LoginServerNio server = new LoginServerNio(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 1, handler)) {
+                server.start();
+                try (LoginClientMultiplexed client = new LoginClientMultiplexed(server.getLocalAddress())) {
+                    final CompletableFuture<LoginResult> held = client.login("john doe");
+                    while (store.finds.get() == 0) {
+                        Thread.sleep(1);
+                    }
+                    for (int i = 0; i < 10; i++) {
+                        assertThat(client.login("jane doe").get(10, TimeUnit.SECONDS).getPlayerUuid()).isEqualTo(PlayerDirectory.newPlayerUuid("jane doe"));
+                    }
+                    assertThat(held.isDone()).isFalse();
+                    gate.countDown();
+                    assertThat(held.get(10, TimeUnit.SECONDS).getPlayerUuid()).isEqualTo(PlayerDirectory.newPlayerUuid("john doe"));
+                }
+            }
+        }
+    }
+}
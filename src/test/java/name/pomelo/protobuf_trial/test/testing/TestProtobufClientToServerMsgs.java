@@ -4,6 +4,7 @@ import com.google.protobuf.InvalidProtocolBufferException;
 import name.pomelo.protobuf_trial.protos.ClientToServer;
 import name.pomelo.protobuf_trial.test.common.CommonData;
 import name.pomelo.protobuf_trial.test.common.UtilsForProtobufUuid;
+import name.pomelo.protobuf_trial.test.common.UuidEncoding;
 import org.junit.jupiter.api.Test;
 
 import static com.google.common.truth.Truth.assertThat;
@@ -89,5 +90,19 @@ class TestProtobufClientToServerMsgs {
         assertThat(c2s1).isEqualTo(c2s2);
     }
 
-
+    @Test
+    void testLoginRequestWithUuidFixed() throws InvalidProtocolBufferException {
+        final CommonData cd = CommonData.generateRandomCommonData();
+        final ClientToServer simple = buildLoginRequest(cd);
+        final ClientToServer fixed = buildLoginRequest(cd.withUuidEncoding(UuidEncoding.FIXED));
+        final byte[] pbBytes = fixed.toByteArray();
+        print("LoginRequest and UuidFixed", pbBytes);
+        System.out.println("Size with UuidSimple: " + simple.getSerializedSize() + ", with UuidFixed: " + pbBytes.length);
+        // Two random UUIDs: 4 x 8 bytes plus tags and lengths, instead of 4 x (mostly) 9 or 10 bytes of varint
+        assertThat(pbBytes.length).isLessThan(simple.getSerializedSize());
+        final ClientToServer c2sBack = deserialize(pbBytes);
+        assertThat(c2sBack.getCommonStuff().hasClientExchangeUuid()).isFalse();
+        assertThat(CommonData.fromProtobufCommonStuff(c2sBack.getCommonStuff()).getClientExchangeUUID()).isEqualTo(cd.getClientExchangeUUID());
+        assertThat(CommonData.fromProtobufCommonStuff(c2sBack.getCommonStuff()).getServerExchangeUUID()).isEqualTo(cd.getServerExchangeUUID());
+    }
 }
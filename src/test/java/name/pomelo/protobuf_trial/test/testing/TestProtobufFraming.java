@@ -0,0 +1,167 @@
+package name.pomelo.protobuf_trial.test.testing;
+
+import com.google.protobuf.InvalidProtocolBufferException;
+import com.google.protobuf.MessageLite;
+import name.pomelo.protobuf_trial.protos.ClientToServer;
+import name.pomelo.protobuf_trial.protos.ServerToClient;
+import name.pomelo.protobuf_trial.test.common.CommonData;
+import name.pomelo.protobuf_trial.test.common.FrameDecoder;
+import name.pomelo.protobuf_trial.test.common.UtilsForProtobufFraming;
+import org.jetbrains.annotations.NotNull;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.UUID;
+
+import static com.google.common.truth.Truth.assertThat;
+import static name.pomelo.protobuf_trial.test.common.UtilsForProtobufClientToServerMsgs.*;
+import static name.pomelo.protobuf_trial.test.common.UtilsForProtobufServerToClientMsgs.*;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+// ---
+// Test the length-delimited framing of ClientToServer and ServerToClient messages
+// on a stream of bytes, in particular frames which straddle buffer boundaries.
+// ---
+
+class TestProtobufFraming {
+
+    private final static int rounds = 100;
+
+    private final static Random rand = new Random();
+
+    private static @NotNull List<ClientToServer> generateClientToServerMsgs(int count) {
+        final List<ClientToServer> res = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            final CommonData cd = CommonData.generateRandomCommonData();
+            switch (i % 4) {
+                case 0 -> res.add(buildLoginRequest(cd));
+                case 1 -> res.add(buildLoginChallengeSolved(rand.nextLong(), rand.nextLong(), cd));
+                case 2 -> res.add(buildLoginFollowup("player " + i, cd));
+                default -> res.add(buildLoginFinish(cd));
+            }
+        }
+        return res;
+    }
+
+    private static byte @NotNull [] writeAllToByteArray(@NotNull List<? extends MessageLite> msgs) throws IOException {
+        final ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        for (var msg : msgs) {
+            UtilsForProtobufFraming.writeFrame(msg, baos);
+        }
+        return baos.toByteArray();
+    }
+
+    @Test
+    void testWriteFrameIntoDirectBufferIsSameAsWriteDelimitedTo() throws IOException {
+        final List<ClientToServer> msgs = generateClientToServerMsgs(20);
+        final byte[] expected = writeAllToByteArray(msgs);
+        final ByteBuffer buf = ByteBuffer.allocateDirect(expected.length);
+        for (var msg : msgs) {
+            UtilsForProtobufFraming.writeFrame(msg, buf);
+        }
+        assertThat(buf.remaining()).isEqualTo(0);
+        buf.flip();
+        final byte[] actual = new byte[buf.remaining()];
+        buf.get(actual);
+        assertThat(actual).isEqualTo(expected);
+    }
+
+    @Test
+    void testDecodeInRandomChunks() throws IOException {
+        for (int round = 0; round < rounds; round++) {
+            final List<ClientToServer> msgs = generateClientToServerMsgs(50);
+            final byte[] stream = writeAllToByteArray(msgs);
+            final FrameDecoder<ClientToServer> decoder = FrameDecoder.forClientToServer(UtilsForProtobufFraming.DEFAULT_MAX_FRAME_SIZE);
+            final List<ClientToServer> decoded = new ArrayList<>();
+            // Feed the stream in chunks of 1 to 100 bytes, through a direct buffer, as a channel would
+            final ByteBuffer buf = ByteBuffer.allocateDirect(100);
+            int offset = 0;
+            while (offset < stream.length) {
+                final int chunk = Math.min(rand.nextInt(1, 101), stream.length - offset);
+                buf.clear();
+                buf.put(stream, offset, chunk);
+                buf.flip();
+                decoder.decode(buf, decoded::add);
+                assertThat(buf.hasRemaining()).isFalse();
+                offset += chunk;
+            }
+            assertThat(decoder.hasPartialFrame()).isFalse();
+            assertThat(decoded).isEqualTo(msgs);
+        }
+    }
+
+    @Test
+    void testDecodeServerToClientInOneGo() throws IOException {
+        final List<ServerToClient> msgs = new ArrayList<>();
+        final ClientToServer cause = buildLoginFollowup("John Doe", CommonData.generateRandomCommonData());
+        msgs.add(buildLoginGenericFailure("That didn't go too well", cause, CommonData.generateRandomCommonData()));
+        msgs.add(buildLoginChallenge(11 * 13, CommonData.generateRandomCommonData()));
+        msgs.add(buildLoginFollowupAnswerOk(UUID.randomUUID(), "player name", CommonData.generateRandomCommonData()));
+        msgs.add(buildLoginChallengeSolvedAnswerOk(CommonData.generateRandomCommonData()));
+        final FrameDecoder<ServerToClient> decoder = FrameDecoder.forServerToClient(UtilsForProtobufFraming.DEFAULT_MAX_FRAME_SIZE);
+        final List<ServerToClient> decoded = new ArrayList<>();
+        final int count = decoder.decode(ByteBuffer.wrap(writeAllToByteArray(msgs)), decoded::add);
+        assertThat(count).isEqualTo(msgs.size());
+        assertThat(decoded).isEqualTo(msgs);
+    }
+
+    @Test
+    void testPartialFrameIsHeldBack() throws IOException {
+        final ClientToServer msg = buildLoginFollowup("john doe", CommonData.generateRandomCommonData());
+        final byte[] stream = writeAllToByteArray(List.of(msg));
+        final FrameDecoder<ClientToServer> decoder = FrameDecoder.forClientToServer(UtilsForProtobufFraming.DEFAULT_MAX_FRAME_SIZE);
+        final List<ClientToServer> decoded = new ArrayList<>();
+        decoder.decode(ByteBuffer.wrap(stream, 0, stream.length - 1), decoded::add);
+        assertThat(decoded).isEmpty();
+        assertThat(decoder.hasPartialFrame()).isTrue();
+        decoder.decode(ByteBuffer.wrap(stream, stream.length - 1, 1), decoded::add);
+        assertThat(decoded).containsExactly(msg);
+        assertThat(decoder.hasPartialFrame()).isFalse();
+    }
+
+    @Test
+    void testFrameTooLargeIsRejected() throws IOException {
+        final ClientToServer msg = buildLoginFollowup("x".repeat(1000), CommonData.generateRandomCommonData());
+        final byte[] stream = writeAllToByteArray(List.of(msg));
+        final FrameDecoder<ClientToServer> decoder = FrameDecoder.forClientToServer(100);
+        // Rejected as soon as the header has been seen, not after having buffered the frame
+        assertThrows(InvalidProtocolBufferException.class, () -> decoder.decode(ByteBuffer.wrap(stream, 0, 3), m -> {
+        }));
+        assertThrows(InvalidProtocolBufferException.class, () -> UtilsForProtobufFraming.readFrame(new ByteArrayInputStream(stream), ClientToServer.parser(), 100));
+    }
+
+    @Test
+    void testMalformedHeaderIsRejected() {
+        final byte[] stream = new byte[]{(byte) 0xFF, (byte) 0xFF, (byte) 0xFF, (byte) 0xFF, (byte) 0xFF, 0x01};
+        final FrameDecoder<ClientToServer> decoder = FrameDecoder.forClientToServer(UtilsForProtobufFraming.DEFAULT_MAX_FRAME_SIZE);
+        assertThrows(InvalidProtocolBufferException.class, () -> decoder.decode(ByteBuffer.wrap(stream), m -> {
+        }));
+    }
+
+    @Test
+    void testReadFromInputStream() throws IOException {
+        final List<ClientToServer> msgs = generateClientToServerMsgs(20);
+        final byte[] stream = writeAllToByteArray(msgs);
+        final ByteArrayInputStream in = new ByteArrayInputStream(stream);
+        final List<ClientToServer> decoded = new ArrayList<>();
+        ClientToServer msg;
+        while ((msg = UtilsForProtobufFraming.readFrame(in, ClientToServer.parser(), UtilsForProtobufFraming.DEFAULT_MAX_FRAME_SIZE)) != null) {
+            decoded.add(msg);
+        }
+        assertThat(decoded).isEqualTo(msgs);
+        // Truncated stream
+        final ByteArrayInputStream truncated = new ByteArrayInputStream(stream, 0, stream.length - 1);
+        assertThrows(InvalidProtocolBufferException.class, () -> {
+            while (UtilsForProtobufFraming.readFrame(truncated, ClientToServer.parser(), UtilsForProtobufFraming.DEFAULT_MAX_FRAME_SIZE) != null) {
+                // consume
+            }
+        });
+    }
+
+}
@@ -1,7 +1,9 @@
 package name.pomelo.protobuf_trial.test.testing;
 
+import com.google.protobuf.ByteString;
 import com.google.protobuf.InvalidProtocolBufferException;
 import name.pomelo.protobuf_trial.test.common.UtilsForProtobufUuid;
+import name.pomelo.protobuf_trial.test.common.UuidCodec;
 import name.pomelo.protobuf_trial.protos.Uuid;
 import org.junit.jupiter.api.Test;
 
@@ -9,6 +11,7 @@ import java.nio.ByteBuffer;
 import java.util.UUID;
 
 import static com.google.common.truth.Truth.assertThat;
+import static org.junit.jupiter.api.Assertions.assertThrows;
 
 // ---
 // Test the "Uuid" protobuf message, which encapsulates a byte array to form a single UUID.
@@ -51,8 +54,8 @@ class TestProtobufUuid {
             final var javaUuid = UUID.randomUUID();
             System.out.println("Round " + round + ": " + javaUuid);
             {
-                byte[] bytes = UtilsForProtobufUuid.uuidToBigEndianArray(javaUuid);
-                System.out.println("   UUID as byte array (big endian): " + UtilsForProtobufUuid.bytesToString(bytes));
+                byte[] bytes = UtilsForProtobufUuid.uuidToLittleEndianArray(javaUuid);
+                System.out.println("   UUID as byte array (little endian): " + UtilsForProtobufUuid.bytesToString(bytes));
             }
             // serialize UUID to byte array that would be seen on the "protobuf wire"
             final byte[] pbBytes = UtilsForProtobufUuid.javaUuidToProtobufUuid(javaUuid).toByteArray();
@@ -80,4 +83,24 @@ class TestProtobufUuid {
         assertThat(javaUuid.getMostSignificantBits()).isEqualTo(0L);
     }
 
-}
\ No newline at end of file
+    @Test
+    void testProtobufUuidWireLayout() throws InvalidProtocolBufferException {
+        // The layout of "data" must stay what it has always been: least significant byte first
+        final UUID javaUuid = UUID.fromString("00112233-4455-6677-8899-aabbccddeeff");
+        final byte[] bytes = UtilsForProtobufUuid.uuidToLittleEndianArray(javaUuid);
+        assertThat(UtilsForProtobufUuid.bytesToString(bytes)).isEqualTo("ff.ee.dd.cc.bb.aa.99.88.77.66.55.44.33.22.11.00");
+        final Uuid pbUuid = Uuid.parseFrom(UtilsForProtobufUuid.javaUuidToProtobufUuid(javaUuid).toByteArray());
+        assertThat(pbUuid.getData().toByteArray()).isEqualTo(bytes);
+        // Decoding straight to the two longs
+        assertThat(UuidCodec.highOf(pbUuid)).isEqualTo(javaUuid.getMostSignificantBits());
+        assertThat(UuidCodec.lowOf(pbUuid)).isEqualTo(javaUuid.getLeastSignificantBits());
+        assertThat(UuidCodec.readHigh(bytes, 0)).isEqualTo(javaUuid.getMostSignificantBits());
+        assertThat(UuidCodec.readLow(bytes, 0)).isEqualTo(javaUuid.getLeastSignificantBits());
+    }
+
+    @Test
+    void testProtobufUuidWrongSize() {
+        final Uuid pbUuid = Uuid.newBuilder().setData(ByteString.copyFrom(new byte[15])).build();
+        assertThrows(IllegalArgumentException.class, () -> UtilsForProtobufUuid.protobufUuidToJavaUuid(pbUuid));
+    }
+}
@@ -0,0 +1,195 @@
+package name.pomelo.protobuf_trial.test.testing;
+
+import com.google.protobuf.CodedOutputStream;
+import com.google.protobuf.InvalidProtocolBufferException;
+import name.pomelo.protobuf_trial.protos.ClientToServer;
+import name.pomelo.protobuf_trial.protos.ClientToServerV2;
+import name.pomelo.protobuf_trial.protos.NoPayload;
+import name.pomelo.protobuf_trial.protos.ServerToClient;
+import name.pomelo.protobuf_trial.protos.ServerToClientV2;
+import name.pomelo.protobuf_trial.test.common.CommonData;
+import name.pomelo.protobuf_trial.test.common.DualVersionParser;
+import name.pomelo.protobuf_trial.test.common.FrameDecoder;
+import name.pomelo.protobuf_trial.test.common.UtilsForProtobufFraming;
+import name.pomelo.protobuf_trial.test.common.UtilsForProtobufV2;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+
+import static com.google.common.truth.Truth.assertThat;
+import static name.pomelo.protobuf_trial.test.common.UtilsForProtobufClientToServerMsgs.*;
+import static name.pomelo.protobuf_trial.test.common.UtilsForProtobufServerToClientMsgs.*;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+class TestProtobufV2 {
+
+    private final static int MAX_FRAME_SIZE = 1024;
+
+    private static List<ClientToServer> allClientToServer(CommonData cd) {
+        return List.of(
+                buildLoginRequest(cd),
+                buildLoginChallengeSolved(11, 23, cd),
+                buildLoginFollowup("john doe", cd),
+                buildLoginFinish(cd));
+    }
+
+    private static List<ServerToClient> allServerToClient(CommonData cd) {
+        final ClientToServer cause = allClientToServer(cd).get(1);
+        return List.of(
+                buildGenericFailure("generic", cause, cd),
+                buildLoginGenericFailure("login generic", cause, cd),
+                buildLoginChallenge(11 * 23, cd),
+                buildLoginRequestAnswerOk(cd),
+                buildLoginRequestAnswerFailure("no", cd),
+                buildLoginFollowupAnswerOk(UUID.randomUUID(), "John Doe", cd),
+                buildLoginFollowupAnswerFailure(cd),
+                buildLoginChallengeSolvedAnswerOk(cd),
+                buildLoginChallengeSolvedAnswerFailure(cd));
+    }
+
+    @Test
+    void testClientToServerConversion() throws InvalidProtocolBufferException {
+        for (ClientToServer c2s : allClientToServer(CommonData.generateRandomCommonData())) {
+            final ClientToServerV2 v2 = UtilsForProtobufV2.toV2(c2s);
+            UtilsForProtobufV2.verifyClientToServerMessage(v2);
+            assertThat(v2.getPayloadCase().name()).isEqualTo(c2s.getPayloadType().name());
+            assertThat(ClientToServerV2.parseFrom(v2.toByteArray())).isEqualTo(v2);
+            assertThat(UtilsForProtobufV2.toV1(v2)).isEqualTo(c2s);
+            // 2 bytes for the payload type and 2 for the tag of the sub-message, against a 1-byte tag
+            // and an empty sub-message (2 bytes) when there is nothing to carry
+            assertThat(v2.getSerializedSize()).isAtMost(c2s.getSerializedSize());
+            System.out.println(c2s.getPayloadType() + ": " + c2s.getSerializedSize() + " bytes in version 1, " + v2.getSerializedSize() + " in version 2");
+        }
+    }
+
+    @Test
+    void testServerToClientConversion() throws InvalidProtocolBufferException {
+        for (ServerToClient s2c : allServerToClient(CommonData.generateRandomCommonData())) {
+            final ServerToClientV2 v2 = UtilsForProtobufV2.toV2(s2c);
+            UtilsForProtobufV2.verifyServerToClientMessage(v2);
+            assertThat(v2.getPayloadCase().name()).isEqualTo(s2c.getPayloadType().name());
+            assertThat(ServerToClientV2.parseFrom(v2.toByteArray())).isEqualTo(v2);
+            assertThat(UtilsForProtobufV2.toV1(v2)).isEqualTo(s2c);
+            assertThat(v2.getSerializedSize()).isAtMost(s2c.getSerializedSize());
+            System.out.println(s2c.getPayloadType() + ": " + s2c.getSerializedSize() + " bytes in version 1, " + v2.getSerializedSize() + " in version 2");
+        }
+    }
+
+    @Test
+    void testVerify() {
+        final CommonData cd = CommonData.generateRandomCommonData();
+        final ClientToServerV2 noPayload = ClientToServerV2.newBuilder().setCommonStuff(cd.toProtobufCommonStuff()).build();
+        assertThrows(IllegalArgumentException.class, () -> UtilsForProtobufV2.verifyClientToServerMessage(noPayload));
+        final ClientToServerV2 noUsername = UtilsForProtobufV2.toV2(buildLoginFollowup("", cd));
+        assertThrows(IllegalArgumentException.class, () -> UtilsForProtobufV2.verifyClientToServerMessage(noUsername));
+        // a version 1 message of payload type UNKNOWN has no payload in version 2
+        final ClientToServer unknown = ClientToServer.newBuilder().setCommonStuff(cd.toProtobufCommonStuff()).build();
+        assertThat(UtilsForProtobufV2.toV2(unknown).getPayloadCase()).isEqualTo(ClientToServerV2.PayloadCase.PAYLOAD_NOT_SET);
+        final ServerToClientV2 noSeqNum = ServerToClientV2.newBuilder()
+                .setCommonStuff(cd.toProtobufCommonStuff().toBuilder().setSeqNum(0))
+                .setLoginRequestAnswerOk(NoPayload.getDefaultInstance())
+                .build();
+        assertThrows(IllegalArgumentException.class, () -> UtilsForProtobufV2.verifyServerToClientMessage(noSeqNum));
+    }
+
+    @Test
+    void testVersionOf() throws IOException {
+        final CommonData cd = CommonData.generateRandomCommonData();
+        final ClientToServer v1 = buildLoginFollowup("john doe", cd);
+        final ClientToServerV2 v2 = UtilsForProtobufV2.toV2(v1);
+        assertThat(versionOf(v1.toByteArray())).isEqualTo(DualVersionParser.VERSION_1);
+        assertThat(versionOf(v2.toByteArray())).isEqualTo(DualVersionParser.VERSION_2);
+        // field 1 need not come first: CommonStuff, then the payload type, then the sub-message
+        final ByteArrayOutputStream bos = new ByteArrayOutputStream();
+        final CodedOutputStream out = CodedOutputStream.newInstance(bos);
+        out.writeMessage(ClientToServer.COMMON_STUFF_FIELD_NUMBER, v1.getCommonStuff());
+        out.writeEnum(ClientToServer.PAYLOAD_TYPE_FIELD_NUMBER, v1.getPayloadTypeValue());
+        out.writeMessage(ClientToServer.LOGIN_FOLLOWUP_FIELD_NUMBER, v1.getLoginFollowup());
+        out.flush();
+        final byte[] reordered = bos.toByteArray();
+        assertThat(versionOf(reordered)).isEqualTo(DualVersionParser.VERSION_1);
+        assertThat(DualVersionParser.forClientToServer().parseFrom(reordered)).isEqualTo(v2);
+        // a length running past the end is malformed, and left to the version 2 parser
+        final byte[] truncated = new byte[]{0x12, 0x7F, 0x08, 0x0A};
+        assertThat(versionOf(truncated)).isEqualTo(DualVersionParser.VERSION_2);
+        assertThrows(InvalidProtocolBufferException.class, () -> DualVersionParser.forClientToServer().parseFrom(truncated));
+        assertThat(versionOf(new byte[0])).isEqualTo(DualVersionParser.VERSION_2);
+    }
+
+    private static int versionOf(byte[] bytes) {
+        return DualVersionParser.versionOf(ByteBuffer.wrap(bytes), 0, bytes.length);
+    }
+
+    // ---
+    // A stream of frames in which both versions alternate, as during the rollout,
+    // decoded through all the entry points of the parser.
+    // ---
+
+    @Test
+    void testMixedVersions() throws IOException {
+        final List<ClientToServer> v1s = allClientToServer(CommonData.generateRandomCommonData());
+        final List<ClientToServerV2> expected = new ArrayList<>();
+        final ByteBuffer stream = ByteBuffer.allocateDirect(4096);
+        for (int i = 0; i < v1s.size(); i++) {
+            final ClientToServerV2 v2 = UtilsForProtobufV2.toV2(v1s.get(i));
+            expected.add(v2);
+            UtilsForProtobufFraming.writeFrame((i % 2 == 0) ? v1s.get(i) : v2, stream);
+        }
+        stream.flip();
+        // FrameDecoder: from a ByteBuffer
+        {
+            final DualVersionParser<ClientToServer, ClientToServerV2> parser = DualVersionParser.forClientToServer();
+            final FrameDecoder<ClientToServerV2> decoder = new FrameDecoder<>(parser, MAX_FRAME_SIZE);
+            final List<ClientToServerV2> decoded = new ArrayList<>();
+            decoder.decode(stream.duplicate(), decoded::add);
+            assertThat(decoded).isEqualTo(expected);
+            assertThat(parser.getVersion1Messages()).isEqualTo(2);
+            assertThat(parser.getVersion2Messages()).isEqualTo(2);
+            for (ClientToServerV2 c2s : decoded) {
+                UtilsForProtobufV2.verifyClientToServerMessage(c2s);
+            }
+        }
+        final byte[] bytes = new byte[stream.remaining()];
+        stream.duplicate().get(bytes);
+        // readFrame(): from a byte[]
+        {
+            final DualVersionParser<ClientToServer, ClientToServerV2> parser = DualVersionParser.forClientToServer();
+            final ByteArrayInputStream in = new ByteArrayInputStream(bytes);
+            final List<ClientToServerV2> decoded = new ArrayList<>();
+            ClientToServerV2 c2s;
+            while ((c2s = UtilsForProtobufFraming.readFrame(in, parser, MAX_FRAME_SIZE)) != null) {
+                decoded.add(c2s);
+            }
+            assertThat(decoded).isEqualTo(expected);
+        }
+        // parseDelimitedFrom(): from a CodedInputStream
+        {
+            final DualVersionParser<ClientToServer, ClientToServerV2> parser = DualVersionParser.forClientToServer();
+            final ByteArrayInputStream in = new ByteArrayInputStream(bytes);
+            final List<ClientToServerV2> decoded = new ArrayList<>();
+            ClientToServerV2 c2s;
+            while ((c2s = parser.parseDelimitedFrom(in)) != null) {
+                decoded.add(c2s);
+            }
+            assertThat(decoded).isEqualTo(expected);
+            assertThat(parser.getVersion1Messages()).isEqualTo(2);
+        }
+    }
+
+    @Test
+    void testServerToClientBothVersions() throws InvalidProtocolBufferException {
+        final DualVersionParser<ServerToClient, ServerToClientV2> parser = DualVersionParser.forServerToClient();
+        for (ServerToClient s2c : allServerToClient(CommonData.generateRandomCommonData())) {
+            final ServerToClientV2 v2 = UtilsForProtobufV2.toV2(s2c);
+            assertThat(parser.parseFrom(ByteBuffer.wrap(s2c.toByteArray()))).isEqualTo(v2);
+            assertThat(parser.parseFrom(ByteBuffer.wrap(v2.toByteArray()))).isEqualTo(v2);
+        }
+        assertThat(parser.getVersion1Messages()).isEqualTo(parser.getVersion2Messages());
+    }
+}
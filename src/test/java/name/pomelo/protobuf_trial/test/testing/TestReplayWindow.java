@@ -0,0 +1,69 @@
+package name.pomelo.protobuf_trial.test.testing;
+
+import name.pomelo.protobuf_trial.test.common.ReplayWindow;
+import org.junit.jupiter.api.Test;
+
+import java.util.BitSet;
+import java.util.Random;
+
+import static com.google.common.truth.Truth.assertThat;
+
+// ---
+// Test the anti-replay window over seqNums.
+// ---
+
+class TestReplayWindow {
+
+    @Test
+    void testDuplicatesAndReordering() {
+        final ReplayWindow window = new ReplayWindow();
+        assertThat(window.accept(0)).isFalse();
+        assertThat(window.accept(-5)).isFalse();
+        assertThat(window.accept(1)).isTrue();
+        assertThat(window.accept(1)).isFalse();
+        assertThat(window.accept(3)).isTrue();
+        assertThat(window.accept(2)).isTrue();
+        assertThat(window.accept(2)).isFalse();
+        assertThat(window.accept(3)).isFalse();
+        assertThat(window.getHighest()).isEqualTo(3);
+    }
+
+    @Test
+    void testWindowEdges() {
+        final ReplayWindow window = new ReplayWindow();
+        final long top = 1000;
+        assertThat(window.accept(top)).isTrue();
+        // the oldest seqNum still inside the window, and the first one outside
+        assertThat(window.accept(top - ReplayWindow.WINDOW_SIZE + 1)).isTrue();
+        assertThat(window.accept(top - ReplayWindow.WINDOW_SIZE)).isFalse();
+        // a jump over more than the whole ring forgets everything below the window
+        final long far = top + 10 * ReplayWindow.WINDOW_SIZE;
+        assertThat(window.accept(far)).isTrue();
+        assertThat(window.accept(top)).isFalse();
+        assertThat(window.accept(far - 1)).isTrue();
+        assertThat(window.accept(far - 1)).isFalse();
+        // seqNums near the top of the uint32 range as seen by Java
+        assertThat(window.accept(Integer.MAX_VALUE)).isTrue();
+        assertThat(window.accept(Integer.MAX_VALUE)).isFalse();
+    }
+
+    @Test
+    void testAgainstBitSet() {
+        // Random walks around a rising top, compared to a model remembering every seqNum ever seen
+        final Random random = new Random(4711);
+        final ReplayWindow window = new ReplayWindow();
+        final BitSet seen = new BitSet();
+        long highest = 0;
+        for (int i = 0; i < 200_000; i++) {
+            final int seqNum = (int) Math.max(1, highest + random.nextInt(-ReplayWindow.WINDOW_SIZE - 20, 80));
+            final boolean tooOld = highest - seqNum >= ReplayWindow.WINDOW_SIZE;
+            final boolean expected = !tooOld && !seen.get(seqNum);
+            assertThat(window.accept(seqNum)).isEqualTo(expected);
+            if (expected) {
+                seen.set(seqNum);
+                highest = Math.max(highest, seqNum);
+            }
+        }
+        assertThat(window.getHighest()).isEqualTo(highest);
+    }
+}
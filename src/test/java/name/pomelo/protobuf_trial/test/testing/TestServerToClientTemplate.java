@@ -0,0 +1,97 @@
+package name.pomelo.protobuf_trial.test.testing;
+
+import name.pomelo.protobuf_trial.protos.ServerToClient;
+import name.pomelo.protobuf_trial.test.common.CommonData;
+import name.pomelo.protobuf_trial.test.common.ServerToClientTemplate;
+import name.pomelo.protobuf_trial.test.common.UtilsForProtobufFraming;
+import name.pomelo.protobuf_trial.test.common.UtilsForProtobufUuid;
+import name.pomelo.protobuf_trial.test.common.UuidEncoding;
+import org.jetbrains.annotations.NotNull;
+import org.junit.jupiter.api.Test;
+
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Arrays;
+import java.util.List;
+import java.util.UUID;
+import java.util.function.Function;
+
+import static com.google.common.truth.Truth.assertThat;
+import static name.pomelo.protobuf_trial.test.common.UtilsForProtobufServerToClientMsgs.*;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+// ---
+// Test that the templates write exactly the frames that the builders give.
+// ---
+
+class TestServerToClientTemplate {
+
+    private final static List<Function<CommonData, ServerToClient>> builders = List.of(
+            cd -> buildLoginRequestAnswerOk(cd),
+            cd -> buildLoginFollowupAnswerFailure(cd),
+            cd -> buildLoginChallengeSolvedAnswerOk(cd),
+            cd -> buildLoginChallengeSolvedAnswerFailure(cd));
+
+    private static void assertSameAsBuilder(@NotNull CommonData cd, @NotNull ByteOrder order) {
+        for (Function<CommonData, ServerToClient> builder : builders) {
+            final ServerToClient expected = builder.apply(cd);
+            final ServerToClientTemplate template = ServerToClientTemplate.of(expected.getPayloadType());
+            final ByteBuffer expectedFrame = ByteBuffer.allocate(UtilsForProtobufFraming.computeFrameSize(expected));
+            UtilsForProtobufFraming.writeFrameUnchecked(expected, expectedFrame);
+            final ByteBuffer buf = ByteBuffer.allocate(256).order(order);
+            final int size = template.writeFrame(buf, cd);
+            assertThat(buf.position()).isEqualTo(size);
+            assertThat(UtilsForProtobufUuid.bytesToString(Arrays.copyOf(buf.array(), size))).isEqualTo(UtilsForProtobufUuid.bytesToString(expectedFrame.array()));
+            assertThat(template.toByteArray(cd)).isEqualTo(expected.toByteArray());
+        }
+    }
+
+    @Test
+    void testSameAsBuilders() {
+        for (UuidEncoding encoding : UuidEncoding.values()) {
+            for (int i = 0; i < 100; i++) {
+                assertSameAsBuilder(CommonData.generateRandomCommonData().withUuidEncoding(encoding), ByteOrder.BIG_ENDIAN);
+            }
+            assertSameAsBuilder(CommonData.generateRandomCommonData().withUuidEncoding(encoding), ByteOrder.LITTLE_ENDIAN);
+        }
+    }
+
+    // ---
+    // Fields at their default (UUID halves of 0, which are left out), the largest seqNums and
+    // UUID halves (10-byte varints), and missing UUIDs
+    // ---
+
+    @Test
+    void testEdgeValues() {
+        final UUID zeroHigh = new UUID(0L, 42L);
+        final UUID zeroLow = new UUID(-1L, 0L);
+        final UUID largest = new UUID(-1L, -1L);
+        for (UuidEncoding encoding : UuidEncoding.values()) {
+            for (int seqNum : new int[]{1, 127, 128, Integer.MAX_VALUE}) {
+                assertSameAsBuilder(new CommonData(seqNum, zeroHigh, zeroLow, encoding), ByteOrder.BIG_ENDIAN);
+                assertSameAsBuilder(new CommonData(seqNum, largest, largest, encoding), ByteOrder.BIG_ENDIAN);
+                assertSameAsBuilder(new CommonData(seqNum, null, largest, encoding), ByteOrder.BIG_ENDIAN);
+                assertSameAsBuilder(new CommonData(seqNum, zeroLow, null, encoding), ByteOrder.BIG_ENDIAN);
+            }
+        }
+    }
+
+    @Test
+    void testOnlyPayloadlessTypes() {
+        assertThat(ServerToClientTemplate.hasTemplate(ServerToClient.PayloadType.LOGIN_CHALLENGE_SOLVED_ANSWER_OK)).isTrue();
+        assertThat(ServerToClientTemplate.hasTemplate(ServerToClient.PayloadType.LOGIN_CHALLENGE)).isFalse();
+        assertThat(ServerToClientTemplate.hasTemplate(ServerToClient.PayloadType.UNRECOGNIZED)).isFalse();
+        assertThrows(IllegalArgumentException.class, () -> ServerToClientTemplate.of(ServerToClient.PayloadType.LOGIN_FOLLOWUP_ANSWER_OK));
+    }
+
+    @Test
+    void testNoRoom() {
+        final CommonData cd = CommonData.generateRandomCommonData();
+        final ServerToClientTemplate template = ServerToClientTemplate.of(ServerToClient.PayloadType.LOGIN_REQUEST_ANSWER_OK);
+        final int frameSize = UtilsForProtobufFraming.computeFrameSize(buildLoginRequestAnswerOk(cd));
+        final ByteBuffer buf = ByteBuffer.allocate(frameSize - 1);
+        assertThrows(BufferOverflowException.class, () -> template.writeFrame(buf, cd));
+        assertThat(buf.position()).isEqualTo(0);
+    }
+}
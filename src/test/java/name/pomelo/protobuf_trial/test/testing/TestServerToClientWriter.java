@@ -0,0 +1,153 @@
+package name.pomelo.protobuf_trial.test.testing;
+
+import name.pomelo.protobuf_trial.protos.ClientToServer;
+import name.pomelo.protobuf_trial.protos.ServerToClient;
+import name.pomelo.protobuf_trial.test.common.CommonData;
+import name.pomelo.protobuf_trial.test.common.LoginExchangeHandler;
+import name.pomelo.protobuf_trial.test.common.ServerToClientWriter;
+import name.pomelo.protobuf_trial.test.common.UtilsForLoginChallenge;
+import name.pomelo.protobuf_trial.test.common.UtilsForProtobufFraming;
+import name.pomelo.protobuf_trial.test.common.UtilsForProtobufUuid;
+import name.pomelo.protobuf_trial.test.common.UuidEncoding;
+import org.jetbrains.annotations.NotNull;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.UUID;
+import java.util.function.ToIntFunction;
+
+import static com.google.common.truth.Truth.assertThat;
+import static name.pomelo.protobuf_trial.test.common.UtilsForProtobufClientToServerMsgs.*;
+import static name.pomelo.protobuf_trial.test.common.UtilsForProtobufServerToClientMsgs.*;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+// ---
+// Test that ServerToClientWriter writes exactly the frames that the builders give.
+// ---
+
+class TestServerToClientWriter {
+
+    private static byte @NotNull [] frameOf(@NotNull ServerToClient s2c) {
+        final ByteBuffer buf = ByteBuffer.allocate(UtilsForProtobufFraming.computeFrameSize(s2c));
+        UtilsForProtobufFraming.writeFrameUnchecked(s2c, buf);
+        return buf.array();
+    }
+
+    private static byte @NotNull [] written(@NotNull ToIntFunction<ByteBuffer> write) {
+        final ByteBuffer buf = ByteBuffer.allocate(4096);
+        final int size = write.applyAsInt(buf);
+        assertThat(buf.position()).isEqualTo(size);
+        return Arrays.copyOf(buf.array(), size);
+    }
+
+    private static void assertSameFrame(@NotNull ServerToClient expected, @NotNull ToIntFunction<ByteBuffer> write) {
+        assertThat(UtilsForProtobufUuid.bytesToString(written(write))).isEqualTo(UtilsForProtobufUuid.bytesToString(frameOf(expected)));
+    }
+
+    @Test
+    void testAllPayloadTypes() {
+        final ServerToClientWriter writer = new ServerToClientWriter();
+        final ClientToServer cause = buildLoginFollowup("John Doe", CommonData.generateRandomCommonData());
+        final UUID playerUuid = UUID.randomUUID();
+        for (UuidEncoding encoding : UuidEncoding.values()) {
+            final CommonData cd = CommonData.generateRandomCommonData().withUuidEncoding(encoding);
+            writer.setCommon(cd);
+            assertSameFrame(buildGenericFailure("This didn't go too well", cause, cd), buf -> writer.writeGenericFailure(buf, "This didn't go too well", cause));
+            assertSameFrame(buildLoginGenericFailure("Nor did this", cause, cd), buf -> writer.writeLoginGenericFailure(buf, "Nor did this", cause));
+            assertSameFrame(buildLoginChallenge(11 * 13, cd), buf -> writer.writeLoginChallenge(buf, 11 * 13));
+            assertSameFrame(buildLoginRequestAnswerOk(cd), writer::writeLoginRequestAnswerOk);
+            assertSameFrame(buildLoginRequestAnswerFailure("Some problem occurred", cd), buf -> writer.writeLoginRequestAnswerFailure(buf, "Some problem occurred"));
+            assertSameFrame(buildLoginFollowupAnswerOk(playerUuid, "player name", cd),
+                    buf -> writer.writeLoginFollowupAnswerOk(buf, playerUuid.getMostSignificantBits(), playerUuid.getLeastSignificantBits(), "player name"));
+            assertSameFrame(buildLoginFollowupAnswerFailure(cd), writer::writeLoginFollowupAnswerFailure);
+            assertSameFrame(buildLoginChallengeSolvedAnswerOk(cd), writer::writeLoginChallengeSolvedAnswerOk);
+            assertSameFrame(buildLoginChallengeSolvedAnswerFailure(cd), writer::writeLoginChallengeSolvedAnswerFailure);
+        }
+    }
+
+    @Test
+    void testDefaultValuesAndOddContent() {
+        final ServerToClientWriter writer = new ServerToClientWriter();
+        // No server exchange UUID yet, a UUID with a zero half, empty and non-ASCII strings, product 0
+        final CommonData cd = new CommonData(Integer.MAX_VALUE, new UUID(0L, 42L), null, UuidEncoding.SIMPLE_AND_FIXED);
+        final UUID playerUuid = new UUID(-1L, 0L);
+        writer.setCommon(cd);
+        assertSameFrame(buildLoginChallenge(0, cd), buf -> writer.writeLoginChallenge(buf, 0));
+        assertSameFrame(buildLoginChallenge(Long.MIN_VALUE, cd), buf -> writer.writeLoginChallenge(buf, Long.MIN_VALUE));
+        assertSameFrame(buildLoginRequestAnswerFailure("", cd), buf -> writer.writeLoginRequestAnswerFailure(buf, ""));
+        assertSameFrame(buildLoginFollowupAnswerOk(playerUuid, "Jürgen 李", cd),
+                buf -> writer.writeLoginFollowupAnswerOk(buf, playerUuid.getMostSignificantBits(), playerUuid.getLeastSignificantBits(), "Jürgen 李"));
+        assertSameFrame(buildLoginFollowupAnswerOk(playerUuid, "", cd),
+                buf -> writer.writeLoginFollowupAnswerOk(buf, playerUuid.getMostSignificantBits(), playerUuid.getLeastSignificantBits(), ""));
+        final ClientToServer emptyCause = ClientToServer.getDefaultInstance();
+        assertSameFrame(buildGenericFailure("", emptyCause, cd), buf -> writer.writeGenericFailure(buf, "", emptyCause));
+        // A response too large for the write buffer of the NIO server
+        final String longMsg = "x".repeat(100_000);
+        final ServerToClient large = buildLoginRequestAnswerFailure(longMsg, cd);
+        final ByteBuffer buf = ByteBuffer.allocate(UtilsForProtobufFraming.computeFrameSize(large));
+        writer.writeLoginRequestAnswerFailure(buf, longMsg);
+        assertThat(buf.array()).isEqualTo(frameOf(large));
+    }
+
+    @Test
+    void testBufferOverflowLeavesBufferUntouched() {
+        final ServerToClientWriter writer = new ServerToClientWriter();
+        final CommonData cd = CommonData.generateRandomCommonData();
+        writer.setCommon(cd);
+        final int frameSize = UtilsForProtobufFraming.computeFrameSize(buildLoginChallenge(11 * 13, cd));
+        final ByteBuffer buf = ByteBuffer.allocate(frameSize + 5);
+        buf.position(6);
+        assertThrows(BufferOverflowException.class, () -> writer.writeLoginChallenge(buf, 11 * 13));
+        assertThat(buf.position()).isEqualTo(6);
+        buf.position(5);
+        assertThat(writer.writeLoginChallenge(buf, 11 * 13)).isEqualTo(frameSize);
+        assertThat(buf.hasRemaining()).isFalse();
+    }
+
+    @Test
+    void testHandlerResponses() throws IOException {
+        // Run exchanges through the handler with the writer as responder: every frame must be the one
+        // the builders give for the CommonStuff echoed and the values found in the frame
+        final LoginExchangeHandler handler = new LoginExchangeHandler();
+        final ServerToClientWriter writer = new ServerToClientWriter();
+        final ByteBuffer out = ByteBuffer.allocate(4096);
+        writer.setTarget(frameSize -> out);
+        for (UuidEncoding encoding : UuidEncoding.values()) {
+            final CommonData cd = CommonData.generateRandomCommonData().withUuidEncoding(encoding);
+            final ClientToServer request = buildLoginRequest(cd.withSeqNum(1));
+            final ServerToClient challenge = handleAndParse(handler, request, writer, out);
+            final long product = challenge.getLoginChallenge().getProduct();
+            assertThat(challenge.toByteArray()).isEqualTo(buildLoginChallenge(product, echoOf(request)).toByteArray());
+            final ClientToServer again = buildLoginRequest(cd.withSeqNum(2));
+            final ServerToClient failure = handleAndParse(handler, again, writer, out);
+            assertThat(failure.toByteArray()).isEqualTo(buildLoginGenericFailure(failure.getLoginGenericFailure().getMsg(), again, echoOf(again)).toByteArray());
+            final long a = UtilsForLoginChallenge.smallestFactor(product);
+            final ClientToServer solved = buildLoginChallengeSolved(a, product / a, cd.withSeqNum(3));
+            assertThat(handleAndParse(handler, solved, writer, out).toByteArray()).isEqualTo(buildLoginChallengeSolvedAnswerOk(echoOf(solved)).toByteArray());
+            final ClientToServer followup = buildLoginFollowup("Jane Doe", cd.withSeqNum(4));
+            assertThat(handleAndParse(handler, followup, writer, out).toByteArray())
+                    .isEqualTo(buildLoginFollowupAnswerOk(LoginExchangeHandler.playerUuidFor("Jane Doe"), "Jane Doe", echoOf(followup)).toByteArray());
+            out.clear();
+            assertThat(handler.handle(buildLoginFinish(cd.withSeqNum(5)), writer)).isFalse();
+            assertThat(out.position()).isEqualTo(0);
+        }
+    }
+
+    private static @NotNull CommonData echoOf(@NotNull ClientToServer c2s) {
+        return CommonData.fromProtobufCommonStuff(c2s.getCommonStuff());
+    }
+
+    private static @NotNull ServerToClient handleAndParse(@NotNull LoginExchangeHandler handler, @NotNull ClientToServer c2s, @NotNull ServerToClientWriter writer, @NotNull ByteBuffer out) throws IOException {
+        out.clear();
+        assertThat(handler.handle(c2s, writer)).isTrue();
+        out.flip();
+        final ServerToClient s2c = ServerToClient.parseDelimitedFrom(new ByteArrayInputStream(out.array(), 0, out.limit()));
+        // exactly one frame, and the writer's bytes are the ones of the message re-serialized
+        assertThat(Arrays.copyOf(out.array(), out.limit())).isEqualTo(frameOf(s2c));
+        return s2c;
+    }
+}
@@ -0,0 +1,129 @@
+package name.pomelo.protobuf_trial.test.testing;
+
+import name.pomelo.protobuf_trial.test.common.TimingWheel;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import static com.google.common.truth.Truth.assertThat;
+
+// ---
+// The timing wheel is advanced by hand, with ticks of 1 ns starting at 0: a deadline in
+// nanoseconds is a deadline in ticks.
+// ---
+
+class TestTimingWheel {
+
+    // ---
+    // Deadlines on every level, on the edges between levels, and beyond the top level
+    // ---
+
+    @Test
+    void testExpiresAtDeadline() {
+        final long[] deadlines = {1, 2, 63, 64, 65, 127, 128, 4095, 4096, 4097, 262_143, 262_144, 300_000,
+                (1L << 24) - 1, 1L << 24, (1L << 24) + 5, 3L << 24};
+        final Map<Long, Long> expiredAt = new HashMap<>();
+        final long[] now = new long[1];
+        final TimingWheel<Long> wheel = new TimingWheel<>(1, 0, timeout -> expiredAt.put(timeout.getTask(), now[0]));
+        for (long deadline : deadlines) {
+            wheel.scheduleAt(deadline, deadline);
+        }
+        assertThat(wheel.getPendingCount()).isEqualTo(deadlines.length);
+        for (now[0] = 1; now[0] <= (3L << 24); now[0]++) {
+            wheel.advance(now[0]);
+        }
+        for (long deadline : deadlines) {
+            assertThat(expiredAt.get(deadline)).isEqualTo(deadline);
+        }
+        assertThat(wheel.getPendingCount()).isEqualTo(0);
+    }
+
+    // ---
+    // Advancing over many ticks at once expires whatever is due, in the order of the deadlines
+    // ---
+
+    @Test
+    void testAdvanceInOneGo() {
+        final List<Long> expired = new ArrayList<>();
+        final TimingWheel<Long> wheel = new TimingWheel<>(1, 0, timeout -> expired.add(timeout.getTask()));
+        for (long deadline : new long[]{5000, 70, 3, 100_000}) {
+            wheel.scheduleAt(deadline, deadline);
+        }
+        assertThat(wheel.advance(2)).isEqualTo(0);
+        assertThat(wheel.advance(10_000)).isEqualTo(3);
+        assertThat(expired).containsExactly(3L, 70L, 5000L).inOrder();
+        // already due when scheduled: at the next tick
+        wheel.scheduleAt(1L, 1);
+        assertThat(wheel.advance(10_001)).isEqualTo(1);
+        assertThat(expired).contains(1L);
+    }
+
+    // ---
+    // A million timeouts, of which most are cancelled, as exchanges which go on in time
+    // ---
+
+    @Test
+    void testManyTimeoutsMostlyCancelled() {
+        final int count = 1_000_000;
+        final Random random = new Random(42);
+        final long[] now = new long[1];
+        final int[] expired = new int[1];
+        final int[] late = new int[1];
+        final TimingWheel<long[]> wheel = new TimingWheel<>(1, 0, timeout -> {
+            expired[0]++;
+            if (timeout.getTask()[0] != now[0]) {
+                late[0]++;
+            }
+        });
+        final List<TimingWheel.Timeout<long[]>> timeouts = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            final long deadline = 1 + random.nextInt(20_000);
+            timeouts.add(wheel.scheduleAt(new long[]{deadline}, deadline));
+        }
+        int kept = 0;
+        for (int i = 0; i < count; i++) {
+            if (i % 10 == 0) {
+                kept++;
+            } else {
+                assertThat(timeouts.get(i).cancel()).isTrue();
+            }
+        }
+        assertThat(wheel.getPendingCount()).isEqualTo(kept);
+        for (now[0] = 1; now[0] <= 20_000; now[0]++) {
+            wheel.advance(now[0]);
+        }
+        assertThat(expired[0]).isEqualTo(kept);
+        assertThat(late[0]).isEqualTo(0);
+        assertThat(wheel.getPendingCount()).isEqualTo(0);
+        // once expired, too late to cancel
+        assertThat(timeouts.get(0).isExpired()).isTrue();
+        assertThat(timeouts.get(0).cancel()).isFalse();
+        assertThat(timeouts.get(1).isCancelled()).isTrue();
+        assertThat(timeouts.get(1).cancel()).isFalse();
+    }
+
+    @Test
+    void testTicker() throws InterruptedException {
+        final List<String> expired = new ArrayList<>();
+        try (TimingWheel<String> wheel = new TimingWheel<String>(1_000_000, timeout -> {
+            synchronized (expired) {
+                expired.add(timeout.getTask());
+            }
+        }).start()) {
+            wheel.schedule("soon", 20_000_000);
+            wheel.schedule("never", 20_000_000).cancel();
+            wheel.schedule("later", 10_000_000_000L);
+            final long deadline = System.nanoTime() + 10_000_000_000L;
+            while (wheel.getPendingCount() > 1 && System.nanoTime() < deadline) {
+                Thread.sleep(5);
+            }
+            synchronized (expired) {
+                assertThat(expired).containsExactly("soon");
+            }
+        }
+    }
+}
@@ -0,0 +1,157 @@
+package name.pomelo.protobuf_trial.test.testing;
+
+import name.pomelo.protobuf_trial.test.common.TinyLfuCache;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static com.google.common.truth.Truth.assertThat;
+
+class TestTinyLfuCache {
+
+    @Test
+    void testBounded() {
+        final TinyLfuCache<Integer, String> cache = new TinyLfuCache<>(100);
+        for (int i = 0; i < 10_000; i++) {
+            assertThat(cache.put(i, "v" + i)).isEqualTo("v" + i);
+            assertThat(cache.size()).isAtMost(100);
+        }
+        assertThat(cache.size()).isEqualTo(100);
+        assertThat(cache.getEvictionCount()).isEqualTo(10_000 - 100);
+        // the value in the cache is kept
+        final TinyLfuCache<Integer, String> small = new TinyLfuCache<>(10);
+        small.put(1, "first");
+        assertThat(small.put(1, "second")).isEqualTo("first");
+        assertThat(small.get(1)).isEqualTo("first");
+        assertThat(small.get(2)).isNull();
+    }
+
+    // ---
+    // Keys used all the time survive a scan over many keys used once, which LRU would not do
+    // ---
+
+    @Test
+    void testFrequentKeysSurviveScan() {
+        final TinyLfuCache<String, String> cache = new TinyLfuCache<>(200);
+        for (int round = 0; round < 20; round++) {
+            for (int i = 0; i < 100; i++) {
+                final String key = "hot " + i;
+                if (cache.get(key) == null) {
+                    cache.put(key, key);
+                }
+            }
+        }
+        for (int i = 0; i < 20_000; i++) {
+            final String key = "cold " + i;
+            if (cache.get(key) == null) {
+                cache.put(key, key);
+            }
+        }
+        int hot = 0;
+        for (int i = 0; i < 100; i++) {
+            if (cache.peek("hot " + i) != null) {
+                hot++;
+            }
+        }
+        assertThat(hot).isAtLeast(95);
+        assertThat(cache.size()).isEqualTo(200);
+    }
+
+    // ---
+    // The sketch has room enough: after 9 accesses per entry of the cache, spread over twice as many
+    // keys, the keys never seen are estimated near 0, not at the saturation of the counters (15)
+    // ---
+
+    @Test
+    void testSketchDoesNotSaturate() {
+        final int size = 10_000;
+        final TinyLfuCache<String, String> cache = new TinyLfuCache<>(size);
+        final Random random = new Random(4711);
+        for (int i = 0; i < 9 * size; i++) {
+            final String key = "key " + random.nextInt(2 * size);
+            if (cache.get(key) == null) {
+                cache.put(key, key);
+            }
+        }
+        final int[] unseen = new int[1000];
+        int saturated = 0;
+        for (int i = 0; i < unseen.length; i++) {
+            unseen[i] = cache.frequency("other " + i);
+            if (unseen[i] == 15) {
+                saturated++;
+            }
+        }
+        Arrays.sort(unseen);
+        assertThat(unseen[unseen.length / 2]).isAtMost(1);
+        assertThat(saturated).isEqualTo(0);
+    }
+
+    // ---
+    // A key from the window used more often than the LRU entry of probation takes its place, even
+    // after a scan over many more keys than the cache holds
+    // ---
+
+    @Test
+    void testMoreFrequentCandidateIsAdmitted() {
+        final TinyLfuCache<String, String> cache = new TinyLfuCache<>(1000);
+        for (int i = 0; i < 9000; i++) {
+            cache.put("scan " + i, "");
+        }
+        cache.put("popular", "");
+        for (int i = 0; i < 5; i++) {
+            assertThat(cache.get("popular")).isNotNull();
+        }
+        // "popular" leaves the window (of 10 entries) once 10 more keys have come in
+        for (int i = 0; i < 10; i++) {
+            cache.put("late " + i, "");
+        }
+        assertThat(cache.frequency("popular")).isAtLeast(6);
+        assertThat(cache.peek("popular")).isNotNull();
+        assertThat(cache.size()).isEqualTo(1000);
+    }
+
+    // ---
+    // Threads reading and adding skewed keys: the cache stays within bounds, with the right values
+    // ---
+
+    @Test
+    void testConcurrent() throws Exception {
+        final TinyLfuCache<Integer, Integer> cache = new TinyLfuCache<>(500);
+        final int threads = 4;
+        try (ExecutorService executor = Executors.newFixedThreadPool(threads)) {
+            final List<Future<Integer>> hits = new ArrayList<>();
+            for (int t = 0; t < threads; t++) {
+                final long seed = t;
+                hits.add(executor.submit(() -> {
+                    final Random random = new Random(seed);
+                    int res = 0;
+                    for (int i = 0; i < 200_000; i++) {
+                        // about half of the accesses go to 1% of the keys
+                        final int key = (random.nextBoolean()) ? random.nextInt(100) : random.nextInt(10_000);
+                        final Integer value = cache.get(key);
+                        if (value == null) {
+                            assertThat(cache.put(key, key * 2)).isEqualTo(key * 2);
+                        } else {
+                            assertThat(value).isEqualTo(key * 2);
+                            res++;
+                        }
+                    }
+                    return res;
+                }));
+            }
+            long total = 0;
+            for (Future<Integer> f : hits) {
+                total += f.get();
+            }
+            // the popular keys (half of the accesses) mostly hit
+            assertThat(total).isGreaterThan(threads * 200_000L * 4 / 10);
+        }
+        assertThat(cache.size()).isAtMost(500);
+    }
+}